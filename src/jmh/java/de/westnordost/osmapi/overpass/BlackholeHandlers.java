@@ -0,0 +1,68 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+
+/** Handlers that pass everything they get to a blackhole, so that nothing is optimized away */
+final class BlackholeHandlers
+{
+	private BlackholeHandlers() {}
+
+	static class WithGeometry implements MapDataWithGeometryHandler
+	{
+		private final Blackhole blackhole;
+
+		WithGeometry(Blackhole blackhole) { this.blackhole = blackhole; }
+
+		@Override public void handle(@NotNull BoundingBox bounds) { blackhole.consume(bounds); }
+
+		@Override public void handle(@NotNull Node node) { blackhole.consume(node); }
+
+		@Override public void handle(@NotNull Way way, @NotNull BoundingBox bounds, @NotNull List<LatLon> geometry)
+		{
+			blackhole.consume(way);
+			blackhole.consume(geometry);
+		}
+
+		@Override public void handle(
+				@NotNull Relation relation, @NotNull BoundingBox bounds,
+				@NotNull Map<Long, LatLon> nodeGeometries, @NotNull Map<Long, List<LatLon>> wayGeometries)
+		{
+			blackhole.consume(relation);
+			blackhole.consume(nodeGeometries);
+			blackhole.consume(wayGeometries);
+		}
+	}
+
+	static class WithPackedGeometry implements MapDataWithPackedGeometryHandler
+	{
+		private final Blackhole blackhole;
+
+		WithPackedGeometry(Blackhole blackhole) { this.blackhole = blackhole; }
+
+		@Override public void handle(@NotNull BoundingBox bounds) { blackhole.consume(bounds); }
+
+		@Override public void handle(@NotNull Node node) { blackhole.consume(node); }
+
+		@Override public void handle(@NotNull Way way, @NotNull BoundingBox bounds, @NotNull int[] coordinates, int length)
+		{
+			blackhole.consume(way);
+			blackhole.consume(coordinates);
+		}
+
+		@Override public void handle(@NotNull Relation relation, @NotNull BoundingBox bounds, @NotNull PackedRelationGeometry geometry)
+		{
+			blackhole.consume(relation);
+			blackhole.consume(geometry);
+		}
+	}
+}
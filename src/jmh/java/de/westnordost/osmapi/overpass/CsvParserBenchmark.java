@@ -0,0 +1,77 @@
+package de.westnordost.osmapi.overpass;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput and allocations per cell of the parsers for tables, for a wide and for a long table
+ *  with the same number of cells. The columns alternately contain ids, latitudes, longitudes and
+ *  tag values. */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(CsvParserBenchmark.CELLS)
+public class CsvParserBenchmark
+{
+	static final int CELLS = 100000;
+
+	/** "wide": 1000 rows of 100 columns, "long": 25000 rows of 4 columns */
+	@Param({"wide", "long"})
+	public String shape;
+
+	private byte[] csv;
+	private TableSchema schema;
+
+	@Setup public void setup()
+	{
+		int columnCount = shape.equals("wide") ? 100 : 4;
+		csv = SyntheticResponses.createCsv(CELLS / columnCount, columnCount);
+		ColumnType[] types = new ColumnType[columnCount];
+		for (int i = 0; i < columnCount; i++)
+		{
+			types[i] = i % 4 == 0 ? ColumnType.LONG : i % 4 == 3 ? ColumnType.STRING : ColumnType.DOUBLE;
+		}
+		schema = new TableSchema(types);
+	}
+
+	@Benchmark public void stringArrays(Blackhole blackhole) throws Exception
+	{
+		new CsvParser(blackhole::consume).parse(new ByteArrayInputStream(csv));
+	}
+
+	@Benchmark public void rows(Blackhole blackhole) throws Exception
+	{
+		new CsvParser(row -> {
+			for (int i = 0; i < row.getColumnCount(); i++)
+			{
+				switch (i % 4)
+				{
+					case 0: blackhole.consume(row.getLong(i)); break;
+					case 3: blackhole.consume(row.get(i)); break;
+					default: blackhole.consume(row.getDouble(i));
+				}
+			}
+		}, "\t", true).parse(new ByteArrayInputStream(csv));
+	}
+
+	@Benchmark public void columnar(Blackhole blackhole) throws Exception
+	{
+		new ColumnarCsvParser(schema, 10000, blackhole::consume).parse(new ByteArrayInputStream(csv));
+	}
+}
@@ -0,0 +1,85 @@
+package de.westnordost.osmapi.overpass;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+
+/** Throughput and allocations per element of the parsers for map data with geometry, for a
+ *  typical mix of nodes, ways and small relations in each level of detail of the out statement */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(MapDataWithGeometryParserBenchmark.ELEMENTS)
+public class MapDataWithGeometryParserBenchmark
+{
+	private static final int NODES = 6000;
+	private static final int WAYS = 3500;
+	private static final int RELATIONS = 500;
+	static final int ELEMENTS = NODES + WAYS + RELATIONS;
+
+	/** Level of detail, i.e. <code>out skel geom;</code>, <code>out body geom;</code> or
+	 *  <code>out meta geom;</code> */
+	@Param({"SKEL", "BODY", "META"})
+	public String mode;
+
+	private final MapDataFactory factory = new OsmMapDataFactory();
+	private byte[] xml;
+	private byte[] json;
+
+	@Setup public void setup()
+	{
+		SyntheticResponses.Mode m = SyntheticResponses.Mode.valueOf(mode);
+		xml = SyntheticResponses.createMapDataWithGeometryXml(m, NODES, WAYS, 10, RELATIONS, 8);
+		json = SyntheticResponses.createMapDataWithGeometryJson(m, NODES, WAYS, 10, RELATIONS, 8);
+	}
+
+	@Benchmark public void xml(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithGeometryParser(new BlackholeHandlers.WithGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	/** the parser before geometry was parsed into primitive arrays, for comparison */
+	@Benchmark public void xmlBoxed(Blackhole blackhole) throws Exception
+	{
+		new BoxedMapDataWithGeometryParser(new BlackholeHandlers.WithGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark public void xmlWithStringInterner(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithGeometryParser(new BlackholeHandlers.WithGeometry(blackhole), factory, new StringInterner())
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark public void xmlPacked(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithPackedGeometryParser(new BlackholeHandlers.WithPackedGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark public void json(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithGeometryJsonParser(new BlackholeHandlers.WithGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(json));
+	}
+}
@@ -0,0 +1,65 @@
+package de.westnordost.osmapi.overpass;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+
+/** Throughput and allocations per relation member of the parsers for map data with geometry, for
+ *  large relations like boundaries or route relations with thousands of members */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+@OperationsPerInvocation(RelationGeometryBenchmark.MEMBERS)
+public class RelationGeometryBenchmark
+{
+	private static final int RELATIONS = 10;
+	private static final int MEMBERS_PER_RELATION = 3000;
+	static final int MEMBERS = RELATIONS * MEMBERS_PER_RELATION;
+
+	private final MapDataFactory factory = new OsmMapDataFactory();
+	private byte[] xml;
+	private byte[] json;
+
+	@Setup public void setup()
+	{
+		SyntheticResponses.Mode mode = SyntheticResponses.Mode.META;
+		xml = SyntheticResponses.createMapDataWithGeometryXml(mode, 0, 0, 0, RELATIONS, MEMBERS_PER_RELATION);
+		json = SyntheticResponses.createMapDataWithGeometryJson(mode, 0, 0, 0, RELATIONS, MEMBERS_PER_RELATION);
+	}
+
+	@Benchmark public void xml(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithGeometryParser(new BlackholeHandlers.WithGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark public void xmlPacked(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithPackedGeometryParser(new BlackholeHandlers.WithPackedGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark public void json(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithGeometryJsonParser(new BlackholeHandlers.WithGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(json));
+	}
+}
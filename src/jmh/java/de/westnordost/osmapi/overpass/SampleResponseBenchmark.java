@@ -0,0 +1,76 @@
+package de.westnordost.osmapi.overpass;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+
+/** Responses per second of the parsers for map data with geometry for a sample response of
+ *  <code>out meta geom;</code>, which, unlike the synthetic responses, has the irregular shape of
+ *  real data: escaped characters, tags of varying number and length, closed ways and relations
+ *  with both node and way members */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SampleResponseBenchmark
+{
+	private static final String RESPONSE = "sample_out_meta_geom.xml";
+
+	private final MapDataFactory factory = new OsmMapDataFactory();
+	private byte[] xml;
+
+	@Setup public void setup() throws IOException
+	{
+		xml = readResource(RESPONSE);
+	}
+
+	@Benchmark public void xml(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithGeometryParser(new BlackholeHandlers.WithGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark public void xmlWithStringInterner(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithGeometryParser(new BlackholeHandlers.WithGeometry(blackhole), factory, new StringInterner())
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	@Benchmark public void xmlPacked(Blackhole blackhole) throws Exception
+	{
+		new MapDataWithPackedGeometryParser(new BlackholeHandlers.WithPackedGeometry(blackhole), factory)
+				.parse(new ByteArrayInputStream(xml));
+	}
+
+	private static byte[] readResource(String name) throws IOException
+	{
+		try (InputStream in = SampleResponseBenchmark.class.getResourceAsStream(name))
+		{
+			if (in == null) throw new IOException("Resource " + name + " not found");
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = in.read(buffer)) != -1) out.write(buffer, 0, length);
+			return out.toByteArray();
+		}
+	}
+}
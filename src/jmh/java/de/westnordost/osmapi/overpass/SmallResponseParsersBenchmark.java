@@ -0,0 +1,55 @@
+package de.westnordost.osmapi.overpass;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput and allocations per response of the parsers for small responses, which are parsed
+ *  often, e.g. before each query when running queries within the quota */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SmallResponseParsersBenchmark
+{
+	private byte[] count;
+	private byte[] counts;
+	private byte[] status;
+
+	@Setup public void setup()
+	{
+		count = SyntheticResponses.createCountsXml(1);
+		counts = SyntheticResponses.createCountsXml(20);
+		status = SyntheticResponses.createStatus();
+	}
+
+	@Benchmark public ElementCount elementCount() throws Exception
+	{
+		return new ElementCountParser().parse(new ByteArrayInputStream(count));
+	}
+
+	@Benchmark public List<ElementCount> severalElementCounts() throws Exception
+	{
+		ElementCountParser parser = new ElementCountParser();
+		parser.parse(new ByteArrayInputStream(counts));
+		return parser.getElementCounts();
+	}
+
+	@Benchmark public OverpassStatus status() throws Exception
+	{
+		return new OverpassStatusParser().parse(new ByteArrayInputStream(status));
+	}
+}
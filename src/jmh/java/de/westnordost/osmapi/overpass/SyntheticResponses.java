@@ -0,0 +1,279 @@
+package de.westnordost.osmapi.overpass;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+/** Creates responses that look like real responses of the Overpass API, for benchmarking */
+final class SyntheticResponses
+{
+	/** Amount of detail, as set in the out statement */
+	enum Mode { SKEL, BODY, META }
+
+	private static final String[][] TAGS = {
+			{"highway", "residential"}, {"highway", "service"}, {"building", "yes"},
+			{"name", "Hauptstra\u00dfe"}, {"surface", "asphalt"}, {"amenity", "bench"},
+			{"shop", "bakery"}, {"addr:street", "Lindenallee"}, {"addr:housenumber", "12a"},
+			{"source", "survey"}, {"maxspeed", "30"}, {"oneway", "yes"}
+	};
+
+	private SyntheticResponses() {}
+
+	/**
+	 * @return a response in XML of a query with <code>out geom;</code> with the given number of
+	 *         nodes, ways with the given number of nodes each and relations with the given number
+	 *         of members each
+	 */
+	static byte[] createMapDataWithGeometryXml(
+			Mode mode, int nodeCount, int wayCount, int nodesPerWay, int relationCount, int membersPerRelation)
+	{
+		Random random = new Random(1);
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<osm version=\"0.6\" generator=\"Overpass API\">\n");
+		xml.append("<bounds minlat=\"53.5\" minlon=\"9.9\" maxlat=\"53.6\" maxlon=\"10.0\"/>\n");
+		long id = 1;
+		for (int i = 0; i < nodeCount; i++)
+		{
+			xml.append("  <node id=\"").append(id++).append('"');
+			appendMeta(xml, mode);
+			xml.append(" lat=\"").append(lat(random)).append("\" lon=\"").append(lon(random)).append('"');
+			if (mode == Mode.SKEL)
+			{
+				xml.append("/>\n");
+			}
+			else
+			{
+				xml.append(">\n");
+				appendTags(xml, mode, random, 2);
+				xml.append("  </node>\n");
+			}
+		}
+		for (int i = 0; i < wayCount; i++)
+		{
+			xml.append("  <way id=\"").append(id++).append('"');
+			appendMeta(xml, mode);
+			xml.append(">\n");
+			xml.append("    <bounds minlat=\"53.5\" minlon=\"9.9\" maxlat=\"53.6\" maxlon=\"10.0\"/>\n");
+			for (int j = 0; j < nodesPerWay; j++)
+			{
+				xml.append("    <nd ref=\"").append(random.nextInt(1000000000)).append('"');
+				xml.append(" lat=\"").append(lat(random)).append("\" lon=\"").append(lon(random)).append("\"/>\n");
+			}
+			appendTags(xml, mode, random, 4);
+			xml.append("  </way>\n");
+		}
+		for (int i = 0; i < relationCount; i++)
+		{
+			xml.append("  <relation id=\"").append(id++).append('"');
+			appendMeta(xml, mode);
+			xml.append(">\n");
+			xml.append("    <bounds minlat=\"53.5\" minlon=\"9.9\" maxlat=\"53.6\" maxlon=\"10.0\"/>\n");
+			for (int j = 0; j < membersPerRelation; j++)
+			{
+				if (j % 4 == 0)
+				{
+					xml.append("    <member type=\"node\" ref=\"").append(random.nextInt(1000000000));
+					xml.append("\" role=\"stop\" lat=\"").append(lat(random)).append("\" lon=\"").append(lon(random)).append("\"/>\n");
+				}
+				else
+				{
+					xml.append("    <member type=\"way\" ref=\"").append(random.nextInt(1000000000)).append("\" role=\"outer\">\n");
+					for (int k = 0; k < 5; k++)
+					{
+						xml.append("      <nd lat=\"").append(lat(random)).append("\" lon=\"").append(lon(random)).append("\"/>\n");
+					}
+					xml.append("    </member>\n");
+				}
+			}
+			appendTags(xml, mode, random, 3);
+			xml.append("  </relation>\n");
+		}
+		xml.append("</osm>\n");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** @return the same as {@link #createMapDataWithGeometryXml} but in JSON */
+	static byte[] createMapDataWithGeometryJson(
+			Mode mode, int nodeCount, int wayCount, int nodesPerWay, int relationCount, int membersPerRelation)
+	{
+		Random random = new Random(1);
+		StringBuilder json = new StringBuilder();
+		json.append("{\n\"version\": 0.6,\n\"generator\": \"Overpass API\",\n\"elements\": [\n");
+		long id = 1;
+		boolean first = true;
+		for (int i = 0; i < nodeCount; i++)
+		{
+			if (!first) json.append(",\n");
+			first = false;
+			json.append("{\"type\":\"node\",\"id\":").append(id++);
+			appendJsonMeta(json, mode);
+			json.append(",\"lat\":").append(lat(random)).append(",\"lon\":").append(lon(random));
+			appendJsonTags(json, mode, random, 2);
+			json.append('}');
+		}
+		for (int i = 0; i < wayCount; i++)
+		{
+			if (!first) json.append(",\n");
+			first = false;
+			json.append("{\"type\":\"way\",\"id\":").append(id++);
+			appendJsonMeta(json, mode);
+			json.append(",\"bounds\":{\"minlat\":53.5,\"minlon\":9.9,\"maxlat\":53.6,\"maxlon\":10.0}");
+			json.append(",\"nodes\":[");
+			for (int j = 0; j < nodesPerWay; j++)
+			{
+				if (j > 0) json.append(',');
+				json.append(random.nextInt(1000000000));
+			}
+			json.append("],\"geometry\":[");
+			for (int j = 0; j < nodesPerWay; j++)
+			{
+				if (j > 0) json.append(',');
+				json.append("{\"lat\":").append(lat(random)).append(",\"lon\":").append(lon(random)).append('}');
+			}
+			json.append(']');
+			appendJsonTags(json, mode, random, 4);
+			json.append('}');
+		}
+		for (int i = 0; i < relationCount; i++)
+		{
+			if (!first) json.append(",\n");
+			first = false;
+			json.append("{\"type\":\"relation\",\"id\":").append(id++);
+			appendJsonMeta(json, mode);
+			json.append(",\"bounds\":{\"minlat\":53.5,\"minlon\":9.9,\"maxlat\":53.6,\"maxlon\":10.0}");
+			json.append(",\"members\":[");
+			for (int j = 0; j < membersPerRelation; j++)
+			{
+				if (j > 0) json.append(',');
+				if (j % 4 == 0)
+				{
+					json.append("{\"type\":\"node\",\"ref\":").append(random.nextInt(1000000000));
+					json.append(",\"role\":\"stop\",\"lat\":").append(lat(random)).append(",\"lon\":").append(lon(random)).append('}');
+				}
+				else
+				{
+					json.append("{\"type\":\"way\",\"ref\":").append(random.nextInt(1000000000));
+					json.append(",\"role\":\"outer\",\"geometry\":[");
+					for (int k = 0; k < 5; k++)
+					{
+						if (k > 0) json.append(',');
+						json.append("{\"lat\":").append(lat(random)).append(",\"lon\":").append(lon(random)).append('}');
+					}
+					json.append("]}");
+				}
+			}
+			json.append(']');
+			appendJsonTags(json, mode, random, 3);
+			json.append('}');
+		}
+		json.append("\n]\n}\n");
+		return json.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** @return a table in CSV with the given number of rows and columns and a header row */
+	static byte[] createCsv(int rowCount, int columnCount)
+	{
+		Random random = new Random(1);
+		StringBuilder csv = new StringBuilder();
+		for (int column = 0; column < columnCount; column++)
+		{
+			if (column > 0) csv.append('\t');
+			csv.append("column").append(column);
+		}
+		csv.append('\n');
+		for (int row = 0; row < rowCount; row++)
+		{
+			for (int column = 0; column < columnCount; column++)
+			{
+				if (column > 0) csv.append('\t');
+				switch (column % 4)
+				{
+					case 0: csv.append(random.nextInt(1000000000)); break;
+					case 1: csv.append(lat(random)); break;
+					case 2: csv.append(lon(random)); break;
+					// sometimes empty, like missing tags
+					default: if (random.nextBoolean()) csv.append(TAGS[random.nextInt(TAGS.length)][1]);
+				}
+			}
+			csv.append('\n');
+		}
+		return csv.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** @return a response of a query with the given number of <code>out count;</code> */
+	static byte[] createCountsXml(int count)
+	{
+		StringBuilder xml = new StringBuilder();
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<osm version=\"0.6\" generator=\"Overpass API\">\n");
+		for (int i = 0; i < count; i++)
+		{
+			xml.append("  <count id=\"0\">\n");
+			xml.append("    <tag k=\"nodes\" v=\"").append(1234 + i).append("\"/>\n");
+			xml.append("    <tag k=\"ways\" v=\"567\"/>\n");
+			xml.append("    <tag k=\"relations\" v=\"8\"/>\n");
+			xml.append("    <tag k=\"total\" v=\"").append(1809 + i).append("\"/>\n");
+			xml.append("  </count>\n");
+		}
+		xml.append("</osm>\n");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** @return a response of the status endpoint while the user has no slots available */
+	static byte[] createStatus()
+	{
+		return (
+				"Connected as: 1234567890\n" +
+				"Current time: 2019-03-28T21:43:50Z\n" +
+				"Rate limit: 2\n" +
+				"Slot available after: 2019-03-28T21:44:05Z, in 15 seconds.\n" +
+				"Slot available after: 2019-03-28T21:45:12Z, in 82 seconds.\n" +
+				"Currently running queries (pid, space limit, time limit, start time):\n"
+		).getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void appendMeta(StringBuilder xml, Mode mode)
+	{
+		if (mode != Mode.META) return;
+		xml.append(" version=\"3\" timestamp=\"2019-03-28T21:43:50Z\" changeset=\"68426917\" user=\"someone\" uid=\"12345\"");
+	}
+
+	private static void appendJsonMeta(StringBuilder json, Mode mode)
+	{
+		if (mode != Mode.META) return;
+		json.append(",\"timestamp\":\"2019-03-28T21:43:50Z\",\"version\":3,\"changeset\":68426917,\"user\":\"someone\",\"uid\":12345");
+	}
+
+	private static void appendTags(StringBuilder xml, Mode mode, Random random, int count)
+	{
+		if (mode == Mode.SKEL) return;
+		for (int i = 0; i < count; i++)
+		{
+			String[] tag = TAGS[random.nextInt(TAGS.length)];
+			xml.append("    <tag k=\"").append(tag[0]).append(i).append("\" v=\"").append(tag[1]).append("\"/>\n");
+		}
+	}
+
+	private static void appendJsonTags(StringBuilder json, Mode mode, Random random, int count)
+	{
+		if (mode == Mode.SKEL) return;
+		json.append(",\"tags\":{");
+		for (int i = 0; i < count; i++)
+		{
+			if (i > 0) json.append(',');
+			String[] tag = TAGS[random.nextInt(TAGS.length)];
+			json.append('"').append(tag[0]).append(i).append("\":\"").append(tag[1]).append('"');
+		}
+		json.append('}');
+	}
+
+	private static String lat(Random random)
+	{
+		return String.format(Locale.US, "%.7f", 53.5 + random.nextDouble() / 10);
+	}
+
+	private static String lon(Random random)
+	{
+		return String.format(Locale.US, "%.7f", 9.9 + random.nextDouble() / 10);
+	}
+}
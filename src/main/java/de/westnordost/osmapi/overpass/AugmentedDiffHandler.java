@@ -0,0 +1,27 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/** This class is fed the changes of an augmented diff, see
+ *  {@link OverpassMapDataApi#queryAugmentedDiff(String, AugmentedDiffHandler)} */
+public interface AugmentedDiffHandler
+{
+	/** An element has been created or matches the query now but did not before.
+	 *  @param element the element and its geometry
+	 */
+	void onCreate(@NotNull ElementWithGeometry element);
+
+	/** An element that matches the query has been modified, e.g. its tags or its geometry.
+	 *  @param oldElement the element and its geometry before
+	 *  @param newElement the element and its geometry after
+	 */
+	void onModify(@NotNull ElementWithGeometry oldElement, @NotNull ElementWithGeometry newElement);
+
+	/** An element has been deleted or does not match the query anymore.
+	 *  @param oldElement the element and its geometry before
+	 *  @param newElement the element and its geometry after if it still exists but does not match
+	 *                    the query anymore, null if it has been deleted
+	 */
+	void onDelete(@NotNull ElementWithGeometry oldElement, @Nullable ElementWithGeometry newElement);
+}
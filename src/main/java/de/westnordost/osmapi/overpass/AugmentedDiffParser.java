@@ -0,0 +1,185 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+
+/**
+ * Parses the response of a query for an
+ * <a href="https://wiki.openstreetmap.org/wiki/Overpass_API/Augmented_Diffs">augmented diff</a>,
+ * i.e. a query with the <code>[adiff:...]</code> setting and the <code>geom</code> modificator,
+ * for example <code>[adiff:"2020-01-01T00:00:00Z","2020-01-02T00:00:00Z"]; way[highway]; out meta geom;</code>.
+ * <br><br>
+ * The elements and their geometry are parsed exactly like by the
+ * {@link MapDataWithGeometryParser}, but passed to the handler as changes of the elements.
+ */
+public class AugmentedDiffParser extends MapDataWithGeometryParser
+{
+	private static final String
+			ACTION = "action",
+			OLD = "old",
+			NEW = "new",
+			CREATE = "create",
+			MODIFY = "modify",
+			DELETE = "delete";
+
+	private final AugmentedDiffHandler handler;
+	private final ElementCollector collector;
+
+	private String actionType;
+	private boolean inOld;
+	/** the element in &lt;new&gt; of an element that has been deleted, it has no geometry */
+	private String deletedElementName;
+	private ElementWithGeometry oldElement;
+	private ElementWithGeometry newElement;
+
+	/**
+	 * @param handler handler to feed the changes to
+	 * @param factory factory to create the elements with
+	 * @param interner dictionary for the tag keys and values so that equal strings are held in
+	 *                 memory only once, or null to not intern any strings
+	 */
+	public AugmentedDiffParser(
+			@NotNull AugmentedDiffHandler handler,
+			@NotNull MapDataFactory factory,
+			@Nullable StringInterner interner)
+	{
+		this(handler, factory, interner, new ElementCollector());
+	}
+
+	public AugmentedDiffParser(@NotNull AugmentedDiffHandler handler, @NotNull MapDataFactory factory)
+	{
+		this(handler, factory, null);
+	}
+
+	private AugmentedDiffParser(
+			AugmentedDiffHandler handler, MapDataFactory factory, StringInterner interner,
+			ElementCollector collector)
+	{
+		super(collector, factory, interner);
+		this.handler = handler;
+		this.collector = collector;
+	}
+
+	@Override protected void onStartElement() throws ParseException
+	{
+		if (deletedElementName != null) return;
+
+		switch (getName())
+		{
+			case ACTION:
+				actionType = getAttribute("type");
+				inOld = false;
+				oldElement = null;
+				newElement = null;
+				break;
+			case OLD:
+				inOld = true;
+				break;
+			case NEW:
+				inOld = false;
+				break;
+			default:
+				if (NEW.equals(getParentName()) && "false".equals(getAttribute("visible")))
+				{
+					deletedElementName = getName();
+				}
+				else
+				{
+					super.onStartElement();
+				}
+		}
+	}
+
+	@Override protected void onEndElement()
+	{
+		String name = getName();
+		if (deletedElementName != null)
+		{
+			if (deletedElementName.equals(name) && NEW.equals(getParentName())) deletedElementName = null;
+			return;
+		}
+
+		switch (name)
+		{
+			case ACTION:
+				onEndAction();
+				actionType = null;
+				oldElement = null;
+				newElement = null;
+				break;
+			case OLD:
+				inOld = false;
+				break;
+			case NEW:
+				break;
+			default:
+				super.onEndElement();
+				ElementWithGeometry element = collector.take();
+				if (element != null)
+				{
+					if (inOld) oldElement = element;
+					else newElement = element;
+				}
+		}
+	}
+
+	private void onEndAction()
+	{
+		if (actionType == null) return;
+		switch (actionType)
+		{
+			case CREATE:
+				if (newElement != null) handler.onCreate(newElement);
+				break;
+			case MODIFY:
+				if (oldElement != null && newElement != null) handler.onModify(oldElement, newElement);
+				break;
+			case DELETE:
+				if (oldElement != null) handler.onDelete(oldElement, newElement);
+				break;
+		}
+	}
+
+	/** Holds the last element parsed */
+	private static class ElementCollector implements MapDataWithGeometryHandler
+	{
+		private ElementWithGeometry element;
+
+		ElementWithGeometry take()
+		{
+			ElementWithGeometry result = element;
+			element = null;
+			return result;
+		}
+
+		@Override public void handle(@NotNull BoundingBox bounds) {}
+
+		@Override public void handle(@NotNull Node node)
+		{
+			element = new ElementWithGeometry(node);
+		}
+
+		@Override public void handle(@NotNull Way way, @NotNull BoundingBox bounds, @NotNull List<LatLon> geometry)
+		{
+			element = new ElementWithGeometry(way, bounds, geometry);
+		}
+
+		@Override public void handle(
+				@NotNull Relation relation, @NotNull BoundingBox bounds,
+				@NotNull Map<Long, LatLon> nodeGeometries, @NotNull Map<Long, List<LatLon>> wayGeometries)
+		{
+			element = new ElementWithGeometry(relation, bounds, nodeGeometries, wayGeometries);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package de.westnordost.osmapi.overpass;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+/** Stores the response in a cache while it is being read by another reader. The response is
+ *  only cached if it has been read successfully and does not contain a remark of the Overpass
+ *  server, which means that the query failed and the response is incomplete. */
+class CachingResponseReader<T> implements ApiResponseReader<T>
+{
+	private final ApiResponseReader<T> reader;
+	private final DiskResponseCache cache;
+	private final String key;
+	private final long expiresAt;
+
+	/**
+	 * @param reader the reader to pass the response on to
+	 * @param cache the cache to store the response in
+	 * @param key the key of the response in the cache
+	 * @param expiresAt time in milliseconds since epoch when the entry expires or null for the
+	 *                  time to live of the cache
+	 */
+	CachingResponseReader(ApiResponseReader<T> reader, DiskResponseCache cache, String key, Long expiresAt)
+	{
+		this.reader = reader;
+		this.cache = cache;
+		this.key = key;
+		this.expiresAt = expiresAt != null ? expiresAt : -1;
+	}
+
+	@Override public T parse(InputStream in) throws Exception
+	{
+		DiskResponseCache.Edit edit;
+		try
+		{
+			edit = expiresAt >= 0 ? cache.edit(key, expiresAt) : cache.edit(key);
+		}
+		catch (IOException e)
+		{
+			// not being able to cache should not make the query fail
+			return reader.parse(in);
+		}
+
+		boolean success = false;
+		try
+		{
+			RemarkDetectingInputStream remarkDetector = new RemarkDetectingInputStream(in);
+			TeeInputStream tee = new TeeInputStream(remarkDetector, edit.getOutputStream());
+			T result = reader.parse(tee);
+			// the reader might not have read the response to the very end
+			tee.drain();
+			success = tee.isBranchIntact() && !remarkDetector.hasRemark();
+			return result;
+		}
+		finally
+		{
+			if (success)
+			{
+				try
+				{
+					edit.commit();
+				}
+				catch (IOException ignore) { }
+			}
+			else
+			{
+				edit.abort();
+			}
+		}
+	}
+}
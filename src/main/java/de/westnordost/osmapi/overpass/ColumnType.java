@@ -0,0 +1,13 @@
+package de.westnordost.osmapi.overpass;
+
+/** Type of a column of a table. See {@link TableSchema} */
+public enum ColumnType
+{
+	/** An integer, for example the <code>::id</code> */
+	LONG,
+	/** A decimal number, for example <code>::lat</code> and <code>::lon</code> */
+	DOUBLE,
+	/** A string. Each distinct string is stored only once in a dictionary per column and the rows
+	 *  refer to it by its index */
+	STRING
+}
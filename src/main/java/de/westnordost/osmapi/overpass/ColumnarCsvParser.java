@@ -0,0 +1,70 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.InputStream;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+/**
+ * Parses a response in the form of a CSV directly into primitive arrays per column, according to
+ * the given schema, and passes them on in batches of a fixed number of rows. Numeric values are
+ * parsed without ever creating a string and each distinct string value is only created once.
+ * <br><br>
+ * Columns of a row beyond those defined in the schema are ignored, missing columns are treated as
+ * empty values. If a value in a numeric column is not a number, parsing fails with a
+ * {@link NumberFormatException}.
+ */
+public class ColumnarCsvParser implements ApiResponseReader<Void>
+{
+	private static final String DEFAULT_SEPARATOR = "\t";
+
+	private final TableSchema schema;
+	private final int batchSize;
+	private final TableBatchHandler handler;
+	private final String separator;
+	private final boolean hasHeader;
+
+	/**
+	 * @param schema the types of the columns
+	 * @param batchSize the number of rows per batch
+	 * @param handler handler that is called for each batch
+	 * @param separator the separator between the columns
+	 * @param hasHeader whether the first row contains the names of the columns and should thus
+	 *                  be skipped
+	 */
+	public ColumnarCsvParser(
+			@NotNull TableSchema schema, int batchSize, @NotNull TableBatchHandler handler,
+			@NotNull String separator, boolean hasHeader)
+	{
+		if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be positive");
+		this.schema = schema;
+		this.batchSize = batchSize;
+		this.handler = handler;
+		this.separator = separator;
+		this.hasHeader = hasHeader;
+	}
+
+	/** Expects the default format of the CSV output mode of Overpass: separated by tabs and with a
+	 *  header row */
+	public ColumnarCsvParser(@NotNull TableSchema schema, int batchSize, @NotNull TableBatchHandler handler)
+	{
+		this(schema, batchSize, handler, DEFAULT_SEPARATOR, true);
+	}
+
+	@Override public Void parse(InputStream in) throws Exception
+	{
+		TableBatch batch = new TableBatch(schema, batchSize);
+		new CsvParser(row -> {
+			batch.add(row);
+			if (batch.isFull())
+			{
+				handler.handle(batch);
+				batch.clear();
+			}
+		}, separator, hasHeader).parse(in);
+
+		if (batch.size() > 0) handler.handle(batch);
+		return null;
+	}
+}
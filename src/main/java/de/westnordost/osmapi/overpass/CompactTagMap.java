@@ -0,0 +1,171 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** A mutable map of tags that stores few tags in two parallel arrays instead of a hash table, which
+ *  needs only a fraction of the memory of a HashMap. Most elements have only a handful of tags.
+ *  Once it holds more tags than is sensible to look up linearly, it switches to a HashMap. */
+final class CompactTagMap extends AbstractMap<String, String>
+{
+	private static final int MAX_ARRAY_SIZE = 16;
+
+	private String[] keys = new String[4];
+	private String[] values = new String[4];
+	private int size;
+	/** used instead of the arrays once there are too many tags */
+	private HashMap<String, String> map;
+
+	@Override public int size()
+	{
+		return map != null ? map.size() : size;
+	}
+
+	@Override public boolean containsKey(Object key)
+	{
+		if (map != null) return map.containsKey(key);
+		return indexOf(key) >= 0;
+	}
+
+	@Override public String get(Object key)
+	{
+		if (map != null) return map.get(key);
+		int index = indexOf(key);
+		return index >= 0 ? values[index] : null;
+	}
+
+	@Override public String put(String key, String value)
+	{
+		if (map != null) return map.put(key, value);
+		int index = indexOf(key);
+		if (index >= 0)
+		{
+			String previous = values[index];
+			values[index] = value;
+			return previous;
+		}
+		if (size == MAX_ARRAY_SIZE)
+		{
+			map = new HashMap<>(MAX_ARRAY_SIZE * 4);
+			for (int i = 0; i < size; i++) map.put(keys[i], values[i]);
+			keys = null;
+			values = null;
+			size = 0;
+			return map.put(key, value);
+		}
+		if (size == keys.length)
+		{
+			keys = Arrays.copyOf(keys, Math.min(MAX_ARRAY_SIZE, size * 2));
+			values = Arrays.copyOf(values, keys.length);
+		}
+		keys[size] = key;
+		values[size] = value;
+		size++;
+		return null;
+	}
+
+	@Override public String remove(Object key)
+	{
+		if (map != null) return map.remove(key);
+		int index = indexOf(key);
+		if (index < 0) return null;
+		String previous = values[index];
+		removeAt(index);
+		return previous;
+	}
+
+	@Override public void clear()
+	{
+		if (map != null) map.clear();
+		else
+		{
+			Arrays.fill(keys, 0, size, null);
+			Arrays.fill(values, 0, size, null);
+			size = 0;
+		}
+	}
+
+	@Override public Set<Entry<String, String>> entrySet()
+	{
+		return new AbstractSet<Entry<String, String>>()
+		{
+			@Override public Iterator<Entry<String, String>> iterator()
+			{
+				if (map != null) return map.entrySet().iterator();
+				return new EntryIterator();
+			}
+
+			@Override public int size()
+			{
+				return CompactTagMap.this.size();
+			}
+		};
+	}
+
+	private int indexOf(Object key)
+	{
+		if (key == null) return -1;
+		for (int i = 0; i < size; i++)
+		{
+			if (key.equals(keys[i])) return i;
+		}
+		return -1;
+	}
+
+	private void removeAt(int index)
+	{
+		size--;
+		keys[index] = keys[size];
+		values[index] = values[size];
+		keys[size] = null;
+		values[size] = null;
+	}
+
+	private class EntryIterator implements Iterator<Entry<String, String>>
+	{
+		private int index;
+		private boolean canRemove;
+
+		@Override public boolean hasNext()
+		{
+			return index < size;
+		}
+
+		@Override public Entry<String, String> next()
+		{
+			if (index >= size) throw new NoSuchElementException();
+			canRemove = true;
+			return new ArrayEntry(index++);
+		}
+
+		@Override public void remove()
+		{
+			if (!canRemove) throw new IllegalStateException();
+			canRemove = false;
+			// the last entry is moved into the gap, so it is visited next
+			removeAt(--index);
+		}
+	}
+
+	private class ArrayEntry extends SimpleEntry<String, String>
+	{
+		private final int index;
+
+		ArrayEntry(int index)
+		{
+			super(keys[index], values[index]);
+			this.index = index;
+		}
+
+		@Override public String setValue(String value)
+		{
+			values[index] = value;
+			return super.setValue(value);
+		}
+	}
+}
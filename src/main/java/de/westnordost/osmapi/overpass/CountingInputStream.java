@@ -0,0 +1,67 @@
+package de.westnordost.osmapi.overpass;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Counts the bytes read from the input stream and optionally the time spent reading */
+class CountingInputStream extends FilterInputStream
+{
+	private final boolean timed;
+	private volatile long count;
+	private volatile long readNanos;
+
+	CountingInputStream(InputStream in)
+	{
+		this(in, false);
+	}
+
+	/** @param timed whether to measure the time spent reading */
+	CountingInputStream(InputStream in, boolean timed)
+	{
+		super(in);
+		this.timed = timed;
+	}
+
+	/** @return the number of bytes read so far */
+	long getCount()
+	{
+		return count;
+	}
+
+	/** @return the time in nanoseconds spent waiting in read calls so far, 0 if not timed */
+	long getReadNanos()
+	{
+		return readNanos;
+	}
+
+	@Override public int read() throws IOException
+	{
+		long start = timed ? System.nanoTime() : 0;
+		int b = in.read();
+		if (timed) readNanos += System.nanoTime() - start;
+		if (b != -1) count++;
+		return b;
+	}
+
+	@Override public int read(byte[] b, int off, int len) throws IOException
+	{
+		long start = timed ? System.nanoTime() : 0;
+		int read = in.read(b, off, len);
+		if (timed) readNanos += System.nanoTime() - start;
+		if (read > 0) count += read;
+		return read;
+	}
+
+	@Override public long skip(long n) throws IOException
+	{
+		long skipped = in.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	@Override public boolean markSupported()
+	{
+		return false;
+	}
+}
@@ -3,42 +3,301 @@ package de.westnordost.osmapi.overpass;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.regex.Matcher;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.regex.Pattern;
 
 import de.westnordost.osmapi.ApiResponseReader;
 import de.westnordost.osmapi.common.Handler;
 
 /** Parses a response in the form of a CSV, so with the
- *  <a href="https://wiki.openstreetmap.org/wiki/Overpass_API/Overpass_QL#CSV_output_mode">output mode set to CSV</a>. */
+ *  <a href="https://wiki.openstreetmap.org/wiki/Overpass_API/Overpass_QL#CSV_output_mode">output mode set to CSV</a>.
+ *  <br><br>
+ *  The separator is matched literally, except when passing the rows as <code>String[]</code>,
+ *  where it is a regular expression as in earlier versions. Overpass does not quote values, so
+ *  double quotes are taken as they are, unless quoted values are expected explicitly. */
 public class CsvParser implements ApiResponseReader<Void>
 {
 	private static final String DEFAULT_SEPARATOR = "\t";
+	private static final int BUFFER_SIZE = 8192;
+	/** characters that have a special meaning in a regular expression */
+	private static final String REGEX_METACHARACTERS = ".$|()[]{}^?*+\\";
 
-	private final Handler<String[]> handler;
-	private final String separator;
+	/* states of the scanner */
+	private static final int
+			LINE_START = 0,
+			FIELD_START = 1,
+			UNQUOTED = 2,
+			SEPARATOR = 3,
+			QUOTED = 4,
+			QUOTE_IN_QUOTED = 5,
+			AFTER_CR = 6;
 
-	public CsvParser(@NotNull Handler<String[]> handler, String separator)
+	private final CsvRowHandler handler;
+	private final boolean hasHeader;
+	private final boolean quoted;
+	private final char[] separator;
+	/** for each prefix of the separator, the length of its longest proper prefix that is also a
+	 *  suffix, so that a partial match of the separator can continue from there on mismatch */
+	private final int[] separatorFailure;
+	/** if not null, the rows are split by this instead of being scanned for the separator */
+	private final Pattern separatorRegex;
+
+	/**
+	 * @param handler handler that is called for each row
+	 * @param separator the separator between the columns
+	 * @param hasHeader whether the first row contains the names of the columns. If so, it is not
+	 *                  passed to the handler but the names are available in each row via
+	 *                  {@link CsvRow#getHeader()}
+	 * @param quoted whether values may be enclosed in double quotes, in which case they may
+	 *               contain the separator and line breaks, and double quotes are escaped by
+	 *               doubling them. A value that starts with a double quote which is never closed
+	 *               thus extends to the end of the response.
+	 */
+	public CsvParser(
+			@NotNull CsvRowHandler handler, @NotNull String separator, boolean hasHeader,
+			boolean quoted)
 	{
+		this(handler, separator, hasHeader, quoted, null);
+	}
+
+	private CsvParser(
+			CsvRowHandler handler, String separator, boolean hasHeader, boolean quoted,
+			Pattern separatorRegex)
+	{
+		if (separator.isEmpty()) throw new IllegalArgumentException("separator must not be empty");
 		this.handler = handler;
-		this.separator = separator;
+		this.hasHeader = hasHeader;
+		this.quoted = quoted;
+		this.separator = separator.toCharArray();
+		this.separatorFailure = createFailureFunction(this.separator);
+		this.separatorRegex = separatorRegex;
+	}
+
+	/** Values are not expected to be quoted */
+	public CsvParser(@NotNull CsvRowHandler handler, @NotNull String separator, boolean hasHeader)
+	{
+		this(handler, separator, hasHeader, false);
 	}
 
+	/** The separator is a regular expression and empty columns at the end of a row are left out,
+	 *  just like {@link String#split(String)} does. The header row, if any, is passed to the
+	 *  handler as the first row. */
+	public CsvParser(@NotNull Handler<String[]> handler, String separator)
+	{
+		this(row -> handler.handle(withoutTrailingEmptyColumns(row.toArray())), separator, false, false,
+				isLiteral(separator) ? null : Pattern.compile(separator));
+	}
+
+	/** The header row, if any, is passed to the handler as the first row */
 	public CsvParser(@NotNull Handler<String[]> handler) { this(handler, DEFAULT_SEPARATOR); }
 
-	@Override public Void parse(InputStream in) throws Exception
+	@Override public Void parse(InputStream in) throws IOException
 	{
-		try(BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8")))
+		try(Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8))
 		{
-			String line;
-			while ((line = reader.readLine()) != null)
+			if (separatorRegex != null) parseWithRegex(new BufferedReader(reader));
+			else parse(reader);
+		}
+		return null;
+	}
+
+	private void parseWithRegex(BufferedReader reader) throws IOException
+	{
+		CsvRow row = new CsvRow();
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			row.clear();
+			for (String column : separatorRegex.split(line))
 			{
-				String[] csv = line.split(separator);
-				handler.handle(csv);
+				row.startColumn();
+				char[] chars = column.toCharArray();
+				row.append(chars, 0, chars.length);
 			}
+			handler.handle(row);
 		}
-		return null;
+	}
+
+	private void parse(Reader reader) throws IOException
+	{
+		CsvRow row = new CsvRow();
+		boolean headerPending = hasHeader;
+		char[] buffer = new char[BUFFER_SIZE];
+		char separatorStart = separator[0];
+		int state = LINE_START;
+		int matched = 0;
+
+		int read;
+		while ((read = reader.read(buffer)) != -1)
+		{
+			int i = 0;
+			while (i < read)
+			{
+				char c = buffer[i];
+				switch (state)
+				{
+					case LINE_START:
+						row.clear();
+						row.startColumn();
+						state = FIELD_START;
+						break;
+
+					case FIELD_START:
+						if (quoted && c == '"')
+						{
+							state = QUOTED;
+							i++;
+						}
+						else
+						{
+							state = UNQUOTED;
+						}
+						break;
+
+					case UNQUOTED:
+						int start = i;
+						while (i < read)
+						{
+							c = buffer[i];
+							if (c == separatorStart || c == '\n' || c == '\r') break;
+							i++;
+						}
+						row.append(buffer, start, i);
+						if (i == read) break;
+
+						i++;
+						if (c == '\n')
+						{
+							endRow(row, headerPending);
+							headerPending = false;
+							state = LINE_START;
+						}
+						else if (c == '\r')
+						{
+							endRow(row, headerPending);
+							headerPending = false;
+							state = AFTER_CR;
+						}
+						else if (separator.length == 1)
+						{
+							row.startColumn();
+							state = FIELD_START;
+						}
+						else
+						{
+							matched = 1;
+							state = SEPARATOR;
+						}
+						break;
+
+					case SEPARATOR:
+						while (matched > 0 && c != separator[matched])
+						{
+							// what has been matched so far was not (completely) a separator after all
+							int keep = separatorFailure[matched - 1];
+							row.append(separator, 0, matched - keep);
+							matched = keep;
+						}
+						if (c == separator[matched])
+						{
+							i++;
+							matched++;
+							if (matched == separator.length)
+							{
+								matched = 0;
+								row.startColumn();
+								state = FIELD_START;
+							}
+						}
+						else
+						{
+							state = UNQUOTED;
+						}
+						break;
+
+					case QUOTED:
+						int quotedStart = i;
+						while (i < read && buffer[i] != '"') i++;
+						row.append(buffer, quotedStart, i);
+						if (i < read)
+						{
+							i++;
+							state = QUOTE_IN_QUOTED;
+						}
+						break;
+
+					case QUOTE_IN_QUOTED:
+						if (c == '"')
+						{
+							// escaped quote
+							row.append('"');
+							i++;
+							state = QUOTED;
+						}
+						else
+						{
+							// end of the quoted part. Anything that follows up to the next separator
+							// is taken as it is
+							state = UNQUOTED;
+						}
+						break;
+
+					case AFTER_CR:
+						if (c == '\n') i++;
+						state = LINE_START;
+						break;
+				}
+			}
+		}
+
+		// last line not terminated by a line break
+		if (state != LINE_START && state != AFTER_CR)
+		{
+			if (state == SEPARATOR) row.append(separator, 0, matched);
+			endRow(row, headerPending);
+		}
+	}
+
+	private void endRow(CsvRow row, boolean isHeader)
+	{
+		if (isHeader) row.setHeader(Collections.unmodifiableList(Arrays.asList(row.toArray())));
+		else handler.handle(row);
+	}
+
+	private static boolean isLiteral(String separator)
+	{
+		for (int i = 0; i < separator.length(); i++)
+		{
+			if (REGEX_METACHARACTERS.indexOf(separator.charAt(i)) != -1) return false;
+		}
+		return true;
+	}
+
+	/** @return the columns without the empty ones at the end, unless there is only one */
+	private static String[] withoutTrailingEmptyColumns(String[] columns)
+	{
+		if (columns.length <= 1) return columns;
+		int length = columns.length;
+		while (length > 0 && columns[length - 1].isEmpty()) length--;
+		return length == columns.length ? columns : Arrays.copyOf(columns, length);
+	}
+
+	private static int[] createFailureFunction(char[] pattern)
+	{
+		int[] failure = new int[pattern.length];
+		int k = 0;
+		for (int i = 1; i < pattern.length; i++)
+		{
+			while (k > 0 && pattern[i] != pattern[k]) k = failure[k - 1];
+			if (pattern[i] == pattern[k]) k++;
+			failure[i] = k;
+		}
+		return failure;
 	}
 }
@@ -0,0 +1,221 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A row of a CSV response. The row is reused for all rows of the response, so it is only valid
+ * while it is passed to the {@link CsvRowHandler}.
+ * <br><br>
+ * The values of the columns can be accessed as character sequences that point directly into the
+ * row, as strings, which are only created when requested, or parsed as numbers directly from the
+ * characters, without creating a string first.
+ */
+public final class CsvRow
+{
+	private char[] chars = new char[256];
+	private int length;
+
+	private int columnCount;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private String[] strings = new String[16];
+	private Column[] columns = new Column[16];
+
+	private List<String> header = Collections.emptyList();
+	private long rowNumber = -1;
+
+	private final DecimalParser decimalParser = new DecimalParser();
+
+	CsvRow() {}
+
+	/** @return the number of columns in this row */
+	public int getColumnCount()
+	{
+		return columnCount;
+	}
+
+	/** @return the names of the columns as given in the header row or an empty list if the
+	 *          response has no header row */
+	@NotNull public List<String> getHeader()
+	{
+		return header;
+	}
+
+	/** @return the index of the column with the given name in the header row or -1 if there is no
+	 *          such column */
+	public int getColumnIndex(@NotNull String name)
+	{
+		return header.indexOf(name);
+	}
+
+	/** @return the zero-based number of this row, not counting the header row */
+	public long getRowNumber()
+	{
+		return rowNumber;
+	}
+
+	/** @return the value of the given column. It is only valid until the next row is read */
+	@NotNull public CharSequence get(int column)
+	{
+		checkColumn(column);
+		Column c = columns[column];
+		if (c == null)
+		{
+			c = new Column(column);
+			columns[column] = c;
+		}
+		return c;
+	}
+
+	/** @return the value of the given column as a string. */
+	@NotNull public String getString(int column)
+	{
+		checkColumn(column);
+		String string = strings[column];
+		if (string == null)
+		{
+			string = new String(chars, starts[column], ends[column] - starts[column]);
+			strings[column] = string;
+		}
+		return string;
+	}
+
+	/** @return whether the value of the given column is empty */
+	public boolean isEmpty(int column)
+	{
+		checkColumn(column);
+		return starts[column] == ends[column];
+	}
+
+	/**
+	 * @return the value of the given column as a long
+	 * @throws NumberFormatException if the value is not an integer
+	 */
+	public long getLong(int column)
+	{
+		return DecimalParser.parseLong(get(column));
+	}
+
+	/**
+	 * @return the value of the given column as a double
+	 * @throws NumberFormatException if the value is not a number
+	 */
+	public double getDouble(int column)
+	{
+		return decimalParser.parseDouble(get(column));
+	}
+
+	/** @return the values of all columns as strings */
+	@NotNull public String[] toArray()
+	{
+		String[] result = new String[columnCount];
+		for (int i = 0; i < columnCount; i++)
+		{
+			result[i] = getString(i);
+		}
+		return result;
+	}
+
+	@Override public String toString()
+	{
+		return Arrays.toString(toArray());
+	}
+
+	private void checkColumn(int column)
+	{
+		if (column < 0 || column >= columnCount)
+		{
+			throw new IndexOutOfBoundsException("Column: " + column + ", columns: " + columnCount);
+		}
+	}
+
+	/* used by the parser to fill the row */
+
+	void clear()
+	{
+		Arrays.fill(strings, 0, columnCount, null);
+		length = 0;
+		columnCount = 0;
+		rowNumber++;
+	}
+
+	void startColumn()
+	{
+		if (columnCount == starts.length)
+		{
+			int capacity = columnCount * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			strings = Arrays.copyOf(strings, capacity);
+			columns = Arrays.copyOf(columns, capacity);
+		}
+		starts[columnCount] = length;
+		ends[columnCount] = length;
+		columnCount++;
+	}
+
+	void append(char[] buffer, int start, int end)
+	{
+		int count = end - start;
+		if (count == 0) return;
+		ensureCapacity(length + count);
+		System.arraycopy(buffer, start, chars, length, count);
+		length += count;
+		ends[columnCount - 1] = length;
+	}
+
+	void append(char c)
+	{
+		ensureCapacity(length + 1);
+		chars[length++] = c;
+		ends[columnCount - 1] = length;
+	}
+
+	void setHeader(@Nullable List<String> header)
+	{
+		this.header = header != null ? header : Collections.<String>emptyList();
+		rowNumber = -1;
+	}
+
+	private void ensureCapacity(int capacity)
+	{
+		if (capacity > chars.length) chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+	}
+
+	/** A view on the value of a column of the current row */
+	private class Column implements CharSequence
+	{
+		private final int index;
+
+		Column(int index)
+		{
+			this.index = index;
+		}
+
+		@Override public int length()
+		{
+			return ends[index] - starts[index];
+		}
+
+		@Override public char charAt(int i)
+		{
+			if (i < 0 || i >= length()) throw new IndexOutOfBoundsException("Index: " + i);
+			return chars[starts[index] + i];
+		}
+
+		@Override public CharSequence subSequence(int start, int end)
+		{
+			return toString().substring(start, end);
+		}
+
+		@Override @NotNull public String toString()
+		{
+			return getString(index);
+		}
+	}
+}
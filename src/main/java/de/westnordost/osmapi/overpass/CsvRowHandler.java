@@ -0,0 +1,11 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+/** Receives the rows of a CSV response one by one. See {@link CsvParser} */
+public interface CsvRowHandler
+{
+	/** @param row the current row. It is only valid during this call, as it is reused for the next
+	 *             row. */
+	void handle(@NotNull CsvRow row);
+}
@@ -0,0 +1,179 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Parses numbers directly from characters, like the values of a CSV row or of a JSON document,
+ * without creating a string first.
+ * <br><br>
+ * Plain decimal numbers like "-53.5512345" or "1.5e-7" are read into a mantissa and a decimal
+ * exponent, from which a double can be calculated exactly in most cases and a fixed-point number
+ * without any rounding errors. Anything else is left to {@link Double#parseDouble}.
+ * <br><br>
+ * A parser is not thread-safe but can be reused for one number after another.
+ */
+final class DecimalParser
+{
+	/** Largest mantissa and exponent for which a double can be calculated exactly */
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	private static final int MAX_EXACT_EXPONENT = 22;
+	private static final double[] POWERS_OF_TEN = new double[MAX_EXACT_EXPONENT + 1];
+	/** Any more significant digits might not fit into the mantissa */
+	private static final int MAX_MANTISSA_DIGITS = 18;
+	private static final long[] LONG_POWERS_OF_TEN = new long[MAX_MANTISSA_DIGITS + 1];
+	private static final int MAX_EXPONENT = 1000;
+	static
+	{
+		double p = 1;
+		for (int i = 0; i <= MAX_EXACT_EXPONENT; i++)
+		{
+			POWERS_OF_TEN[i] = p;
+			p *= 10;
+		}
+		long l = 1;
+		for (int i = 0; i <= MAX_MANTISSA_DIGITS; i++)
+		{
+			LONG_POWERS_OF_TEN[i] = l;
+			l *= 10;
+		}
+	}
+
+	/* the last number, if it could be read into a mantissa and a decimal exponent */
+	private boolean negative;
+	private long mantissa;
+	private int exponent;
+
+	/**
+	 * @return the given number as a double
+	 * @throws NumberFormatException if the text is not a number
+	 */
+	double parseDouble(@NotNull CharSequence text)
+	{
+		if (read(text) && mantissa <= MAX_EXACT_MANTISSA && Math.abs(exponent) <= MAX_EXACT_EXPONENT)
+		{
+			// both operands are exact, so the result is correctly rounded
+			double value = exponent >= 0
+					? mantissa * POWERS_OF_TEN[exponent]
+					: mantissa / POWERS_OF_TEN[-exponent];
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(text.toString());
+	}
+
+	/**
+	 * @return the given number multiplied by 10^decimals, rounded half away from zero
+	 * @throws NumberFormatException if the text is not a number or the result is out of range
+	 */
+	long parseScaled(@NotNull CharSequence text, int decimals)
+	{
+		if (read(text))
+		{
+			int shift = exponent + decimals;
+			long value = -1;
+			if (shift >= 0 && shift <= MAX_MANTISSA_DIGITS)
+			{
+				long factor = LONG_POWERS_OF_TEN[shift];
+				if (mantissa <= Long.MAX_VALUE / factor) value = mantissa * factor;
+			}
+			else if (shift < 0)
+			{
+				if (shift < -MAX_MANTISSA_DIGITS) value = 0;
+				else
+				{
+					long divisor = LONG_POWERS_OF_TEN[-shift];
+					value = mantissa / divisor;
+					if (mantissa % divisor >= divisor / 2) value++;
+				}
+			}
+			if (value >= 0) return negative ? -value : value;
+		}
+		double value = Double.parseDouble(text.toString()) * Math.pow(10, decimals);
+		if (Double.isNaN(value) || Math.abs(value) >= Long.MAX_VALUE)
+		{
+			throw new NumberFormatException("Out of range: \"" + text + "\"");
+		}
+		return Math.round(value);
+	}
+
+	/**
+	 * @return the given integer like "-1234", without any fraction or exponent, as a long
+	 * @throws NumberFormatException if the text is not an integer or out of range
+	 */
+	static long parseLong(@NotNull CharSequence text)
+	{
+		int length = text.length();
+		int i = 0;
+		boolean negative = length > 0 && text.charAt(0) == '-';
+		if (negative || (length > 0 && text.charAt(0) == '+')) i++;
+		if (i == length) throw numberFormatException(text);
+
+		// accumulated negatively so that Long.MIN_VALUE can be parsed
+		long result = 0;
+		for (; i < length; i++)
+		{
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) throw numberFormatException(text);
+			if (result < (Long.MIN_VALUE + digit) / 10) throw numberFormatException(text);
+			result = result * 10 - digit;
+		}
+		if (negative) return result;
+		if (result == Long.MIN_VALUE) throw numberFormatException(text);
+		return -result;
+	}
+
+	/** Reads the given text into the sign, mantissa and exponent
+	 *  @return false if it is not a plain decimal number or if it has too many significant digits
+	 *          to fit into the mantissa */
+	private boolean read(CharSequence text)
+	{
+		int length = text.length();
+		int i = 0;
+		negative = length > 0 && text.charAt(0) == '-';
+		if (negative || (length > 0 && text.charAt(0) == '+')) i++;
+		mantissa = 0;
+		exponent = 0;
+		int digits = 0;
+		int significantDigits = 0;
+		boolean inFraction = false;
+		for (; i < length; i++)
+		{
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9')
+			{
+				digits++;
+				if (mantissa != 0 || c != '0')
+				{
+					if (++significantDigits > MAX_MANTISSA_DIGITS) return false;
+					mantissa = mantissa * 10 + (c - '0');
+				}
+				if (inFraction) exponent--;
+			}
+			else if (c == '.' && !inFraction) inFraction = true;
+			else break;
+		}
+		// e.g. "." or "-"
+		if (digits == 0) return false;
+		if (i == length) return true;
+
+		char c = text.charAt(i++);
+		if (c != 'e' && c != 'E') return false;
+		boolean negativeExponent = i < length && text.charAt(i) == '-';
+		if (negativeExponent || (i < length && text.charAt(i) == '+')) i++;
+		if (i == length) return false;
+		int explicitExponent = 0;
+		for (; i < length; i++)
+		{
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) return false;
+			explicitExponent = explicitExponent * 10 + digit;
+			if (explicitExponent > MAX_EXPONENT) return false;
+		}
+		exponent += negativeExponent ? -explicitExponent : explicitExponent;
+		return true;
+	}
+
+	private static NumberFormatException numberFormatException(CharSequence text)
+	{
+		return new NumberFormatException("For input string: \"" + text + "\"");
+	}
+}
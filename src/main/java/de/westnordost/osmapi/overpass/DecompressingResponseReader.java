@@ -0,0 +1,123 @@
+package de.westnordost.osmapi.overpass;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+/**
+ * Decompresses the response before passing it on to another reader, if it is compressed with
+ * gzip or deflate (zlib format). Whether it is compressed is detected from the first bytes of the
+ * response, none of the uncompressed formats of Overpass start like that.
+ * <br><br>
+ * The number of bytes received and the number of bytes after decompression are counted, and the
+ * time spent receiving and parsing the response is measured.
+ */
+class DecompressingResponseReader<T> implements ApiResponseReader<T>
+{
+	private static final int BUFFER_SIZE = 8192;
+
+	private final ApiResponseReader<T> reader;
+	private CountingInputStream raw;
+	private CountingInputStream decoded;
+	private volatile long parseStartedAt;
+	private volatile long parseNanos;
+
+	DecompressingResponseReader(ApiResponseReader<T> reader)
+	{
+		this.reader = reader;
+	}
+
+	@Override public T parse(InputStream in) throws Exception
+	{
+		parseStartedAt = System.nanoTime();
+		try
+		{
+			raw = new CountingInputStream(in, true);
+			decoded = new CountingInputStream(decompress(raw));
+			try
+			{
+				return reader.parse(decoded);
+			}
+			finally
+			{
+				decoded.close();
+			}
+		}
+		finally
+		{
+			parseNanos = System.nanoTime() - parseStartedAt;
+		}
+	}
+
+	/** @return the value of {@link System#nanoTime()} when the response started to be read, or 0
+	 *          if it has not been read (yet) */
+	long getParseStartedAt()
+	{
+		return parseStartedAt;
+	}
+
+	/** @return the time in nanoseconds spent waiting for the data of the response */
+	long getTransferNanos()
+	{
+		return raw != null ? raw.getReadNanos() : 0;
+	}
+
+	/** @return the time in nanoseconds spent parsing the response, not including the time spent
+	 *          waiting for its data */
+	long getParseNanos()
+	{
+		return Math.max(0, parseNanos - getTransferNanos());
+	}
+
+	/** @return the number of bytes received, i.e. before decompression */
+	long getRawBytes()
+	{
+		return raw != null ? raw.getCount() : 0;
+	}
+
+	/** @return the number of bytes after decompression */
+	long getDecodedBytes()
+	{
+		return decoded != null ? decoded.getCount() : 0;
+	}
+
+	static InputStream decompress(InputStream in) throws IOException
+	{
+		PushbackInputStream pushback = new PushbackInputStream(in, 2);
+		int b0 = pushback.read();
+		int b1 = b0 != -1 ? pushback.read() : -1;
+		if (b1 != -1) pushback.unread(b1);
+		if (b0 != -1) pushback.unread(b0);
+
+		if (b0 == 0x1f && b1 == 0x8b)
+		{
+			return new GZIPInputStream(pushback, BUFFER_SIZE);
+		}
+		// zlib header with compression method deflate and no preset dictionary, for each compression level
+		if (b0 == 0x78 && (b1 == 0x01 || b1 == 0x9c || b1 == 0xda))
+		{
+			Inflater inflater = new Inflater();
+			return new InflaterInputStream(pushback, inflater, BUFFER_SIZE)
+			{
+				@Override public void close() throws IOException
+				{
+					try
+					{
+						super.close();
+					}
+					finally
+					{
+						// native memory is otherwise only freed on garbage collection
+						inflater.end();
+					}
+				}
+			};
+		}
+		return pushback;
+	}
+}
@@ -0,0 +1,55 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+/** Merges the map data of several queries that may be run in parallel into one handler. Each
+ *  element is only passed on once and the handler is only called by one thread at a time. */
+class DeduplicatingMapDataHandler implements MapDataHandler
+{
+	private final MapDataHandler handler;
+	private final BoundingBox bounds;
+	private boolean boundsHandled;
+
+	private final Set<Long> nodeIds = new HashSet<>();
+	private final Set<Long> wayIds = new HashSet<>();
+	private final Set<Long> relationIds = new HashSet<>();
+
+	/**
+	 * @param handler the handler to pass the merged data on to
+	 * @param bounds the bounds to pass on instead of the bounds of the single queries
+	 */
+	DeduplicatingMapDataHandler(MapDataHandler handler, BoundingBox bounds)
+	{
+		this.handler = handler;
+		this.bounds = bounds;
+	}
+
+	@Override public synchronized void handle(BoundingBox bounds)
+	{
+		if (boundsHandled) return;
+		boundsHandled = true;
+		handler.handle(this.bounds);
+	}
+
+	@Override public synchronized void handle(Node node)
+	{
+		if (nodeIds.add(node.getId())) handler.handle(node);
+	}
+
+	@Override public synchronized void handle(Way way)
+	{
+		if (wayIds.add(way.getId())) handler.handle(way);
+	}
+
+	@Override public synchronized void handle(Relation relation)
+	{
+		if (relationIds.add(relation.getId())) handler.handle(relation);
+	}
+}
@@ -0,0 +1,67 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+
+/** Merges the map data and geometry of several queries that may be run in parallel into one
+ *  handler. Each element is only passed on once and the handler is only called by one thread at a
+ *  time. */
+class DeduplicatingMapDataWithGeometryHandler implements MapDataWithGeometryHandler
+{
+	private final MapDataWithGeometryHandler handler;
+	private final BoundingBox bounds;
+	private boolean boundsHandled;
+
+	private final Set<Long> nodeIds = new HashSet<>();
+	private final Set<Long> wayIds = new HashSet<>();
+	private final Set<Long> relationIds = new HashSet<>();
+
+	/**
+	 * @param handler the handler to pass the merged data on to
+	 * @param bounds the bounds to pass on instead of the bounds of the single queries
+	 */
+	DeduplicatingMapDataWithGeometryHandler(MapDataWithGeometryHandler handler, BoundingBox bounds)
+	{
+		this.handler = handler;
+		this.bounds = bounds;
+	}
+
+	@Override public synchronized void handle(@NotNull BoundingBox bounds)
+	{
+		if (boundsHandled) return;
+		boundsHandled = true;
+		handler.handle(this.bounds);
+	}
+
+	@Override public synchronized void handle(@NotNull Node node)
+	{
+		if (nodeIds.add(node.getId())) handler.handle(node);
+	}
+
+	@Override public synchronized void handle(
+			@NotNull Way way,
+			@NotNull BoundingBox bounds,
+			@NotNull List<LatLon> geometry)
+	{
+		if (wayIds.add(way.getId())) handler.handle(way, bounds, geometry);
+	}
+
+	@Override public synchronized void handle(
+			@NotNull Relation relation,
+			@NotNull BoundingBox bounds,
+			@NotNull Map<Long, LatLon> nodeGeometries,
+			@NotNull Map<Long, List<LatLon>> wayGeometries)
+	{
+		if (relationIds.add(relation.getId())) handler.handle(relation, bounds, nodeGeometries, wayGeometries);
+	}
+}
@@ -0,0 +1,296 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Caches the raw responses of queries on disk. See
+ * {@link OverpassMapDataApi#setCache(DiskResponseCache)}.
+ * <br><br>
+ * Each response is stored in one file, named after a hash of the (normalized) query and the
+ * endpoint. Entries expire after a time to live and when the total size of the cache exceeds the
+ * maximum size, the least recently used entries are removed. Cached responses are streamed from
+ * the file, so they are never loaded onto the heap as a whole.
+ * <br><br>
+ * The cache may be used by several threads and several api instances at once, but not by several
+ * processes at once.
+ */
+public class DiskResponseCache
+{
+	private static final String ENTRY_SUFFIX = ".entry";
+	private static final String TEMP_SUFFIX = ".tmp";
+	/** Time to live and expiry time of entries that never expire */
+	public static final long NEVER = Long.MAX_VALUE;
+	/** Size of the header of each entry file, containing the expiry time */
+	private static final int HEADER_SIZE = 8;
+
+	private final File directory;
+	private final long maxSize;
+	private final long timeToLive;
+
+	/** size of each entry file by key, in order of access */
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+
+	/**
+	 * @param directory directory in which to store the responses. Is created if it doesn't exist.
+	 *                  Entries already in the directory are taken over.
+	 * @param maxSize maximum total size of all responses in bytes
+	 * @param timeToLive time in milliseconds after which a response expires or {@link #NEVER}, e.g.
+	 *                   for a cache set in {@link OverpassMapDataApi#setSnapshotCache(DiskResponseCache)}
+	 *
+	 * @throws IOException if the directory cannot be created or read
+	 */
+	public DiskResponseCache(@NotNull File directory, long maxSize, long timeToLive) throws IOException
+	{
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+		if (timeToLive <= 0) throw new IllegalArgumentException("timeToLive must be positive");
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.timeToLive = timeToLive;
+
+		Files.createDirectories(directory.toPath());
+		readEntries();
+	}
+
+	public long getMaxSize() { return maxSize; }
+
+	public long getTimeToLive() { return timeToLive; }
+
+	/** @return the total size of all responses in the cache in bytes */
+	public synchronized long getSize()
+	{
+		return size;
+	}
+
+	/** Removes all responses from the cache */
+	public synchronized void clear()
+	{
+		for (String key : new ArrayList<>(entries.keySet()))
+		{
+			remove(key);
+		}
+	}
+
+	/**
+	 * @param key the key of the entry
+	 * @return the cached response or null if there is none or it is expired. The caller must
+	 *         close the stream.
+	 */
+	@Nullable InputStream get(@NotNull String key)
+	{
+		synchronized (this)
+		{
+			if (entries.get(key) == null) return null;
+		}
+		File file = getEntryFile(key);
+		FileChannel channel = null;
+		try
+		{
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining())
+			{
+				if (channel.read(header) == -1) throw new IOException("Truncated cache entry");
+			}
+			header.flip();
+			long expiresAt = header.getLong();
+			if (System.currentTimeMillis() >= expiresAt)
+			{
+				channel.close();
+				synchronized (this)
+				{
+					remove(key);
+				}
+				return null;
+			}
+			// so that the entry stays when the cache is reopened after a restart
+			file.setLastModified(System.currentTimeMillis());
+			return new BufferedInputStream(Channels.newInputStream(channel));
+		}
+		catch (IOException e)
+		{
+			closeQuietly(channel);
+			// unreadable entries are treated like missing entries
+			synchronized (this)
+			{
+				remove(key);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Starts writing a new entry that expires after the time to live of this cache. It becomes
+	 * visible only when it is committed.
+	 *
+	 * @param key the key of the entry
+	 */
+	@NotNull Edit edit(@NotNull String key) throws IOException
+	{
+		return edit(key, timeToLive == NEVER ? NEVER : System.currentTimeMillis() + timeToLive);
+	}
+
+	/**
+	 * Starts writing a new entry. It becomes visible only when it is committed.
+	 *
+	 * @param key the key of the entry
+	 * @param expiresAt time in milliseconds since epoch when the entry expires or {@link #NEVER}
+	 */
+	@NotNull Edit edit(@NotNull String key, long expiresAt) throws IOException
+	{
+		File tempFile = new File(directory, key + "." + UUID.randomUUID() + TEMP_SUFFIX);
+		return new Edit(key, tempFile, expiresAt);
+	}
+
+	private synchronized void commit(String key, File tempFile) throws IOException
+	{
+		long fileSize = tempFile.length();
+		if (fileSize > maxSize)
+		{
+			// would evict everything else and still not fit
+			Files.deleteIfExists(tempFile.toPath());
+			return;
+		}
+		remove(key);
+		Files.move(tempFile.toPath(), getEntryFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		entries.put(key, fileSize);
+		size += fileSize;
+		evict();
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (size > maxSize && it.hasNext())
+		{
+			Map.Entry<String, Long> entry = it.next();
+			it.remove();
+			size -= entry.getValue();
+			getEntryFile(entry.getKey()).delete();
+		}
+	}
+
+	private void remove(String key)
+	{
+		Long fileSize = entries.remove(key);
+		if (fileSize != null) size -= fileSize;
+		getEntryFile(key).delete();
+	}
+
+	private void readEntries()
+	{
+		File[] files = directory.listFiles();
+		if (files == null) return;
+
+		List<File> entryFiles = new ArrayList<>();
+		for (File file : files)
+		{
+			String name = file.getName();
+			if (name.endsWith(ENTRY_SUFFIX)) entryFiles.add(file);
+			// left over from a crash while writing
+			else if (name.endsWith(TEMP_SUFFIX)) file.delete();
+		}
+		// least recently used first
+		entryFiles.sort(Comparator.comparingLong(File::lastModified));
+		for (File file : entryFiles)
+		{
+			String name = file.getName();
+			String key = name.substring(0, name.length() - ENTRY_SUFFIX.length());
+			long fileSize = file.length();
+			entries.put(key, fileSize);
+			size += fileSize;
+		}
+		evict();
+	}
+
+	private File getEntryFile(String key)
+	{
+		return new File(directory, key + ENTRY_SUFFIX);
+	}
+
+	private static void closeQuietly(FileChannel channel)
+	{
+		if (channel == null) return;
+		try
+		{
+			channel.close();
+		}
+		catch (IOException ignore) { }
+	}
+
+	/** A cache entry that is being written */
+	class Edit
+	{
+		private final String key;
+		private final File tempFile;
+		private final DataOutputStream out;
+		private boolean done;
+
+		private Edit(String key, File tempFile, long expiresAt) throws IOException
+		{
+			this.key = key;
+			this.tempFile = tempFile;
+			Path path = tempFile.toPath();
+			out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)));
+			out.writeLong(expiresAt);
+		}
+
+		/** @return the stream to write the response to */
+		@NotNull OutputStream getOutputStream()
+		{
+			return out;
+		}
+
+		/** Makes the written entry visible in the cache */
+		void commit() throws IOException
+		{
+			if (done) return;
+			done = true;
+			try
+			{
+				out.close();
+				DiskResponseCache.this.commit(key, tempFile);
+			}
+			finally
+			{
+				Files.deleteIfExists(tempFile.toPath());
+			}
+		}
+
+		/** Discards the written entry */
+		void abort()
+		{
+			if (done) return;
+			done = true;
+			try
+			{
+				out.close();
+			}
+			catch (IOException ignore) { }
+			tempFile.delete();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.overpass.JsonTokenizer.Token;
+
+/** Parses a <code>[out:json]; ... out count;</code> response. If the response contains several
+ *  counts, all of them can be retrieved with {@link #getElementCounts()} after parsing. */
+public class ElementCountJsonParser implements ApiResponseReader<ElementCount>
+{
+	private List<ElementCount> elementCounts = new ArrayList<>();
+
+	/** @return the first count in the response */
+	@NotNull public ElementCount parse(@NotNull InputStream in) throws IOException, ParseException
+	{
+		elementCounts = new ArrayList<>();
+
+		JsonTokenizer json = new JsonTokenizer(new InputStreamReader(in, StandardCharsets.UTF_8));
+		json.expect(Token.BEGIN_OBJECT);
+		while (json.next() == Token.NAME)
+		{
+			if (!"elements".equals(json.getString()))
+			{
+				json.skipValue();
+				continue;
+			}
+			json.expect(Token.BEGIN_ARRAY);
+			while (json.nextInArray(Token.BEGIN_OBJECT))
+			{
+				ElementCount elementCount = new ElementCount();
+				elementCounts.add(elementCount);
+				while (json.next() == Token.NAME)
+				{
+					if ("tags".equals(json.getString())) parseTags(json, elementCount);
+					else json.skipValue();
+				}
+			}
+		}
+		return !elementCounts.isEmpty() ? elementCounts.get(0) : new ElementCount();
+	}
+
+	/** @return all counts of the last parsed response, in the order they appear in the response */
+	@NotNull public List<ElementCount> getElementCounts()
+	{
+		return elementCounts;
+	}
+
+	private static void parseTags(JsonTokenizer json, ElementCount elementCount) throws IOException, ParseException
+	{
+		json.expect(Token.BEGIN_OBJECT);
+		while (json.next() == Token.NAME)
+		{
+			String key = json.getString();
+			Token token = json.next();
+			// the counts are given as strings
+			long value;
+			if (token == Token.NUMBER) value = json.getLong();
+			else if (token == Token.STRING) value = parseLong(json.getString());
+			else throw new ParseException("Expected a count for " + key, 0);
+
+			switch (key)
+			{
+				case "nodes":     elementCount.nodes = value;     break;
+				case "ways":      elementCount.ways = value;      break;
+				case "relations": elementCount.relations = value; break;
+				case "total":     elementCount.total = value;     break;
+			}
+		}
+	}
+
+	private static long parseLong(String value) throws ParseException
+	{
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new ParseException("Invalid count: " + value, 0);
+		}
+	}
+}
@@ -7,23 +7,42 @@ import de.westnordost.osmapi.common.XmlParser;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 
-/** Parses a <code>out count;</code> response. */
+/** Parses a <code>out count;</code> response. If the response contains several counts, because the
+ *  query contained several <code>out count;</code> statements, all of them can be retrieved with
+ *  {@link #getElementCounts()} after parsing. */
 public class ElementCountParser extends XmlParser implements ApiResponseReader<ElementCount>
 {
 	private ElementCount elementCount = null;
+	private List<ElementCount> elementCounts = new ArrayList<>();
 
+	/** @return the first count in the response */
 	@NotNull public ElementCount parse(@NotNull InputStream in) throws IOException
 	{
-		elementCount = new ElementCount();
+		elementCount = null;
+		elementCounts = new ArrayList<>();
 		doParse(in);
 
-		return elementCount;
+		return !elementCounts.isEmpty() ? elementCounts.get(0) : new ElementCount();
+	}
+
+	/** @return all counts of the last parsed response, in the order they appear in the response */
+	@NotNull public List<ElementCount> getElementCounts()
+	{
+		return elementCounts;
 	}
 
 	@Override protected void onStartElement()
 	{
-		if ("tag".equals(getName()))
+		String name = getName();
+		if ("count".equals(name))
+		{
+			elementCount = new ElementCount();
+			elementCounts.add(elementCount);
+		}
+		else if ("tag".equals(name) && elementCount != null)
 		{
 			String key = getAttribute("k");
 			Long value = getLongAttribute("v");
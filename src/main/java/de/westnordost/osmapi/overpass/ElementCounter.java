@@ -0,0 +1,165 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+/** Counts the elements a parser passes to a handler, for the {@link QueryMetrics}. The handler is
+ *  wrapped so that it counts and the parser that is fed by it is wrapped so that the counts can
+ *  be found again when the query has been executed, see {@link #of(ApiResponseReader)}.
+ *  <br><br>
+ *  Not thread-safe, the response of a query is parsed by one thread. */
+final class ElementCounter
+{
+	private long nodes;
+	private long ways;
+	private long relations;
+
+	/** @return the counter that has been attached to the given reader or null if there is none */
+	@Nullable static ElementCounter of(ApiResponseReader<?> reader)
+	{
+		return reader instanceof CountedResponseReader ? ((CountedResponseReader<?>) reader).counter : null;
+	}
+
+	/** Adds the counts to the given metrics */
+	void addTo(QueryMetrics metrics)
+	{
+		metrics.nodes += nodes;
+		metrics.ways += ways;
+		metrics.relations += relations;
+	}
+
+	<T> ApiResponseReader<T> attachTo(ApiResponseReader<T> reader)
+	{
+		return new CountedResponseReader<>(reader, this);
+	}
+
+	private void count(Element.Type type)
+	{
+		switch (type)
+		{
+			case NODE: nodes++; break;
+			case WAY: ways++; break;
+			case RELATION: relations++; break;
+		}
+	}
+
+	MapDataHandler count(MapDataHandler handler)
+	{
+		return new MapDataHandler()
+		{
+			@Override public void handle(BoundingBox bounds) { handler.handle(bounds); }
+			@Override public void handle(Node node) { count(Element.Type.NODE); handler.handle(node); }
+			@Override public void handle(Way way) { count(Element.Type.WAY); handler.handle(way); }
+			@Override public void handle(Relation relation) { count(Element.Type.RELATION); handler.handle(relation); }
+		};
+	}
+
+	MapDataWithGeometryHandler count(MapDataWithGeometryHandler handler)
+	{
+		return new MapDataWithGeometryHandler()
+		{
+			@Override public void handle(@NotNull BoundingBox bounds) { handler.handle(bounds); }
+
+			@Override public void handle(@NotNull Node node)
+			{
+				count(Element.Type.NODE);
+				handler.handle(node);
+			}
+
+			@Override public void handle(@NotNull Way way, @NotNull BoundingBox bounds, @NotNull List<LatLon> geometry)
+			{
+				count(Element.Type.WAY);
+				handler.handle(way, bounds, geometry);
+			}
+
+			@Override public void handle(
+					@NotNull Relation relation, @NotNull BoundingBox bounds,
+					@NotNull Map<Long, LatLon> nodeGeometries, @NotNull Map<Long, List<LatLon>> wayGeometries)
+			{
+				count(Element.Type.RELATION);
+				handler.handle(relation, bounds, nodeGeometries, wayGeometries);
+			}
+		};
+	}
+
+	MapDataWithPackedGeometryHandler count(MapDataWithPackedGeometryHandler handler)
+	{
+		return new MapDataWithPackedGeometryHandler()
+		{
+			@Override public void handle(@NotNull BoundingBox bounds) { handler.handle(bounds); }
+
+			@Override public void handle(@NotNull Node node)
+			{
+				count(Element.Type.NODE);
+				handler.handle(node);
+			}
+
+			@Override public void handle(@NotNull Way way, @NotNull BoundingBox bounds, @NotNull int[] coordinates, int length)
+			{
+				count(Element.Type.WAY);
+				handler.handle(way, bounds, coordinates, length);
+			}
+
+			@Override public void handle(@NotNull Relation relation, @NotNull BoundingBox bounds, @NotNull PackedRelationGeometry geometry)
+			{
+				count(Element.Type.RELATION);
+				handler.handle(relation, bounds, geometry);
+			}
+		};
+	}
+
+	/** Each change is counted once, by the type of the element */
+	AugmentedDiffHandler count(AugmentedDiffHandler handler)
+	{
+		return new AugmentedDiffHandler()
+		{
+			@Override public void onCreate(@NotNull ElementWithGeometry element)
+			{
+				count(element.element.getType());
+				handler.onCreate(element);
+			}
+
+			@Override public void onModify(@NotNull ElementWithGeometry oldElement, @NotNull ElementWithGeometry newElement)
+			{
+				count(newElement.element.getType());
+				handler.onModify(oldElement, newElement);
+			}
+
+			@Override public void onDelete(@NotNull ElementWithGeometry oldElement, @Nullable ElementWithGeometry newElement)
+			{
+				count(oldElement.element.getType());
+				handler.onDelete(oldElement, newElement);
+			}
+		};
+	}
+
+	private static class CountedResponseReader<T> implements ApiResponseReader<T>
+	{
+		private final ApiResponseReader<T> reader;
+		private final ElementCounter counter;
+
+		CountedResponseReader(ApiResponseReader<T> reader, ElementCounter counter)
+		{
+			this.reader = reader;
+			this.counter = counter;
+		}
+
+		@Override public T parse(InputStream in) throws Exception
+		{
+			return reader.parse(in);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import de.westnordost.osmapi.map.data.Element;
+
+/** Creates queries that fetch elements by their ids */
+final class ElementIdQueries
+{
+	/** Runs of at least this many consecutive ids are queried as a range instead of one by one */
+	static final int MIN_RANGE_LENGTH = 8;
+
+	private ElementIdQueries() {}
+
+	/** @return a sorted copy of the given ids without duplicates */
+	static long[] sortedDistinct(long[] ids)
+	{
+		long[] result = Arrays.copyOf(ids, ids.length);
+		Arrays.sort(result);
+		int size = 0;
+		for (int i = 0; i < result.length; i++)
+		{
+			if (size == 0 || result[size - 1] != result[i]) result[size++] = result[i];
+		}
+		return size == result.length ? result : Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * @return a query that fetches the elements of the given type with the ids from the given
+	 *         range of the sorted array, e.g. <code>node(id:1,2,3); out meta;</code>. The
+	 *         <code>id:</code> filter takes only a list of ids, so runs of consecutive ids are
+	 *         filtered by an <code>if:</code> condition instead, e.g.
+	 *         <code>(node(id:1,5); node(if: id() &gt;= 10 &amp;&amp; id() &lt;= 99);); out meta;</code>
+	 */
+	static StringBuilder create(Element.Type type, long[] ids, int from, int to)
+	{
+		String typeName = typeName(type);
+		StringBuilder idList = new StringBuilder();
+		StringBuilder ranges = new StringBuilder();
+		int rangeCount = 0;
+		for (int i = from; i < to; )
+		{
+			int end = rangeEnd(ids, i, to);
+			if (end > i)
+			{
+				if (ranges.length() > 0) ranges.append(' ');
+				appendRange(ranges, typeName, ids[i], ids[end - 1]);
+				rangeCount++;
+				i = end;
+			}
+			else
+			{
+				if (idList.length() > 0) idList.append(',');
+				idList.append(ids[i]);
+				i++;
+			}
+		}
+
+		StringBuilder query = new StringBuilder(32 + idList.length() + ranges.length());
+		int statementCount = rangeCount + (idList.length() > 0 ? 1 : 0);
+		if (statementCount > 1) query.append('(');
+		if (idList.length() > 0) query.append(typeName).append("(id:").append(idList).append(");");
+		if (idList.length() > 0 && rangeCount > 0) query.append(' ');
+		query.append(ranges);
+		if (statementCount > 1) query.append(");");
+		query.append(" out meta;");
+		return query;
+	}
+
+	/**
+	 * @return the end of the range of the given sorted ids starting at the given index for which
+	 *         the query created with {@link #create} is at most the given length when URL-encoded.
+	 *         At least one id is always included.
+	 */
+	static int chunkEnd(Element.Type type, long[] ids, int from, int maxEncodedLength)
+	{
+		String typeName = typeName(type);
+		// the overhead of a union of both an id list and ranges, so the length is never underestimated
+		int length = UrlEncodingRequestWriter.encodedLength("(" + typeName + "(id:);); out meta;");
+		StringBuilder range = new StringBuilder();
+		int i = from;
+		while (i < ids.length)
+		{
+			int end = rangeEnd(ids, i, ids.length);
+			int itemLength;
+			if (end > i)
+			{
+				range.setLength(0);
+				appendRange(range, typeName, ids[i], ids[end - 1]);
+				// and the space before it
+				itemLength = UrlEncodingRequestWriter.encodedLength(range) + 1;
+			}
+			else
+			{
+				end = i + 1;
+				// the id and an encoded comma
+				itemLength = Long.toString(ids[i]).length() + 3;
+			}
+			length += itemLength;
+			if (length > maxEncodedLength && i > from) break;
+			i = end;
+		}
+		return i;
+	}
+
+	private static String typeName(Element.Type type)
+	{
+		return type.name().toLowerCase(Locale.UK);
+	}
+
+	/** @return the end of the run of consecutive ids starting at the given index if it is long
+	 *          enough to be queried as a range, otherwise the given index */
+	private static int rangeEnd(long[] ids, int from, int to)
+	{
+		int end = from + 1;
+		while (end < to && ids[end] == ids[end - 1] + 1) end++;
+		return end - from >= MIN_RANGE_LENGTH ? end : from;
+	}
+
+	private static void appendRange(StringBuilder query, String typeName, long first, long last)
+	{
+		query.append(typeName)
+				.append("(if: id() >= ").append(first).append(" && id() <= ").append(last).append(");");
+	}
+}
@@ -0,0 +1,66 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+
+/** An element together with its geometry, as passed to the
+ *  {@link MapDataWithGeometryHandler}. Which of the geometry fields are set depends on the type of
+ *  the element. */
+public class ElementWithGeometry
+{
+	/** The element. A {@link Node}, {@link Way} or {@link Relation} */
+	@NotNull public final Element element;
+	/** Bounding box of a way or relation. Null for nodes */
+	@Nullable public final BoundingBox bounds;
+	/** List of positions a way consists of. Null for nodes and relations */
+	@Nullable public final List<LatLon> wayGeometry;
+	/** Map of node id to position for all nodes that are member of a relation. Null for nodes and
+	 *  ways */
+	@Nullable public final Map<Long, LatLon> memberNodeGeometries;
+	/** Map of way id to a list of positions the way consists of for all ways that are member of a
+	 *  relation. Null for nodes and ways */
+	@Nullable public final Map<Long, List<LatLon>> memberWayGeometries;
+
+	public ElementWithGeometry(@NotNull Node node)
+	{
+		this(node, null, null, null, null);
+	}
+
+	public ElementWithGeometry(@NotNull Way way, @NotNull BoundingBox bounds, @NotNull List<LatLon> geometry)
+	{
+		this(way, bounds, geometry, null, null);
+	}
+
+	public ElementWithGeometry(
+			@NotNull Relation relation,
+			@NotNull BoundingBox bounds,
+			@NotNull Map<Long, LatLon> nodeGeometries,
+			@NotNull Map<Long, List<LatLon>> wayGeometries)
+	{
+		this(relation, bounds, null, nodeGeometries, wayGeometries);
+	}
+
+	private ElementWithGeometry(
+			Element element,
+			BoundingBox bounds,
+			List<LatLon> wayGeometry,
+			Map<Long, LatLon> memberNodeGeometries,
+			Map<Long, List<LatLon>> memberWayGeometries)
+	{
+		this.element = element;
+		this.bounds = bounds;
+		this.wayGeometry = wayGeometry;
+		this.memberNodeGeometries = memberNodeGeometries;
+		this.memberWayGeometries = memberWayGeometries;
+	}
+}
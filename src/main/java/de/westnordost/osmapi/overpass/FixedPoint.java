@@ -0,0 +1,30 @@
+package de.westnordost.osmapi.overpass;
+
+/** Conversion of coordinates to fixed-point numbers in 1e-7 degrees, the precision of OSM data */
+final class FixedPoint
+{
+	private static final int DECIMALS = 7;
+	private static final double FACTOR = 1e7;
+
+	private FixedPoint() {}
+
+	/** @return the given decimal number as text, e.g. "53.5512345", in 1e-7 units. Parsed directly
+	 *          from the text, so that no rounding errors are introduced.
+	 *  @throws NumberFormatException if the text is not a number */
+	static int parse(DecimalParser parser, String value)
+	{
+		return (int) parser.parseScaled(value, DECIMALS);
+	}
+
+	/** @return the given value in degrees as fixed-point number in 1e-7 degrees */
+	static int fromDegrees(double degrees)
+	{
+		return (int) Math.round(degrees * FACTOR);
+	}
+
+	/** @return the given fixed-point number in 1e-7 degrees in degrees */
+	static double toDegrees(int value)
+	{
+		return value / FACTOR;
+	}
+}
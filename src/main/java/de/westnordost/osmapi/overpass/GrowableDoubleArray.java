@@ -0,0 +1,60 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.Arrays;
+
+/** A list of primitive doubles that grows as needed and is meant to be reused */
+final class GrowableDoubleArray
+{
+	private double[] array;
+	private int size;
+
+	GrowableDoubleArray()
+	{
+		this(16);
+	}
+
+	GrowableDoubleArray(int initialCapacity)
+	{
+		array = new double[initialCapacity];
+	}
+
+	void add(double value)
+	{
+		if (size == array.length) array = Arrays.copyOf(array, Math.max(16, size * 2));
+		array[size++] = value;
+	}
+
+	double get(int index)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		return array[index];
+	}
+
+	void set(int index, double value)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		array[index] = value;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+
+	/** @return a copy of the valid values */
+	double[] toArray()
+	{
+		return Arrays.copyOf(array, size);
+	}
+
+	/** @return the backing array. Only the first size() values are valid */
+	double[] array()
+	{
+		return array;
+	}
+}
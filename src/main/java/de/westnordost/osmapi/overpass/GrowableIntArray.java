@@ -0,0 +1,60 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.Arrays;
+
+/** A list of primitive ints that grows as needed and is meant to be reused */
+final class GrowableIntArray
+{
+	private int[] array;
+	private int size;
+
+	GrowableIntArray()
+	{
+		this(16);
+	}
+
+	GrowableIntArray(int initialCapacity)
+	{
+		array = new int[initialCapacity];
+	}
+
+	void add(int value)
+	{
+		if (size == array.length) array = Arrays.copyOf(array, Math.max(16, size * 2));
+		array[size++] = value;
+	}
+
+	int get(int index)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		return array[index];
+	}
+
+	void set(int index, int value)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		array[index] = value;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+
+	/** @return a copy of the valid values */
+	int[] toArray()
+	{
+		return Arrays.copyOf(array, size);
+	}
+
+	/** @return the backing array. Only the first size() values are valid */
+	int[] array()
+	{
+		return array;
+	}
+}
@@ -0,0 +1,60 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.Arrays;
+
+/** A list of primitive longs that grows as needed and is meant to be reused */
+final class GrowableLongArray
+{
+	private long[] array;
+	private int size;
+
+	GrowableLongArray()
+	{
+		this(16);
+	}
+
+	GrowableLongArray(int initialCapacity)
+	{
+		array = new long[initialCapacity];
+	}
+
+	void add(long value)
+	{
+		if (size == array.length) array = Arrays.copyOf(array, Math.max(16, size * 2));
+		array[size++] = value;
+	}
+
+	long get(int index)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		return array[index];
+	}
+
+	void set(int index, long value)
+	{
+		if (index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		array[index] = value;
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+
+	/** @return a copy of the valid values */
+	long[] toArray()
+	{
+		return Arrays.copyOf(array, size);
+	}
+
+	/** @return the backing array. Only the first size() values are valid */
+	long[] array()
+	{
+		return array;
+	}
+}
@@ -0,0 +1,118 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import de.westnordost.osmapi.common.errors.OsmApiException;
+
+/** An iterator that is fed by a producer thread through a buffer of limited size. When the
+ *  buffer is full, the producer blocks until the consumer caught up. When the consumer closes the
+ *  iterator, the producer fails with a {@link ClosedException} the next time it tries to hand
+ *  off an item, so that it can stop producing. */
+class HandoffIterator<T> implements Iterator<T>, AutoCloseable
+{
+	private final int capacity;
+	private final ArrayDeque<T> buffer;
+	private boolean finished;
+	private boolean closed;
+	private Throwable failure;
+
+	HandoffIterator(int capacity)
+	{
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+		this.capacity = capacity;
+		this.buffer = new ArrayDeque<>(capacity);
+	}
+
+	/** Hands off the next item. Blocks while the buffer is full.
+	 *  @throws ClosedException if the iterator has been closed by the consumer */
+	synchronized void put(T item)
+	{
+		while (buffer.size() >= capacity && !closed)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new OsmApiException(e);
+			}
+		}
+		if (closed) throw new ClosedException();
+		buffer.add(item);
+		notifyAll();
+	}
+
+	/** Signals that there are no more items */
+	synchronized void finish()
+	{
+		finished = true;
+		notifyAll();
+	}
+
+	/** Signals that producing items failed. The consumer receives the exception after it took
+	 *  all the items handed off before. */
+	synchronized void fail(Throwable e)
+	{
+		failure = e;
+		finished = true;
+		notifyAll();
+	}
+
+	@Override public synchronized boolean hasNext()
+	{
+		if (closed) return false;
+		while (buffer.isEmpty() && !finished)
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new OsmApiException(e);
+			}
+		}
+		if (!buffer.isEmpty()) return true;
+		if (failure != null)
+		{
+			Throwable e = failure;
+			failure = null;
+			if (e instanceof RuntimeException) throw (RuntimeException) e;
+			if (e instanceof Error) throw (Error) e;
+			throw new OsmApiException(e);
+		}
+		return false;
+	}
+
+	@Override public synchronized T next()
+	{
+		if (!hasNext()) throw new NoSuchElementException();
+		T item = buffer.poll();
+		notifyAll();
+		return item;
+	}
+
+	/** Stops consuming. Items not yet taken are discarded and the producer is stopped. */
+	@Override public synchronized void close()
+	{
+		closed = true;
+		buffer.clear();
+		notifyAll();
+	}
+
+	/** Thrown to the producer when the consumer closed the iterator */
+	static class ClosedException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		ClosedException()
+		{
+			super("The consumer closed the iterator");
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package de.westnordost.osmapi.overpass;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import de.westnordost.osmapi.ApiRequestWriter;
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.OsmConnection;
+import de.westnordost.osmapi.common.errors.OsmApiException;
+import de.westnordost.osmapi.common.errors.OsmApiReadResponseException;
+import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
+import de.westnordost.osmapi.common.errors.OsmConnectionException;
+
+/** Posts a query to the interpreter of an Overpass server like {@link OsmConnection#makeRequest}
+ *  does, with the same user agent and timeout, but asks for the response to be compressed.
+ *  OsmConnection offers no way to add a header to the request.
+ *  <br><br>
+ *  The response is passed on as received, so the reader needs to decompress it, see
+ *  {@link DecompressingResponseReader}. */
+final class InterpreterRequest
+{
+	private static final String CALL = "interpreter";
+	private static final String ACCEPT_ENCODING = "gzip, deflate";
+	/** Error descriptions are plain text or a small HTML page, anything beyond is cut off */
+	private static final int MAX_ERROR_DESCRIPTION_LENGTH = 64 * 1024;
+
+	private InterpreterRequest() {}
+
+	/**
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 * @throws OsmApiException if the server answers with any other error
+	 * @throws OsmConnectionException if the connection to the server fails
+	 * @throws OsmApiReadResponseException if the reader fails
+	 */
+	static <T> T post(OsmConnection osm, ApiRequestWriter writer, ApiResponseReader<T> reader)
+	{
+		HttpURLConnection connection = null;
+		try
+		{
+			connection = (HttpURLConnection) new URL(osm.getApiUrl() + CALL).openConnection();
+			connection.setRequestMethod("POST");
+			if (osm.getUserAgent() != null) connection.setRequestProperty("User-Agent", osm.getUserAgent());
+			connection.setRequestProperty("Accept-Encoding", ACCEPT_ENCODING);
+			connection.setRequestProperty("Content-Type", writer.getContentType());
+			connection.setConnectTimeout(osm.getTimeout());
+			connection.setReadTimeout(osm.getTimeout());
+			connection.setDoOutput(true);
+			try (OutputStream out = connection.getOutputStream())
+			{
+				writer.write(out);
+			}
+
+			int code = connection.getResponseCode();
+			if (code != HttpURLConnection.HTTP_OK)
+			{
+				String message = connection.getResponseMessage();
+				String description = readErrorDescription(connection);
+				if (code == HttpURLConnection.HTTP_BAD_REQUEST) throw new OsmBadUserInputException(code, message, description);
+				throw new OsmApiException(code, message, description);
+			}
+
+			try (InputStream in = new BufferedInputStream(connection.getInputStream()))
+			{
+				return reader.parse(in);
+			}
+			catch (Exception e)
+			{
+				throw new OsmApiReadResponseException(e);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new OsmConnectionException(e);
+		}
+		finally
+		{
+			if (connection != null) connection.disconnect();
+		}
+	}
+
+	private static String readErrorDescription(HttpURLConnection connection)
+	{
+		InputStream errorStream = connection.getErrorStream();
+		if (errorStream == null) return "";
+		// the error may be compressed just like any other response
+		try (InputStream in = DecompressingResponseReader.decompress(errorStream))
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while (out.size() < MAX_ERROR_DESCRIPTION_LENGTH && (read = in.read(buffer)) != -1)
+			{
+				out.write(buffer, 0, read);
+			}
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+		catch (IOException e)
+		{
+			// the error code is what matters
+			return "";
+		}
+	}
+}
@@ -0,0 +1,413 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Reads a JSON document token by token from a stream, without ever holding more than the current
+ * token in memory.
+ * <br><br>
+ * Numbers are parsed directly from the characters read, without creating a string first. Short
+ * strings like the names of properties or common tag keys are looked up in a dictionary so that
+ * each occurrence does not create a new string.
+ */
+final class JsonTokenizer
+{
+	enum Token
+	{
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, TRUE, FALSE, NULL,
+		END_DOCUMENT
+	}
+
+	/* state of each nesting level */
+	private static final byte
+			EMPTY_DOCUMENT = 0,
+			NONEMPTY_DOCUMENT = 1,
+			EMPTY_OBJECT = 2,
+			NONEMPTY_OBJECT = 3,
+			DANGLING_NAME = 4,
+			EMPTY_ARRAY = 5,
+			NONEMPTY_ARRAY = 6;
+
+	private static final int MAX_CACHED_LENGTH = 32;
+	private static final int MAX_CACHED_STRINGS = 4096;
+
+	private final Reader reader;
+	private final char[] buffer = new char[8192];
+	private int pos;
+	private int limit;
+	/** number of characters read before the current buffer */
+	private long offset;
+
+	private byte[] stack = new byte[32];
+	private int depth;
+
+	/** text of the current name, string or number */
+	private char[] text = new char[64];
+	private int textLength;
+	private final CharSequence textView = new Text();
+	private final StringDictionary strings = new StringDictionary(MAX_CACHED_STRINGS, MAX_CACHED_LENGTH);
+
+	private final DecimalParser decimalParser = new DecimalParser();
+	/** whether the current number has neither a fraction nor an exponent */
+	private boolean numberIsInteger;
+
+	JsonTokenizer(@NotNull Reader reader)
+	{
+		this.reader = reader;
+		stack[depth++] = EMPTY_DOCUMENT;
+	}
+
+	/** @return the next token */
+	@NotNull Token next() throws IOException, ParseException
+	{
+		int c;
+		switch (stack[depth - 1])
+		{
+			case EMPTY_DOCUMENT:
+				stack[depth - 1] = NONEMPTY_DOCUMENT;
+				return readValue(nextNonWhitespace());
+
+			case NONEMPTY_DOCUMENT:
+				c = nextNonWhitespace();
+				if (c == -1) return Token.END_DOCUMENT;
+				throw error("Expected end of document");
+
+			case EMPTY_ARRAY:
+				c = nextNonWhitespace();
+				if (c == ']')
+				{
+					depth--;
+					return Token.END_ARRAY;
+				}
+				stack[depth - 1] = NONEMPTY_ARRAY;
+				return readValue(c);
+
+			case NONEMPTY_ARRAY:
+				c = nextNonWhitespace();
+				if (c == ']')
+				{
+					depth--;
+					return Token.END_ARRAY;
+				}
+				if (c != ',') throw error("Expected ',' or ']'");
+				return readValue(nextNonWhitespace());
+
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+				c = nextNonWhitespace();
+				if (c == '}')
+				{
+					depth--;
+					return Token.END_OBJECT;
+				}
+				if (stack[depth - 1] == NONEMPTY_OBJECT)
+				{
+					if (c != ',') throw error("Expected ',' or '}'");
+					c = nextNonWhitespace();
+				}
+				if (c != '"') throw error("Expected name");
+				readString();
+				stack[depth - 1] = DANGLING_NAME;
+				return Token.NAME;
+
+			case DANGLING_NAME:
+				if (nextNonWhitespace() != ':') throw error("Expected ':'");
+				stack[depth - 1] = NONEMPTY_OBJECT;
+				return readValue(nextNonWhitespace());
+
+			default:
+				throw new IllegalStateException();
+		}
+	}
+
+	/** Skips the next value, including everything nested in it */
+	void skipValue() throws IOException, ParseException
+	{
+		int level = 0;
+		do
+		{
+			switch (next())
+			{
+				case BEGIN_OBJECT:
+				case BEGIN_ARRAY:
+					level++;
+					break;
+				case END_OBJECT:
+				case END_ARRAY:
+					level--;
+					break;
+				case END_DOCUMENT:
+					throw error("Unexpected end of document");
+				default:
+					break;
+			}
+		}
+		while (level > 0);
+	}
+
+	/** Reads the next token and fails if it is not the expected one */
+	void expect(@NotNull Token expected) throws IOException, ParseException
+	{
+		Token token = next();
+		if (token != expected) throw error("Expected " + expected + " but was " + token);
+	}
+
+	/** Reads the next token of an array, which must be the given one
+	 *  @return false if the end of the array has been reached instead */
+	boolean nextInArray(@NotNull Token expected) throws IOException, ParseException
+	{
+		Token token = next();
+		if (token == Token.END_ARRAY) return false;
+		if (token != expected) throw error("Expected " + expected + " but was " + token);
+		return true;
+	}
+
+	/** @return the text of the current name or string. Short strings are returned from a
+	 *          dictionary */
+	@NotNull String getString()
+	{
+		return strings.intern(textView);
+	}
+
+	/** @return the current number as a long */
+	long getLong() throws ParseException
+	{
+		if (numberIsInteger)
+		{
+			try
+			{
+				return DecimalParser.parseLong(textView);
+			}
+			catch (NumberFormatException e)
+			{
+				throw error("Integer out of range");
+			}
+		}
+		double value = getDouble();
+		if (value != Math.rint(value)) throw error("Expected an integer");
+		// above, not every integer can be represented as a double
+		if (Math.abs(value) > (1L << 53)) throw error("Integer out of range");
+		return (long) value;
+	}
+
+	/** @return the current number as a double */
+	double getDouble() throws ParseException
+	{
+		try
+		{
+			return decimalParser.parseDouble(textView);
+		}
+		catch (NumberFormatException e)
+		{
+			throw error("Invalid number");
+		}
+	}
+
+	private Token readValue(int c) throws IOException, ParseException
+	{
+		switch (c)
+		{
+			case '{':
+				push(EMPTY_OBJECT);
+				return Token.BEGIN_OBJECT;
+			case '[':
+				push(EMPTY_ARRAY);
+				return Token.BEGIN_ARRAY;
+			case '"':
+				readString();
+				return Token.STRING;
+			case 't':
+				readLiteral("rue");
+				return Token.TRUE;
+			case 'f':
+				readLiteral("alse");
+				return Token.FALSE;
+			case 'n':
+				readLiteral("ull");
+				return Token.NULL;
+			case -1:
+				throw error("Unexpected end of document");
+			default:
+				if (c == '-' || (c >= '0' && c <= '9'))
+				{
+					readNumber(c);
+					return Token.NUMBER;
+				}
+				throw error("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	private void push(byte state)
+	{
+		if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+		stack[depth++] = state;
+	}
+
+	private void readLiteral(String rest) throws IOException, ParseException
+	{
+		for (int i = 0; i < rest.length(); i++)
+		{
+			if (read() != rest.charAt(i)) throw error("Invalid literal");
+		}
+	}
+
+	private void readString() throws IOException, ParseException
+	{
+		textLength = 0;
+		while (true)
+		{
+			int c = read();
+			if (c == '"') return;
+			if (c == -1) throw error("Unterminated string");
+			if (c == '\\') c = readEscaped();
+			appendText((char) c);
+		}
+	}
+
+	private int readEscaped() throws IOException, ParseException
+	{
+		int c = read();
+		switch (c)
+		{
+			case '"': case '\\': case '/': return c;
+			case 'b': return '\b';
+			case 'f': return '\f';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 't': return '\t';
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++)
+				{
+					int digit = Character.digit(read(), 16);
+					if (digit == -1) throw error("Invalid unicode escape");
+					value = (value << 4) | digit;
+				}
+				return value;
+			default:
+				throw error("Invalid escape sequence");
+		}
+	}
+
+	private void readNumber(int c) throws IOException, ParseException
+	{
+		textLength = 0;
+		numberIsInteger = true;
+		boolean inFraction = false;
+		boolean inExponent = false;
+
+		while (true)
+		{
+			appendText((char) c);
+			if (c == '.' && !inFraction && !inExponent)
+			{
+				inFraction = true;
+				numberIsInteger = false;
+			}
+			else if ((c == 'e' || c == 'E') && !inExponent)
+			{
+				inExponent = true;
+				numberIsInteger = false;
+			}
+			else if (c < '0' || c > '9')
+			{
+				// only a sign of the number or of its exponent is left
+				boolean isSign = c == '-' && textLength == 1;
+				boolean isExponentSign = (c == '-' || c == '+') && inExponent
+						&& (text[textLength - 2] == 'e' || text[textLength - 2] == 'E');
+				if (!isSign && !isExponentSign) throw error("Invalid number");
+			}
+
+			c = peek();
+			if (!isNumberChar(c)) break;
+			pos++;
+		}
+
+		char last = text[textLength - 1];
+		if (last < '0' || last > '9') throw error("Invalid number");
+	}
+
+	private static boolean isNumberChar(int c)
+	{
+		return (c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E';
+	}
+
+	private void appendText(char c)
+	{
+		if (textLength == text.length) text = Arrays.copyOf(text, textLength * 2);
+		text[textLength++] = c;
+	}
+
+	private int nextNonWhitespace() throws IOException
+	{
+		while (true)
+		{
+			int c = read();
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') return c;
+		}
+	}
+
+	private int read() throws IOException
+	{
+		if (pos == limit && !fill()) return -1;
+		return buffer[pos++];
+	}
+
+	private int peek() throws IOException
+	{
+		if (pos == limit && !fill()) return -1;
+		return buffer[pos];
+	}
+
+	private boolean fill() throws IOException
+	{
+		offset += limit;
+		pos = 0;
+		limit = 0;
+		int read;
+		do
+		{
+			read = reader.read(buffer, 0, buffer.length);
+		}
+		while (read == 0);
+		if (read == -1) return false;
+		limit = read;
+		return true;
+	}
+
+	private ParseException error(String message)
+	{
+		int position = (int) Math.min(Integer.MAX_VALUE, offset + pos);
+		return new ParseException(message + " at position " + position, position);
+	}
+
+	/** A view on the text of the current name, string or number */
+	private class Text implements CharSequence
+	{
+		@Override public int length()
+		{
+			return textLength;
+		}
+
+		@Override public char charAt(int i)
+		{
+			if (i < 0 || i >= textLength) throw new IndexOutOfBoundsException("Index: " + i);
+			return text[i];
+		}
+
+		@Override public CharSequence subSequence(int start, int end)
+		{
+			return toString().substring(start, end);
+		}
+
+		@Override @NotNull public String toString()
+		{
+			return new String(text, 0, textLength);
+		}
+	}
+}
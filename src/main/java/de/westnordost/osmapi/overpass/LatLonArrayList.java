@@ -0,0 +1,74 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+
+/** A list of positions that is backed by a primitive array of alternating latitude and
+ *  longitude. This needs a fraction of the memory of a list of position objects. The position
+ *  objects are only created when they are accessed. Unknown positions are stored as NaN and
+ *  returned as null. */
+final class LatLonArrayList extends AbstractList<LatLon> implements RandomAccess
+{
+	private double[] coordinates;
+	private int size;
+
+	/** @param coordinates the initial positions as alternating latitude and longitude. The array
+	 *                     is used directly, not copied */
+	LatLonArrayList(double[] coordinates)
+	{
+		if (coordinates.length % 2 != 0) throw new IllegalArgumentException("Number of coordinates must be even");
+		this.coordinates = coordinates;
+		this.size = coordinates.length / 2;
+	}
+
+	@Override public LatLon get(int index)
+	{
+		checkIndex(index);
+		double lat = coordinates[index * 2];
+		double lon = coordinates[index * 2 + 1];
+		if (Double.isNaN(lat) || Double.isNaN(lon)) return null;
+		return new OsmLatLon(lat, lon);
+	}
+
+	@Override public LatLon set(int index, LatLon value)
+	{
+		LatLon previous = get(index);
+		coordinates[index * 2] = value != null ? value.getLatitude() : Double.NaN;
+		coordinates[index * 2 + 1] = value != null ? value.getLongitude() : Double.NaN;
+		return previous;
+	}
+
+	@Override public void add(int index, LatLon value)
+	{
+		if (index < 0 || index > size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		if (size * 2 == coordinates.length) coordinates = Arrays.copyOf(coordinates, Math.max(8, size * 4));
+		System.arraycopy(coordinates, index * 2, coordinates, index * 2 + 2, (size - index) * 2);
+		coordinates[index * 2] = value != null ? value.getLatitude() : Double.NaN;
+		coordinates[index * 2 + 1] = value != null ? value.getLongitude() : Double.NaN;
+		size++;
+		modCount++;
+	}
+
+	@Override public LatLon remove(int index)
+	{
+		LatLon previous = get(index);
+		System.arraycopy(coordinates, index * 2 + 2, coordinates, index * 2, (size - index - 1) * 2);
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	@Override public int size()
+	{
+		return size;
+	}
+
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+}
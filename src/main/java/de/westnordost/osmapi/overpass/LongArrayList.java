@@ -0,0 +1,64 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/** A list of longs that is backed by a primitive array, so that the values are not boxed until
+ *  they are accessed. */
+final class LongArrayList extends AbstractList<Long> implements RandomAccess
+{
+	private long[] values;
+	private int size;
+
+	/** @param values the initial values. The array is used directly, not copied */
+	LongArrayList(long[] values)
+	{
+		this.values = values;
+		this.size = values.length;
+	}
+
+	@Override public Long get(int index)
+	{
+		checkIndex(index);
+		return values[index];
+	}
+
+	@Override public Long set(int index, Long value)
+	{
+		checkIndex(index);
+		long previous = values[index];
+		values[index] = value;
+		return previous;
+	}
+
+	@Override public void add(int index, Long value)
+	{
+		if (index < 0 || index > size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+		if (size == values.length) values = Arrays.copyOf(values, Math.max(8, size * 2));
+		System.arraycopy(values, index, values, index + 1, size - index);
+		values[index] = value;
+		size++;
+		modCount++;
+	}
+
+	@Override public Long remove(int index)
+	{
+		checkIndex(index);
+		long previous = values[index];
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	@Override public int size()
+	{
+		return size;
+	}
+
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+}
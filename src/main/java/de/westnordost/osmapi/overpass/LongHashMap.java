@@ -0,0 +1,191 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/** A map with long keys that stores the keys in a primitive array with open addressing, so that
+ *  no entry objects need to be allocated and the keys are not retained as objects. Null values
+ *  are not supported. */
+final class LongHashMap<V> extends AbstractMap<Long, V>
+{
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+	private Object[] values;
+	private int size;
+	private int mask;
+
+	LongHashMap()
+	{
+		this(8);
+	}
+
+	LongHashMap(int expectedSize)
+	{
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	@Override public int size()
+	{
+		return size;
+	}
+
+	@Override public boolean containsKey(Object key)
+	{
+		return key instanceof Long && indexOf((Long) key) >= 0;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override public V get(Object key)
+	{
+		if (!(key instanceof Long)) return null;
+		int index = indexOf((Long) key);
+		return index >= 0 ? (V) values[index] : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override public V put(Long boxedKey, V value)
+	{
+		if (value == null) throw new NullPointerException("Null values are not supported");
+		long key = boxedKey;
+		int index = slot(key);
+		while (values[index] != null)
+		{
+			if (keys[index] == key)
+			{
+				V previous = (V) values[index];
+				values[index] = value;
+				return previous;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		values[index] = value;
+		size++;
+		if (size > keys.length * LOAD_FACTOR) rehash(keys.length * 2);
+		return null;
+	}
+
+	@Override public V remove(Object key)
+	{
+		if (!(key instanceof Long)) return null;
+		int index = indexOf((Long) key);
+		if (index < 0) return null;
+		@SuppressWarnings("unchecked")
+		V previous = (V) values[index];
+		removeAt(index);
+		return previous;
+	}
+
+	@Override public void clear()
+	{
+		for (int i = 0; i < values.length; i++) values[i] = null;
+		size = 0;
+	}
+
+	@Override public Set<Entry<Long, V>> entrySet()
+	{
+		return new AbstractSet<Entry<Long, V>>()
+		{
+			@Override public Iterator<Entry<Long, V>> iterator()
+			{
+				return new EntryIterator();
+			}
+
+			@Override public int size()
+			{
+				return size;
+			}
+		};
+	}
+
+	private int indexOf(long key)
+	{
+		int index = slot(key);
+		while (values[index] != null)
+		{
+			if (keys[index] == key) return index;
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void removeAt(int index)
+	{
+		values[index] = null;
+		size--;
+		// shift back following entries of the same cluster so that lookups don't stop at the gap
+		int gap = index;
+		int i = (index + 1) & mask;
+		while (values[i] != null)
+		{
+			int home = slot(keys[i]);
+			if (((i - home) & mask) >= ((i - gap) & mask))
+			{
+				keys[gap] = keys[i];
+				values[gap] = values[i];
+				values[i] = null;
+				gap = i;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	private void rehash(int capacity)
+	{
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			if (oldValues[i] == null) continue;
+			int index = slot(oldKeys[i]);
+			while (values[index] != null) index = (index + 1) & mask;
+			keys[index] = oldKeys[i];
+			values[index] = oldValues[i];
+		}
+	}
+
+	private int slot(long key)
+	{
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private class EntryIterator implements Iterator<Entry<Long, V>>
+	{
+		private int index = -1;
+		private int next = advance(0);
+
+		private int advance(int from)
+		{
+			for (int i = from; i < values.length; i++)
+			{
+				if (values[i] != null) return i;
+			}
+			return -1;
+		}
+
+		@Override public boolean hasNext()
+		{
+			return next >= 0;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override public Entry<Long, V> next()
+		{
+			if (next < 0) throw new NoSuchElementException();
+			index = next;
+			next = advance(index + 1);
+			return new SimpleImmutableEntry<>(keys[index], (V) values[index]);
+		}
+	}
+}
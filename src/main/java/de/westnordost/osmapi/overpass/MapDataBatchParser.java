@@ -0,0 +1,194 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.List;
+
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+/**
+ * Parses the map data of the response of several queries that have been merged into one, each
+ * preceded by a separator element as created by {@link #createSeparator(int)}. The map data of
+ * each query is passed to the handler of that query.
+ * <br><br>
+ * If a handler throws an exception, the exception is recorded, the handler does not receive
+ * any more data and parsing continues for the other handlers.
+ */
+class MapDataBatchParser extends MapDataXmlParser
+{
+	private static final String
+			SEPARATOR = "batch_separator",
+			INDEX = "index";
+
+	private final List<? extends MapDataHandler> handlers;
+	private final RuntimeException[] failures;
+
+	private MapDataHandler handler;
+	private int handlerIndex;
+	private boolean inSeparator;
+
+	/**
+	 * @param handlers the handler for each query, in the order of the queries
+	 * @param factory factory to create the elements with
+	 */
+	MapDataBatchParser(@NotNull List<? extends MapDataHandler> handlers, @NotNull MapDataFactory factory)
+	{
+		super(factory, null);
+		this.handlers = handlers;
+		this.failures = new RuntimeException[handlers.size()];
+	}
+
+	/** @return Overpass QL statements that output a separator that tells that the output of the
+	 *          query with the given index follows */
+	@NotNull static String createSeparator(int index)
+	{
+		return "make " + SEPARATOR + " " + INDEX + "=\"" + index + "\"; out;";
+	}
+
+	/** @return the exception thrown by the handler with the given index, if any */
+	RuntimeException getFailure(int index)
+	{
+		return failures[index];
+	}
+
+	@Override public Void parse(@NotNull InputStream in) throws IOException
+	{
+		handler = null;
+		handlerIndex = -1;
+		inSeparator = false;
+
+		return super.parse(in);
+	}
+
+	@Override protected void onStartElement() throws ParseException
+	{
+		String name = getName();
+
+		switch (name)
+		{
+			case SEPARATOR:
+				inSeparator = true;
+				handler = null;
+				break;
+
+			case BOUNDS:
+				if (handler != null)
+				{
+					try
+					{
+						handler.handle(parseBounds());
+					}
+					catch (RuntimeException e)
+					{
+						fail(e);
+					}
+				}
+				break;
+
+			case TAG:
+				if (inSeparator)
+				{
+					if (INDEX.equals(getAttribute("k"))) selectHandler(getAttribute("v"));
+				}
+				else
+				{
+					addTag();
+				}
+				break;
+
+			case ND:
+				nodeIds.add(getLongAttribute("ref"));
+				break;
+
+			case MEMBER:
+				addMember();
+				break;
+
+			case NODE:
+			case WAY:
+			case RELATION:
+				startElement();
+				break;
+		}
+	}
+
+	private void selectHandler(String index) throws ParseException
+	{
+		try
+		{
+			handlerIndex = Integer.parseInt(index);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new ParseException("Invalid batch separator " + index, 0);
+		}
+		if (handlerIndex < 0 || handlerIndex >= handlers.size())
+		{
+			throw new ParseException("Invalid batch separator " + index, 0);
+		}
+		handler = failures[handlerIndex] == null ? handlers.get(handlerIndex) : null;
+	}
+
+	@Override protected void onEndElement()
+	{
+		String name = getName();
+		switch (name)
+		{
+			case SEPARATOR:
+				inSeparator = false;
+				break;
+
+			case NODE:
+				if (handler != null)
+				{
+					try
+					{
+						handler.handle(createNode());
+					}
+					catch (RuntimeException e)
+					{
+						fail(e);
+					}
+				}
+				break;
+
+			case WAY:
+				if (handler != null)
+				{
+					try
+					{
+						handler.handle(createWay());
+					}
+					catch (RuntimeException e)
+					{
+						fail(e);
+					}
+				}
+				break;
+
+			case RELATION:
+				if (handler != null)
+				{
+					try
+					{
+						handler.handle(createRelation());
+					}
+					catch (RuntimeException e)
+					{
+						fail(e);
+					}
+				}
+				break;
+		}
+	}
+
+	private void fail(RuntimeException e)
+	{
+		failures[handlerIndex] = e;
+		handler = null;
+	}
+}
@@ -0,0 +1,91 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+/**
+ * Parses the map data of responses of queries with JSON output (<code>[out:json]</code>), like
+ * the <code>MapDataParser</code> of osmapi does for XML. For example
+ * <code>[out:json]; nwr[shop]; out meta;</code>.
+ * <br><br>
+ * The response is parsed as a stream, so the memory used does not depend on the size of the
+ * response.
+ */
+public class MapDataJsonParser implements ApiResponseReader<Void>
+{
+	private final MapDataWithGeometryJsonParser parser;
+
+	/**
+	 * @param handler handler to feed the map data to
+	 * @param factory factory to create the elements with
+	 * @param interner dictionary for the tag keys and values so that equal strings are held in
+	 *                 memory only once, or null to not intern any strings
+	 */
+	public MapDataJsonParser(
+			@NotNull MapDataHandler handler,
+			@NotNull MapDataFactory factory,
+			@Nullable StringInterner interner)
+	{
+		parser = new MapDataWithGeometryJsonParser(new WithoutGeometryHandler(handler), factory, interner);
+	}
+
+	public MapDataJsonParser(@NotNull MapDataHandler handler, @NotNull MapDataFactory factory)
+	{
+		this(handler, factory, null);
+	}
+
+	@Override public Void parse(@NotNull InputStream in) throws IOException, ParseException
+	{
+		return parser.parse(in);
+	}
+
+	/** Passes on the elements and drops the geometry, if any */
+	private static class WithoutGeometryHandler implements MapDataWithGeometryHandler
+	{
+		private final MapDataHandler handler;
+
+		WithoutGeometryHandler(MapDataHandler handler)
+		{
+			this.handler = handler;
+		}
+
+		@Override public void handle(@NotNull BoundingBox bounds)
+		{
+			handler.handle(bounds);
+		}
+
+		@Override public void handle(@NotNull Node node)
+		{
+			handler.handle(node);
+		}
+
+		@Override public void handle(@NotNull Way way, @NotNull BoundingBox bounds, @NotNull List<LatLon> geometry)
+		{
+			handler.handle(way);
+		}
+
+		@Override public void handle(
+				@NotNull Relation relation,
+				@NotNull BoundingBox bounds,
+				@NotNull Map<Long, LatLon> nodeGeometries,
+				@NotNull Map<Long, List<LatLon>> wayGeometries)
+		{
+			handler.handle(relation);
+		}
+	}
+}
@@ -0,0 +1,345 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.RelationMember;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.overpass.JsonTokenizer.Token;
+
+/**
+ * Like {@link MapDataWithGeometryParser}, but parses responses of queries with JSON output
+ * (<code>[out:json]</code>). For example <code>[out:json]; way[highway]; out body geom;</code>.
+ * <br><br>
+ * The response is parsed as a stream, so the memory used does not depend on the size of the
+ * response. Positions that are not included in the response, like those of nodes outside the
+ * bounding box in <code>out geom(bbox)</code>, are passed to the handler as null.
+ */
+public class MapDataWithGeometryJsonParser implements ApiResponseReader<Void>
+{
+	private final MapDataFactory factory;
+	private final MapDataWithGeometryHandler handler;
+	private final StringInterner interner;
+
+	/* state of the current element */
+	private String type;
+	private long id;
+	private int version;
+	private Instant timestamp;
+	private double lat;
+	private double lon;
+	private Map<String, String> tags;
+	private List<RelationMember> members;
+	private Map<Long, List<LatLon>> nodePositionsByWayId;
+	private Map<Long, LatLon> nodePositionByNodeId;
+	private BoundingBox bounds;
+
+	/* buffers reused for all elements */
+	private final GrowableLongArray nodeIds = new GrowableLongArray(256);
+	private final GrowableDoubleArray nodePositions = new GrowableDoubleArray(512);
+
+	/**
+	 * @param handler handler to feed the map data to
+	 * @param factory factory to create the elements with
+	 * @param interner dictionary for the tag keys and values so that equal strings are held in
+	 *                 memory only once, or null to not intern any strings
+	 */
+	public MapDataWithGeometryJsonParser(
+			@NotNull MapDataWithGeometryHandler handler,
+			@NotNull MapDataFactory factory,
+			@Nullable StringInterner interner)
+	{
+		this.factory = factory;
+		this.handler = handler;
+		this.interner = interner;
+	}
+
+	public MapDataWithGeometryJsonParser(
+			@NotNull MapDataWithGeometryHandler handler,
+			@NotNull MapDataFactory factory)
+	{
+		this(handler, factory, null);
+	}
+
+	@Override public Void parse(@NotNull InputStream in) throws IOException, ParseException
+	{
+		JsonTokenizer json = new JsonTokenizer(new InputStreamReader(in, StandardCharsets.UTF_8));
+		json.expect(Token.BEGIN_OBJECT);
+		while (json.next() == Token.NAME)
+		{
+			switch (json.getString())
+			{
+				case "elements":
+					json.expect(Token.BEGIN_ARRAY);
+					while (json.nextInArray(Token.BEGIN_OBJECT))
+					{
+						parseElement(json);
+					}
+					break;
+				// global bounding box
+				case "bounds":
+					handler.handle(parseBounds(json));
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+		return null;
+	}
+
+	private void parseElement(JsonTokenizer json) throws IOException, ParseException
+	{
+		type = null;
+		id = 0;
+		version = -1;
+		timestamp = null;
+		lat = Double.NaN;
+		lon = Double.NaN;
+		tags = null;
+		members = null;
+		nodePositionsByWayId = null;
+		nodePositionByNodeId = null;
+		bounds = null;
+		nodeIds.clear();
+		nodePositions.clear();
+
+		while (json.next() == Token.NAME)
+		{
+			switch (json.getString())
+			{
+				case "type":
+					json.expect(Token.STRING);
+					type = json.getString();
+					break;
+				case "id":
+					json.expect(Token.NUMBER);
+					id = json.getLong();
+					break;
+				case "version":
+					json.expect(Token.NUMBER);
+					version = (int) json.getLong();
+					break;
+				// only set for out mode "meta"
+				case "timestamp":
+					json.expect(Token.STRING);
+					timestamp = Instant.parse(json.getString());
+					break;
+				case "lat":
+					json.expect(Token.NUMBER);
+					lat = json.getDouble();
+					break;
+				case "lon":
+					json.expect(Token.NUMBER);
+					lon = json.getDouble();
+					break;
+				case "bounds":
+					bounds = parseBounds(json);
+					break;
+				case "tags":
+					parseTags(json);
+					break;
+				case "nodes":
+					json.expect(Token.BEGIN_ARRAY);
+					while (json.nextInArray(Token.NUMBER))
+					{
+						nodeIds.add(json.getLong());
+					}
+					break;
+				case "geometry":
+					parseGeometry(json);
+					break;
+				case "members":
+					parseMembers(json);
+					break;
+				default:
+					json.skipValue();
+			}
+		}
+
+		if (type == null) throw new ParseException("Element without type", 0);
+		switch (type)
+		{
+			case "node":
+				Node node = factory.createNode(id, version, lat, lon, tags, null, timestamp);
+				handler.handle(node);
+				break;
+			case "way":
+				Way way = factory.createWay(id, version, new LongArrayList(nodeIds.toArray()), tags, null, timestamp);
+				handler.handle(way, bounds, new LatLonArrayList(nodePositions.toArray()));
+				break;
+			case "relation":
+				if (members == null) members = new ArrayList<>();
+				if (nodePositionByNodeId == null) nodePositionByNodeId = new LongHashMap<>();
+				if (nodePositionsByWayId == null) nodePositionsByWayId = new LongHashMap<>();
+				Relation relation = factory.createRelation(id, version, members, tags, null, timestamp);
+				handler.handle(relation, bounds, nodePositionByNodeId, nodePositionsByWayId);
+				break;
+			// i.e. areas, counts
+			default:
+				break;
+		}
+	}
+
+	private void parseMembers(JsonTokenizer json) throws IOException, ParseException
+	{
+		members = new ArrayList<>();
+		nodePositionByNodeId = new LongHashMap<>();
+		nodePositionsByWayId = new LongHashMap<>();
+
+		json.expect(Token.BEGIN_ARRAY);
+		while (json.nextInArray(Token.BEGIN_OBJECT))
+		{
+			String memberType = null;
+			long ref = 0;
+			String role = null;
+			double memberLat = Double.NaN;
+			double memberLon = Double.NaN;
+			boolean memberHasGeometry = false;
+			nodePositions.clear();
+
+			while (json.next() == Token.NAME)
+			{
+				switch (json.getString())
+				{
+					case "type":
+						json.expect(Token.STRING);
+						memberType = json.getString();
+						break;
+					case "ref":
+						json.expect(Token.NUMBER);
+						ref = json.getLong();
+						break;
+					case "role":
+						json.expect(Token.STRING);
+						role = json.getString();
+						break;
+					case "lat":
+						json.expect(Token.NUMBER);
+						memberLat = json.getDouble();
+						break;
+					case "lon":
+						json.expect(Token.NUMBER);
+						memberLon = json.getDouble();
+						break;
+					case "geometry":
+						parseGeometry(json);
+						memberHasGeometry = true;
+						break;
+					default:
+						json.skipValue();
+				}
+			}
+
+			if (memberType == null) throw new ParseException("Relation member without type", 0);
+			Element.Type type = Element.Type.valueOf(memberType.toUpperCase(Locale.UK));
+			members.add(factory.createRelationMember(ref, role, type));
+
+			if (type == Element.Type.NODE && !Double.isNaN(memberLat) && !Double.isNaN(memberLon))
+			{
+				nodePositionByNodeId.put(ref, new OsmLatLon(memberLat, memberLon));
+			}
+			else if (type == Element.Type.WAY && memberHasGeometry)
+			{
+				nodePositionsByWayId.put(ref, new LatLonArrayList(nodePositions.toArray()));
+			}
+		}
+		nodePositions.clear();
+	}
+
+	/* adds the positions to the nodePositions buffer. Missing positions are added as NaN */
+	private void parseGeometry(JsonTokenizer json) throws IOException, ParseException
+	{
+		json.expect(Token.BEGIN_ARRAY);
+		Token token;
+		while ((token = json.next()) != Token.END_ARRAY)
+		{
+			if (token == Token.NULL)
+			{
+				nodePositions.add(Double.NaN);
+				nodePositions.add(Double.NaN);
+				continue;
+			}
+			if (token != Token.BEGIN_OBJECT) throw new ParseException("Expected position", 0);
+
+			double posLat = Double.NaN;
+			double posLon = Double.NaN;
+			while (json.next() == Token.NAME)
+			{
+				switch (json.getString())
+				{
+					case "lat":
+						json.expect(Token.NUMBER);
+						posLat = json.getDouble();
+						break;
+					case "lon":
+						json.expect(Token.NUMBER);
+						posLon = json.getDouble();
+						break;
+					default:
+						json.skipValue();
+				}
+			}
+			nodePositions.add(posLat);
+			nodePositions.add(posLon);
+		}
+	}
+
+	private void parseTags(JsonTokenizer json) throws IOException, ParseException
+	{
+		json.expect(Token.BEGIN_OBJECT);
+		while (json.next() == Token.NAME)
+		{
+			String key = intern(json.getString());
+			json.expect(Token.STRING);
+			String value = intern(json.getString());
+			if (tags == null)
+			{
+				tags = new CompactTagMap();
+			}
+			tags.put(key, value);
+		}
+	}
+
+	private String intern(String string)
+	{
+		return interner != null ? interner.intern(string) : string;
+	}
+
+	static BoundingBox parseBounds(JsonTokenizer json) throws IOException, ParseException
+	{
+		double minLat = Double.NaN, minLon = Double.NaN, maxLat = Double.NaN, maxLon = Double.NaN;
+		json.expect(Token.BEGIN_OBJECT);
+		while (json.next() == Token.NAME)
+		{
+			String name = json.getString();
+			json.expect(Token.NUMBER);
+			switch (name)
+			{
+				case "minlat": minLat = json.getDouble(); break;
+				case "minlon": minLon = json.getDouble(); break;
+				case "maxlat": maxLat = json.getDouble(); break;
+				case "maxlon": maxLon = json.getDouble(); break;
+			}
+		}
+		return new BoundingBox(minLat, minLon, maxLat, maxLon);
+	}
+}
@@ -1,28 +1,18 @@
 package de.westnordost.osmapi.overpass;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.IOException;
-import java.io.InputStream;
 import java.text.ParseException;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
-import de.westnordost.osmapi.ApiResponseReader;
-import de.westnordost.osmapi.common.XmlParser;
 import de.westnordost.osmapi.map.MapDataFactory;
 import de.westnordost.osmapi.map.data.BoundingBox;
 import de.westnordost.osmapi.map.data.Element;
 import de.westnordost.osmapi.map.data.LatLon;
-import de.westnordost.osmapi.map.data.Node;
 import de.westnordost.osmapi.map.data.OsmLatLon;
-import de.westnordost.osmapi.map.data.Relation;
 import de.westnordost.osmapi.map.data.RelationMember;
-import de.westnordost.osmapi.map.data.Way;
 
 /**
  * A map data parser that also parses the geometry of elements as outputted by queries with the
@@ -33,49 +23,40 @@ import de.westnordost.osmapi.map.data.Way;
  * but never includes the changeset and user info because it includes personally identifying
  * information and Overpass API is a public API.
  */
-public class MapDataWithGeometryParser extends XmlParser implements ApiResponseReader<Void>
+public class MapDataWithGeometryParser extends MapDataXmlParser
 {
-	private static final String
-			NODE = "node",
-			WAY = "way",
-			RELATION = "relation",
-			MEMBER = "member",
-			ND = "nd",
-			TAG = "tag",
-			BOUNDS = "bounds";
-
-	private final MapDataFactory factory;
 	private final MapDataWithGeometryHandler handler;
 
-	private long id;
-	private int version;
-	private Instant timestamp;
-	private Double lat;
-	private Double lon;
-	private Map<String, String> tags;
-	private List<RelationMember> members;
-	private List<Long> nodeIds;
 	private Map<Long, List<LatLon>> nodePositionsByWayId;
 	private Map<Long, LatLon> nodePositionByNodeId;
-	private List<LatLon> nodePositions;
 	private BoundingBox bounds;
 
+	/* reused for all elements. Only when an element is complete, its geometry is copied into an
+	 * array of the exact size */
+	private final GrowableDoubleArray nodePositions = new GrowableDoubleArray(512);
+	private long memberWayId;
+	private boolean inMemberWay;
+
+	/**
+	 * @param handler handler to feed the map data to
+	 * @param factory factory to create the elements with
+	 * @param interner dictionary for the tag keys and values so that equal strings are held in
+	 *                 memory only once, or null to not intern any strings
+	 */
 	public MapDataWithGeometryParser(
 			@NotNull MapDataWithGeometryHandler handler,
-			@NotNull MapDataFactory factory)
+			@NotNull MapDataFactory factory,
+			@Nullable StringInterner interner)
 	{
-		this.factory = factory;
+		super(factory, interner);
 		this.handler = handler;
 	}
 
-	@Override public Void parse(@NotNull InputStream in) throws IOException
+	public MapDataWithGeometryParser(
+			@NotNull MapDataWithGeometryHandler handler,
+			@NotNull MapDataFactory factory)
 	{
-		id = -1;
-		version = 0;
-
-		doParse(in);
-
-		return null;
+		this(handler, factory, null);
 	}
 
 	@Override protected void onStartElement() throws ParseException
@@ -85,13 +66,9 @@ public class MapDataWithGeometryParser extends XmlParser implements ApiResponseR
 		switch (name)
 		{
 			case BOUNDS:
-				bounds = new BoundingBox(
-						getDoubleAttribute("minlat"),getDoubleAttribute("minlon"),
-						getDoubleAttribute("maxlat"),getDoubleAttribute("maxlon")
-				);
+				bounds = parseBounds();
 				// global bounding box
-				String parent = getParentName();
-				if (!WAY.equals(parent) && !RELATION.equals(parent))
+				if (!isElementBounds())
 				{
 					handler.handle(bounds);
 					bounds = null;
@@ -99,11 +76,7 @@ public class MapDataWithGeometryParser extends XmlParser implements ApiResponseR
 				break;
 
 			case TAG:
-				if (tags == null)
-				{
-					tags = new HashMap<>();
-				}
-				tags.put(getAttribute("k"), getAttribute("v"));
+				addTag();
 				break;
 
 			case ND:
@@ -111,67 +84,41 @@ public class MapDataWithGeometryParser extends XmlParser implements ApiResponseR
 				{
 					nodeIds.add(getLongAttribute("ref"));
 				}
-
-				LatLon pos = new OsmLatLon(getDoubleAttribute("lat"), getDoubleAttribute("lon"));
-				nodePositions.add(pos);
+				nodePositions.add(parseDouble("lat"));
+				nodePositions.add(parseDouble("lon"));
 				break;
 
 			case MEMBER:
-				long ref = getLongAttribute("ref");
-				String role = getAttribute("role");
-				Element.Type type = Element.Type.valueOf(getAttribute("type").toUpperCase(Locale.UK));
-				members.add(factory.createRelationMember(ref, role, type));
-
-				if (type == Element.Type.NODE)
+				RelationMember member = addMember();
+				if (member.getType() == Element.Type.NODE)
 				{
-					nodePositionByNodeId.put(ref, new OsmLatLon(getDoubleAttribute("lat"), getDoubleAttribute("lon")));
+					nodePositionByNodeId.put(member.getRef(), new OsmLatLon(parseDouble("lat"), parseDouble("lon")));
 				}
-				else if (type == Element.Type.WAY)
+				else if (member.getType() == Element.Type.WAY)
 				{
-					nodePositions = new ArrayList<>();
-					nodePositionsByWayId.put(ref, nodePositions);
+					memberWayId = member.getRef();
+					inMemberWay = true;
+					nodePositions.clear();
 				}
 				break;
 
 			case NODE:
-				retrieveElementAttributes();
-				lat = getDoubleAttribute("lat");
-				lon = getDoubleAttribute("lon");
+				startElement();
 				break;
 
 			case WAY:
-				retrieveElementAttributes();
-				nodeIds = new ArrayList<>();
-				nodePositions = new ArrayList<>();
+				startElement();
+				nodePositions.clear();
 				break;
 
 			case RELATION:
-				retrieveElementAttributes();
-				members = new ArrayList<>();
-				nodePositionsByWayId = new HashMap<>();
-				nodePositionByNodeId = new HashMap<>();
+				startElement();
+				nodePositionsByWayId = new LongHashMap<>();
+				nodePositionByNodeId = new LongHashMap<>();
 				break;
 		}
 	}
 
-	private void retrieveElementAttributes() throws ParseException
-	{
-		id = getLongAttribute("id");
-		// version not set for out modes "ids", "skel"
-		Integer v = getIntAttribute("version");
-		version = v != null ? v : -1;
-		// timestamp only set for out mode "meta"
-		timestamp = parseDate();
-	}
-
-	private Instant parseDate()
-	{
-		String timestamp = getAttribute("timestamp");
-		if(timestamp == null) return null;
-
-		return Instant.parse(timestamp);
-	}
-
 	@Override protected void onEndElement()
 	{
 		String name = getName();
@@ -179,46 +126,26 @@ public class MapDataWithGeometryParser extends XmlParser implements ApiResponseR
 		switch(name)
 		{
 			case MEMBER:
-				nodePositions = null;
+				if (inMemberWay)
+				{
+					nodePositionsByWayId.put(memberWayId, new LatLonArrayList(nodePositions.toArray()));
+					inMemberWay = false;
+				}
 				break;
 
 			case NODE:
-				Node node = factory.createNode(id, version, lat, lon, tags, null, timestamp);
-				id = 0;
-				version = -1;
-				lat = null;
-				lon = null;
-				tags = null;
-				timestamp = null;
-
-				handler.handle(node);
+				handler.handle(createNode());
 				break;
 
 			case WAY:
-				Way way = factory.createWay(id, version, nodeIds, tags, null, timestamp);
-				handler.handle(way, bounds, nodePositions);
-
-				id = 0;
-				version = -1;
-				nodeIds = null;
-				tags = null;
-				timestamp = null;
-				nodePositions = null;
+				handler.handle(createWay(), bounds, new LatLonArrayList(nodePositions.toArray()));
 				bounds = null;
 				break;
 
 			case RELATION:
-				Relation relation = factory.createRelation(id, version, members, tags, null, timestamp);
-				handler.handle(relation, bounds, nodePositionByNodeId, nodePositionsByWayId);
-
-				id = 0;
-				version = -1;
-				members = null;
-				tags = null;
-				timestamp = null;
+				handler.handle(createRelation(), bounds, nodePositionByNodeId, nodePositionsByWayId);
 				nodePositionsByWayId = null;
 				nodePositionByNodeId = null;
-				nodePositions = null;
 				bounds = null;
 				break;
 		}
@@ -0,0 +1,55 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+
+/** This class is fed the map data and geometry, like {@link MapDataWithGeometryHandler}, but the
+ *  geometry is passed in a packed form instead of as one object per position. This uses much less
+ *  memory for geometry-heavy queries.
+ *  <br><br>
+ *  Positions are passed as fixed-point numbers in 1e-7 degrees (the precision of OSM data), in
+ *  an <code>int[]</code> alternating latitude and longitude. So, the latitude of the
+ *  <code>i</code>th position is <code>coordinates[2*i] / 1e7</code>.
+ *  <br><br>
+ *  Note that the arrays are reused by the parser for the next element. If the geometry should be
+ *  kept beyond the call, it must be copied. */
+public interface MapDataWithPackedGeometryHandler
+{
+	/** The global bounding box has been parsed.
+	 *  @param bounds the parsed bounds
+	 */
+	void handle(@NotNull BoundingBox bounds);
+
+	/** A node has been parsed.
+	 *  @param node the parsed node
+	 */
+	void handle(@NotNull Node node);
+
+	/** A way and its geometry has been parsed.
+	 *  @param way the parsed way
+	 *  @param bounds bounding box for the way
+	 *  @param coordinates the positions the way consists of, alternating latitude and longitude
+	 *                     in 1e-7 degrees. Only the first <code>2 * length</code> values are valid.
+	 *  @param length number of positions
+	 */
+	void handle(
+			@NotNull Way way,
+			@NotNull BoundingBox bounds,
+			@NotNull int[] coordinates,
+			int length);
+
+	/** A relation and the geometry of its members has been parsed.
+	 *
+	 *  @param relation the parsed relation
+	 *  @param bounds bounding box for the relation
+	 *  @param geometry the positions of each member of the relation
+	 */
+	void handle(
+			@NotNull Relation relation,
+			@NotNull BoundingBox bounds,
+			@NotNull PackedRelationGeometry geometry);
+}
@@ -0,0 +1,135 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.ParseException;
+
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+
+/**
+ * A map data parser that parses the geometry of elements as outputted by queries with the
+ * <code>geom</code> modificator into a packed form, see {@link MapDataWithPackedGeometryHandler}.
+ * <br><br>
+ * Otherwise, it behaves exactly like the {@link MapDataWithGeometryParser}.
+ */
+public class MapDataWithPackedGeometryParser extends MapDataXmlParser
+{
+	private final MapDataWithPackedGeometryHandler handler;
+
+	/** reused for every way */
+	private final GrowableIntArray wayCoordinates = new GrowableIntArray();
+	/** reused for every relation */
+	private final PackedRelationGeometry relationGeometry = new PackedRelationGeometry();
+	private final DecimalParser decimalParser = new DecimalParser();
+
+	private BoundingBox bounds;
+
+	/**
+	 * @param handler handler to feed the map data to
+	 * @param factory factory to create the elements with
+	 * @param interner dictionary for the tag keys and values so that equal strings are held in
+	 *                 memory only once, or null to not intern any strings
+	 */
+	public MapDataWithPackedGeometryParser(
+			@NotNull MapDataWithPackedGeometryHandler handler,
+			@NotNull MapDataFactory factory,
+			@Nullable StringInterner interner)
+	{
+		super(factory, interner);
+		this.handler = handler;
+	}
+
+	public MapDataWithPackedGeometryParser(
+			@NotNull MapDataWithPackedGeometryHandler handler,
+			@NotNull MapDataFactory factory)
+	{
+		this(handler, factory, null);
+	}
+
+	@Override protected void onStartElement() throws ParseException
+	{
+		String name = getName();
+
+		switch (name)
+		{
+			case BOUNDS:
+				bounds = parseBounds();
+				// global bounding box
+				if (!isElementBounds())
+				{
+					handler.handle(bounds);
+					bounds = null;
+				}
+				break;
+
+			case TAG:
+				addTag();
+				break;
+
+			case ND:
+				int ndLat = FixedPoint.parse(decimalParser, getAttribute("lat"));
+				int ndLon = FixedPoint.parse(decimalParser, getAttribute("lon"));
+				if (WAY.equals(getParentName()))
+				{
+					nodeIds.add(getLongAttribute("ref"));
+					wayCoordinates.add(ndLat);
+					wayCoordinates.add(ndLon);
+				}
+				else
+				{
+					relationGeometry.addPosition(ndLat, ndLon);
+				}
+				break;
+
+			case MEMBER:
+				Element.Type type = addMember().getType();
+				relationGeometry.addMember();
+				if (type == Element.Type.NODE)
+				{
+					relationGeometry.addPosition(
+							FixedPoint.parse(decimalParser, getAttribute("lat")),
+							FixedPoint.parse(decimalParser, getAttribute("lon")));
+				}
+				break;
+
+			case NODE:
+				startElement();
+				break;
+
+			case WAY:
+				startElement();
+				wayCoordinates.clear();
+				break;
+
+			case RELATION:
+				startElement();
+				relationGeometry.clear();
+				break;
+		}
+	}
+
+	@Override protected void onEndElement()
+	{
+		String name = getName();
+
+		switch(name)
+		{
+			case NODE:
+				handler.handle(createNode());
+				break;
+
+			case WAY:
+				handler.handle(createWay(), bounds, wayCoordinates.array(), wayCoordinates.size() / 2);
+				bounds = null;
+				break;
+
+			case RELATION:
+				handler.handle(createRelation(), bounds, relationGeometry);
+				bounds = null;
+				break;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.common.XmlParser;
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.RelationMember;
+import de.westnordost.osmapi.map.data.Way;
+
+/**
+ * Base class for the parsers of map data in the XML output format of Overpass. It keeps the
+ * attributes, tags, node ids and members of the element that is currently parsed and creates the
+ * element from them, so that subclasses only need to take care of the geometry and of what to do
+ * with the complete elements.
+ */
+abstract class MapDataXmlParser extends XmlParser implements ApiResponseReader<Void>
+{
+	static final String
+			NODE = "node",
+			WAY = "way",
+			RELATION = "relation",
+			MEMBER = "member",
+			ND = "nd",
+			TAG = "tag",
+			BOUNDS = "bounds";
+
+	final MapDataFactory factory;
+	private final StringInterner interner;
+
+	/* the element that is currently parsed */
+	private long id;
+	private int version;
+	private Instant timestamp;
+	private double lat;
+	private double lon;
+	private Map<String, String> tags;
+	private List<RelationMember> members;
+	/** reused for every way. Only when a way is complete, its node ids are copied */
+	final GrowableLongArray nodeIds = new GrowableLongArray(256);
+
+	/**
+	 * @param factory factory to create the elements with
+	 * @param interner dictionary for the tag keys and values so that equal strings are held in
+	 *                 memory only once, or null to not intern any strings
+	 */
+	MapDataXmlParser(@NotNull MapDataFactory factory, @Nullable StringInterner interner)
+	{
+		this.factory = factory;
+		this.interner = interner;
+	}
+
+	@Override public Void parse(@NotNull InputStream in) throws IOException
+	{
+		clearElement();
+
+		doParse(in);
+
+		return null;
+	}
+
+	/** Starts a new node, way or relation with the attributes of the current XML element */
+	void startElement() throws ParseException
+	{
+		clearElement();
+		id = getLongAttribute("id");
+		// version not set for out modes "ids", "skel"
+		Integer v = getIntAttribute("version");
+		version = v != null ? v : -1;
+		// timestamp only set for out mode "meta"
+		timestamp = parseDate();
+
+		switch (getName())
+		{
+			case NODE:
+				lat = parseDouble("lat");
+				lon = parseDouble("lon");
+				break;
+			case WAY:
+				nodeIds.clear();
+				break;
+			case RELATION:
+				members = new ArrayList<>();
+				break;
+		}
+	}
+
+	/** Adds the tag of the current XML element to the current element */
+	void addTag()
+	{
+		if (tags == null)
+		{
+			tags = new CompactTagMap();
+		}
+		tags.put(intern(getAttribute("k")), intern(getAttribute("v")));
+	}
+
+	/** Adds the member of the current XML element to the current relation
+	 *  @return the added member */
+	RelationMember addMember() throws ParseException
+	{
+		long ref = getLongAttribute("ref");
+		String role = getAttribute("role");
+		Element.Type type = Element.Type.valueOf(getAttribute("type").toUpperCase(Locale.UK));
+		RelationMember member = factory.createRelationMember(ref, role, type);
+		members.add(member);
+		return member;
+	}
+
+	/** @return the bounding box of the current XML element */
+	BoundingBox parseBounds() throws ParseException
+	{
+		return new BoundingBox(
+				getDoubleAttribute("minlat"), getDoubleAttribute("minlon"),
+				getDoubleAttribute("maxlat"), getDoubleAttribute("maxlon"));
+	}
+
+	/** @return whether the current bounds XML element belongs to a way or relation rather than to
+	 *          the whole response */
+	boolean isElementBounds()
+	{
+		String parent = getParentName();
+		return WAY.equals(parent) || RELATION.equals(parent);
+	}
+
+	/* parses directly into a primitive instead of going through a boxed Double. (The position of a
+	 * node is boxed nonetheless when it is passed to MapDataFactory.createNode, which takes Doubles) */
+	double parseDouble(String name) throws ParseException
+	{
+		String value = getAttribute(name);
+		if (value == null) throw new ParseException("Missing attribute " + name, 0);
+		try
+		{
+			return Double.parseDouble(value);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new ParseException("Invalid " + name + ": " + value, 0);
+		}
+	}
+
+	/** @return the current node, which is then cleared */
+	Node createNode()
+	{
+		Node node = factory.createNode(id, version, lat, lon, tags, null, timestamp);
+		clearElement();
+		return node;
+	}
+
+	/** @return the current way, which is then cleared */
+	Way createWay()
+	{
+		Way way = factory.createWay(id, version, new LongArrayList(nodeIds.toArray()), tags, null, timestamp);
+		clearElement();
+		return way;
+	}
+
+	/** @return the current relation, which is then cleared */
+	Relation createRelation()
+	{
+		Relation relation = factory.createRelation(id, version, members, tags, null, timestamp);
+		clearElement();
+		return relation;
+	}
+
+	private void clearElement()
+	{
+		id = 0;
+		version = -1;
+		tags = null;
+		timestamp = null;
+		members = null;
+	}
+
+	private String intern(String string)
+	{
+		return interner != null ? interner.intern(string) : string;
+	}
+
+	private Instant parseDate()
+	{
+		String timestamp = getAttribute("timestamp");
+		if(timestamp == null) return null;
+
+		return Instant.parse(timestamp);
+	}
+}
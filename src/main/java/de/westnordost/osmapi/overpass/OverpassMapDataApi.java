@@ -1,8 +1,8 @@
 package de.westnordost.osmapi.overpass;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import de.westnordost.osmapi.ApiRequestWriter;
 import de.westnordost.osmapi.ApiResponseReader;
 import de.westnordost.osmapi.OsmConnection;
 import de.westnordost.osmapi.common.Handler;
@@ -11,20 +11,58 @@ import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
 import de.westnordost.osmapi.map.MapDataFactory;
 import de.westnordost.osmapi.map.MapDataParser;
 import de.westnordost.osmapi.map.OsmMapDataFactory;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
 import de.westnordost.osmapi.map.handler.MapDataHandler;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.Reader;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /** Get map data from the overpass api. Always expects XMl output in the queries. */
 public class OverpassMapDataApi
 {
+	/** Number of elements that are buffered at most when streaming */
+	private static final int STREAM_BUFFER_SIZE = 1000;
+	/** Maximum length of the URL-encoded query when querying elements by id */
+	private static final int DEFAULT_MAX_ID_QUERY_LENGTH = 64 * 1024;
+
 	private final OsmConnection osm;
 	private final MapDataFactory mapDataFactory;
 
+	private volatile OverpassRetryPolicy retryPolicy;
+	private volatile Executor executor;
+	private volatile DiskResponseCache cache;
+	private volatile DiskResponseCache snapshotCache;
+	private volatile boolean coalescingEnabled;
+	private volatile StringInterner stringInterner;
+	private volatile QueryListener queryListener;
+
+	private final OverpassQueryScheduler queryScheduler = new OverpassQueryScheduler(this);
+	private final ConcurrentHashMap<String, SharedResponse> inFlightQueries = new ConcurrentHashMap<>();
+
+	private final AtomicLong rawBytesReceived = new AtomicLong();
+	private final AtomicLong decodedBytesReceived = new AtomicLong();
+
 	public OverpassMapDataApi(@NotNull OsmConnection osm, @NotNull MapDataFactory mapDataFactory)
 	{
 		this.osm = osm;
@@ -36,6 +74,192 @@ public class OverpassMapDataApi
 		this(osm, new OsmMapDataFactory());
 	}
 
+	/**
+	 * Set whether and how queries should be retried automatically when the user is over his
+	 * request quota. By default, no retries are made and an {@link OsmTooManyRequestsException}
+	 * is thrown immediately.
+	 *
+	 * @param retryPolicy the retry policy or null to not retry
+	 */
+	public void setRetryPolicy(@Nullable OverpassRetryPolicy retryPolicy)
+	{
+		this.retryPolicy = retryPolicy;
+	}
+
+	@Nullable public OverpassRetryPolicy getRetryPolicy()
+	{
+		return retryPolicy;
+	}
+
+	/**
+	 * Set a cache in which the responses of all queries are stored, so that when the same query is
+	 * made again, the response is read from the cache instead of requested from the server. A
+	 * cache may be shared between several api instances, also with different endpoints.
+	 * <br><br>
+	 * Queries are identified by their text, ignoring differences in whitespace. Note that this
+	 * means that a query that has been made before returns the same result during the time to
+	 * live of the cache even if the data on the server has changed since.
+	 *
+	 * @param cache the cache or null to not cache responses
+	 */
+	public void setCache(@Nullable DiskResponseCache cache)
+	{
+		this.cache = cache;
+	}
+
+	@Nullable public DiskResponseCache getCache()
+	{
+		return cache;
+	}
+
+	/**
+	 * Set a cache in which the responses of queries for the data at fixed dates in the past are
+	 * stored. Their result never changes, so they are stored without expiry and, once cached,
+	 * never requested from the server again. Only evicting entries to stay within the maximum size
+	 * of the cache removes them, so a cache separate from the one set in
+	 * {@link #setCache(DiskResponseCache)} is recommended. Incomplete responses, i.e. those with a
+	 * remark of the server about a runtime error, are never stored, as they would be kept forever.
+	 * <br><br>
+	 * These are Overpass QL queries with the <code>[date:"..."]</code> setting and
+	 * <code>[diff:"...","..."]</code> or <code>[adiff:"...","..."]</code> settings with two dates,
+	 * where all the dates are at least a day in the past (the database of the Overpass server
+	 * may lag behind). Any other queries use the normal cache, if set.
+	 *
+	 * @param snapshotCache the cache or null to not cache these responses separately
+	 */
+	public void setSnapshotCache(@Nullable DiskResponseCache snapshotCache)
+	{
+		this.snapshotCache = snapshotCache;
+	}
+
+	@Nullable public DiskResponseCache getSnapshotCache()
+	{
+		return snapshotCache;
+	}
+
+	/**
+	 * Set whether identical queries that are made while one of them is already in flight should
+	 * share the response of the query in flight instead of being sent to the server again. This
+	 * saves slots when many users request the same thing at once.
+	 * <br><br>
+	 * Queries can join until the response of the query in flight starts to arrive. From then on,
+	 * it is buffered in memory only if any queries joined, so that these can read it from the
+	 * beginning. Identical queries made after that are sent to the server again. Each query
+	 * parses the response with its own reader. Disabled by default.
+	 *
+	 * @param coalescingEnabled whether to share the response of identical queries in flight
+	 */
+	public void setCoalescingEnabled(boolean coalescingEnabled)
+	{
+		this.coalescingEnabled = coalescingEnabled;
+	}
+
+	public boolean isCoalescingEnabled()
+	{
+		return coalescingEnabled;
+	}
+
+	/**
+	 * Set a dictionary in which the tag keys and values of the elements returned by
+	 * {@link #queryElementsWithGeometry(String, MapDataWithGeometryHandler)} and
+	 * {@link #queryElementsWithPackedGeometry(String, MapDataWithPackedGeometryHandler)} are
+	 * looked up, so that equal strings are held in memory only once. This considerably reduces
+	 * the memory needed when many elements are kept in memory. The same interner is used for all
+	 * queries, so the dictionary is shared between them.
+	 *
+	 * @param stringInterner the interner or null to not intern strings
+	 */
+	public void setStringInterner(@Nullable StringInterner stringInterner)
+	{
+		this.stringInterner = stringInterner;
+	}
+
+	@Nullable public StringInterner getStringInterner()
+	{
+		return stringInterner;
+	}
+
+	/**
+	 * Set the executor on which the asynchronous query methods like
+	 * {@link #queryElementsAsync(String, MapDataHandler)} are run. By default, a shared pool of
+	 * daemon threads is used that grows as needed.
+	 * <br><br>
+	 * Since the queries block while waiting for the server, on Java 21 and newer it is a good
+	 * idea to supply <code>Executors.newVirtualThreadPerTaskExecutor()</code> here.
+	 * <br><br>
+	 * Methods that run several queries in parallel, like
+	 * {@link #queryElementsById(Element.Type, long[], MapDataHandler)} or those of the
+	 * {@link OverpassTiler}, run them on this executor too. The calling thread runs some of the
+	 * queries itself, so these also complete if the executor has only few threads or all of its
+	 * threads are busy. Then, fewer queries run in parallel.
+	 *
+	 * @param executor the executor to run the queries on
+	 */
+	public void setExecutor(@NotNull Executor executor)
+	{
+		this.executor = executor;
+	}
+
+	@NotNull public Executor getExecutor()
+	{
+		Executor executor = this.executor;
+		return executor != null ? executor : DefaultExecutor.INSTANCE;
+	}
+
+	/**
+	 * Everything that runs queries in parallel on this api, like the {@link OverpassTiler}, shares
+	 * this scheduler, so that together they stay within the request quota. Use it also to run own
+	 * queries in parallel to those.
+	 *
+	 * @return the scheduler that runs queries on this api within the request quota
+	 */
+	@NotNull public OverpassQueryScheduler getQueryScheduler()
+	{
+		return queryScheduler;
+	}
+
+	/**
+	 * Queries ask the server to compress the response with gzip or deflate, which is then
+	 * decompressed transparently. Comparing this number to {@link #getDecodedBytesReceived()}
+	 * shows how much was saved by compression.
+	 *
+	 * @return the total number of bytes received as responses to queries, as transferred, i.e.
+	 *         before decompression. Responses read from the cache are not included.
+	 */
+	public long getRawBytesReceived()
+	{
+		return rawBytesReceived.get();
+	}
+
+	/** @return the total number of bytes received as responses to queries after decompression.
+	 *          Responses read from the cache are not included. */
+	public long getDecodedBytesReceived()
+	{
+		return decodedBytesReceived.get();
+	}
+
+	/**
+	 * Set a listener that is notified about each query with measurements such as the time until
+	 * the response has been received, the time spent parsing it, its size and the number of
+	 * elements in it. See {@link QueryMetrics}.
+	 *
+	 * @param queryListener the listener or null to not measure queries
+	 */
+	public void setQueryListener(@Nullable QueryListener queryListener)
+	{
+		this.queryListener = queryListener;
+	}
+
+	@Nullable public QueryListener getQueryListener()
+	{
+		return queryListener;
+	}
+
+	@NotNull MapDataFactory getMapDataFactory()
+	{
+		return mapDataFactory;
+	}
+
 	/**
 	 * Executes the given query and expects a response that is alike a map data query on the
 	 * OSM API, just returning the map data. For example a query with <code>out body;</code>.
@@ -48,7 +272,8 @@ public class OverpassMapDataApi
 	 */
 	public void queryElements(@NotNull String query, @NotNull MapDataHandler handler)
 	{
-		query(query, new MapDataParser(handler, mapDataFactory));
+		ElementCounter counter = new ElementCounter();
+		query(query, counter.attachTo(new MapDataParser(counter.count(handler), mapDataFactory)));
 	}
 
 	/**
@@ -64,7 +289,26 @@ public class OverpassMapDataApi
 	 */
 	public void queryElementsWithGeometry(@NotNull String query, @NotNull MapDataWithGeometryHandler handler)
 	{
-		query(query, new MapDataWithGeometryParser(handler, mapDataFactory));
+		ElementCounter counter = new ElementCounter();
+		query(query, counter.attachTo(new MapDataWithGeometryParser(counter.count(handler), mapDataFactory, stringInterner)));
+	}
+
+	/**
+	 * Executes the given query that has the <code>geom</code> modificator, like
+	 * {@link #queryElementsWithGeometry(String, MapDataWithGeometryHandler)}, but passes the
+	 * geometry in a packed form that uses much less memory.
+	 *
+	 * @param query Query string. Either Overpass QL or Overpass XML query string. The query must
+	 *              contain the <code>geom</code> modificator.
+	 * @param handler function to feed the map data and packed geometry to
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 */
+	public void queryElementsWithPackedGeometry(@NotNull String query, @NotNull MapDataWithPackedGeometryHandler handler)
+	{
+		ElementCounter counter = new ElementCounter();
+		query(query, counter.attachTo(new MapDataWithPackedGeometryParser(counter.count(handler), mapDataFactory, stringInterner)));
 	}
 
 	/**
@@ -89,6 +333,51 @@ public class OverpassMapDataApi
 		query(query, new CsvParser(handler));
 	}
 
+	/**
+	 * Executes the given query that has the <a href="https://wiki.openstreetmap.org/wiki/Overpass_API/Overpass_QL#CSV_output_mode">output mode set to CSV</a>,
+	 * like {@link #queryTable(String, Handler, String)}, but passes each row as a reused
+	 * {@link CsvRow}, so that no strings need to be created for values that are read as numbers
+	 * or not read at all.
+	 *
+	 * @param query Query string. Either Overpass QL or Overpass XML query string. The query must
+	 *              use the output mode CSV.
+	 * @param handler function to feed the rows to
+	 * @param separator The separator to expect in the CSV response. The default is the tab character.
+	 * @param hasHeader whether the response starts with a header row, which is the default in
+	 *                  Overpass QL. If so, it is not passed to the handler.
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 */
+	public void queryTable(
+			@NotNull String query, @NotNull CsvRowHandler handler, @NotNull String separator,
+			boolean hasHeader)
+	{
+		query(query, new CsvParser(handler, separator, hasHeader));
+	}
+
+	/**
+	 * Executes the given query that has the <a href="https://wiki.openstreetmap.org/wiki/Overpass_API/Overpass_QL#CSV_output_mode">output mode set to CSV</a>
+	 * and passes the result in batches of rows that are stored by column in primitive arrays,
+	 * ready to be fed into data analysis. See {@link ColumnarCsvParser}.
+	 *
+	 * @param query Query string. Either Overpass QL or Overpass XML query string. The query must
+	 *              use the output mode CSV with the default separator and a header row, for
+	 *              example <code>[out:csv(::id, ::lat, ::lon, name)]</code>.
+	 * @param schema the types of the columns defined in the query
+	 * @param batchSize the number of rows per batch
+	 * @param handler function to feed the batches to
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 */
+	public void queryTable(
+			@NotNull String query, @NotNull TableSchema schema, int batchSize,
+			@NotNull TableBatchHandler handler)
+	{
+		query(query, new ColumnarCsvParser(schema, batchSize, handler));
+	}
+
 	/**
 	 * Executes the given query to count the elements. For example a query with
 	 * <code>out count;</code>. See <a href="https://wiki.openstreetmap.org/wiki/Overpass_API/Overpass_QL#out"><code>out statements</code></a>.
@@ -104,6 +393,314 @@ public class OverpassMapDataApi
 		return query(query, new ElementCountParser());
 	}
 
+	/**
+	 * Executes several queries that count elements in one single request, so that only one slot
+	 * is used for all of them. The queries are executed one after another, so any named sets
+	 * defined in one query are still defined in the queries that follow.
+	 *
+	 * @param settings the settings for the whole request, for example
+	 *                 <code>[timeout:300];</code>. The queries themselves must not contain any
+	 *                 settings.
+	 * @param queries Overpass QL queries that each end with <code>out count;</code>
+	 * @return the count of each query, in the same order as the queries
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 * @throws IllegalArgumentException if the queries did not output exactly one count each
+	 */
+	@NotNull public List<ElementCount> queryCounts(@NotNull String settings, @NotNull List<String> queries)
+	{
+		if (queries.isEmpty()) return new ArrayList<>();
+
+		StringBuilder query = new StringBuilder(settings);
+		for (String subQuery : queries)
+		{
+			query.append('\n').append(subQuery);
+		}
+		ElementCountParser parser = new ElementCountParser();
+		List<ElementCount> counts = query(query, in -> {
+			parser.parse(in);
+			return parser.getElementCounts();
+		});
+		if (counts.size() != queries.size())
+		{
+			throw new IllegalArgumentException(
+					"Expected " + queries.size() + " counts but got " + counts.size() +
+					". Each query must end with exactly one out count;");
+		}
+		return counts;
+	}
+
+	/** @see #queryCounts(String, List) */
+	@NotNull public List<ElementCount> queryCounts(@NotNull List<String> queries)
+	{
+		return queryCounts("", queries);
+	}
+
+	/**
+	 * Fetches the elements of the given type with the given ids, including their meta data, i.e.
+	 * as with <code>out meta;</code>. Only the elements themselves are fetched, not the nodes of
+	 * ways or the members of relations. Elements that do not exist are left out.
+	 * <br><br>
+	 * The ids are sorted, duplicates are removed and runs of consecutive ids are queried as a range.
+	 * They are split up into queries that are at most 64KB each when they are sent. If there is
+	 * more than one, the queries are run in parallel within the request quota on the executor of
+	 * this api, see {@link #getQueryScheduler()} and {@link #setExecutor(Executor)}.
+	 *
+	 * @param type the type of the elements
+	 * @param ids the ids of the elements. The array is not modified.
+	 * @param handler handler to feed the map data to. It is only called by one thread at a time.
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
+	 */
+	public void queryElementsById(@NotNull Element.Type type, @NotNull long[] ids, @NotNull MapDataHandler handler)
+	{
+		queryElementsById(type, ids, DEFAULT_MAX_ID_QUERY_LENGTH, handler);
+	}
+
+	/**
+	 * Like {@link #queryElementsById(Element.Type, long[], MapDataHandler)}, but with the given
+	 * maximum length of each query when it is sent, i.e. URL-encoded. A query always contains at
+	 * least one id, even if it is longer.
+	 */
+	public void queryElementsById(
+			@NotNull Element.Type type, @NotNull long[] ids, int maxQueryLength,
+			@NotNull MapDataHandler handler)
+	{
+		if (maxQueryLength <= 0) throw new IllegalArgumentException("maxQueryLength must be positive");
+		long[] sortedIds = ElementIdQueries.sortedDistinct(ids);
+		if (sortedIds.length == 0) return;
+
+		OverpassQueryScheduler scheduler = getQueryScheduler();
+		MapDataHandler synchronizedHandler = new SynchronizedMapDataHandler(handler);
+		List<Runnable> tasks = new ArrayList<>();
+		for (int from = 0; from < sortedIds.length; )
+		{
+			int start = from;
+			int end = ElementIdQueries.chunkEnd(type, sortedIds, from, maxQueryLength);
+			from = end;
+			// the query is only created when it is run so that not all of them are in memory at once
+			tasks.add(() ->
+			{
+				ElementCounter counter = new ElementCounter();
+				scheduler.query(
+						ElementIdQueries.create(type, sortedIds, start, end),
+						counter.attachTo(new MapDataParser(counter.count(synchronizedHandler), mapDataFactory)));
+			});
+		}
+		ParallelTasks.runAll(tasks, getExecutor(), scheduler.getMaxConcurrentQueries());
+	}
+
+	/**
+	 * Executes the given query for an
+	 * <a href="https://wiki.openstreetmap.org/wiki/Overpass_API/Augmented_Diffs">augmented diff</a>,
+	 * i.e. a query with the <code>[adiff:...]</code> setting that outputs with the
+	 * <code>geom</code> modificator. For example
+	 * <code>[adiff:"2020-01-01T00:00:00Z","2020-01-02T00:00:00Z"]; way[highway]; out meta geom;</code>
+	 * <br><br>
+	 * Only the elements that changed in the given time span are transferred, so this is a cheap
+	 * way to keep data that has been queried before up to date.
+	 *
+	 * @param query Query string. Either Overpass QL or Overpass XML query string.
+	 * @param handler handler to feed the created, modified and deleted elements to
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 */
+	public void queryAugmentedDiff(@NotNull String query, @NotNull AugmentedDiffHandler handler)
+	{
+		ElementCounter counter = new ElementCounter();
+		query(query, counter.attachTo(new AugmentedDiffParser(counter.count(handler), mapDataFactory, stringInterner)));
+	}
+
+	/**
+	 * Executes the given query for an augmented diff between the given dates, see
+	 * {@link #queryAugmentedDiff(String, AugmentedDiffHandler)}. The <code>[adiff:...]</code>
+	 * setting is added to the given query.
+	 *
+	 * @param query Overpass QL query string without the adiff setting, for example
+	 *              <code>way[highway](53.5,9.9,53.6,10.0); out meta geom;</code>. It may contain
+	 *              other settings.
+	 * @param from the date of the old state, e.g. the date of the last synchronization.
+	 *             Fractions of a second are ignored.
+	 * @param to the date of the new state. Fractions of a second are ignored.
+	 * @param handler handler to feed the created, modified and deleted elements to
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 */
+	public void queryAugmentedDiff(
+			@NotNull String query, @NotNull Instant from, @NotNull Instant to,
+			@NotNull AugmentedDiffHandler handler)
+	{
+		String setting = "[adiff:\"" + toOverpassDate(from) + "\",\"" + toOverpassDate(to) + "\"]";
+		// settings are written one after another, terminated by one semicolon
+		String trimmedQuery = query.trim();
+		if (trimmedQuery.startsWith("[")) queryAugmentedDiff(setting + trimmedQuery, handler);
+		else queryAugmentedDiff(setting + ";\n" + trimmedQuery, handler);
+	}
+
+	private static String toOverpassDate(Instant instant)
+	{
+		return instant.truncatedTo(ChronoUnit.SECONDS).toString();
+	}
+
+	/**
+	 * Executes the given query and returns the elements as a stream as they are received. The
+	 * query is executed on the executor of this api and runs ahead of the consumer of the stream
+	 * by at most 1000 elements, so memory usage stays constant even if the consumer is slower.
+	 * <br><br>
+	 * The stream should be closed when it is not consumed to the end, e.g. by using a
+	 * try-with-resources statement. This aborts the query. The global bounding box is not
+	 * included in the stream.
+	 *
+	 * @param query Query string. Either Overpass QL or Overpass XML query string.
+	 * @return the nodes, ways and relations in the order they are received
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota. Thrown by the
+	 *                                     stream on consumption.
+	 * @throws OsmBadUserInputException if there is an error in the query. Thrown by the stream on
+	 *                                  consumption.
+	 * @see #queryElements(String, MapDataHandler)
+	 */
+	@NotNull public Stream<Element> queryElementsAsStream(@NotNull String query)
+	{
+		HandoffIterator<Element> iterator = new HandoffIterator<>(STREAM_BUFFER_SIZE);
+		MapDataHandler handler = new MapDataHandler()
+		{
+			@Override public void handle(BoundingBox bounds) {}
+			@Override public void handle(Node node) { iterator.put(node); }
+			@Override public void handle(Way way) { iterator.put(way); }
+			@Override public void handle(Relation relation) { iterator.put(relation); }
+		};
+		produceInBackground(iterator, () -> queryElements(query, handler));
+		return toStream(iterator);
+	}
+
+	/**
+	 * Executes the given query that has the <code>geom</code> modificator and returns the elements
+	 * with their geometry as a stream as they are received.
+	 *
+	 * @see #queryElementsAsStream(String)
+	 * @see #queryElementsWithGeometry(String, MapDataWithGeometryHandler)
+	 */
+	@NotNull public Stream<ElementWithGeometry> queryElementsWithGeometryAsStream(@NotNull String query)
+	{
+		HandoffIterator<ElementWithGeometry> iterator = new HandoffIterator<>(STREAM_BUFFER_SIZE);
+		MapDataWithGeometryHandler handler = new MapDataWithGeometryHandler()
+		{
+			@Override public void handle(@NotNull BoundingBox bounds) {}
+
+			@Override public void handle(@NotNull Node node)
+			{
+				iterator.put(new ElementWithGeometry(node));
+			}
+
+			@Override public void handle(
+					@NotNull Way way, @NotNull BoundingBox bounds, @NotNull List<LatLon> geometry)
+			{
+				iterator.put(new ElementWithGeometry(way, bounds, geometry));
+			}
+
+			@Override public void handle(
+					@NotNull Relation relation, @NotNull BoundingBox bounds,
+					@NotNull Map<Long, LatLon> nodeGeometries,
+					@NotNull Map<Long, List<LatLon>> wayGeometries)
+			{
+				iterator.put(new ElementWithGeometry(relation, bounds, nodeGeometries, wayGeometries));
+			}
+		};
+		produceInBackground(iterator, () -> queryElementsWithGeometry(query, handler));
+		return toStream(iterator);
+	}
+
+	private void produceInBackground(HandoffIterator<?> iterator, Runnable producer)
+	{
+		getExecutor().execute(() ->
+		{
+			try
+			{
+				producer.run();
+				iterator.finish();
+			}
+			catch (Throwable e)
+			{
+				iterator.fail(e);
+			}
+		});
+	}
+
+	private static <T> Stream<T> toStream(HandoffIterator<T> iterator)
+	{
+		Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+		return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+	}
+
+	/**
+	 * Executes the given query asynchronously on the executor of this api. The handler is called
+	 * from that executor.
+	 *
+	 * @see #queryElements(String, MapDataHandler)
+	 * @see #setExecutor(Executor)
+	 */
+	@NotNull public CompletableFuture<Void> queryElementsAsync(@NotNull String query, @NotNull MapDataHandler handler)
+	{
+		return CompletableFuture.runAsync(() -> queryElements(query, handler), getExecutor());
+	}
+
+	/**
+	 * Executes the given query asynchronously on the executor of this api. The handler is called
+	 * from that executor.
+	 *
+	 * @see #queryElementsWithGeometry(String, MapDataWithGeometryHandler)
+	 * @see #setExecutor(Executor)
+	 */
+	@NotNull public CompletableFuture<Void> queryElementsWithGeometryAsync(@NotNull String query, @NotNull MapDataWithGeometryHandler handler)
+	{
+		return CompletableFuture.runAsync(() -> queryElementsWithGeometry(query, handler), getExecutor());
+	}
+
+	/**
+	 * Executes the given query asynchronously on the executor of this api. The handler is called
+	 * from that executor.
+	 *
+	 * @see #queryTable(String, Handler, String)
+	 * @see #setExecutor(Executor)
+	 */
+	@NotNull public CompletableFuture<Void> queryTableAsync(@NotNull String query, @NotNull Handler<String[]> handler, @NotNull String separator)
+	{
+		return CompletableFuture.runAsync(() -> queryTable(query, handler, separator), getExecutor());
+	}
+
+	/** @see #queryTableAsync(String, Handler, String) */
+	@NotNull public CompletableFuture<Void> queryTableAsync(@NotNull String query, @NotNull Handler<String[]> handler)
+	{
+		return CompletableFuture.runAsync(() -> queryTable(query, handler), getExecutor());
+	}
+
+	/**
+	 * Executes the given query asynchronously on the executor of this api.
+	 *
+	 * @see #queryCount(String)
+	 * @see #setExecutor(Executor)
+	 */
+	@NotNull public CompletableFuture<ElementCount> queryCountAsync(@NotNull String query)
+	{
+		return CompletableFuture.supplyAsync(() -> queryCount(query), getExecutor());
+	}
+
+	/**
+	 * Executes the given query asynchronously on the executor of this api. The future completes
+	 * exceptionally with the same exceptions that {@link #query(String, ApiResponseReader)} throws.
+	 *
+	 * @see #query(String, ApiResponseReader)
+	 * @see #setExecutor(Executor)
+	 */
+	@NotNull public <T> CompletableFuture<T> queryAsync(@NotNull final String query, ApiResponseReader<T> reader)
+	{
+		return CompletableFuture.supplyAsync(() -> query(query, reader), getExecutor());
+	}
+
 	/**
 	 * Executes the given query. Since the output format and the content of the output can vary
 	 * greatly depending on the type of query, you must specify yourself how you are going to parse
@@ -114,35 +711,258 @@ public class OverpassMapDataApi
 	 * @param <T> what the type of object the reader returns
 	 * @return what the supplied reader returns
 	 *
-	 * @throws OsmTooManyRequestsException if the user is over his request quota. See getStatus, killMyQueries
+	 * @throws OsmTooManyRequestsException if the user is over his request quota and either no
+	 *                                     retry policy is set or it gave up. See getStatus,
+	 *                                     killMyQueries, setRetryPolicy
 	 * @throws OsmBadUserInputException if there is an error in the query
 	 */
-	public synchronized <T> T query(@NotNull final String query, ApiResponseReader<T> reader)
+	public <T> T query(@NotNull final String query, ApiResponseReader<T> reader)
+	{
+		return query((CharSequence) query, reader);
+	}
+
+	/**
+	 * Executes the given query, like {@link #query(String, ApiResponseReader)}. The query is
+	 * URL-encoded in chunks directly into the request, so no further copy of it is created. This
+	 * is useful for very large queries, e.g. ones that contain a long list of ids, which can be
+	 * built in a StringBuilder and passed in as is.
+	 * <br><br>
+	 * Note that the query must not be modified until this method returns.
+	 *
+	 * @see #query(String, ApiResponseReader)
+	 */
+	public <T> T query(@NotNull final CharSequence query, ApiResponseReader<T> reader)
 	{
-		ApiRequestWriter writer = new ApiRequestWriter()
+		QueryListener listener = this.queryListener;
+		if (listener == null) return query(query, reader, null);
+
+		QueryMetrics metrics = new QueryMetrics();
+		metrics.queryHash = QueryKeys.hash(osm.getApiUrl(), query);
+		return measure(() -> query(query, reader, metrics), reader, metrics, listener);
+	}
+
+	private <T> T query(CharSequence query, ApiResponseReader<T> reader, QueryMetrics metrics)
+	{
+		UrlEncodingRequestWriter writer = new UrlEncodingRequestWriter("data", query);
+		DiskResponseCache cache = this.cache;
+		Long expiresAt = null;
+		DiskResponseCache snapshotCache = this.snapshotCache;
+		if (snapshotCache != null && SnapshotQueries.isSnapshot(query, Instant.now()))
 		{
-			@Override public String getContentType() { return "application/x-www-form-urlencoded"; }
+			cache = snapshotCache;
+			expiresAt = DiskResponseCache.NEVER;
+		}
+		boolean coalescingEnabled = this.coalescingEnabled;
+		if (cache == null && !coalescingEnabled) return queryWithRetry(writer, reader, metrics);
 
-			@Override public void write(OutputStream out) throws IOException
+		String key = metrics != null ? metrics.queryHash : QueryKeys.hash(osm.getApiUrl(), query);
+		if (cache != null)
+		{
+			InputStream cached = cache.get(key);
+			if (cached != null)
 			{
-				String request = "data=" + urlEncode(query);
-				out.write(request.getBytes(Charset.forName(OsmConnection.CHARSET)));
+				if (metrics != null) metrics.cacheHit = true;
+				return readCached(cached, reader);
 			}
-		};
+		}
+		if (coalescingEnabled) return queryCoalesced(key, writer, reader, cache, expiresAt, metrics);
+
+		return queryWithRetry(writer, new CachingResponseReader<>(reader, cache, key, expiresAt), metrics);
+	}
+
+	/**
+	 * Executes the query read from the given reader, like
+	 * {@link #query(String, ApiResponseReader)}. The query is read and URL-encoded in chunks
+	 * directly into the request, so it is never held in memory as a whole.
+	 * <br><br>
+	 * Since the query can only be read once, it is executed exactly once: it is neither retried
+	 * with the retry policy, nor looked up in or stored to the cache, nor coalesced with other
+	 * queries. The query reader is not closed.
+	 *
+	 * @see #query(String, ApiResponseReader)
+	 */
+	public <T> T query(@NotNull final Reader query, ApiResponseReader<T> reader)
+	{
+		UrlEncodingRequestWriter writer = new UrlEncodingRequestWriter("data", query);
+		QueryListener listener = this.queryListener;
+		if (listener == null) return doQuery(writer, reader, null);
+
+		QueryMetrics metrics = new QueryMetrics();
+		return measure(() -> doQuery(writer, reader, metrics), reader, metrics, listener);
+	}
+
+	private <T> T measure(
+			Supplier<T> query, ApiResponseReader<T> reader, QueryMetrics metrics,
+			QueryListener listener)
+	{
+		long startedAt = System.nanoTime();
+		try
+		{
+			return query.get();
+		}
+		catch (RuntimeException e)
+		{
+			metrics.failure = e;
+			throw e;
+		}
+		finally
+		{
+			metrics.totalNanos = System.nanoTime() - startedAt;
+			ElementCounter counter = ElementCounter.of(reader);
+			if (counter != null) counter.addTo(metrics);
+			listener.onQueryFinished(metrics);
+		}
+	}
+
+	/** Executes the query unless the same query is already in flight and it is not too late to
+	 *  join it, in which case the response of that one is read as well. Only the query actually
+	 *  executed stores the response in the given cache, if any */
+	private <T> T queryCoalesced(
+			String key, UrlEncodingRequestWriter writer, ApiResponseReader<T> reader,
+			DiskResponseCache cache, Long expiresAt, QueryMetrics metrics)
+	{
+		SharedResponse response = new SharedResponse();
+		SharedResponse inFlight = inFlightQueries.putIfAbsent(key, response);
+		InputStream shared = inFlight != null ? inFlight.join() : null;
+		if (shared != null)
+		{
+			if (metrics != null) metrics.coalesced = true;
+			return readShared(inFlight, shared, reader);
+		}
+
+		if (cache != null) reader = new CachingResponseReader<>(reader, cache, key, expiresAt);
+		// too late to join the query in flight, its response is already being received
+		if (inFlight != null) return queryWithRetry(writer, reader, metrics);
+
+		try
+		{
+			return queryWithRetry(writer, new SharingResponseReader<>(reader, response), metrics);
+		}
+		catch (RuntimeException e)
+		{
+			response.fail(e);
+			throw e;
+		}
+		finally
+		{
+			inFlightQueries.remove(key, response);
+		}
+	}
+
+	private <T> T readShared(SharedResponse response, InputStream shared, ApiResponseReader<T> reader)
+	{
+		try (InputStream in = shared)
+		{
+			return reader.parse(in);
+		}
+		catch (Exception e)
+		{
+			// the query in flight failed, so this one fails the same way
+			RuntimeException failure = response.getFailure();
+			if (failure != null) throw failure;
+			if (e instanceof RuntimeException) throw (RuntimeException) e;
+			throw new OsmApiException(e);
+		}
+	}
+
+	private <T> T readCached(InputStream cached, ApiResponseReader<T> reader)
+	{
+		try (InputStream in = cached)
+		{
+			return reader.parse(in);
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new OsmApiException(e);
+		}
+	}
+
+	private <T> T queryWithRetry(UrlEncodingRequestWriter writer, ApiResponseReader<T> reader, QueryMetrics metrics)
+	{
+		OverpassRetryPolicy retryPolicy = this.retryPolicy;
+		if (retryPolicy == null) return doQuery(writer, reader, metrics);
+
+		long deadline = System.currentTimeMillis() + retryPolicy.getTimeout();
+		int retries = 0;
+		while (true)
+		{
+			try
+			{
+				return doQuery(writer, reader, metrics);
+			}
+			catch (OsmTooManyRequestsException e)
+			{
+				if (retries >= retryPolicy.getMaxRetries()) throw e;
+
+				long delay = retryPolicy.getDelay(getStatus());
+				if (System.currentTimeMillis() + delay > deadline) throw e;
+
+				try
+				{
+					Thread.sleep(delay);
+				}
+				catch (InterruptedException ie)
+				{
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				retries++;
+				if (metrics != null) metrics.retries++;
+			}
+		}
+	}
+
+	private <T> T doQuery(UrlEncodingRequestWriter writer, ApiResponseReader<T> reader, QueryMetrics metrics)
+	{
+		DecompressingResponseReader<T> decompressingReader = new DecompressingResponseReader<>(reader);
+		long startedAt = System.nanoTime();
 		try
 		{
-			return osm.makeRequest("interpreter", "POST", false, writer, reader);
+			return sendQuery(writer, decompressingReader);
 		} catch (OsmApiException e)
 		{
-			if (e.getErrorCode() == 429) throw new OsmTooManyRequestsException(e);
+			if (e.getErrorCode() == 429)
+			{
+				if (metrics != null) metrics.tooManyRequestsCount++;
+				throw new OsmTooManyRequestsException(e);
+			}
 			else throw e;
 		}
+		finally
+		{
+			rawBytesReceived.addAndGet(decompressingReader.getRawBytes());
+			decodedBytesReceived.addAndGet(decompressingReader.getDecodedBytes());
+			if (metrics != null) addMeasurements(metrics, decompressingReader, startedAt);
+		}
+	}
+
+	/** Sends the query to the server and passes the response to the given reader */
+	<T> T sendQuery(UrlEncodingRequestWriter writer, DecompressingResponseReader<T> reader)
+	{
+		return InterpreterRequest.post(osm, writer, reader);
+	}
+
+	private static void addMeasurements(QueryMetrics metrics, DecompressingResponseReader<?> reader, long startedAt)
+	{
+		metrics.rawBytes += reader.getRawBytes();
+		metrics.decodedBytes += reader.getDecodedBytes();
+		long parseStartedAt = reader.getParseStartedAt();
+		if (parseStartedAt != 0)
+		{
+			metrics.timeToFirstByteNanos = parseStartedAt - startedAt;
+			metrics.transferNanos += reader.getTransferNanos();
+			metrics.parseNanos += reader.getParseNanos();
+		}
 	}
 
 	/** Kills all the queries sent from this IP. Useful if there is a runaway query that takes far
 	 *  too much time and blocks the user from making any more queries
 	 */
-	public synchronized void killMyQueries()
+	public void killMyQueries()
 	{
 		osm.makeRequest("kill_my_queries", null);
 	}
@@ -150,21 +970,18 @@ public class OverpassMapDataApi
 	/** Get info about how many queries the user may make until reaching his quota
 	 *  @return the current quota status
 	 */
-	public synchronized OverpassStatus getStatus()
+	public OverpassStatus getStatus()
 	{
 		return osm.makeRequest("status", new OverpassStatusParser());
 	}
 
-	private String urlEncode(String text)
+	private static class DefaultExecutor
 	{
-		try
+		static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable ->
 		{
-			return URLEncoder.encode(text, OsmConnection.CHARSET);
-		}
-		catch (UnsupportedEncodingException e)
-		{
-			// should never happen since we use UTF-8
-			throw new RuntimeException(e);
-		}
+			Thread thread = new Thread(runnable, "overpass-query");
+			thread.setDaemon(true);
+			return thread;
+		});
 	}
 }
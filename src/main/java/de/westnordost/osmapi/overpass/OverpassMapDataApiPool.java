@@ -0,0 +1,436 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import de.westnordost.osmapi.OsmConnection;
+import de.westnordost.osmapi.common.errors.OsmApiException;
+import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
+import de.westnordost.osmapi.map.MapDataFactory;
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+
+/**
+ * Spreads the queries over several Overpass servers, e.g. own mirrors and public instances. Each
+ * query is sent to one of the endpoints at random, weighted by the number of free slots the
+ * endpoint has and by how fast it responded to recent queries.
+ * <br><br>
+ * If an endpoint fails to respond to a query or rejects it because the user is over the quota
+ * there, the query is sent to the next endpoint instead. This is not done if the response was
+ * already being read when the error occurred, as the handler might then receive the same
+ * elements twice. An endpoint is ejected after several failures in a row and not used anymore
+ * until the ejection time passed, see {@link #setEjectionPolicy(int, long)}.
+ * <br><br>
+ * Like in the {@link OverpassQueryScheduler}, the free slots of each endpoint are tracked locally
+ * and its status is only requested again when they have been used up. If no endpoint has a free
+ * slot, an {@link OsmTooManyRequestsException} is thrown without making a request.
+ * {@link #getStatus()} returns the slots of all endpoints added together, so a retry policy or an
+ * {@link OverpassQueryScheduler} work with the pool just like with a single endpoint.
+ * <br><br>
+ * All endpoints are expected to serve the same data, so the response from any endpoint is stored
+ * under the same key in the cache.
+ */
+public class OverpassMapDataApiPool extends OverpassMapDataApi
+{
+	private static final int DEFAULT_MAX_CONSECUTIVE_FAILURES = 3;
+	private static final long DEFAULT_EJECTION_TIME = 60000;
+	/** Time to wait until asking an endpoint again if it did not say when the next slot is free */
+	private static final long STATUS_REFRESH_INTERVAL = 1000;
+	/** Number of queries assumed to run well at once on endpoints without a rate limit */
+	private static final int UNLIMITED_SLOTS = 8;
+	/** Weight of the latest response time in the moving average of the response times */
+	private static final double LATENCY_SMOOTHING = 0.2;
+
+	private final List<Endpoint> endpoints = new ArrayList<>();
+	private final Object lock = new Object();
+
+	private volatile int maxConsecutiveFailures = DEFAULT_MAX_CONSECUTIVE_FAILURES;
+	private volatile long ejectionTime = DEFAULT_EJECTION_TIME;
+
+	public OverpassMapDataApiPool(@NotNull List<OsmConnection> endpoints, @NotNull MapDataFactory mapDataFactory)
+	{
+		super(getFirst(endpoints), mapDataFactory);
+		for (OsmConnection osm : endpoints)
+		{
+			this.endpoints.add(new Endpoint(osm));
+		}
+	}
+
+	public OverpassMapDataApiPool(@NotNull List<OsmConnection> endpoints)
+	{
+		this(endpoints, new OsmMapDataFactory());
+	}
+
+	private static OsmConnection getFirst(List<OsmConnection> endpoints)
+	{
+		if (endpoints.isEmpty()) throw new IllegalArgumentException("endpoints must not be empty");
+		return endpoints.get(0);
+	}
+
+	/**
+	 * Set when an endpoint is ejected. Both errors and rejections because the user is over the
+	 * quota count as failures. By default, an endpoint is ejected for a minute after 3 failures in
+	 * a row.
+	 *
+	 * @param maxConsecutiveFailures number of failures in a row after which the endpoint is ejected
+	 * @param ejectionTime time in milliseconds the endpoint is not used after it has been ejected
+	 */
+	public void setEjectionPolicy(int maxConsecutiveFailures, long ejectionTime)
+	{
+		if (maxConsecutiveFailures <= 0) throw new IllegalArgumentException("maxConsecutiveFailures must be positive");
+		if (ejectionTime < 0) throw new IllegalArgumentException("ejectionTime must not be negative");
+		this.maxConsecutiveFailures = maxConsecutiveFailures;
+		this.ejectionTime = ejectionTime;
+	}
+
+	public int getMaxConsecutiveFailures() { return maxConsecutiveFailures; }
+
+	public long getEjectionTime() { return ejectionTime; }
+
+	/** @return the number of endpoints that are currently not ejected */
+	public int getAvailableEndpointsCount()
+	{
+		synchronized (lock)
+		{
+			long now = System.currentTimeMillis();
+			int count = 0;
+			for (Endpoint endpoint : endpoints)
+			{
+				if (endpoint.isAvailable(now)) count++;
+			}
+			return count;
+		}
+	}
+
+	/** Kills all the queries sent from this IP on all endpoints */
+	@Override public void killMyQueries()
+	{
+		RuntimeException failure = null;
+		for (Endpoint endpoint : endpoints)
+		{
+			try
+			{
+				endpoint.osm.makeRequest("kill_my_queries", null);
+			}
+			catch (RuntimeException e)
+			{
+				failure = e;
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+	/** Get the quota status of all endpoints that are not ejected, added together. If any of them
+	 *  has no rate limit, the max available slots are 0, i.e. there is no rate limit. Endpoints
+	 *  that fail to respond are left out, unless none responds.
+	 *  @return the current quota status */
+	@Override public OverpassStatus getStatus()
+	{
+		List<Endpoint> candidates;
+		synchronized (lock)
+		{
+			candidates = getCandidates(new HashSet<>());
+		}
+		OverpassStatus result = new OverpassStatus();
+		boolean unlimited = false;
+		boolean anyResponded = false;
+		RuntimeException failure = null;
+		for (Endpoint endpoint : candidates)
+		{
+			OverpassStatus status;
+			try
+			{
+				status = refreshStatus(endpoint);
+			}
+			catch (RuntimeException e)
+			{
+				failure = e;
+				continue;
+			}
+			anyResponded = true;
+			if (status.maxAvailableSlots <= 0) unlimited = true;
+			result.maxAvailableSlots += status.maxAvailableSlots;
+			result.availableSlots += status.availableSlots;
+			if (status.nextAvailableSlotIn != null && (result.nextAvailableSlotIn == null
+					|| result.nextAvailableSlotIn > status.nextAvailableSlotIn))
+			{
+				result.nextAvailableSlotIn = status.nextAvailableSlotIn;
+			}
+		}
+		if (!anyResponded && failure != null) throw failure;
+		if (unlimited) result.maxAvailableSlots = 0;
+		return result;
+	}
+
+	@Override <T> T sendQuery(UrlEncodingRequestWriter writer, DecompressingResponseReader<T> reader)
+	{
+		Set<Endpoint> tried = new HashSet<>();
+		RuntimeException failure = null;
+		while (true)
+		{
+			refreshDueStatuses(tried);
+			Endpoint endpoint = takeEndpoint(tried);
+			if (endpoint == null)
+			{
+				if (failure != null) throw failure;
+				throw new OsmApiException(429, "Too Many Requests", "No endpoint has a free slot");
+			}
+			tried.add(endpoint);
+
+			long startedAt = System.nanoTime();
+			try
+			{
+				T result = InterpreterRequest.post(endpoint.osm, writer, reader);
+				onResponse(endpoint, reader.getParseStartedAt() - startedAt);
+				return result;
+			}
+			catch (RuntimeException e)
+			{
+				// the handler may have received some elements already
+				if (reader.getParseStartedAt() != 0)
+				{
+					onResponse(endpoint, reader.getParseStartedAt() - startedAt);
+					throw e;
+				}
+				// an error in the query would be an error on any endpoint
+				if (e instanceof OsmBadUserInputException) throw e;
+
+				boolean tooManyRequests = e instanceof OsmApiException && ((OsmApiException) e).getErrorCode() == 429;
+				synchronized (lock)
+				{
+					onFailure(endpoint, tooManyRequests);
+				}
+				if (!writer.isRepeatable()) throw e;
+				failure = e;
+			}
+			finally
+			{
+				release(endpoint);
+			}
+		}
+	}
+
+	/** Requests the status of those endpoints of which the free slots are not known */
+	private void refreshDueStatuses(Set<Endpoint> tried)
+	{
+		List<Endpoint> due = new ArrayList<>();
+		synchronized (lock)
+		{
+			long now = System.currentTimeMillis();
+			for (Endpoint endpoint : getCandidates(tried))
+			{
+				if (!endpoint.refreshingStatus && endpoint.isStatusDue(now))
+				{
+					endpoint.refreshingStatus = true;
+					due.add(endpoint);
+				}
+			}
+		}
+		// requesting the status happens outside the lock as it is a network call
+		for (Endpoint endpoint : due)
+		{
+			try
+			{
+				refreshStatus(endpoint);
+			}
+			catch (RuntimeException ignore)
+			{
+				// counted as failure of the endpoint
+			}
+		}
+	}
+
+	private OverpassStatus refreshStatus(Endpoint endpoint)
+	{
+		OverpassStatus status = null;
+		try
+		{
+			status = endpoint.osm.makeRequest("status", new OverpassStatusParser());
+			return status;
+		}
+		finally
+		{
+			synchronized (lock)
+			{
+				endpoint.refreshingStatus = false;
+				if (status != null) endpoint.applyStatus(status, System.currentTimeMillis());
+				else onFailure(endpoint, false);
+			}
+		}
+	}
+
+	/** @return an endpoint chosen at random, weighted by its free slots and response time, or
+	 *          null if none has any free slots */
+	private Endpoint takeEndpoint(Set<Endpoint> tried)
+	{
+		synchronized (lock)
+		{
+			List<Endpoint> candidates = getCandidates(tried);
+			double fastestLatency = getFastestLatency();
+			double[] weights = new double[candidates.size()];
+			double totalWeight = 0;
+			for (int i = 0; i < candidates.size(); i++)
+			{
+				Endpoint endpoint = candidates.get(i);
+				double latency = endpoint.latency > 0 ? endpoint.latency : fastestLatency;
+				weights[i] = endpoint.getFreeSlots() / latency;
+				totalWeight += weights[i];
+			}
+			if (totalWeight <= 0) return null;
+
+			double random = ThreadLocalRandom.current().nextDouble(totalWeight);
+			Endpoint chosen = null;
+			for (int i = 0; i < candidates.size(); i++)
+			{
+				if (weights[i] <= 0) continue;
+				chosen = candidates.get(i);
+				random -= weights[i];
+				if (random < 0) break;
+			}
+			chosen.take();
+			return chosen;
+		}
+	}
+
+	/** must be called while holding the lock */
+	private List<Endpoint> getCandidates(Set<Endpoint> tried)
+	{
+		long now = System.currentTimeMillis();
+		boolean anyAvailable = false;
+		for (Endpoint endpoint : endpoints)
+		{
+			if (endpoint.isAvailable(now)) anyAvailable = true;
+		}
+		List<Endpoint> candidates = new ArrayList<>();
+		for (Endpoint endpoint : endpoints)
+		{
+			if (tried.contains(endpoint)) continue;
+			// if all endpoints are ejected, rather try them anyway than fail right away
+			if (anyAvailable && !endpoint.isAvailable(now)) continue;
+			candidates.add(endpoint);
+		}
+		return candidates;
+	}
+
+	/** must be called while holding the lock.
+	 *  @return the lowest average response time of all endpoints, to assume for endpoints of which
+	 *          the response time is not known yet */
+	private double getFastestLatency()
+	{
+		double fastest = 0;
+		for (Endpoint endpoint : endpoints)
+		{
+			if (endpoint.latency > 0 && (fastest == 0 || endpoint.latency < fastest))
+			{
+				fastest = endpoint.latency;
+			}
+		}
+		return fastest > 0 ? fastest : 1;
+	}
+
+	private void onResponse(Endpoint endpoint, long responseTimeNanos)
+	{
+		synchronized (lock)
+		{
+			endpoint.consecutiveFailures = 0;
+			double latency = Math.max(1, responseTimeNanos / 1000000.0);
+			if (endpoint.latency == 0) endpoint.latency = latency;
+			else endpoint.latency += LATENCY_SMOOTHING * (latency - endpoint.latency);
+		}
+	}
+
+	/** must be called while holding the lock */
+	private void onFailure(Endpoint endpoint, boolean tooManyRequests)
+	{
+		// our local bookkeeping was wrong, so the status needs to be requested again
+		if (tooManyRequests) endpoint.availableSlots = 0;
+		endpoint.consecutiveFailures++;
+		if (endpoint.consecutiveFailures >= maxConsecutiveFailures)
+		{
+			endpoint.ejectedUntil = System.currentTimeMillis() + ejectionTime;
+			endpoint.consecutiveFailures = 0;
+			// when it is available again, it starts afresh
+			endpoint.statusKnown = false;
+			endpoint.latency = 0;
+		}
+	}
+
+	private void release(Endpoint endpoint)
+	{
+		synchronized (lock)
+		{
+			endpoint.runningQueries--;
+			endpoint.queryFinished = true;
+		}
+	}
+
+	/** State of an endpoint. Must only be accessed while holding the lock */
+	private static class Endpoint
+	{
+		final OsmConnection osm;
+
+		boolean statusKnown;
+		boolean refreshingStatus;
+		boolean unlimited;
+		int availableSlots;
+		long nextStatusRefreshAt;
+		/** whether a query finished since the status was requested, i.e. a slot may be free again */
+		boolean queryFinished;
+		int runningQueries;
+		/** moving average of the time until the response started in milliseconds, 0 if unknown */
+		double latency;
+		int consecutiveFailures;
+		long ejectedUntil;
+
+		Endpoint(OsmConnection osm)
+		{
+			this.osm = osm;
+		}
+
+		boolean isAvailable(long now)
+		{
+			return now >= ejectedUntil;
+		}
+
+		boolean isStatusDue(long now)
+		{
+			if (!statusKnown) return true;
+			if (unlimited || availableSlots > 0) return false;
+			return queryFinished || now >= nextStatusRefreshAt;
+		}
+
+		int getFreeSlots()
+		{
+			// endpoints of which the status could not be requested are tried out nonetheless, but
+			// only with one query at a time, as they may well have just one slot
+			if (!statusKnown) return runningQueries == 0 ? 1 : 0;
+			if (unlimited) return Math.max(1, UNLIMITED_SLOTS - runningQueries);
+			return Math.max(0, availableSlots);
+		}
+
+		void take()
+		{
+			runningQueries++;
+			if (statusKnown && !unlimited) availableSlots--;
+		}
+
+		void applyStatus(OverpassStatus status, long now)
+		{
+			statusKnown = true;
+			unlimited = status.maxAvailableSlots <= 0;
+			availableSlots = status.availableSlots;
+			queryFinished = false;
+
+			long waitTime = STATUS_REFRESH_INTERVAL;
+			if (status.nextAvailableSlotIn != null)
+			{
+				waitTime = Math.max(waitTime, status.nextAvailableSlotIn * 1000L);
+			}
+			nextStatusRefreshAt = now + waitTime;
+		}
+	}
+}
@@ -0,0 +1,261 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import de.westnordost.osmapi.common.errors.OsmApiException;
+import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+/**
+ * Merges many small queries that are made from any number of threads at about the same time into
+ * one request to the Overpass server, so that they cost only one slot and one round trip. The
+ * result is split up again and the map data of each query is passed to the handler of that query.
+ * <br><br>
+ * The first query waits for the given linger time for more queries to join it, unless the maximum
+ * batch size is reached earlier.
+ * <br><br>
+ * The queries are executed one after another within the same request, so named sets defined in one
+ * query are still defined in the queries that follow. Also, the queries must not contain any
+ * settings such as <code>[timeout:...]</code> and must use the XML output format.
+ * <br><br>
+ * The response is parsed on the thread of the first query of a batch, so the handlers of all
+ * queries in the batch are called on that thread, one after another. A handler that blocks or is
+ * slow thus stalls the whole batch, including the queries of other threads. Handlers should only
+ * collect the map data and leave any further processing to after the call returned.
+ */
+public class OverpassQueryBatcher
+{
+	private final OverpassMapDataApi api;
+	private final int maxBatchSize;
+	private final long lingerMillis;
+
+	private final Object lock = new Object();
+	/** batch that is still open for more queries to join */
+	private Batch openBatch;
+
+	/**
+	 * @param api the api to run the queries on
+	 * @param maxBatchSize maximum number of queries merged into one request
+	 * @param lingerMillis time in milliseconds the first query of a batch waits for more queries
+	 *                     to join it
+	 */
+	public OverpassQueryBatcher(@NotNull OverpassMapDataApi api, int maxBatchSize, long lingerMillis)
+	{
+		if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize must be positive");
+		if (lingerMillis < 0) throw new IllegalArgumentException("lingerMillis must not be negative");
+		this.api = api;
+		this.maxBatchSize = maxBatchSize;
+		this.lingerMillis = lingerMillis;
+	}
+
+	public int getMaxBatchSize() { return maxBatchSize; }
+
+	public long getLingerMillis() { return lingerMillis; }
+
+	/**
+	 * Executes the given query together with other queries made at about the same time. Blocks
+	 * until the map data of this query has been passed to the handler.
+	 *
+	 * @see OverpassMapDataApi#queryElements(String, MapDataHandler)
+	 *
+	 * @param query Overpass QL query without settings, for example <code>node(123); out meta;</code>
+	 * @param handler handler to feed the map data of this query to. It may be called on the thread
+	 *                of another query of the same batch, see the class documentation
+	 *
+	 * @throws OsmTooManyRequestsException if the user is over his request quota
+	 * @throws OsmBadUserInputException if there is an error in this query
+	 * @throws OsmApiException if the thread has been interrupted while waiting for the result
+	 */
+	public void queryElements(@NotNull String query, @NotNull MapDataHandler handler)
+	{
+		PendingQuery pending = new PendingQuery(query, handler);
+		Batch batch;
+		boolean leader;
+		synchronized (lock)
+		{
+			leader = openBatch == null;
+			if (leader) openBatch = new Batch();
+			batch = openBatch;
+			batch.queries.add(pending);
+			if (batch.queries.size() >= maxBatchSize)
+			{
+				closeBatch(batch);
+			}
+		}
+
+		if (leader)
+		{
+			boolean interrupted = waitForBatch(batch);
+			execute(batch.queries);
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+
+		try
+		{
+			pending.done.await();
+		}
+		catch (InterruptedException e)
+		{
+			pending.cancelled = true;
+			Thread.currentThread().interrupt();
+			throw new OsmApiException(e);
+		}
+		if (pending.failure != null) throw pending.failure;
+	}
+
+	/** @return whether the thread has been interrupted while waiting */
+	private boolean waitForBatch(Batch batch)
+	{
+		boolean interrupted = false;
+		long deadline = System.currentTimeMillis() + lingerMillis;
+		synchronized (lock)
+		{
+			while (!batch.closed)
+			{
+				long waitTime = deadline - System.currentTimeMillis();
+				if (waitTime <= 0 || interrupted) break;
+				try
+				{
+					lock.wait(waitTime);
+				}
+				catch (InterruptedException e)
+				{
+					// the batch is executed nonetheless, as other threads are waiting for it
+					interrupted = true;
+				}
+			}
+			closeBatch(batch);
+		}
+		return interrupted;
+	}
+
+	private void closeBatch(Batch batch)
+	{
+		if (batch.closed) return;
+		batch.closed = true;
+		if (openBatch == batch) openBatch = null;
+		lock.notifyAll();
+	}
+
+	private void execute(List<PendingQuery> queries)
+	{
+		if (queries.size() == 1)
+		{
+			executeSingle(queries.get(0));
+			return;
+		}
+
+		StringBuilder query = new StringBuilder();
+		List<MapDataHandler> handlers = new ArrayList<>(queries.size());
+		for (int i = 0; i < queries.size(); i++)
+		{
+			PendingQuery pending = queries.get(i);
+			query.append(MapDataBatchParser.createSeparator(i)).append('\n');
+			query.append(pending.query).append('\n');
+			handlers.add(new CancellableMapDataHandler(pending));
+		}
+		MapDataBatchParser parser = new MapDataBatchParser(handlers, api.getMapDataFactory());
+		try
+		{
+			api.query(query, parser);
+			for (int i = 0; i < queries.size(); i++)
+			{
+				queries.get(i).finish(parser.getFailure(i));
+			}
+		}
+		catch (OsmBadUserInputException e)
+		{
+			// one of the queries is erroneous, so execute them one by one to not make all fail
+			for (PendingQuery pending : queries)
+			{
+				executeSingle(pending);
+			}
+		}
+		catch (RuntimeException e)
+		{
+			for (PendingQuery pending : queries)
+			{
+				pending.finish(e);
+			}
+		}
+	}
+
+	private void executeSingle(PendingQuery pending)
+	{
+		try
+		{
+			api.queryElements(pending.query, new CancellableMapDataHandler(pending));
+			pending.finish(null);
+		}
+		catch (RuntimeException e)
+		{
+			pending.finish(e);
+		}
+	}
+
+	private static class Batch
+	{
+		final List<PendingQuery> queries = new ArrayList<>();
+		boolean closed;
+	}
+
+	private static class PendingQuery
+	{
+		final String query;
+		final MapDataHandler handler;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile boolean cancelled;
+		volatile RuntimeException failure;
+
+		PendingQuery(String query, MapDataHandler handler)
+		{
+			this.query = query;
+			this.handler = handler;
+		}
+
+		void finish(RuntimeException failure)
+		{
+			this.failure = failure;
+			done.countDown();
+		}
+	}
+
+	/** Passes on the map data unless the query has been cancelled by the thread that made it */
+	private static class CancellableMapDataHandler implements MapDataHandler
+	{
+		private final PendingQuery pending;
+
+		CancellableMapDataHandler(PendingQuery pending)
+		{
+			this.pending = pending;
+		}
+
+		@Override public void handle(BoundingBox bounds)
+		{
+			if (!pending.cancelled) pending.handler.handle(bounds);
+		}
+
+		@Override public void handle(Node node)
+		{
+			if (!pending.cancelled) pending.handler.handle(node);
+		}
+
+		@Override public void handle(Way way)
+		{
+			if (!pending.cancelled) pending.handler.handle(way);
+		}
+
+		@Override public void handle(Relation relation)
+		{
+			if (!pending.cancelled) pending.handler.handle(relation);
+		}
+	}
+}
@@ -0,0 +1,279 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.common.Handler;
+import de.westnordost.osmapi.common.errors.OsmApiException;
+import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+/**
+ * Runs queries on an {@link OverpassMapDataApi} concurrently from any number of threads, as many
+ * at once as the Overpass server grants slots to the user. Queries that exceed the quota wait in
+ * line until a slot becomes available again.
+ * <br><br>
+ * The free slots are tracked locally and the status is only fetched again from the server (see
+ * {@link OverpassMapDataApi#getStatus()}) when they have been used up, so usually no additional
+ * request is made per query. If the server answers with "too many requests" anyway, for example
+ * because someone else shares the same IP, the query is queued again, up to three times. If a
+ * retry policy is set on the api (see {@link OverpassMapDataApi#setRetryPolicy}), the query has
+ * already been retried according to that policy and is not queued again.
+ */
+public class OverpassQueryScheduler
+{
+	/** Number of queries run at once if the server does not impose a rate limit */
+	private static final int DEFAULT_MAX_CONCURRENT_QUERIES = 8;
+	/** Time to wait until asking the server again if it did not say when the next slot is free */
+	private static final long DEFAULT_STATUS_REFRESH_INTERVAL = 1000;
+	/** How often a query is queued again at most if the server answers with "too many requests" */
+	private static final int MAX_REQUEUES = 3;
+
+	private final OverpassMapDataApi api;
+	private final int maxConcurrentQueries;
+
+	private final Object lock = new Object();
+	private boolean statusKnown;
+	private boolean refreshingStatus;
+	private boolean unlimited;
+	private int maxSlots;
+	private int availableSlots;
+	private int runningQueries;
+	private long nextStatusRefreshAt;
+
+	/**
+	 * @param api the api to run the queries on
+	 * @param maxConcurrentQueries the maximum number of queries to run at once if the Overpass
+	 *                             server does not impose any rate limit
+	 */
+	public OverpassQueryScheduler(@NotNull OverpassMapDataApi api, int maxConcurrentQueries)
+	{
+		if (maxConcurrentQueries <= 0) throw new IllegalArgumentException("maxConcurrentQueries must be positive");
+		this.api = api;
+		this.maxConcurrentQueries = maxConcurrentQueries;
+	}
+
+	public OverpassQueryScheduler(@NotNull OverpassMapDataApi api)
+	{
+		this(api, DEFAULT_MAX_CONCURRENT_QUERIES);
+	}
+
+	/** @see OverpassMapDataApi#queryElements(String, MapDataHandler) */
+	public void queryElements(@NotNull String query, @NotNull MapDataHandler handler)
+	{
+		schedule(() -> { api.queryElements(query, handler); return null; });
+	}
+
+	/** @see OverpassMapDataApi#queryElementsWithGeometry(String, MapDataWithGeometryHandler) */
+	public void queryElementsWithGeometry(@NotNull String query, @NotNull MapDataWithGeometryHandler handler)
+	{
+		schedule(() -> { api.queryElementsWithGeometry(query, handler); return null; });
+	}
+
+	/** @see OverpassMapDataApi#queryTable(String, Handler, String) */
+	public void queryTable(@NotNull String query, @NotNull Handler<String[]> handler, @NotNull String separator)
+	{
+		schedule(() -> { api.queryTable(query, handler, separator); return null; });
+	}
+
+	/** @see OverpassMapDataApi#queryTable(String, Handler) */
+	public void queryTable(@NotNull String query, @NotNull Handler<String[]> handler)
+	{
+		schedule(() -> { api.queryTable(query, handler); return null; });
+	}
+
+	/** @see OverpassMapDataApi#queryCount(String) */
+	@NotNull public ElementCount queryCount(@NotNull String query)
+	{
+		return schedule(() -> api.queryCount(query));
+	}
+
+	/** @see OverpassMapDataApi#queryCounts(String, List) */
+	@NotNull public List<ElementCount> queryCounts(@NotNull String settings, @NotNull List<String> queries)
+	{
+		return schedule(() -> api.queryCounts(settings, queries));
+	}
+
+	/** @see OverpassMapDataApi#queryCounts(List) */
+	@NotNull public List<ElementCount> queryCounts(@NotNull List<String> queries)
+	{
+		return schedule(() -> api.queryCounts(queries));
+	}
+
+	/**
+	 * Executes the given query as soon as a slot is available. Blocks until it has been executed.
+	 *
+	 * @see OverpassMapDataApi#query(String, ApiResponseReader)
+	 *
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 * @throws OsmTooManyRequestsException if the server still answered with "too many requests"
+	 *                                     after the query has been queued again
+	 * @throws OsmApiException if the thread has been interrupted while waiting for a slot
+	 */
+	public <T> T query(@NotNull String query, ApiResponseReader<T> reader)
+	{
+		return schedule(() -> api.query(query, reader));
+	}
+
+	/** @see OverpassMapDataApi#query(CharSequence, ApiResponseReader) */
+	public <T> T query(@NotNull CharSequence query, ApiResponseReader<T> reader)
+	{
+		return schedule(() -> api.query(query, reader));
+	}
+
+	/** @return the number of queries that are currently being executed */
+	public int getRunningQueriesCount()
+	{
+		synchronized (lock)
+		{
+			return runningQueries;
+		}
+	}
+
+	/** @return the number of queries that may run at once: the number of slots granted by the
+	 *          server or, if it is not known yet or the server does not impose a rate limit, the
+	 *          maximum number of concurrent queries this scheduler was created with */
+	int getMaxConcurrentQueries()
+	{
+		synchronized (lock)
+		{
+			return statusKnown ? maxSlots : maxConcurrentQueries;
+		}
+	}
+
+	private <T> T schedule(Query<T> query)
+	{
+		for (int requeues = 0; ; requeues++)
+		{
+			acquireSlot();
+			try
+			{
+				return query.run();
+			}
+			catch (OsmTooManyRequestsException e)
+			{
+				// our local bookkeeping was wrong, so the next query needs to ask the server again
+				synchronized (lock)
+				{
+					availableSlots = 0;
+				}
+				if (requeues >= MAX_REQUEUES || api.getRetryPolicy() != null) throw e;
+			}
+			finally
+			{
+				releaseSlot();
+			}
+		}
+	}
+
+	private void acquireSlot()
+	{
+		try
+		{
+			while (true)
+			{
+				synchronized (lock)
+				{
+					if (tryTakeSlot()) return;
+
+					if (refreshingStatus || !shouldRefreshStatus())
+					{
+						waitForChange();
+						continue;
+					}
+					refreshingStatus = true;
+				}
+				// requesting the status happens outside the lock as it is a network call
+				refreshStatus();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new OsmApiException(e);
+		}
+	}
+
+	private void releaseSlot()
+	{
+		synchronized (lock)
+		{
+			runningQueries--;
+			lock.notifyAll();
+		}
+	}
+
+	private boolean tryTakeSlot()
+	{
+		if (!statusKnown) return false;
+		if (runningQueries >= maxSlots) return false;
+		if (!unlimited)
+		{
+			if (availableSlots <= 0) return false;
+			availableSlots--;
+		}
+		runningQueries++;
+		return true;
+	}
+
+	private boolean shouldRefreshStatus()
+	{
+		if (!statusKnown) return true;
+		// all slots are used by queries of this scheduler, so wait for one of these to finish
+		if (runningQueries >= maxSlots) return false;
+		return System.currentTimeMillis() >= nextStatusRefreshAt;
+	}
+
+	private void waitForChange() throws InterruptedException
+	{
+		if (!refreshingStatus && statusKnown && runningQueries < maxSlots)
+		{
+			long waitTime = nextStatusRefreshAt - System.currentTimeMillis();
+			if (waitTime > 0) lock.wait(waitTime);
+		}
+		else
+		{
+			lock.wait();
+		}
+	}
+
+	private void refreshStatus()
+	{
+		OverpassStatus status = null;
+		try
+		{
+			status = api.getStatus();
+		}
+		finally
+		{
+			synchronized (lock)
+			{
+				if (status != null) applyStatus(status);
+				refreshingStatus = false;
+				lock.notifyAll();
+			}
+		}
+	}
+
+	private void applyStatus(OverpassStatus status)
+	{
+		statusKnown = true;
+		unlimited = status.maxAvailableSlots <= 0;
+		maxSlots = unlimited ? maxConcurrentQueries : status.maxAvailableSlots;
+		availableSlots = status.availableSlots;
+
+		long waitTime = DEFAULT_STATUS_REFRESH_INTERVAL;
+		if (status.nextAvailableSlotIn != null)
+		{
+			waitTime = Math.max(waitTime, status.nextAvailableSlotIn * 1000L);
+		}
+		nextStatusRefreshAt = System.currentTimeMillis() + waitTime;
+	}
+
+	private interface Query<T>
+	{
+		T run();
+	}
+}
@@ -0,0 +1,62 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Defines how queries that have been rejected because the user is over his request quota are
+ *  retried. See {@link OverpassMapDataApi#setRetryPolicy(OverpassRetryPolicy)}.
+ *  <br><br>
+ *  Before each retry, the status of the Overpass server is requested and the query is sent again
+ *  exactly when the next slot becomes available, plus a random jitter so that several clients that
+ *  have been waiting for the same slot do not all retry at the same moment. */
+public class OverpassRetryPolicy
+{
+	private static final long DEFAULT_MAX_JITTER = 1000;
+	/** Time to wait if the server did not say when the next slot becomes available */
+	private static final long DEFAULT_DELAY = 1000;
+
+	private final int maxRetries;
+	private final long timeout;
+	private final long maxJitter;
+
+	/**
+	 * @param maxRetries how often a query is retried at most
+	 * @param timeout time in milliseconds after which to give up. Measured from when the query
+	 *                was sent the first time. No retry is made if the time to wait for the next
+	 *                slot would exceed this deadline.
+	 * @param maxJitter maximum time in milliseconds that is randomly added to the time to wait
+	 */
+	public OverpassRetryPolicy(int maxRetries, long timeout, long maxJitter)
+	{
+		if (maxRetries < 0) throw new IllegalArgumentException("maxRetries must not be negative");
+		if (timeout < 0) throw new IllegalArgumentException("timeout must not be negative");
+		if (maxJitter < 0) throw new IllegalArgumentException("maxJitter must not be negative");
+		this.maxRetries = maxRetries;
+		this.timeout = timeout;
+		this.maxJitter = maxJitter;
+	}
+
+	public OverpassRetryPolicy(int maxRetries, long timeout)
+	{
+		this(maxRetries, timeout, DEFAULT_MAX_JITTER);
+	}
+
+	public int getMaxRetries() { return maxRetries; }
+
+	public long getTimeout() { return timeout; }
+
+	public long getMaxJitter() { return maxJitter; }
+
+	/** @return time in milliseconds to wait before retrying, given the current server status */
+	long getDelay(@NotNull OverpassStatus status)
+	{
+		long delay;
+		if (status.nextAvailableSlotIn != null) delay = status.nextAvailableSlotIn * 1000L;
+		else if (status.availableSlots > 0) delay = 0;
+		else delay = DEFAULT_DELAY;
+
+		if (maxJitter > 0) delay += ThreadLocalRandom.current().nextLong(maxJitter + 1);
+		return delay;
+	}
+}
@@ -0,0 +1,338 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+/**
+ * Splits a query for a large area into several queries for smaller tiles that are run in
+ * parallel within the request quota. This avoids running into the timeout or the maximum response
+ * size of the Overpass server.
+ * <br><br>
+ * The query is given as a template in which each occurrence of <code>{{bbox}}</code> is replaced by
+ * the bounding box of the tile, just like in Overpass Turbo. For example
+ * <code>[bbox:{{bbox}}]; nwr[shop]; out meta;</code> or <code>nwr[shop]({{bbox}}); out meta;</code>.
+ * <br><br>
+ * The results of all tiles are passed on to one handler, which is only called by one thread at a
+ * time. Elements that are part of several tiles, like ways that cross tile borders, are passed
+ * on only once.
+ * <br><br>
+ * Instead of splitting the area into a grid of tiles of equal size, it can also be split
+ * adaptively, based on how many elements there are in each tile. See
+ * {@link #splitByCount(String, BoundingBox, long)}.
+ */
+public class OverpassTiler
+{
+	/** Placeholder in the query template that is replaced by the bounding box of each tile */
+	public static final String BBOX_PLACEHOLDER = "{{bbox}}";
+
+	/** How often a tile is split in half at most when splitting adaptively */
+	private static final int DEFAULT_MAX_SPLIT_DEPTH = 10;
+	/** How many count queries are run at most when splitting adaptively */
+	private static final int DEFAULT_MAX_COUNT_QUERIES = 256;
+
+	private final OverpassQueryScheduler scheduler;
+	private final Executor executor;
+
+	/**
+	 * @param scheduler the scheduler to run the queries on
+	 * @param executor the executor on which the queries for the tiles are started
+	 */
+	public OverpassTiler(@NotNull OverpassQueryScheduler scheduler, @NotNull Executor executor)
+	{
+		this.scheduler = scheduler;
+		this.executor = executor;
+	}
+
+	/** Runs the queries on the scheduler shared by everything that queries the given api in
+	 *  parallel, see {@link OverpassMapDataApi#getQueryScheduler()} */
+	public OverpassTiler(@NotNull OverpassMapDataApi api)
+	{
+		this(api.getQueryScheduler(), api.getExecutor());
+	}
+
+	/**
+	 * Splits the given bounding box into a grid of tiles of equal size.
+	 *
+	 * @param bounds the bounding box to split. Must not cross the 180th meridian.
+	 * @param rows number of tiles from south to north
+	 * @param columns number of tiles from west to east
+	 * @return the tiles, row by row from south-west to north-east
+	 */
+	@NotNull public static List<BoundingBox> split(@NotNull BoundingBox bounds, int rows, int columns)
+	{
+		if (rows <= 0 || columns <= 0) throw new IllegalArgumentException("rows and columns must be positive");
+		checkNotCrossing180thMeridian(bounds);
+
+		double minLat = bounds.getMinLatitude();
+		double minLon = bounds.getMinLongitude();
+		double height = bounds.getMaxLatitude() - minLat;
+		double width = bounds.getMaxLongitude() - minLon;
+
+		List<BoundingBox> result = new ArrayList<>(rows * columns);
+		for (int row = 0; row < rows; row++)
+		{
+			// use the exact bounds at the edges to not lose anything due to rounding errors
+			double south = row == 0 ? minLat : minLat + height * row / rows;
+			double north = row == rows - 1 ? bounds.getMaxLatitude() : minLat + height * (row + 1) / rows;
+			for (int column = 0; column < columns; column++)
+			{
+				double west = column == 0 ? minLon : minLon + width * column / columns;
+				double east = column == columns - 1 ? bounds.getMaxLongitude() : minLon + width * (column + 1) / columns;
+				result.add(new BoundingBox(south, west, north, east));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Splits the given bounding box into tiles that each contain at most the given number of
+	 * elements. Starting with the whole area, the number of elements in each tile is counted with
+	 * the given count query (which is cheap compared to fetching the data). Any tile that contains
+	 * too many elements is split into four and those are counted again, and so on, up to a depth of
+	 * 10. So, sparsely populated areas end up in few large tiles while densely populated areas are
+	 * split into many small tiles.
+	 * <br><br>
+	 * As each count query takes up a slot of the request quota, at most 256 of them are run. When
+	 * there are not enough left to split all tiles that contain too many elements, the ones with
+	 * the most elements are split and the others are returned as they are.
+	 *
+	 * @param countQueryTemplate Query string in which {{bbox}} is replaced by the bounds of each
+	 *                           tile. It must end with <code>out count;</code> and should select
+	 *                           the same elements as the query that is later run on the tiles.
+	 *                           For example <code>[bbox:{{bbox}}]; nwr[shop]; out count;</code>
+	 * @param bounds the bounding box to split. Must not cross the 180th meridian.
+	 * @param maxElementsPerTile maximum number of elements in one tile, as counted by
+	 *                           {@link ElementCount#total}
+	 * @return the tiles. These can then be passed to
+	 *         {@link #queryElements(String, List, MapDataHandler)} or
+	 *         {@link #queryElementsWithGeometry(String, List, MapDataWithGeometryHandler)}
+	 *
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 */
+	@NotNull public List<BoundingBox> splitByCount(
+			@NotNull String countQueryTemplate, @NotNull BoundingBox bounds, long maxElementsPerTile)
+	{
+		return splitByCount(countQueryTemplate, bounds, maxElementsPerTile, DEFAULT_MAX_SPLIT_DEPTH);
+	}
+
+	/**
+	 * @param maxDepth how often a tile is split at most. Tiles at this depth are not split
+	 *                 further even if they contain more elements than allowed.
+	 *
+	 * @see #splitByCount(String, BoundingBox, long)
+	 */
+	@NotNull public List<BoundingBox> splitByCount(
+			@NotNull String countQueryTemplate, @NotNull BoundingBox bounds, long maxElementsPerTile,
+			int maxDepth)
+	{
+		return splitByCount(countQueryTemplate, bounds, maxElementsPerTile, maxDepth, DEFAULT_MAX_COUNT_QUERIES);
+	}
+
+	/**
+	 * @param maxDepth how often a tile is split at most. Tiles at this depth are not split
+	 *                 further even if they contain more elements than allowed.
+	 * @param maxCountQueries how many count queries are run at most. Tiles are not split further
+	 *                        if counting the elements in their parts would exceed this number.
+	 *
+	 * @see #splitByCount(String, BoundingBox, long)
+	 */
+	@NotNull public List<BoundingBox> splitByCount(
+			@NotNull String countQueryTemplate, @NotNull BoundingBox bounds, long maxElementsPerTile,
+			int maxDepth, int maxCountQueries)
+	{
+		if (maxElementsPerTile <= 0) throw new IllegalArgumentException("maxElementsPerTile must be positive");
+		if (maxDepth < 0) throw new IllegalArgumentException("maxDepth must not be negative");
+		if (maxCountQueries <= 0) throw new IllegalArgumentException("maxCountQueries must be positive");
+		checkNotCrossing180thMeridian(bounds);
+
+		List<BoundingBox> result = new ArrayList<>();
+		List<BoundingBox> tiles = Collections.singletonList(bounds);
+		int countQueries = 0;
+		// the tree is traversed level by level so that all tiles of one level are counted in parallel
+		for (int depth = 0; !tiles.isEmpty(); depth++)
+		{
+			countQueries += tiles.size();
+			List<CountedTile> fullTiles = Collections.synchronizedList(new ArrayList<>());
+			List<BoundingBox> leafTiles = Collections.synchronizedList(new ArrayList<>());
+			List<Runnable> tasks = new ArrayList<>(tiles.size());
+			for (BoundingBox tile : tiles)
+			{
+				String query = fillTemplate(countQueryTemplate, tile);
+				tasks.add(() ->
+				{
+					ElementCount count = scheduler.queryCount(query);
+					if (count.total == 0) return;
+					if (count.total > maxElementsPerTile) fullTiles.add(new CountedTile(tile, count.total));
+					else leafTiles.add(tile);
+				});
+			}
+			ParallelTasks.runAll(tasks, executor, scheduler.getMaxConcurrentQueries());
+			result.addAll(leafTiles);
+
+			int splittableTiles = depth < maxDepth ? (maxCountQueries - countQueries) / 4 : 0;
+			// if not all can be split, those with the most elements are most in need of it
+			fullTiles.sort((a, b) -> Long.compare(b.count, a.count));
+			List<BoundingBox> nextTiles = new ArrayList<>();
+			for (CountedTile fullTile : fullTiles)
+			{
+				if (splittableTiles-- > 0) nextTiles.addAll(split(fullTile.bounds, 2, 2));
+				else result.add(fullTile.bounds);
+			}
+			tiles = nextTiles;
+		}
+		return result;
+	}
+
+	/**
+	 * Executes the given query for each tile of a grid spanning the given bounding box.
+	 *
+	 * @param queryTemplate Query string in which {{bbox}} is replaced by the bounds of each tile.
+	 * @param bounds the bounds to split into tiles
+	 * @param rows number of tiles from south to north
+	 * @param columns number of tiles from west to east
+	 * @param handler handler to feed the map data to
+	 *
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 * @see OverpassMapDataApi#queryElements(String, MapDataHandler)
+	 */
+	public void queryElements(
+			@NotNull String queryTemplate, @NotNull BoundingBox bounds, int rows, int columns,
+			@NotNull MapDataHandler handler)
+	{
+		queryElements(queryTemplate, split(bounds, rows, columns), handler);
+	}
+
+	/**
+	 * Executes the given query for each of the given tiles.
+	 *
+	 * @param queryTemplate Query string in which {{bbox}} is replaced by the bounds of each tile.
+	 * @param tiles the bounding boxes to execute the query for. If empty, nothing is queried.
+	 * @param handler handler to feed the map data to
+	 *
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 * @see OverpassMapDataApi#queryElements(String, MapDataHandler)
+	 */
+	public void queryElements(
+			@NotNull String queryTemplate, @NotNull List<BoundingBox> tiles,
+			@NotNull MapDataHandler handler)
+	{
+		if (tiles.isEmpty()) return;
+		MapDataHandler mergingHandler = new DeduplicatingMapDataHandler(handler, union(tiles));
+		List<Runnable> tasks = new ArrayList<>(tiles.size());
+		for (BoundingBox tile : tiles)
+		{
+			String query = fillTemplate(queryTemplate, tile);
+			tasks.add(() -> scheduler.queryElements(query, mergingHandler));
+		}
+		ParallelTasks.runAll(tasks, executor, scheduler.getMaxConcurrentQueries());
+	}
+
+	/**
+	 * Executes the given query that has the <code>geom</code> modificator for each tile of a grid
+	 * spanning the given bounding box.
+	 *
+	 * @param queryTemplate Query string in which {{bbox}} is replaced by the bounds of each tile.
+	 * @param bounds the bounds to split into tiles
+	 * @param rows number of tiles from south to north
+	 * @param columns number of tiles from west to east
+	 * @param handler handler to feed the map data and geometry to
+	 *
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 * @see OverpassMapDataApi#queryElementsWithGeometry(String, MapDataWithGeometryHandler)
+	 */
+	public void queryElementsWithGeometry(
+			@NotNull String queryTemplate, @NotNull BoundingBox bounds, int rows, int columns,
+			@NotNull MapDataWithGeometryHandler handler)
+	{
+		queryElementsWithGeometry(queryTemplate, split(bounds, rows, columns), handler);
+	}
+
+	/**
+	 * Executes the given query that has the <code>geom</code> modificator for each of the given
+	 * tiles.
+	 *
+	 * @param queryTemplate Query string in which {{bbox}} is replaced by the bounds of each tile.
+	 * @param tiles the bounding boxes to execute the query for. If empty, nothing is queried.
+	 * @param handler handler to feed the map data and geometry to
+	 *
+	 * @throws OsmBadUserInputException if there is an error in the query
+	 * @see OverpassMapDataApi#queryElementsWithGeometry(String, MapDataWithGeometryHandler)
+	 */
+	public void queryElementsWithGeometry(
+			@NotNull String queryTemplate, @NotNull List<BoundingBox> tiles,
+			@NotNull MapDataWithGeometryHandler handler)
+	{
+		if (tiles.isEmpty()) return;
+		MapDataWithGeometryHandler mergingHandler = new DeduplicatingMapDataWithGeometryHandler(handler, union(tiles));
+		List<Runnable> tasks = new ArrayList<>(tiles.size());
+		for (BoundingBox tile : tiles)
+		{
+			String query = fillTemplate(queryTemplate, tile);
+			tasks.add(() -> scheduler.queryElementsWithGeometry(query, mergingHandler));
+		}
+		ParallelTasks.runAll(tasks, executor, scheduler.getMaxConcurrentQueries());
+	}
+
+	/** @return the query template with the placeholder replaced by the given bounding box */
+	static String fillTemplate(String queryTemplate, BoundingBox bounds)
+	{
+		return queryTemplate.replace(BBOX_PLACEHOLDER, toOverpassBbox(bounds));
+	}
+
+	/** @return the bounding box in the format Overpass expects: south,west,north,east */
+	static String toOverpassBbox(BoundingBox bounds)
+	{
+		return toPlainString(bounds.getMinLatitude()) + "," + toPlainString(bounds.getMinLongitude()) + "," +
+		       toPlainString(bounds.getMaxLatitude()) + "," + toPlainString(bounds.getMaxLongitude());
+	}
+
+	private static String toPlainString(double value)
+	{
+		// Double.toString would use the scientific notation for small values
+		return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+	}
+
+	private static BoundingBox union(List<BoundingBox> tiles)
+	{
+		double minLat = Double.POSITIVE_INFINITY, minLon = Double.POSITIVE_INFINITY;
+		double maxLat = Double.NEGATIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+		for (BoundingBox tile : tiles)
+		{
+			checkNotCrossing180thMeridian(tile);
+			minLat = Math.min(minLat, tile.getMinLatitude());
+			minLon = Math.min(minLon, tile.getMinLongitude());
+			maxLat = Math.max(maxLat, tile.getMaxLatitude());
+			maxLon = Math.max(maxLon, tile.getMaxLongitude());
+		}
+		return new BoundingBox(minLat, minLon, maxLat, maxLon);
+	}
+
+	private static final class CountedTile
+	{
+		final BoundingBox bounds;
+		final long count;
+
+		CountedTile(BoundingBox bounds, long count)
+		{
+			this.bounds = bounds;
+			this.count = count;
+		}
+	}
+
+	private static void checkNotCrossing180thMeridian(BoundingBox bounds)
+	{
+		if (bounds.getMinLongitude() > bounds.getMaxLongitude())
+		{
+			throw new IllegalArgumentException("Bounding boxes crossing the 180th meridian are not supported");
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+/** The geometry of all members of a relation, packed into one array. The positions of the
+ *  members are stored one after another in the order of the members of the relation.
+ *  <br><br>
+ *  Node members consist of one position, way members of the positions of the way and relation
+ *  members have no positions because Overpass API does not supply their geometry.
+ *  <br><br>
+ *  Instances are reused by the parser for the next relation. If the geometry should be kept
+ *  beyond the call to the handler, it must be copied. */
+public class PackedRelationGeometry
+{
+	private final GrowableIntArray coordinates = new GrowableIntArray();
+	/** index of the first position of each member and at the end the total number of positions */
+	private final GrowableIntArray offsets = new GrowableIntArray();
+
+	PackedRelationGeometry()
+	{
+		clear();
+	}
+
+	/** @return number of members of the relation */
+	public int getMemberCount()
+	{
+		return offsets.size() - 1;
+	}
+
+	/** @return the positions of all members, alternating latitude and longitude in 1e-7 degrees.
+	 *          Only the first <code>2 * getPositionCount()</code> values are valid. */
+	@NotNull public int[] getCoordinates()
+	{
+		return coordinates.array();
+	}
+
+	/** @return total number of positions of all members */
+	public int getPositionCount()
+	{
+		return coordinates.size() / 2;
+	}
+
+	/** @return index of the first position of the member with the given index */
+	public int getStart(int memberIndex)
+	{
+		checkMemberIndex(memberIndex);
+		return offsets.get(memberIndex);
+	}
+
+	/** @return number of positions of the member with the given index */
+	public int getLength(int memberIndex)
+	{
+		checkMemberIndex(memberIndex);
+		return offsets.get(memberIndex + 1) - offsets.get(memberIndex);
+	}
+
+	/** @return latitude of the position with the given index in 1e-7 degrees */
+	public int getLatitude(int positionIndex)
+	{
+		return coordinates.get(positionIndex * 2);
+	}
+
+	/** @return longitude of the position with the given index in 1e-7 degrees */
+	public int getLongitude(int positionIndex)
+	{
+		return coordinates.get(positionIndex * 2 + 1);
+	}
+
+	void clear()
+	{
+		coordinates.clear();
+		offsets.clear();
+		offsets.add(0);
+	}
+
+	/** Starts the geometry of the next member */
+	void addMember()
+	{
+		offsets.add(getPositionCount());
+	}
+
+	/** Adds a position to the geometry of the last member */
+	void addPosition(int latitude, int longitude)
+	{
+		coordinates.add(latitude);
+		coordinates.add(longitude);
+		offsets.set(offsets.size() - 1, getPositionCount());
+	}
+
+	private void checkMemberIndex(int memberIndex)
+	{
+		if (memberIndex < 0 || memberIndex >= getMemberCount())
+		{
+			throw new IndexOutOfBoundsException("Member index: " + memberIndex + ", member count: " + getMemberCount());
+		}
+	}
+}
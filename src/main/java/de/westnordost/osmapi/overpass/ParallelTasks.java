@@ -0,0 +1,121 @@
+package de.westnordost.osmapi.overpass;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/** Runs a number of tasks in parallel and waits for all of them to finish */
+final class ParallelTasks
+{
+	private ParallelTasks() {}
+
+	/** Runs all the given tasks on the given executor and blocks until all are done. If any task
+	 *  fails, the tasks that did not start yet are skipped and the first exception is rethrown.
+	 *  <br><br>
+	 *  The calling thread works off the tasks as well and then only waits for those that are
+	 *  already running on other threads. So, this does not deadlock even if all threads of the
+	 *  executor are busy, e.g. because it is called from one of them.
+	 *  <br><br>
+	 *  At most <code>parallelism</code> tasks run at the same time, including the one on the
+	 *  calling thread, so that no more threads are occupied than can actually make progress. */
+	static void runAll(List<Runnable> tasks, Executor executor, int parallelism)
+	{
+		if (parallelism <= 0) throw new IllegalArgumentException("parallelism must be positive");
+		Worker worker = new Worker(tasks.iterator());
+		int helpers = Math.min(tasks.size(), parallelism) - 1;
+		for (int i = 0; i < helpers; i++)
+		{
+			try
+			{
+				executor.execute(worker);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// then the calling thread has to do more of the work itself
+				break;
+			}
+		}
+		worker.run();
+		worker.awaitRunningTasks();
+
+		Throwable failure = worker.getFailure();
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof Error) throw (Error) failure;
+	}
+
+	/** Runs the tasks one after another until none are left. Several threads may run one worker
+	 *  at the same time, each taking the next task that has not been started yet. */
+	private static final class Worker implements Runnable
+	{
+		private final Iterator<Runnable> tasks;
+		private int runningTasks;
+		private Throwable failure;
+
+		Worker(Iterator<Runnable> tasks)
+		{
+			this.tasks = tasks;
+		}
+
+		@Override public void run()
+		{
+			Runnable task;
+			while ((task = next()) != null)
+			{
+				try
+				{
+					task.run();
+				}
+				catch (RuntimeException | Error e)
+				{
+					fail(e);
+				}
+				finally
+				{
+					finished();
+				}
+			}
+		}
+
+		private synchronized Runnable next()
+		{
+			if (failure != null || !tasks.hasNext()) return null;
+			runningTasks++;
+			return tasks.next();
+		}
+
+		private synchronized void finished()
+		{
+			runningTasks--;
+			if (runningTasks == 0) notifyAll();
+		}
+
+		private synchronized void fail(Throwable e)
+		{
+			if (failure == null) failure = e;
+		}
+
+		synchronized void awaitRunningTasks()
+		{
+			boolean interrupted = false;
+			while (runningTasks > 0)
+			{
+				try
+				{
+					wait();
+				}
+				catch (InterruptedException e)
+				{
+					// the running tasks are not cancelled, so their end needs to be awaited anyway
+					interrupted = true;
+				}
+			}
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+
+		synchronized Throwable getFailure()
+		{
+			return failure;
+		}
+	}
+}
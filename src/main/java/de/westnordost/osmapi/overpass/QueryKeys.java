@@ -0,0 +1,143 @@
+package de.westnordost.osmapi.overpass;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Creates keys that identify a query, e.g. for caching */
+final class QueryKeys
+{
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final int BUFFER_SIZE = 4096;
+
+	private QueryKeys() {}
+
+	/** @return a hash of the given endpoint and the normalized query as a hex string. The query is
+	 *          normalized and hashed in chunks, so no copy of the whole query is created. */
+	static String hash(String endpoint, CharSequence query)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// should never happen since every Java platform must support SHA-256
+			throw new RuntimeException(e);
+		}
+		digest.update(endpoint.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) '\n');
+		DigestSink sink = new DigestSink(digest);
+		normalize(query, sink);
+		sink.finish();
+		byte[] hash = digest.digest();
+
+		char[] result = new char[hash.length * 2];
+		for (int i = 0; i < hash.length; i++)
+		{
+			result[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+			result[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xf];
+		}
+		return new String(result);
+	}
+
+	/** @return the query with leading and trailing whitespace removed and any other sequence of
+	 *          whitespace reduced to a single space. Whitespace within quotes is left as is. */
+	static String normalize(CharSequence query)
+	{
+		StringBuilder result = new StringBuilder(query.length());
+		normalize(query, result::append);
+		return result.toString();
+	}
+
+	private static void normalize(CharSequence query, CharSink result)
+	{
+		char quote = 0;
+		boolean whitespace = false;
+		boolean empty = true;
+		for (int i = 0; i < query.length(); i++)
+		{
+			char c = query.charAt(i);
+			if (quote != 0)
+			{
+				result.append(c);
+				if (c == '\\' && i + 1 < query.length()) result.append(query.charAt(++i));
+				else if (c == quote) quote = 0;
+			}
+			else if (Character.isWhitespace(c))
+			{
+				whitespace = true;
+			}
+			else
+			{
+				if (whitespace && !empty) result.append(' ');
+				whitespace = false;
+				if (c == '"' || c == '\'') quote = c;
+				result.append(c);
+				empty = false;
+			}
+		}
+	}
+
+	private interface CharSink
+	{
+		void append(char c);
+	}
+
+	/** Encodes the characters in UTF-8 and passes them on to the digest, one chunk at a time */
+	private static final class DigestSink implements CharSink
+	{
+		private final MessageDigest digest;
+		// invalid surrogates are replaced just like by String.getBytes
+		private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+		private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE * 3);
+
+		DigestSink(MessageDigest digest)
+		{
+			this.digest = digest;
+		}
+
+		@Override public void append(char c)
+		{
+			chars.put(c);
+			if (!chars.hasRemaining()) encode(false);
+		}
+
+		void finish()
+		{
+			encode(true);
+			encoder.flush(bytes);
+			updateDigest();
+		}
+
+		private void encode(boolean endOfInput)
+		{
+			chars.flip();
+			CoderResult result;
+			do
+			{
+				result = encoder.encode(chars, bytes, endOfInput);
+				updateDigest();
+			}
+			while (result.isOverflow());
+			// an incomplete surrogate pair remains in the buffer until the next chunk
+			chars.compact();
+		}
+
+		private void updateDigest()
+		{
+			bytes.flip();
+			digest.update(bytes);
+			bytes.clear();
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+/** Is notified about each query executed by an {@link OverpassMapDataApi}, e.g. to export
+ *  metrics to a monitoring system. See {@link OverpassMapDataApi#setQueryListener(QueryListener)} */
+public interface QueryListener
+{
+	/** A query has been executed, successfully or not. This is called on the thread that executed
+	 *  the query, so it should return quickly.
+	 *  @param metrics measurements of the query
+	 */
+	void onQueryFinished(@NotNull QueryMetrics metrics);
+}
@@ -0,0 +1,49 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.Nullable;
+
+/** Measurements of one query, as passed to the {@link QueryListener}. The times and sizes of the
+ *  response are only measured for responses received from the server, so they are 0 if the
+ *  response has been read from the cache or shared with an identical query in flight. */
+public class QueryMetrics
+{
+	/** Hash of the endpoint and the normalized query that identifies the query, the same that is
+	 *  used as key in the cache. Null if the query has been passed as a Reader */
+	@Nullable public String queryHash;
+	/** Whether the response has been read from the cache */
+	public boolean cacheHit;
+	/** Whether the response of an identical query in flight has been shared */
+	public boolean coalesced;
+	/** Number of times the server answered that the user is over his request quota (HTTP 429) */
+	public int tooManyRequestsCount;
+	/** Number of times the query has been retried */
+	public int retries;
+	/** Time in nanoseconds from sending the (last) request until the response has been received.
+	 *  This includes waiting in line on the server and executing the query */
+	public long timeToFirstByteNanos;
+	/** Time in nanoseconds spent waiting for the data of the response while reading it */
+	public long transferNanos;
+	/** Time in nanoseconds spent parsing the response, not including waiting for the data */
+	public long parseNanos;
+	/** Total time in nanoseconds of the call, including retries */
+	public long totalNanos;
+	/** Number of bytes received, i.e. before decompression */
+	public long rawBytes;
+	/** Number of bytes of the response after decompression */
+	public long decodedBytes;
+	/** Number of nodes passed to the handler. Only counted for queries for map data */
+	public long nodes;
+	/** Number of ways passed to the handler. Only counted for queries for map data */
+	public long ways;
+	/** Number of relations passed to the handler. Only counted for queries for map data */
+	public long relations;
+	/** The exception the query failed with or null if it succeeded */
+	@Nullable public RuntimeException failure;
+
+	/** @return the number of elements passed to the handler per second of the total time */
+	public double getElementsPerSecond()
+	{
+		if (totalNanos <= 0) return 0;
+		return (nodes + ways + relations) * 1e9 / totalNanos;
+	}
+}
@@ -0,0 +1,82 @@
+package de.westnordost.osmapi.overpass;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Scans everything that is read from the input stream for a remark of the Overpass server.
+ *  <br><br>
+ *  When a query fails while the response is already being sent, e.g. because it timed out or ran
+ *  out of memory, the server still answers with status 200 but only with part of the result and
+ *  a remark like <code>&lt;remark&gt; runtime error: Query timed out ... &lt;/remark&gt;</code> in
+ *  XML or <code>"remark": "runtime error: ..."</code> in JSON. Such responses must not be cached.
+ *  <br><br>
+ *  Only the bytes are compared, so an element with a tag named "remark" in a JSON response is
+ *  taken for a remark too. That only means that the response is not cached. */
+class RemarkDetectingInputStream extends FilterInputStream
+{
+	private static final byte[][] PATTERNS = {
+		"<remark".getBytes(StandardCharsets.US_ASCII),
+		"\"remark\"".getBytes(StandardCharsets.US_ASCII)
+	};
+
+	/** number of bytes of each pattern that match the bytes read last */
+	private final int[] matched = new int[PATTERNS.length];
+	private boolean hasRemark;
+
+	RemarkDetectingInputStream(InputStream in)
+	{
+		super(in);
+	}
+
+	/** @return whether a remark has been read so far */
+	boolean hasRemark()
+	{
+		return hasRemark;
+	}
+
+	@Override public int read() throws IOException
+	{
+		int b = in.read();
+		if (b != -1) scan((byte) b);
+		return b;
+	}
+
+	@Override public int read(byte[] b, int off, int len) throws IOException
+	{
+		int read = in.read(b, off, len);
+		for (int i = 0; i < read && !hasRemark; i++) scan(b[off + i]);
+		return read;
+	}
+
+	@Override public long skip(long n) throws IOException
+	{
+		// skipped bytes must be scanned too
+		byte[] buffer = new byte[(int) Math.max(0, Math.min(n, 8192))];
+		int read = read(buffer, 0, buffer.length);
+		return Math.max(read, 0);
+	}
+
+	@Override public boolean markSupported()
+	{
+		return false;
+	}
+
+	private void scan(byte b)
+	{
+		for (int i = 0; i < PATTERNS.length; i++)
+		{
+			byte[] pattern = PATTERNS[i];
+			// no pattern repeats its first byte before its last, so a mismatch can only be the start of a new match
+			if (pattern[matched[i]] == b) matched[i]++;
+			else matched[i] = pattern[0] == b ? 1 : 0;
+
+			if (matched[i] == pattern.length)
+			{
+				hasRemark = true;
+				matched[i] = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package de.westnordost.osmapi.overpass;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A response that is buffered in memory while it is being received, so that any number of
+ *  readers can read it, each at its own pace. Readers block until more data is available.
+ *  <br><br>
+ *  The response is only buffered while anyone reads it. Readers can only join as long as nothing
+ *  of the response has been written without anyone reading it, because they always read it from
+ *  the beginning. */
+class SharedResponse
+{
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private final List<byte[]> chunks = new ArrayList<>();
+	private long size;
+	private boolean complete;
+	private RuntimeException failure;
+	private int readers;
+	private boolean joinable = true;
+
+	/** @return stream to write the response to */
+	OutputStream getOutputStream()
+	{
+		return new OutputStream()
+		{
+			@Override public void write(int b)
+			{
+				append(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override public void write(byte[] b, int off, int len)
+			{
+				append(b, off, len);
+			}
+		};
+	}
+
+	/** @return a new stream that reads the response from the beginning or null if it is too late
+	 *          to join because part of the response has already been discarded. The stream must
+	 *          be closed when done. */
+	synchronized InputStream join()
+	{
+		if (!joinable) return null;
+		readers++;
+		return new SharedInputStream();
+	}
+
+	/** Makes it impossible to join from now on if there are no readers
+	 *  @return whether there were no readers */
+	synchronized boolean closeIfNoReaders()
+	{
+		if (readers > 0) return false;
+		joinable = false;
+		chunks.clear();
+		return true;
+	}
+
+	/** Marks the response as complete. Readers reach the end of the stream. */
+	synchronized void complete()
+	{
+		complete = true;
+		notifyAll();
+	}
+
+	/** Marks the response as failed, unless it is already complete. Readers fail with an
+	 *  exception. */
+	synchronized void fail(RuntimeException e)
+	{
+		if (complete) return;
+		complete = true;
+		failure = e;
+		notifyAll();
+	}
+
+	/** @return the exception the response failed with or null */
+	synchronized RuntimeException getFailure()
+	{
+		return failure;
+	}
+
+	private synchronized void append(byte[] b, int off, int len)
+	{
+		if (closeIfNoReaders()) return;
+		while (len > 0)
+		{
+			int offsetInChunk = (int) (size % CHUNK_SIZE);
+			if (offsetInChunk == 0) chunks.add(new byte[CHUNK_SIZE]);
+			int count = Math.min(len, CHUNK_SIZE - offsetInChunk);
+			System.arraycopy(b, off, chunks.get(chunks.size() - 1), offsetInChunk, count);
+			size += count;
+			off += count;
+			len -= count;
+		}
+		notifyAll();
+	}
+
+	private class SharedInputStream extends InputStream
+	{
+		private long position;
+		private boolean closed;
+
+		@Override public int read() throws IOException
+		{
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+			return read == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0) return 0;
+			synchronized (SharedResponse.this)
+			{
+				while (position >= size && !complete)
+				{
+					try
+					{
+						SharedResponse.this.wait();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException();
+					}
+				}
+				if (failure != null) throw new IOException(failure);
+				if (position >= size) return -1;
+
+				int offsetInChunk = (int) (position % CHUNK_SIZE);
+				byte[] chunk = chunks.get((int) (position / CHUNK_SIZE));
+				int count = (int) Math.min(Math.min(len, CHUNK_SIZE - offsetInChunk), size - position);
+				System.arraycopy(chunk, offsetInChunk, b, off, count);
+				position += count;
+				return count;
+			}
+		}
+
+		@Override public int available()
+		{
+			synchronized (SharedResponse.this)
+			{
+				return (int) Math.min(Integer.MAX_VALUE, size - position);
+			}
+		}
+
+		@Override public void close()
+		{
+			synchronized (SharedResponse.this)
+			{
+				if (closed) return;
+				closed = true;
+				readers--;
+			}
+		}
+	}
+}
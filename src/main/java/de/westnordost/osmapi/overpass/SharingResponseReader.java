@@ -0,0 +1,35 @@
+package de.westnordost.osmapi.overpass;
+
+import java.io.InputStream;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+/** Copies the response into a {@link SharedResponse} while it is being read by another reader.
+ *  If anyone else reads the shared response, it is copied completely even if the reader fails or
+ *  stops early, so that the other readers are not affected by it. Otherwise, the remainder is not
+ *  received at all. */
+class SharingResponseReader<T> implements ApiResponseReader<T>
+{
+	private final ApiResponseReader<T> reader;
+	private final SharedResponse response;
+
+	SharingResponseReader(ApiResponseReader<T> reader, SharedResponse response)
+	{
+		this.reader = reader;
+		this.response = response;
+	}
+
+	@Override public T parse(InputStream in) throws Exception
+	{
+		TeeInputStream tee = new TeeInputStream(in, response.getOutputStream());
+		try
+		{
+			return reader.parse(tee);
+		}
+		finally
+		{
+			if (!response.closeIfNoReaders()) tee.drain();
+			response.complete();
+		}
+	}
+}
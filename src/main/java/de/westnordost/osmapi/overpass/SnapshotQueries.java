@@ -0,0 +1,104 @@
+package de.westnordost.osmapi.overpass;
+
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Recognizes queries whose result never changes because they query the data of fixed dates in
+ *  the past */
+final class SnapshotQueries
+{
+	/** Minimum age of a date for it to be considered in the past. The database of an Overpass
+	 *  server usually lags behind by a few minutes, sometimes much more */
+	static final long MIN_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private SnapshotQueries() {}
+
+	/**
+	 * @return whether the given Overpass QL query has the setting <code>[date:"..."]</code>, or
+	 *         <code>[diff:"...","..."]</code> or <code>[adiff:"...","..."]</code> with two dates,
+	 *         all of which are at least {@link #MIN_AGE_MILLIS} before the given date
+	 */
+	static boolean isSnapshot(CharSequence query, Instant now)
+	{
+		Instant latest = now.minusMillis(MIN_AGE_MILLIS);
+		int i = skipWhitespace(query, 0);
+		while (i < query.length() && query.charAt(i) == '[')
+		{
+			int end = findSettingEnd(query, i + 1);
+			if (end == -1) return false;
+			String setting = query.subSequence(i + 1, end).toString();
+			int colon = setting.indexOf(':');
+			if (colon != -1)
+			{
+				String key = setting.substring(0, colon).trim();
+				int dates = key.equals("date") ? 1 : key.equals("diff") || key.equals("adiff") ? 2 : 0;
+				if (dates > 0) return areDatesBefore(setting.substring(colon + 1), dates, latest);
+			}
+			i = skipWhitespace(query, end + 1);
+		}
+		return false;
+	}
+
+	private static boolean areDatesBefore(String values, int expectedCount, Instant latest)
+	{
+		List<String> dates = splitQuoted(values);
+		if (dates == null || dates.size() != expectedCount) return false;
+		for (String date : dates)
+		{
+			try
+			{
+				if (!Instant.parse(date).isBefore(latest)) return false;
+			}
+			catch (DateTimeParseException e)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return the quoted strings in a comma-separated list, or null if it is not such a list */
+	private static List<String> splitQuoted(String values)
+	{
+		List<String> result = new ArrayList<>();
+		int i = skipWhitespace(values, 0);
+		while (i < values.length())
+		{
+			char quote = values.charAt(i);
+			if (quote != '"' && quote != '\'') return null;
+			int end = values.indexOf(quote, i + 1);
+			if (end == -1) return null;
+			result.add(values.substring(i + 1, end));
+			i = skipWhitespace(values, end + 1);
+			if (i == values.length()) break;
+			if (values.charAt(i) != ',') return null;
+			i = skipWhitespace(values, i + 1);
+		}
+		return result;
+	}
+
+	/** @return the index of the ']' that ends the setting that starts at the given index, or -1 */
+	private static int findSettingEnd(CharSequence query, int start)
+	{
+		char quote = 0;
+		for (int i = start; i < query.length(); i++)
+		{
+			char c = query.charAt(i);
+			if (quote != 0)
+			{
+				if (c == quote) quote = 0;
+			}
+			else if (c == '"' || c == '\'') quote = c;
+			else if (c == ']') return i;
+		}
+		return -1;
+	}
+
+	private static int skipWhitespace(CharSequence text, int i)
+	{
+		while (i < text.length() && Character.isWhitespace(text.charAt(i))) i++;
+		return i;
+	}
+}
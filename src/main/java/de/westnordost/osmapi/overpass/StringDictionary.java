@@ -0,0 +1,132 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Assigns each distinct string a code, which is its index in the order the strings were added.
+ *  Strings are looked up by their characters, so a string is only created for each distinct
+ *  value.
+ *  <br><br>
+ *  The dictionary may be bounded: Once it is full, strings that are not in it yet are not added
+ *  anymore. Long strings are never added because they are unlikely to repeat.
+ *  <br><br>
+ *  Not thread-safe, see {@link StringInterner} for a dictionary that can be shared. */
+final class StringDictionary
+{
+	private final int maxSize;
+	private final int maxLength;
+	private String[] strings = new String[16];
+	private int size;
+	/** code + 1 of the string in each slot, 0 for empty slots */
+	private int[] table = new int[32];
+
+	StringDictionary()
+	{
+		this(Integer.MAX_VALUE, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxSize maximum number of strings in the dictionary
+	 * @param maxLength maximum length of strings that are added to the dictionary
+	 */
+	StringDictionary(int maxSize, int maxLength)
+	{
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+		if (maxLength <= 0) throw new IllegalArgumentException("maxLength must be positive");
+		this.maxSize = maxSize;
+		this.maxLength = maxLength;
+	}
+
+	/** @return the code of the given characters. They are added if they are not in the dictionary
+	 *          yet. -1 if they are not and cannot be added because the dictionary is full or
+	 *          they are too long */
+	int getCode(@NotNull CharSequence chars)
+	{
+		if (chars.length() > maxLength) return -1;
+		int hash = hash(chars);
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (table[slot] != 0)
+		{
+			String string = strings[table[slot] - 1];
+			if (contentEquals(string, chars)) return table[slot] - 1;
+			slot = (slot + 1) & mask;
+		}
+
+		if (size == maxSize) return -1;
+		int code = size;
+		if (size == strings.length) strings = Arrays.copyOf(strings, size * 2);
+		strings[size++] = chars.toString();
+		table[slot] = code + 1;
+		if (size * 2 > table.length) rehash();
+		return code;
+	}
+
+	/** @return the string from the dictionary with the given characters, which are added if
+	 *          possible, or a new string if they cannot be added */
+	@NotNull String intern(@NotNull CharSequence chars)
+	{
+		int code = getCode(chars);
+		return code != -1 ? strings[code] : chars.toString();
+	}
+
+	@NotNull String get(int code)
+	{
+		if (code < 0 || code >= size) throw new IndexOutOfBoundsException("Code: " + code + ", size: " + size);
+		return strings[code];
+	}
+
+	int size()
+	{
+		return size;
+	}
+
+	/** @return a view on the strings in this dictionary, the index being the code */
+	@NotNull List<String> asList()
+	{
+		return new AbstractList<String>()
+		{
+			@Override public String get(int index)
+			{
+				return StringDictionary.this.get(index);
+			}
+
+			@Override public int size()
+			{
+				return size;
+			}
+		};
+	}
+
+	private void rehash()
+	{
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for (int code = 0; code < size; code++)
+		{
+			int slot = hash(strings[code]) & mask;
+			while (table[slot] != 0) slot = (slot + 1) & mask;
+			table[slot] = code + 1;
+		}
+	}
+
+	private static int hash(CharSequence chars)
+	{
+		int hash = 0;
+		for (int i = 0; i < chars.length(); i++) hash = 31 * hash + chars.charAt(i);
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean contentEquals(String string, CharSequence chars)
+	{
+		if (string.length() != chars.length()) return false;
+		for (int i = 0; i < string.length(); i++)
+		{
+			if (string.charAt(i) != chars.charAt(i)) return false;
+		}
+		return true;
+	}
+}
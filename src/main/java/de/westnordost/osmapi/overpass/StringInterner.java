@@ -0,0 +1,71 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A dictionary of strings so that equal tag keys and values that occur over and over again in the
+ * results of queries, like <code>building=yes</code>, are held in memory only once.
+ * See {@link OverpassMapDataApi#setStringInterner(StringInterner)}.
+ * <br><br>
+ * The dictionary is bounded: Once it is full, strings that are not in it yet are not added anymore,
+ * so the strings that are most common usually make it into the dictionary early. Long strings
+ * such as descriptions are never added because they are unlikely to repeat.
+ * <br><br>
+ * An interner may be shared between several parsers and threads at once.
+ * <br><br>
+ * Interning only reduces the memory retained by the elements that are kept. It does not save any
+ * allocations while parsing XML, as the string of each tag key and value is already created when
+ * it is looked up here.
+ */
+public class StringInterner
+{
+	private static final int DEFAULT_MAX_SIZE = 10000;
+	private static final int DEFAULT_MAX_LENGTH = 64;
+
+	private final int maxSize;
+	private final int maxLength;
+	private final StringDictionary strings;
+
+	/**
+	 * @param maxSize maximum number of strings in the dictionary
+	 * @param maxLength maximum length of strings that are added to the dictionary
+	 */
+	public StringInterner(int maxSize, int maxLength)
+	{
+		strings = new StringDictionary(maxSize, maxLength);
+		this.maxSize = maxSize;
+		this.maxLength = maxLength;
+	}
+
+	public StringInterner()
+	{
+		this(DEFAULT_MAX_SIZE, DEFAULT_MAX_LENGTH);
+	}
+
+	public int getMaxSize() { return maxSize; }
+
+	public int getMaxLength() { return maxLength; }
+
+	/** @return the number of strings in the dictionary */
+	public int size()
+	{
+		synchronized (strings)
+		{
+			return strings.size();
+		}
+	}
+
+	/**
+	 * @param string the string to look up
+	 * @return the string from the dictionary that is equal to the given string or the given string
+	 *         itself if there is none
+	 */
+	@Nullable public String intern(@Nullable String string)
+	{
+		if (string == null) return null;
+		synchronized (strings)
+		{
+			return strings.intern(string);
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package de.westnordost.osmapi.overpass;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+/** Passes on the map data of several queries that may be run in parallel to one handler, which is
+ *  only called by one thread at a time. */
+class SynchronizedMapDataHandler implements MapDataHandler
+{
+	private final MapDataHandler handler;
+
+	SynchronizedMapDataHandler(MapDataHandler handler)
+	{
+		this.handler = handler;
+	}
+
+	@Override public synchronized void handle(BoundingBox bounds) { handler.handle(bounds); }
+
+	@Override public synchronized void handle(Node node) { handler.handle(node); }
+
+	@Override public synchronized void handle(Way way) { handler.handle(way); }
+
+	@Override public synchronized void handle(Relation relation) { handler.handle(relation); }
+}
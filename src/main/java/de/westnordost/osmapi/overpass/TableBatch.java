@@ -0,0 +1,160 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * A batch of rows of a table, stored by column in primitive arrays according to the
+ * {@link TableSchema}. The batch is reused for all batches of a query, so it is only valid while
+ * it is passed to the {@link TableBatchHandler}.
+ * <br><br>
+ * Only the first {@link #size()} values of each column array are valid. Empty values are stored
+ * as {@link #MISSING_LONG}, <code>NaN</code> or {@link #MISSING_STRING} respectively.
+ * <br><br>
+ * Strings are stored as codes into a dictionary per column that is shared by all batches of the
+ * same query, so a code always stands for the same string within one query.
+ */
+public final class TableBatch
+{
+	/** Value of empty values in columns of type {@link ColumnType#LONG} */
+	public static final long MISSING_LONG = Long.MIN_VALUE;
+	/** Code of empty values in columns of type {@link ColumnType#STRING} */
+	public static final int MISSING_STRING = -1;
+
+	private final TableSchema schema;
+	private final int capacity;
+	private int size;
+
+	private final long[][] longs;
+	private final double[][] doubles;
+	private final int[][] stringCodes;
+	private final StringDictionary[] dictionaries;
+
+	TableBatch(@NotNull TableSchema schema, int capacity)
+	{
+		if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+		this.schema = schema;
+		this.capacity = capacity;
+		int columnCount = schema.getColumnCount();
+		longs = new long[columnCount][];
+		doubles = new double[columnCount][];
+		stringCodes = new int[columnCount][];
+		dictionaries = new StringDictionary[columnCount];
+		for (int column = 0; column < columnCount; column++)
+		{
+			switch (schema.getType(column))
+			{
+				case LONG:
+					longs[column] = new long[capacity];
+					break;
+				case DOUBLE:
+					doubles[column] = new double[capacity];
+					break;
+				case STRING:
+					stringCodes[column] = new int[capacity];
+					dictionaries[column] = new StringDictionary();
+					break;
+			}
+		}
+	}
+
+	@NotNull public TableSchema getSchema()
+	{
+		return schema;
+	}
+
+	/** @return the number of rows in this batch */
+	public int size()
+	{
+		return size;
+	}
+
+	/** @return the maximum number of rows in a batch */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	/** @return the values of the given column of type {@link ColumnType#LONG} */
+	@NotNull public long[] getLongs(int column)
+	{
+		checkType(column, ColumnType.LONG);
+		return longs[column];
+	}
+
+	/** @return the values of the given column of type {@link ColumnType#DOUBLE} */
+	@NotNull public double[] getDoubles(int column)
+	{
+		checkType(column, ColumnType.DOUBLE);
+		return doubles[column];
+	}
+
+	/** @return the codes of the values of the given column of type {@link ColumnType#STRING}.
+	 *          See {@link #getDictionary(int)} */
+	@NotNull public int[] getStringCodes(int column)
+	{
+		checkType(column, ColumnType.STRING);
+		return stringCodes[column];
+	}
+
+	/** @return the strings of the given column of type {@link ColumnType#STRING}, the index being
+	 *          the code. The list grows as more distinct strings are read during the query. */
+	@NotNull public List<String> getDictionary(int column)
+	{
+		checkType(column, ColumnType.STRING);
+		return dictionaries[column].asList();
+	}
+
+	/** @return the value of the given column of type {@link ColumnType#STRING} in the given row or
+	 *          null if it is empty */
+	@Nullable public String getString(int column, int row)
+	{
+		checkType(column, ColumnType.STRING);
+		if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+		int code = stringCodes[column][row];
+		return code != MISSING_STRING ? dictionaries[column].get(code) : null;
+	}
+
+	private void checkType(int column, ColumnType type)
+	{
+		ColumnType actual = schema.getType(column);
+		if (actual != type) throw new IllegalArgumentException("Column " + column + " is of type " + actual);
+	}
+
+	/* used by the parser to fill the batch */
+
+	boolean isFull()
+	{
+		return size == capacity;
+	}
+
+	void clear()
+	{
+		size = 0;
+	}
+
+	/** @throws NumberFormatException if a value in a numeric column is not a number */
+	void add(@NotNull CsvRow row)
+	{
+		int columnCount = schema.getColumnCount();
+		for (int column = 0; column < columnCount; column++)
+		{
+			boolean empty = column >= row.getColumnCount() || row.isEmpty(column);
+			switch (schema.getType(column))
+			{
+				case LONG:
+					longs[column][size] = empty ? MISSING_LONG : row.getLong(column);
+					break;
+				case DOUBLE:
+					doubles[column][size] = empty ? Double.NaN : row.getDouble(column);
+					break;
+				case STRING:
+					stringCodes[column][size] = empty ? MISSING_STRING : dictionaries[column].getCode(row.get(column));
+					break;
+			}
+		}
+		size++;
+	}
+}
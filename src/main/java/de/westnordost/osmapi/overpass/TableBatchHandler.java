@@ -0,0 +1,11 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+/** Receives the rows of a table in batches. See {@link ColumnarCsvParser} */
+public interface TableBatchHandler
+{
+	/** @param batch the next batch of rows. It is only valid during this call, as it is reused
+	 *               for the next batch. */
+	void handle(@NotNull TableBatch batch);
+}
@@ -0,0 +1,47 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/** The types of the columns of a table, in the order in which the columns are defined in the
+ *  CSV output mode of the query. See {@link OverpassMapDataApi#queryTable(String, TableSchema, int, TableBatchHandler)} */
+public final class TableSchema
+{
+	private final ColumnType[] types;
+
+	public TableSchema(@NotNull ColumnType... types)
+	{
+		if (types.length == 0) throw new IllegalArgumentException("At least one column is required");
+		for (ColumnType type : types)
+		{
+			if (type == null) throw new NullPointerException("Column types must not be null");
+		}
+		this.types = types.clone();
+	}
+
+	public int getColumnCount()
+	{
+		return types.length;
+	}
+
+	@NotNull public ColumnType getType(int column)
+	{
+		return types[column];
+	}
+
+	@Override public boolean equals(Object other)
+	{
+		return other instanceof TableSchema && Arrays.equals(types, ((TableSchema) other).types);
+	}
+
+	@Override public int hashCode()
+	{
+		return Arrays.hashCode(types);
+	}
+
+	@Override public String toString()
+	{
+		return Arrays.toString(types);
+	}
+}
@@ -0,0 +1,100 @@
+package de.westnordost.osmapi.overpass;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/** Copies everything that is read from the input stream to an output stream. If writing to the
+ *  output stream fails, copying stops but reading continues normally.
+ *  <br><br>
+ *  Closing this stream does not close the underlying input stream, so that the remainder can
+ *  still be copied with {@link #drain()} after the consumer is done with it. */
+class TeeInputStream extends FilterInputStream
+{
+	private final OutputStream branch;
+	private boolean branchFailed;
+	private boolean closed;
+
+	TeeInputStream(InputStream in, OutputStream branch)
+	{
+		super(in);
+		this.branch = branch;
+	}
+
+	/** @return whether everything read so far has been copied to the output stream */
+	boolean isBranchIntact()
+	{
+		return !branchFailed;
+	}
+
+	/** Reads the remainder of the underlying input stream, so that it is copied completely */
+	void drain() throws IOException
+	{
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer, 0, buffer.length)) != -1)
+		{
+			copy(buffer, 0, read);
+		}
+	}
+
+	@Override public int read() throws IOException
+	{
+		checkNotClosed();
+		int b = in.read();
+		if (b != -1) copy(new byte[] {(byte) b}, 0, 1);
+		return b;
+	}
+
+	@Override public int read(byte[] b, int off, int len) throws IOException
+	{
+		checkNotClosed();
+		int read = in.read(b, off, len);
+		if (read > 0) copy(b, off, read);
+		return read;
+	}
+
+	@Override public long skip(long n) throws IOException
+	{
+		// skipped bytes must be copied too
+		byte[] buffer = new byte[(int) Math.max(0, Math.min(n, 8192))];
+		int read = read(buffer, 0, buffer.length);
+		return Math.max(read, 0);
+	}
+
+	@Override public boolean markSupported()
+	{
+		return false;
+	}
+
+	@Override public void mark(int readlimit) { }
+
+	@Override public void reset() throws IOException
+	{
+		throw new IOException("mark/reset not supported");
+	}
+
+	@Override public void close()
+	{
+		closed = true;
+	}
+
+	private void checkNotClosed() throws IOException
+	{
+		if (closed) throw new IOException("Stream closed");
+	}
+
+	private void copy(byte[] b, int off, int len)
+	{
+		if (branchFailed) return;
+		try
+		{
+			branch.write(b, off, len);
+		}
+		catch (IOException e)
+		{
+			branchFailed = true;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import de.westnordost.osmapi.ApiRequestWriter;
+
+/**
+ * Writes a single parameter as an URL-encoded form, i.e. <code>name=value</code>, encoded with the
+ * same rules as {@link java.net.URLEncoder} in UTF-8.
+ * <br><br>
+ * The value is encoded in chunks directly into the output stream, so that no copy of the whole
+ * (possibly very large) value is created in memory.
+ */
+class UrlEncodingRequestWriter implements ApiRequestWriter
+{
+	private static final int BUFFER_SIZE = 8192;
+	private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+	private final String name;
+	private final CharSequence value;
+	private final Reader valueReader;
+
+	/** The value can be written any number of times */
+	UrlEncodingRequestWriter(@NotNull String name, @NotNull CharSequence value)
+	{
+		this.name = name;
+		this.value = value;
+		this.valueReader = null;
+	}
+
+	/** The value is read until the end when writing, so it can only be written once. The reader is
+	 *  not closed. */
+	UrlEncodingRequestWriter(@NotNull String name, @NotNull Reader value)
+	{
+		this.name = name;
+		this.value = null;
+		this.valueReader = value;
+	}
+
+	/** @return whether the request can be written more than once */
+	boolean isRepeatable() { return valueReader == null; }
+
+	@Override public String getContentType() { return "application/x-www-form-urlencoded"; }
+
+	@Override public void write(OutputStream out) throws IOException
+	{
+		Encoder encoder = new Encoder(out);
+		encoder.encode(CharBuffer.wrap(name), true);
+		out.write('=');
+		encoder.reset();
+
+		if (value != null)
+		{
+			encoder.encode(CharBuffer.wrap(value), true);
+		}
+		else
+		{
+			CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+			boolean endOfInput = false;
+			while (!endOfInput)
+			{
+				endOfInput = valueReader.read(chars) == -1;
+				chars.flip();
+				encoder.encode(chars, endOfInput);
+				// an incomplete surrogate pair remains in the buffer until the next chunk is read
+				chars.compact();
+			}
+		}
+	}
+
+	/** @return the length of the given value when it is URL-encoded. It is overestimated for
+	 *          invalid surrogates, which are encoded as '?' */
+	static int encodedLength(@NotNull CharSequence value)
+	{
+		int length = 0;
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if (c < 0x80) length += Encoder.isUnreserved(c) || c == ' ' ? 1 : 3;
+			else if (c < 0x800) length += 6;
+			// each half of a surrogate pair is two of its four bytes in UTF-8
+			else if (Character.isSurrogate(c)) length += 6;
+			else length += 9;
+		}
+		return length;
+	}
+
+	private static class Encoder
+	{
+		private final OutputStream out;
+		private final CharsetEncoder charsetEncoder = StandardCharsets.UTF_8.newEncoder()
+				// like URLEncoder, encode invalid characters as '?'
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+		/** each byte is encoded to at most three bytes */
+		private final byte[] encoded = new byte[BUFFER_SIZE * 3];
+
+		Encoder(OutputStream out)
+		{
+			this.out = out;
+		}
+
+		void reset()
+		{
+			charsetEncoder.reset();
+		}
+
+		void encode(CharBuffer chars, boolean endOfInput) throws IOException
+		{
+			while (charsetEncoder.encode(chars, bytes, endOfInput).isOverflow())
+			{
+				writeBytes();
+			}
+			if (endOfInput)
+			{
+				CoderResult result;
+				do
+				{
+					result = charsetEncoder.flush(bytes);
+					writeBytes();
+				}
+				while (result.isOverflow());
+			}
+		}
+
+		private void writeBytes() throws IOException
+		{
+			bytes.flip();
+			int length = 0;
+			while (bytes.hasRemaining())
+			{
+				int b = bytes.get() & 0xff;
+				if (isUnreserved(b))
+				{
+					encoded[length++] = (byte) b;
+				}
+				else if (b == ' ')
+				{
+					encoded[length++] = '+';
+				}
+				else
+				{
+					encoded[length++] = '%';
+					encoded[length++] = HEX_DIGITS[b >> 4];
+					encoded[length++] = HEX_DIGITS[b & 0xf];
+				}
+			}
+			bytes.clear();
+			out.write(encoded, 0, length);
+		}
+
+		private static boolean isUnreserved(int b)
+		{
+			return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+					|| b == '.' || b == '-' || b == '*' || b == '_';
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.OsmConnection;
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+import de.westnordost.osmapi.map.data.LatLon;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.OsmLatLon;
+import de.westnordost.osmapi.map.data.Way;
+
+import static org.junit.Assert.*;
+
+public class AugmentedDiffParserTest
+{
+	@Test public void create()
+	{
+		Changes changes = parse(
+				"<action type='create'>" +
+				"  <node id='1' version='1' lat='1.5' lon='2.5'><tag k='a' v='b'/></node>" +
+				"</action>"
+		);
+		assertEquals(1, changes.created.size());
+		Node node = (Node) changes.created.get(0).element;
+		assertEquals(1, node.getId());
+		assertEquals(new OsmLatLon(1.5, 2.5), node.getPosition());
+		assertEquals("b", node.getTags().get("a"));
+	}
+
+	@Test public void modifyWithGeometry()
+	{
+		Changes changes = parse(
+				"<action type='modify'>" +
+				"  <old>" +
+				"    <way id='2' version='1'>" +
+				"      <bounds minlat='0' minlon='0' maxlat='1' maxlon='1'/>" +
+				"      <nd ref='1' lat='0' lon='0'/><nd ref='2' lat='1' lon='1'/>" +
+				"    </way>" +
+				"  </old>" +
+				"  <new>" +
+				"    <way id='2' version='2'>" +
+				"      <bounds minlat='0' minlon='0' maxlat='2' maxlon='2'/>" +
+				"      <nd ref='1' lat='0' lon='0'/><nd ref='3' lat='2' lon='2'/>" +
+				"      <tag k='highway' v='road'/>" +
+				"    </way>" +
+				"  </new>" +
+				"</action>"
+		);
+		assertEquals(1, changes.modified.size());
+		ElementWithGeometry[] modified = changes.modified.get(0);
+		Way oldWay = (Way) modified[0].element;
+		Way newWay = (Way) modified[1].element;
+		assertEquals(1, oldWay.getVersion());
+		assertEquals(2, newWay.getVersion());
+		assertEquals(Arrays.asList(1L, 2L), oldWay.getNodeIds());
+		assertEquals(Arrays.asList(1L, 3L), newWay.getNodeIds());
+		assertEquals("road", newWay.getTags().get("highway"));
+		List<LatLon> expectedGeometry = Arrays.asList(new OsmLatLon(0, 0), new OsmLatLon(2, 2));
+		assertEquals(expectedGeometry, modified[1].wayGeometry);
+		assertEquals(2, modified[1].bounds.getMaxLatitude(), 0);
+	}
+
+	@Test public void delete()
+	{
+		Changes changes = parse(
+				"<action type='delete'>" +
+				"  <old><node id='3' version='4' lat='1' lon='2'/></old>" +
+				"  <new><node id='3' visible='false' version='5' timestamp='2020-01-01T00:00:00Z'/></new>" +
+				"</action>"
+		);
+		assertEquals(1, changes.deleted.size());
+		ElementWithGeometry[] deleted = changes.deleted.get(0);
+		assertEquals(3, deleted[0].element.getId());
+		assertEquals(4, deleted[0].element.getVersion());
+		assertNull(deleted[1]);
+	}
+
+	@Test public void deleteBecauseNotMatchingAnymore()
+	{
+		Changes changes = parse(
+				"<action type='delete'>" +
+				"  <old><node id='3' version='4' lat='1' lon='2'><tag k='shop' v='bakery'/></node></old>" +
+				"  <new><node id='3' version='5' lat='1' lon='2'/></new>" +
+				"</action>"
+		);
+		ElementWithGeometry[] deleted = changes.deleted.get(0);
+		assertEquals(4, deleted[0].element.getVersion());
+		assertEquals(5, deleted[1].element.getVersion());
+	}
+
+	@Test public void severalActions()
+	{
+		Changes changes = parse(
+				"<meta osm_base='2020-01-02T00:00:00Z'/>" +
+				"<action type='create'><node id='1' lat='0' lon='0'/></action>" +
+				"<action type='delete'>" +
+				"  <old><way id='2'><bounds minlat='0' minlon='0' maxlat='1' maxlon='1'/><nd ref='1' lat='0' lon='0'/></way></old>" +
+				"  <new><way id='2' visible='false'/></new>" +
+				"</action>" +
+				"<action type='create'><node id='3' lat='0' lon='0'/></action>"
+		);
+		assertEquals(2, changes.created.size());
+		assertEquals(3, changes.created.get(1).element.getId());
+		assertEquals(1, changes.deleted.size());
+		assertEquals(2, changes.deleted.get(0)[0].element.getId());
+	}
+
+	@Test public void addsAdiffSettingToQuery()
+	{
+		QueryRecordingApi api = new QueryRecordingApi();
+		Instant from = Instant.parse("2020-01-01T00:00:00.5Z");
+		Instant to = Instant.parse("2020-01-02T00:00:00Z");
+
+		api.queryAugmentedDiff("way[highway]; out meta geom;", from, to, new Changes());
+		assertEquals(
+				"[adiff:\"2020-01-01T00:00:00Z\",\"2020-01-02T00:00:00Z\"];\nway[highway]; out meta geom;",
+				api.query);
+
+		api.queryAugmentedDiff(" [timeout:60]; way[highway]; out meta geom;", from, to, new Changes());
+		assertEquals(
+				"[adiff:\"2020-01-01T00:00:00Z\",\"2020-01-02T00:00:00Z\"][timeout:60]; way[highway]; out meta geom;",
+				api.query);
+	}
+
+	private Changes parse(String xml)
+	{
+		Changes changes = new Changes();
+		try
+		{
+			new AugmentedDiffParser(changes, new OsmMapDataFactory()).parse(TestUtils.asInputStream(xml));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+		return changes;
+	}
+
+	private static class Changes implements AugmentedDiffHandler
+	{
+		final List<ElementWithGeometry> created = new ArrayList<>();
+		final List<ElementWithGeometry[]> modified = new ArrayList<>();
+		final List<ElementWithGeometry[]> deleted = new ArrayList<>();
+
+		@Override public void onCreate(@NotNull ElementWithGeometry element)
+		{
+			created.add(element);
+		}
+
+		@Override public void onModify(@NotNull ElementWithGeometry oldElement, @NotNull ElementWithGeometry newElement)
+		{
+			modified.add(new ElementWithGeometry[]{oldElement, newElement});
+		}
+
+		@Override public void onDelete(@NotNull ElementWithGeometry oldElement, @Nullable ElementWithGeometry newElement)
+		{
+			deleted.add(new ElementWithGeometry[]{oldElement, newElement});
+		}
+	}
+
+	private static class QueryRecordingApi extends OverpassMapDataApi
+	{
+		String query;
+
+		QueryRecordingApi()
+		{
+			super(new OsmConnection("http://localhost/", "test"));
+		}
+
+		@Override public <T> T query(CharSequence query, ApiResponseReader<T> reader)
+		{
+			this.query = query.toString();
+			return null;
+		}
+	}
+}
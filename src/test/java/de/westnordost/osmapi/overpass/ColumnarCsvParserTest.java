@@ -0,0 +1,86 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static de.westnordost.osmapi.overpass.ColumnType.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ColumnarCsvParserTest
+{
+	private static final String TABLE =
+			"@id	@lat	@lon	shop\n" +
+			"1	53.5	9.9	bakery\n" +
+			"2	53.6	10.0	butcher\n" +
+			"3			bakery\n" +
+			"4	-1.5	2.25\n" +
+			"5	0	0	bakery\n";
+
+	@Test public void parsesIntoBatches() throws Exception
+	{
+		TableSchema schema = new TableSchema(LONG, DOUBLE, DOUBLE, STRING);
+		List<long[]> ids = new ArrayList<>();
+		List<double[]> lats = new ArrayList<>();
+		List<int[]> shops = new ArrayList<>();
+		List<String> dictionary = new ArrayList<>();
+
+		new ColumnarCsvParser(schema, 2, batch -> {
+			ids.add(Arrays.copyOf(batch.getLongs(0), batch.size()));
+			lats.add(Arrays.copyOf(batch.getDoubles(1), batch.size()));
+			shops.add(Arrays.copyOf(batch.getStringCodes(3), batch.size()));
+			dictionary.clear();
+			dictionary.addAll(batch.getDictionary(3));
+		}).parse(TestUtils.asInputStream(TABLE));
+
+		assertEquals(3, ids.size());
+		assertArrayEquals(new long[]{1, 2}, ids.get(0));
+		assertArrayEquals(new long[]{3, 4}, ids.get(1));
+		assertArrayEquals(new long[]{5}, ids.get(2));
+
+		assertArrayEquals(new double[]{53.5, 53.6}, lats.get(0), 0);
+		assertArrayEquals(new double[]{Double.NaN, -1.5}, lats.get(1), 0);
+
+		assertEquals(Arrays.asList("bakery", "butcher"), dictionary);
+		assertArrayEquals(new int[]{0, 1}, shops.get(0));
+		assertArrayEquals(new int[]{0, TableBatch.MISSING_STRING}, shops.get(1));
+		assertArrayEquals(new int[]{0}, shops.get(2));
+	}
+
+	@Test public void missingValues() throws Exception
+	{
+		TableSchema schema = new TableSchema(LONG, STRING, LONG);
+		List<Object> values = new ArrayList<>();
+		new ColumnarCsvParser(schema, 10, batch -> {
+			values.add(batch.getLongs(2)[0]);
+			values.add(batch.getString(1, 0));
+		}, ",", false).parse(TestUtils.asInputStream("1\n"));
+
+		assertEquals(TableBatch.MISSING_LONG, values.get(0));
+		assertNull(values.get(1));
+	}
+
+	@Test public void failsOnWrongColumnType() throws Exception
+	{
+		TableSchema schema = new TableSchema(LONG);
+		new ColumnarCsvParser(schema, 10, batch -> {
+			try
+			{
+				batch.getDoubles(0);
+				fail();
+			}
+			catch (IllegalArgumentException ignore) { }
+		}).parse(TestUtils.asInputStream("@id\n1\n"));
+	}
+
+	@Test(expected = NumberFormatException.class) public void failsOnInvalidNumber() throws Exception
+	{
+		new ColumnarCsvParser(new TableSchema(LONG), 10, batch -> {})
+				.parse(TestUtils.asInputStream("@id\nabc\n"));
+	}
+}
@@ -0,0 +1,69 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class CompactTagMapTest
+{
+	@Test public void putGetAndRemove()
+	{
+		CompactTagMap tags = new CompactTagMap();
+		assertNull(tags.put("a", "1"));
+		assertNull(tags.put("b", "2"));
+		assertEquals("1", tags.put("a", "3"));
+		assertEquals("3", tags.get("a"));
+		assertEquals("2", tags.remove("b"));
+		assertFalse(tags.containsKey("b"));
+		assertEquals(1, tags.size());
+	}
+
+	@Test public void behavesLikeHashMapAlsoWithManyTags()
+	{
+		CompactTagMap tags = new CompactTagMap();
+		Map<String, String> expected = new HashMap<>();
+		for (int i = 0; i < 40; i++)
+		{
+			tags.put("k" + i, "v" + i);
+			expected.put("k" + i, "v" + i);
+			assertEquals(expected, tags);
+		}
+		tags.remove("k3");
+		expected.remove("k3");
+		assertEquals(expected, tags);
+		assertEquals(expected.hashCode(), tags.hashCode());
+	}
+
+	@Test public void removeWhileIterating()
+	{
+		CompactTagMap tags = new CompactTagMap();
+		for (int i = 0; i < 5; i++) tags.put("k" + i, "v" + i);
+
+		Iterator<Map.Entry<String, String>> it = tags.entrySet().iterator();
+		int count = 0;
+		while (it.hasNext())
+		{
+			Map.Entry<String, String> entry = it.next();
+			count++;
+			if (entry.getKey().equals("k1") || entry.getKey().equals("k4")) it.remove();
+		}
+		assertEquals(5, count);
+		assertEquals(3, tags.size());
+		assertFalse(tags.containsKey("k1"));
+		assertFalse(tags.containsKey("k4"));
+	}
+
+	@Test public void setValueOfEntry()
+	{
+		CompactTagMap tags = new CompactTagMap();
+		tags.put("a", "1");
+		tags.entrySet().iterator().next().setValue("2");
+		assertEquals("2", tags.get("a"));
+	}
+}
@@ -2,12 +2,15 @@ package de.westnordost.osmapi.overpass;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import de.westnordost.osmapi.common.ListHandler;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class CsvParserTest
 {
@@ -31,6 +34,127 @@ public class CsvParserTest
 		assertArrayEquals(new String[] {"id", "name", "phone"}, result.get(0));
 	}
 
+	@Test public void separatorIsNotARegex() {
+		List<String[]> result = parseRows("a|b.c\n", "|");
+		assertArrayEquals(new String[] {"a", "b.c"}, result.get(0));
+	}
+
+	@Test public void separatorIsARegexWhenParsingIntoArrays() {
+		List<String[]> result = parse("a, b;c\n", "[,;] ?");
+		assertArrayEquals(new String[] {"a", "b", "c"}, result.get(0));
+	}
+
+	@Test public void separatorWithSeveralCharacters() {
+		List<String[]> result = parse("a::b:c:::d:\n", "::");
+		assertArrayEquals(new String[] {"a", "b:c", ":d:"}, result.get(0));
+	}
+
+	@Test public void keepsEmptyColumns() {
+		List<String[]> result = parseRows("\ta\t\t\n", "\t");
+		assertArrayEquals(new String[] {"", "a", "", ""}, result.get(0));
+	}
+
+	@Test public void leavesOutEmptyColumnsAtEndWhenParsingIntoArrays() {
+		List<String[]> result = parse("\ta\t\t\n\t\t\n\n", "\t");
+		assertEquals(3, result.size());
+		assertArrayEquals(new String[] {"", "a"}, result.get(0));
+		assertArrayEquals(new String[] {}, result.get(1));
+		assertArrayEquals(new String[] {""}, result.get(2));
+
+		List<String[]> regexResult = parse("a,,\n", ",+?");
+		assertArrayEquals(new String[] {"a"}, regexResult.get(0));
+	}
+
+	@Test public void lineBreaks() {
+		List<String[]> result = parse("a\r\nb\rc\nd", "\t");
+		assertEquals(4, result.size());
+		assertArrayEquals(new String[] {"d"}, result.get(3));
+	}
+
+	@Test public void quotesAreTakenAsTheyAre() {
+		List<String[]> result = parse("\"a,b\"\tb\"c\"\n", "\t");
+		assertArrayEquals(new String[] {"\"a,b\"", "b\"c\""}, result.get(0));
+	}
+
+	@Test public void unbalancedLeadingQuote() {
+		List<String[]> result = parse("\"a\tb\nc\td\n", "\t");
+		assertEquals(2, result.size());
+		assertArrayEquals(new String[] {"\"a", "b"}, result.get(0));
+		assertArrayEquals(new String[] {"c", "d"}, result.get(1));
+	}
+
+	@Test public void quotedValues() throws Exception {
+		List<String[]> result = new ArrayList<>();
+		new CsvParser(row -> result.add(row.toArray()), ",", false, true).parse(
+				TestUtils.asInputStream("\"a,b\",\"say \"\"hi\"\"\",\"x\ny\",b\"c\"\n"));
+		assertEquals(1, result.size());
+		assertArrayEquals(new String[] {"a,b", "say \"hi\"", "x\ny", "b\"c\""}, result.get(0));
+	}
+
+	@Test public void rowsWithHeader() throws Exception {
+		String table =
+				"@id	@lat	name\n" +
+				"123	53.5501234	Rumpelstielzchen\n" +
+				"-345	-0.5	\n";
+
+		List<Object[]> result = new ArrayList<>();
+		new CsvParser(row -> {
+			assertEquals(Arrays.asList("@id", "@lat", "name"), row.getHeader());
+			int lat = row.getColumnIndex("@lat");
+			result.add(new Object[] {
+					row.getRowNumber(), row.getLong(0), row.getDouble(lat), row.get(2).toString(), row.isEmpty(2)
+			});
+		}, "\t", true).parse(TestUtils.asInputStream(table));
+
+		assertEquals(2, result.size());
+		assertArrayEquals(new Object[] {0L, 123L, 53.5501234, "Rumpelstielzchen", false}, result.get(0));
+		assertArrayEquals(new Object[] {1L, -345L, -0.5, "", true}, result.get(1));
+	}
+
+	@Test public void rowReadsNumbers() throws Exception {
+		List<Double> doubles = new ArrayList<>();
+		new CsvParser(row -> doubles.add(row.getDouble(0)), "\t", false).parse(
+				TestUtils.asInputStream("1e3\n0.1234567890123456789\n-7\n"));
+		assertEquals(Arrays.asList(1000.0, 0.1234567890123456789, -7.0), doubles);
+
+		List<Long> longs = new ArrayList<>();
+		new CsvParser(row -> longs.add(row.getLong(0)), "\t", false).parse(
+				TestUtils.asInputStream("9223372036854775807\n-9223372036854775808\n"));
+		assertEquals(Arrays.asList(Long.MAX_VALUE, Long.MIN_VALUE), longs);
+	}
+
+	@Test public void rowFailsOnInvalidNumbers() throws Exception {
+		List<String> invalid = Arrays.asList("", "-", "1a", "9223372036854775808");
+		List<Boolean> failed = new ArrayList<>();
+		new CsvParser(row -> {
+			try
+			{
+				row.getLong(0);
+				failed.add(false);
+			}
+			catch (NumberFormatException e)
+			{
+				failed.add(true);
+			}
+		}, "\t", false).parse(TestUtils.asInputStream(String.join("\n", invalid) + "\n"));
+		assertEquals(4, failed.size());
+		for (boolean f : failed) assertTrue(f);
+	}
+
+	private List<String[]> parseRows(String table, String separator)
+	{
+		List<String[]> result = new ArrayList<>();
+		try
+		{
+			new CsvParser(row -> result.add(row.toArray()), separator, false).parse(TestUtils.asInputStream(table));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+		return result;
+	}
+
 	private List<String[]> parse(String table, String separator)
 	{
 		ListHandler<String[]> handler = new ListHandler<>();
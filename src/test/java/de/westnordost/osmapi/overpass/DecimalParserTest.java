@@ -0,0 +1,77 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class DecimalParserTest
+{
+	private final DecimalParser parser = new DecimalParser();
+
+	@Test public void parseDouble()
+	{
+		for (String value : Arrays.asList(
+				"0", "-0", "1", "-53.5512345", "+9.9999999", ".5", "5.", "0.0000001", "1.5e-7",
+				"1E10", "2.5e+3", "123456789012345678", "1234567890.12345678901234567890",
+				"1e400", "4.9e-324", "NaN", "Infinity", "9007199254740993"))
+		{
+			// equal including the sign of zero
+			assertEquals(value, Double.valueOf(value), Double.valueOf(parser.parseDouble(value)));
+		}
+	}
+
+	@Test public void parseDoubleFailsOnNonNumbers()
+	{
+		for (String value : Arrays.asList("", ".", "-", "+", "1e", "1e-", "1.2.3", "abc", "1-"))
+		{
+			try
+			{
+				parser.parseDouble(value);
+				fail(value);
+			}
+			catch (NumberFormatException ignore) {}
+		}
+	}
+
+	@Test public void parseScaledRoundsHalfAwayFromZero()
+	{
+		assertEquals(12345679, parser.parseScaled("1.23456785", 7));
+		assertEquals(12345678, parser.parseScaled("1.234567849999", 7));
+		assertEquals(-12345679, parser.parseScaled("-1.23456785", 7));
+		assertEquals(0, parser.parseScaled("0.00000000000000000000001", 7));
+		assertEquals(1000, parser.parseScaled("1e-4", 7));
+		assertEquals(150, parser.parseScaled("1.5", 2));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void parseScaledFailsIfOutOfRange()
+	{
+		parser.parseScaled("1e300", 7);
+	}
+
+	@Test public void parseLong()
+	{
+		assertEquals(0, DecimalParser.parseLong("0"));
+		assertEquals(-1234, DecimalParser.parseLong("-1234"));
+		assertEquals(1234, DecimalParser.parseLong("+1234"));
+		assertEquals(Long.MAX_VALUE, DecimalParser.parseLong("9223372036854775807"));
+		assertEquals(Long.MIN_VALUE, DecimalParser.parseLong("-9223372036854775808"));
+	}
+
+	@Test public void parseLongFailsOnNonIntegers()
+	{
+		for (String value : Arrays.asList(
+				"", "-", "1.0", "1e3", "9223372036854775808", "-9223372036854775809"))
+		{
+			try
+			{
+				DecimalParser.parseLong(value);
+				fail(value);
+			}
+			catch (NumberFormatException ignore) {}
+		}
+	}
+}
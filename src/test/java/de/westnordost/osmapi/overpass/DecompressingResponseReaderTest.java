@@ -0,0 +1,96 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecompressingResponseReaderTest
+{
+	private static final String TEXT = "<osm><node id=\"1\" lat=\"1\" lon=\"2\"/></osm>";
+
+	@Test public void passesOnUncompressed() throws Exception
+	{
+		byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+		DecompressingResponseReader<String> reader = new DecompressingResponseReader<>(new StringReader());
+		assertEquals(TEXT, reader.parse(new ByteArrayInputStream(bytes)));
+		assertEquals(bytes.length, reader.getRawBytes());
+		assertEquals(bytes.length, reader.getDecodedBytes());
+	}
+
+	@Test public void decompressesGzip() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(new GZIPOutputStream(out), TEXT);
+		assertDecompresses(out.toByteArray());
+	}
+
+	@Test public void decompressesDeflate() throws Exception
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(new DeflaterOutputStream(out), TEXT);
+		assertDecompresses(out.toByteArray());
+	}
+
+	@Test public void measuresTime() throws Exception
+	{
+		DecompressingResponseReader<String> reader = new DecompressingResponseReader<>(new StringReader());
+		assertEquals(0, reader.getParseStartedAt());
+		reader.parse(new ByteArrayInputStream(TEXT.getBytes(StandardCharsets.UTF_8)));
+		assertNotEquals(0, reader.getParseStartedAt());
+		assertTrue(reader.getTransferNanos() >= 0);
+		assertTrue(reader.getParseNanos() >= 0);
+	}
+
+	@Test public void passesOnEmpty() throws Exception
+	{
+		DecompressingResponseReader<String> reader = new DecompressingResponseReader<>(new StringReader());
+		assertEquals("", reader.parse(new ByteArrayInputStream(new byte[0])));
+		assertEquals(0, reader.getRawBytes());
+		assertEquals(0, reader.getDecodedBytes());
+	}
+
+	@Test public void passesOnSingleByte() throws Exception
+	{
+		DecompressingResponseReader<String> reader = new DecompressingResponseReader<>(new StringReader());
+		assertEquals("x", reader.parse(new ByteArrayInputStream(new byte[]{'x'})));
+	}
+
+	private static void assertDecompresses(byte[] compressed) throws Exception
+	{
+		DecompressingResponseReader<String> reader = new DecompressingResponseReader<>(new StringReader());
+		assertEquals(TEXT, reader.parse(new ByteArrayInputStream(compressed)));
+		assertEquals(compressed.length, reader.getRawBytes());
+		assertEquals(TEXT.getBytes(StandardCharsets.UTF_8).length, reader.getDecodedBytes());
+	}
+
+	private static void write(OutputStream out, String text) throws IOException
+	{
+		out.write(text.getBytes(StandardCharsets.UTF_8));
+		out.close();
+	}
+
+	private static class StringReader implements ApiResponseReader<String>
+	{
+		@Override public String parse(InputStream in) throws IOException
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int read;
+			while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+			return new String(out.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class DiskResponseCacheTest
+{
+	private File directory;
+
+	@Before public void setUp() throws IOException
+	{
+		directory = Files.createTempDirectory("overpass-cache").toFile();
+	}
+
+	@After public void tearDown()
+	{
+		File[] files = directory.listFiles();
+		if (files != null) for (File file : files) file.delete();
+		directory.delete();
+	}
+
+	@Test public void getCommittedEntry() throws IOException
+	{
+		DiskResponseCache cache = new DiskResponseCache(directory, 1000, 60000);
+		put(cache, "a", "hello");
+		assertEquals("hello", get(cache, "a"));
+	}
+
+	@Test public void abortedEntryIsNotStored() throws IOException
+	{
+		DiskResponseCache cache = new DiskResponseCache(directory, 1000, 60000);
+		DiskResponseCache.Edit edit = cache.edit("a");
+		edit.getOutputStream().write(1);
+		edit.abort();
+		assertNull(cache.get("a"));
+		assertEquals(0, directory.listFiles().length);
+	}
+
+	@Test public void expiredEntryIsRemoved() throws IOException
+	{
+		DiskResponseCache cache = new DiskResponseCache(directory, 1000, 60000);
+		DiskResponseCache.Edit edit = cache.edit("a", System.currentTimeMillis() - 1);
+		edit.getOutputStream().write(1);
+		edit.commit();
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test public void entryOfCacheWithoutExpiryDoesNotExpire() throws IOException
+	{
+		DiskResponseCache cache = new DiskResponseCache(directory, 1000, DiskResponseCache.NEVER);
+		put(cache, "a", "hello");
+		assertEquals("hello", get(cache, "a"));
+	}
+
+	@Test public void evictsLeastRecentlyUsedEntries() throws IOException
+	{
+		// each entry is 8 bytes header + 10 bytes content
+		DiskResponseCache cache = new DiskResponseCache(directory, 40, 60000);
+		put(cache, "a", "0123456789");
+		put(cache, "b", "0123456789");
+		get(cache, "a");
+		put(cache, "c", "0123456789");
+
+		assertEquals("0123456789", get(cache, "a"));
+		assertNull(cache.get("b"));
+		assertEquals("0123456789", get(cache, "c"));
+		assertEquals(36, cache.getSize());
+	}
+
+	@Test public void entryLargerThanMaxSizeIsNotStored() throws IOException
+	{
+		DiskResponseCache cache = new DiskResponseCache(directory, 10, 60000);
+		put(cache, "a", "0123456789");
+		assertNull(cache.get("a"));
+	}
+
+	@Test public void entriesSurviveReopening() throws IOException
+	{
+		put(new DiskResponseCache(directory, 1000, 60000), "a", "hello");
+		DiskResponseCache cache = new DiskResponseCache(directory, 1000, 60000);
+		assertEquals("hello", get(cache, "a"));
+		assertEquals(13, cache.getSize());
+	}
+
+	@Test public void clear() throws IOException
+	{
+		DiskResponseCache cache = new DiskResponseCache(directory, 1000, 60000);
+		put(cache, "a", "hello");
+		cache.clear();
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.getSize());
+	}
+
+	@Test public void cachingResponseReaderStoresWholeResponse() throws Exception
+	{
+		DiskResponseCache cache = new DiskResponseCache(directory, 1000, 60000);
+		// reader that only reads the first byte
+		CachingResponseReader<Integer> reader = new CachingResponseReader<>(InputStream::read, cache, "a", null);
+		assertEquals('h', (int) reader.parse(TestUtils.asInputStream("hello")));
+		assertEquals("hello", get(cache, "a"));
+	}
+
+	@Test public void cachingResponseReaderDoesNotStoreOnError() throws Exception
+	{
+		DiskResponseCache cache = new DiskResponseCache(directory, 1000, 60000);
+		CachingResponseReader<Void> reader = new CachingResponseReader<>(in -> { throw new IOException(); }, cache, "a", null);
+		try
+		{
+			reader.parse(TestUtils.asInputStream("hello"));
+		}
+		catch (IOException ignore) { }
+		assertNull(cache.get("a"));
+	}
+
+	private static void put(DiskResponseCache cache, String key, String value) throws IOException
+	{
+		DiskResponseCache.Edit edit = cache.edit(key);
+		edit.getOutputStream().write(value.getBytes("UTF-8"));
+		edit.commit();
+	}
+
+	private static String get(DiskResponseCache cache, String key) throws IOException
+	{
+		try (InputStream in = cache.get(key))
+		{
+			if (in == null) return null;
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int b;
+			while ((b = in.read()) != -1) out.write(b);
+			return TestUtils.asString(out);
+		}
+	}
+}
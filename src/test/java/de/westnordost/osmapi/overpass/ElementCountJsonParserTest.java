@@ -0,0 +1,52 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ElementCountJsonParserTest
+{
+	@Test public void parseCounts()
+	{
+		ElementCount count = parse(
+				"{\"version\": 0.6, \"elements\": [{" +
+				"  \"type\": \"count\"," +
+				"  \"id\": 0," +
+				"  \"tags\": {\"nodes\": \"2\", \"ways\": \"3\", \"relations\": \"4\", \"areas\": \"0\", \"total\": \"9\"}" +
+				"}]}"
+		);
+		assertEquals(2, count.nodes);
+		assertEquals(3, count.ways);
+		assertEquals(4, count.relations);
+		assertEquals(9, count.total);
+	}
+
+	@Test public void parseSeveralCounts() throws Exception
+	{
+		ElementCountJsonParser parser = new ElementCountJsonParser();
+		parser.parse(TestUtils.asInputStream(
+				"{\"elements\": [" +
+				"  {\"type\": \"count\", \"tags\": {\"nodes\": \"2\", \"total\": \"2\"}}," +
+				"  {\"type\": \"count\", \"tags\": {\"ways\": \"5\", \"total\": \"5\"}}" +
+				"]}"
+		));
+		List<ElementCount> counts = parser.getElementCounts();
+		assertEquals(2, counts.size());
+		assertEquals(2, counts.get(0).nodes);
+		assertEquals(5, counts.get(1).ways);
+	}
+
+	private ElementCount parse(String json)
+	{
+		try
+		{
+			return new ElementCountJsonParser().parse(TestUtils.asInputStream(json));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -2,7 +2,10 @@ package de.westnordost.osmapi.overpass;
 
 import org.junit.Test;
 
+import java.util.List;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 public class ElementCountParserTest
 {
@@ -22,6 +25,23 @@ public class ElementCountParserTest
 		assertEquals(9, count.total);
 	}
 
+	@Test public void parseSeveralCounts() throws Exception
+	{
+		ElementCountParser parser = new ElementCountParser();
+		ElementCount first = parser.parse(TestUtils.asInputStream(
+				"<osm>" +
+				"<count id=\"0\"><tag k=\"nodes\" v=\"2\"/><tag k=\"total\" v=\"2\"/></count>" +
+				"<count id=\"0\"><tag k=\"ways\" v=\"5\"/><tag k=\"total\" v=\"5\"/></count>" +
+				"</osm>"
+		));
+		List<ElementCount> counts = parser.getElementCounts();
+		assertEquals(2, counts.size());
+		assertSame(first, counts.get(0));
+		assertEquals(2, counts.get(0).total);
+		assertEquals(5, counts.get(1).ways);
+		assertEquals(5, counts.get(1).total);
+	}
+
 	private ElementCount parse(String xml)
 	{
 		try
@@ -0,0 +1,86 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.map.MapDataParser;
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ElementCounterTest
+{
+	private static final String XML =
+			"<osm>" +
+			"<node id='1' lat='0' lon='0'/>" +
+			"<node id='2' lat='0' lon='0'/>" +
+			"<way id='3'><nd ref='1'/><nd ref='2'/></way>" +
+			"<relation id='4'><member type='way' ref='3' role=''/></relation>" +
+			"</osm>";
+
+	@Test public void countsElementsOfMapData() throws Exception
+	{
+		ElementCounter counter = new ElementCounter();
+		CountingHandler handler = new CountingHandler();
+		ApiResponseReader<Void> reader = counter.attachTo(
+				new MapDataParser(counter.count(handler), new OsmMapDataFactory()));
+		reader.parse(TestUtils.asInputStream(XML));
+
+		assertEquals(4, handler.count);
+		QueryMetrics metrics = new QueryMetrics();
+		assertSame(counter, ElementCounter.of(reader));
+		ElementCounter.of(reader).addTo(metrics);
+		assertEquals(2, metrics.nodes);
+		assertEquals(1, metrics.ways);
+		assertEquals(1, metrics.relations);
+	}
+
+	@Test public void countsElementsWithGeometry() throws Exception
+	{
+		ElementCounter counter = new ElementCounter();
+		ApiResponseReader<Void> reader = counter.attachTo(new MapDataWithGeometryParser(
+				counter.count(new MapDataWithGeometryCollection()), new OsmMapDataFactory()));
+		reader.parse(TestUtils.asInputStream(
+				"<node id='1' lat='0' lon='0'/>" +
+				"<way id='3'><bounds minlat='0' minlon='0' maxlat='0' maxlon='0'/><nd ref='1' lat='0' lon='0'/></way>"
+		));
+
+		QueryMetrics metrics = new QueryMetrics();
+		counter.addTo(metrics);
+		assertEquals(1, metrics.nodes);
+		assertEquals(1, metrics.ways);
+		assertEquals(0, metrics.relations);
+	}
+
+	@Test public void noCounterAttached()
+	{
+		assertNull(ElementCounter.of(in -> null));
+	}
+
+	@Test public void elementsPerSecond()
+	{
+		QueryMetrics metrics = new QueryMetrics();
+		assertEquals(0, metrics.getElementsPerSecond(), 0);
+		metrics.nodes = 10;
+		metrics.ways = 10;
+		metrics.totalNanos = 2000000000L;
+		assertEquals(10, metrics.getElementsPerSecond(), 0);
+	}
+
+	private static class CountingHandler implements MapDataHandler
+	{
+		int count;
+
+		@Override public void handle(BoundingBox bounds) {}
+		@Override public void handle(Node node) { count++; }
+		@Override public void handle(Way way) { count++; }
+		@Override public void handle(Relation relation) { count++; }
+	}
+}
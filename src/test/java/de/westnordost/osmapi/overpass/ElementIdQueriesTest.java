@@ -0,0 +1,198 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.OsmConnection;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ElementIdQueriesTest
+{
+	@Test public void sortedDistinct()
+	{
+		long[] ids = {5, 3, 5, 1, 3, 3};
+		assertArrayEquals(new long[]{1, 3, 5}, ElementIdQueries.sortedDistinct(ids));
+		// not modified
+		assertArrayEquals(new long[]{5, 3, 5, 1, 3, 3}, ids);
+		assertArrayEquals(new long[0], ElementIdQueries.sortedDistinct(new long[0]));
+	}
+
+	@Test public void create()
+	{
+		long[] ids = {1, 2, 3, 4};
+		assertEquals("node(id:2,3); out meta;", ElementIdQueries.create(Element.Type.NODE, ids, 1, 3).toString());
+		assertEquals("way(id:1); out meta;", ElementIdQueries.create(Element.Type.WAY, ids, 0, 1).toString());
+		assertEquals("relation(id:4); out meta;", ElementIdQueries.create(Element.Type.RELATION, ids, 3, 4).toString());
+	}
+
+	@Test public void createWithRanges()
+	{
+		long[] ids = {1, 10, 11, 12, 13, 14, 15, 16, 17, 30, 40, 41, 42, 43, 44, 45, 46, 47};
+		assertEquals(
+				"(node(id:1,30); node(if: id() >= 10 && id() <= 17); node(if: id() >= 40 && id() <= 47);); out meta;",
+				ElementIdQueries.create(Element.Type.NODE, ids, 0, ids.length).toString());
+		assertEquals(
+				"(node(id:1); node(if: id() >= 10 && id() <= 17);); out meta;",
+				ElementIdQueries.create(Element.Type.NODE, ids, 0, 9).toString());
+		assertEquals(
+				"node(if: id() >= 40 && id() <= 47); out meta;",
+				ElementIdQueries.create(Element.Type.NODE, ids, 10, 18).toString());
+		// too short to be a range
+		assertEquals(
+				"node(id:40,41,42,43,44,45,46); out meta;",
+				ElementIdQueries.create(Element.Type.NODE, ids, 10, 17).toString());
+	}
+
+	@Test public void chunkEndKeepsEncodedQueryWithinMaxLength() throws Exception
+	{
+		long[] ids = new long[1000];
+		for (int i = 0; i < ids.length; i++) ids[i] = i * i;
+		for (int i = 100; i < 200; i++) ids[i] = ids[99] + i;
+
+		int chunks = 0;
+		for (int from = 0, end; from < ids.length; from = end, chunks++)
+		{
+			end = ElementIdQueries.chunkEnd(Element.Type.WAY, ids, from, 500);
+			String query = ElementIdQueries.create(Element.Type.WAY, ids, from, end).toString();
+			assertTrue(URLEncoder.encode(query, "UTF-8").length() <= 500);
+		}
+		assertTrue(chunks > 1);
+	}
+
+	@Test public void chunkEndIncludesAtLeastOneId()
+	{
+		long[] ids = {1, 2, 3};
+		assertEquals(1, ElementIdQueries.chunkEnd(Element.Type.NODE, ids, 0, 1));
+		assertEquals(3, ElementIdQueries.chunkEnd(Element.Type.NODE, ids, 2, 1));
+	}
+
+	@Test public void queryElementsByIdInChunks()
+	{
+		FakeApi api = new FakeApi();
+		long[] ids = {7, 1, 2, 3, 5, 4, 6, 1};
+		List<Long> received = new ArrayList<>();
+		// "(node(id:);); out meta;" URL-encoded is 39 characters, each id and comma 4
+		api.queryElementsById(Element.Type.NODE, ids, 39 + 3 * 4, new NodeIdCollector(received));
+
+		Collections.sort(received);
+		assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L, 6L, 7L), received);
+		Collections.sort(api.queries);
+		assertEquals(Arrays.asList(
+				"node(id:1,2,3); out meta;",
+				"node(id:4,5,6); out meta;",
+				"node(id:7); out meta;"
+		), api.queries);
+	}
+
+	@Test public void queryElementsByIdInOneQuery()
+	{
+		FakeApi api = new FakeApi();
+		List<Long> received = new ArrayList<>();
+		api.queryElementsById(Element.Type.NODE, new long[]{2, 1}, new NodeIdCollector(received));
+
+		assertEquals(Arrays.asList(1L, 2L), received);
+		assertEquals(Arrays.asList("node(id:1,2); out meta;"), api.queries);
+	}
+
+	@Test public void queryElementsByIdInRanges()
+	{
+		FakeApi api = new FakeApi();
+		long[] ids = new long[100];
+		for (int i = 0; i < ids.length; i++) ids[i] = 1000 + i;
+		List<Long> received = new ArrayList<>();
+		api.queryElementsById(Element.Type.NODE, ids, new NodeIdCollector(received));
+
+		assertEquals(100, received.size());
+		assertEquals(Arrays.asList("node(if: id() >= 1000 && id() <= 1099); out meta;"), api.queries);
+	}
+
+	@Test public void queryElementsByIdWithNoIds()
+	{
+		FakeApi api = new FakeApi();
+		api.queryElementsById(Element.Type.NODE, new long[0], new NodeIdCollector(new ArrayList<>()));
+		assertEquals(0, api.queries.size());
+	}
+
+	private static class NodeIdCollector implements MapDataHandler
+	{
+		private final List<Long> ids;
+
+		NodeIdCollector(List<Long> ids)
+		{
+			this.ids = ids;
+		}
+
+		@Override public void handle(BoundingBox bounds) {}
+		@Override public void handle(Node node) { ids.add(node.getId()); }
+		@Override public void handle(Way way) {}
+		@Override public void handle(Relation relation) {}
+	}
+
+	/** Answers each query for node ids or id ranges with nodes with these ids */
+	private static class FakeApi extends OverpassMapDataApi
+	{
+		private static final Pattern IDS = Pattern.compile("\\(id:([0-9,]+)\\)");
+		private static final Pattern RANGE = Pattern.compile("id\\(\\) >= ([0-9]+) && id\\(\\) <= ([0-9]+)");
+
+		final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+
+		FakeApi()
+		{
+			super(new OsmConnection("http://localhost/", "test"));
+		}
+
+		@Override public <T> T query(CharSequence query, ApiResponseReader<T> reader)
+		{
+			queries.add(query.toString());
+			Matcher matcher = IDS.matcher(query);
+			StringBuilder xml = new StringBuilder("<osm>");
+			if (matcher.find())
+			{
+				for (String id : matcher.group(1).split(","))
+				{
+					xml.append("<node id='").append(id).append("' version='1' lat='1' lon='2'/>");
+				}
+			}
+			Matcher rangeMatcher = RANGE.matcher(query);
+			while (rangeMatcher.find())
+			{
+				long last = Long.parseLong(rangeMatcher.group(2));
+				for (long id = Long.parseLong(rangeMatcher.group(1)); id <= last; id++)
+				{
+					xml.append("<node id='").append(id).append("' version='1' lat='1' lon='2'/>");
+				}
+			}
+			xml.append("</osm>");
+			try
+			{
+				return reader.parse(TestUtils.asInputStream(xml.toString()));
+			}
+			catch (Exception e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override public OverpassStatus getStatus()
+		{
+			return new OverpassStatus();
+		}
+	}
+}
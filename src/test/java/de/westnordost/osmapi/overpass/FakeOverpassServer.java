@@ -0,0 +1,446 @@
+package de.westnordost.osmapi.overpass;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+
+import de.westnordost.osmapi.OsmConnection;
+
+/**
+ * A local stand-in for an Overpass server that answers on <code>interpreter</code>,
+ * <code>status</code> and <code>kill_my_queries</code>, for testing the client offline and under
+ * load.
+ * <br><br>
+ * Like the real server, it grants each client only a limited number of slots: a query occupies a
+ * slot while it is running and for the given cooldown time after it finished. Queries made while
+ * no slot is available are answered with HTTP 429. Furthermore, it can simulate queries that take
+ * long, responses that are streamed slowly and responses that are cut off mid-stream.
+ */
+public class FakeOverpassServer implements AutoCloseable
+{
+	private static final String BASE_PATH = "/api/";
+	/** Time between two chunks of a response with a limited transfer rate */
+	private static final long CHUNK_INTERVAL = 20;
+	private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	private final Object lock = new Object();
+	private final List<RunningQuery> runningQueries = new ArrayList<>();
+	/** times at which slots that are cooling down after a query become available again */
+	private final List<Long> coolingSlots = new ArrayList<>();
+
+	private volatile Function<String, String> responder = query -> "<osm></osm>";
+	private volatile int maxSlots;
+	private volatile long slotCooldownMillis;
+	private volatile long queryDurationMillis;
+	private volatile long bytesPerSecond;
+	private volatile long abortAfterBytes = -1;
+	private volatile int errorCode;
+	private volatile int statusErrorCode;
+	private volatile boolean gzipEnabled;
+
+	private int queryCount;
+	private int tooManyRequestsCount;
+	private int killCount;
+	private int maxRunningQueries;
+
+	/**
+	 * Starts the server on a free port on the loopback interface
+	 *
+	 * @param maxSlots number of queries the client may run at once. 0 for no rate limit
+	 */
+	public FakeOverpassServer(int maxSlots) throws IOException
+	{
+		this.maxSlots = maxSlots;
+		server = createServer();
+		server.createContext(BASE_PATH + "interpreter", this::handleInterpreter);
+		server.createContext(BASE_PATH + "status", this::handleStatus);
+		server.createContext(BASE_PATH + "kill_my_queries", this::handleKillMyQueries);
+		executor = Executors.newCachedThreadPool(runnable ->
+		{
+			Thread thread = new Thread(runnable, "fake-overpass-server");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/** @return the URL of the API, to be passed to the {@link OsmConnection} */
+	public String getUrl()
+	{
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + BASE_PATH;
+	}
+
+	/** @return a new api that queries this server */
+	public OverpassMapDataApi createApi()
+	{
+		return new OverpassMapDataApi(new OsmConnection(getUrl(), "osmapi-overpass test", null, 10000));
+	}
+
+	/** Sets the function that returns the response to each query. By default, an empty XML
+	 *  response is returned for any query. */
+	public void setResponder(Function<String, String> responder)
+	{
+		this.responder = responder;
+	}
+
+	public void setMaxSlots(int maxSlots)
+	{
+		this.maxSlots = maxSlots;
+	}
+
+	/** Sets the time in milliseconds a slot stays occupied after a query finished */
+	public void setSlotCooldownMillis(long slotCooldownMillis)
+	{
+		this.slotCooldownMillis = slotCooldownMillis;
+	}
+
+	/** Sets the time in milliseconds the server takes to run a query before it starts to send the
+	 *  response */
+	public void setQueryDurationMillis(long queryDurationMillis)
+	{
+		this.queryDurationMillis = queryDurationMillis;
+	}
+
+	/** Limits the rate at which responses are sent. 0 for no limit */
+	public void setBytesPerSecond(long bytesPerSecond)
+	{
+		this.bytesPerSecond = bytesPerSecond;
+	}
+
+	/** Lets the server drop the connection after having sent the given number of bytes of a
+	 *  response, like on a timeout in the middle of the transfer. -1 to always send the complete
+	 *  response */
+	public void setAbortAfterBytes(long abortAfterBytes)
+	{
+		this.abortAfterBytes = abortAfterBytes;
+	}
+
+	/** Lets the server answer all queries with the given HTTP error code, like a server that is
+	 *  down behind a proxy. 0 to answer queries normally */
+	public void setErrorCode(int errorCode)
+	{
+		this.errorCode = errorCode;
+	}
+
+	/** Lets the server answer all requests for the status with the given HTTP error code. 0 to
+	 *  answer them normally */
+	public void setStatusErrorCode(int statusErrorCode)
+	{
+		this.statusErrorCode = statusErrorCode;
+	}
+
+	/** Lets the server compress responses to queries with gzip if the client accepts that */
+	public void setGzipEnabled(boolean gzipEnabled)
+	{
+		this.gzipEnabled = gzipEnabled;
+	}
+
+	/** @return number of queries received, including those that were rejected */
+	public int getQueryCount()
+	{
+		synchronized (lock) { return queryCount; }
+	}
+
+	/** @return number of queries that were rejected with HTTP 429 */
+	public int getTooManyRequestsCount()
+	{
+		synchronized (lock) { return tooManyRequestsCount; }
+	}
+
+	/** @return number of queries that were aborted by a call to kill_my_queries */
+	public int getKillCount()
+	{
+		synchronized (lock) { return killCount; }
+	}
+
+	/** @return maximum number of queries that have been running at the same time */
+	public int getMaxRunningQueries()
+	{
+		synchronized (lock) { return maxRunningQueries; }
+	}
+
+	/** @return number of queries that are running right now */
+	public int getRunningQueriesCount()
+	{
+		synchronized (lock) { return runningQueries.size(); }
+	}
+
+	@Override public void close()
+	{
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/** Creates a server that sends each packet right away. Otherwise, the body of a response is only
+	 *  sent after the client acknowledged the header, which it delays by up to 40ms, distorting any
+	 *  measurement. The JDK reads this only from a system property, once, when the first server is
+	 *  created, so the property is set just for that and then restored. */
+	private static HttpServer createServer() throws IOException
+	{
+		synchronized (FakeOverpassServer.class)
+		{
+			String previous = System.getProperty(NO_DELAY_PROPERTY);
+			System.setProperty(NO_DELAY_PROPERTY, "true");
+			try
+			{
+				return HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+			}
+			finally
+			{
+				if (previous != null) System.setProperty(NO_DELAY_PROPERTY, previous);
+				else System.clearProperty(NO_DELAY_PROPERTY);
+			}
+		}
+	}
+
+	private void handleInterpreter(HttpExchange exchange) throws IOException
+	{
+		String query = readQuery(exchange);
+		RunningQuery runningQuery = new RunningQuery();
+		int errorCode = this.errorCode;
+		synchronized (lock)
+		{
+			queryCount++;
+			if (errorCode != 0)
+			{
+				runningQuery = null;
+			}
+			else if (maxSlots > 0 && getAvailableSlots(System.currentTimeMillis()) <= 0)
+			{
+				tooManyRequestsCount++;
+				runningQuery = null;
+			}
+			else
+			{
+				runningQueries.add(runningQuery);
+				maxRunningQueries = Math.max(maxRunningQueries, runningQueries.size());
+			}
+		}
+		if (runningQuery == null)
+		{
+			if (errorCode != 0) sendText(exchange, errorCode, "Error");
+			else sendText(exchange, 429, "Too many requests");
+			return;
+		}
+
+		try
+		{
+			runningQuery.sleep(queryDurationMillis);
+			if (runningQuery.killed)
+			{
+				// like on the real server, the slot is free by the time the client learns about it
+				release(runningQuery);
+				sendText(exchange, 504, "Query killed");
+				return;
+			}
+			byte[] response = responder.apply(query).getBytes(StandardCharsets.UTF_8);
+			String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+			if (gzipEnabled && acceptEncoding != null && acceptEncoding.contains("gzip"))
+			{
+				response = gzip(response);
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+			sendStreamed(exchange, response, runningQuery);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			exchange.close();
+			release(runningQuery);
+		}
+	}
+
+	private void release(RunningQuery runningQuery)
+	{
+		synchronized (lock)
+		{
+			if (runningQueries.remove(runningQuery) && !runningQuery.killed && slotCooldownMillis > 0)
+			{
+				coolingSlots.add(System.currentTimeMillis() + slotCooldownMillis);
+			}
+		}
+	}
+
+	private void sendStreamed(HttpExchange exchange, byte[] response, RunningQuery runningQuery)
+			throws IOException, InterruptedException
+	{
+		exchange.getResponseHeaders().set("Content-Type", "application/osm3s+xml");
+		// with a fixed length, the client notices when the connection is dropped before the end
+		exchange.sendResponseHeaders(200, response.length > 0 ? response.length : -1);
+
+		long abortAfterBytes = this.abortAfterBytes;
+		long bytesPerSecond = this.bytesPerSecond;
+		int end = abortAfterBytes >= 0 ? (int) Math.min(abortAfterBytes, response.length) : response.length;
+		int chunkSize = bytesPerSecond > 0 ? (int) Math.max(1, bytesPerSecond * CHUNK_INTERVAL / 1000) : end;
+
+		OutputStream out = exchange.getResponseBody();
+		int offset = 0;
+		while (offset < end && !runningQuery.killed)
+		{
+			int length = Math.min(chunkSize, end - offset);
+			out.write(response, offset, length);
+			out.flush();
+			offset += length;
+			if (bytesPerSecond > 0 && offset < end) runningQuery.sleep(CHUNK_INTERVAL);
+		}
+		// otherwise, closing the exchange with the response incomplete drops the connection
+		if (offset == response.length) out.close();
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException
+	{
+		readQuery(exchange);
+		int statusErrorCode = this.statusErrorCode;
+		if (statusErrorCode != 0)
+		{
+			sendText(exchange, statusErrorCode, "Error");
+			return;
+		}
+		long now = System.currentTimeMillis();
+		StringBuilder status = new StringBuilder();
+		status.append("Connected as: 2130706433\n");
+		status.append("Current time: ").append(toDate(now)).append('\n');
+		status.append("Rate limit: ").append(maxSlots).append('\n');
+		synchronized (lock)
+		{
+			int availableSlots = getAvailableSlots(now);
+			if (maxSlots > 0 && availableSlots > 0)
+			{
+				status.append(availableSlots).append(" slots available now.\n");
+			}
+			for (long availableAt : coolingSlots)
+			{
+				long seconds = (availableAt - now + 999) / 1000;
+				status.append("Slot available after: ").append(toDate(availableAt))
+						.append(", in ").append(seconds).append(" seconds.\n");
+			}
+			status.append("Currently running queries (pid, space limit, time limit, start time):\n");
+			for (RunningQuery runningQuery : runningQueries)
+			{
+				status.append(runningQuery.pid).append("\t536870912\t180\t").append(toDate(runningQuery.startedAt)).append('\n');
+			}
+		}
+		sendText(exchange, 200, status.toString());
+	}
+
+	private void handleKillMyQueries(HttpExchange exchange) throws IOException
+	{
+		readQuery(exchange);
+		synchronized (lock)
+		{
+			for (RunningQuery runningQuery : runningQueries)
+			{
+				runningQuery.kill();
+				killCount++;
+			}
+		}
+		sendText(exchange, 200, "Done.");
+	}
+
+	/** must be called while holding the lock */
+	private int getAvailableSlots(long now)
+	{
+		Iterator<Long> it = coolingSlots.iterator();
+		while (it.hasNext())
+		{
+			if (it.next() <= now) it.remove();
+		}
+		return maxSlots - runningQueries.size() - coolingSlots.size();
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out))
+		{
+			gzip.write(data);
+		}
+		return out.toByteArray();
+	}
+
+	private static String readQuery(HttpExchange exchange) throws IOException
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		try (InputStream in = exchange.getRequestBody())
+		{
+			int length;
+			while ((length = in.read(buffer)) != -1) body.write(buffer, 0, length);
+		}
+		String form = new String(body.toByteArray(), StandardCharsets.UTF_8);
+		if (!form.startsWith("data=")) return "";
+		return URLDecoder.decode(form.substring("data=".length()), "UTF-8");
+	}
+
+	private static void sendText(HttpExchange exchange, int code, String text) throws IOException
+	{
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream out = exchange.getResponseBody())
+		{
+			out.write(bytes);
+		}
+	}
+
+	private static String toDate(long millis)
+	{
+		return Instant.ofEpochMilli(millis).truncatedTo(ChronoUnit.SECONDS).toString();
+	}
+
+	private static class RunningQuery
+	{
+		private static int nextPid = 1000;
+
+		final int pid;
+		final long startedAt = System.currentTimeMillis();
+		volatile boolean killed;
+
+		RunningQuery()
+		{
+			synchronized (RunningQuery.class) { pid = nextPid++; }
+		}
+
+		synchronized void kill()
+		{
+			killed = true;
+			notifyAll();
+		}
+
+		/** sleeps for the given time or until the query is killed */
+		synchronized void sleep(long millis) throws InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + millis;
+			while (!killed)
+			{
+				long waitTime = deadline - System.currentTimeMillis();
+				if (waitTime <= 0) break;
+				wait(waitTime);
+			}
+		}
+	}
+}
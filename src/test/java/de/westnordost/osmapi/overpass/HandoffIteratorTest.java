@@ -0,0 +1,98 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HandoffIteratorTest
+{
+	@Test public void consumerReceivesAllItemsInOrder() throws Exception
+	{
+		HandoffIterator<Integer> iterator = new HandoffIterator<>(3);
+		Thread producer = new Thread(() ->
+		{
+			for (int i = 0; i < 100; i++) iterator.put(i);
+			iterator.finish();
+		});
+		producer.start();
+
+		List<Integer> items = new ArrayList<>();
+		while (iterator.hasNext()) items.add(iterator.next());
+		producer.join();
+
+		assertEquals(100, items.size());
+		for (int i = 0; i < 100; i++) assertEquals(i, (int) items.get(i));
+	}
+
+	@Test public void producerDoesNotRunAheadMoreThanCapacity() throws Exception
+	{
+		HandoffIterator<Integer> iterator = new HandoffIterator<>(3);
+		AtomicInteger produced = new AtomicInteger();
+		Thread producer = new Thread(() ->
+		{
+			for (int i = 0; i < 100; i++)
+			{
+				iterator.put(i);
+				produced.incrementAndGet();
+			}
+		});
+		producer.start();
+		Thread.sleep(200);
+
+		assertEquals(3, produced.get());
+		iterator.close();
+		producer.join();
+	}
+
+	@Test public void closingStopsProducer() throws Exception
+	{
+		HandoffIterator<Integer> iterator = new HandoffIterator<>(3);
+		AtomicReference<Throwable> producerFailure = new AtomicReference<>();
+		Thread producer = new Thread(() ->
+		{
+			try
+			{
+				for (int i = 0; i < 100; i++) iterator.put(i);
+			}
+			catch (Throwable e)
+			{
+				producerFailure.set(e);
+			}
+		});
+		producer.start();
+		iterator.next();
+		iterator.close();
+		producer.join();
+
+		assertTrue(producerFailure.get() instanceof HandoffIterator.ClosedException);
+		assertFalse(iterator.hasNext());
+	}
+
+	@Test public void consumerReceivesFailureAfterItems()
+	{
+		HandoffIterator<Integer> iterator = new HandoffIterator<>(3);
+		RuntimeException failure = new RuntimeException();
+		iterator.put(1);
+		iterator.fail(failure);
+
+		assertEquals(1, (int) iterator.next());
+		try
+		{
+			iterator.hasNext();
+			fail();
+		}
+		catch (RuntimeException e)
+		{
+			assertSame(failure, e);
+		}
+	}
+}
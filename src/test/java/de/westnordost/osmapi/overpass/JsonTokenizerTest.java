@@ -0,0 +1,180 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.westnordost.osmapi.overpass.JsonTokenizer.Token;
+
+import static de.westnordost.osmapi.overpass.JsonTokenizer.Token.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JsonTokenizerTest
+{
+	@Test public void tokens() throws Exception
+	{
+		JsonTokenizer json = tokenizer("{\"a\": [1, \"b\", true, false, null, {}], \"c\": []}");
+		List<Token> tokens = new ArrayList<>();
+		Token token;
+		while ((token = json.next()) != END_DOCUMENT) tokens.add(token);
+
+		assertEquals(Arrays.asList(
+				BEGIN_OBJECT, NAME, BEGIN_ARRAY, NUMBER, STRING, TRUE, FALSE, NULL, BEGIN_OBJECT,
+				END_OBJECT, END_ARRAY, NAME, BEGIN_ARRAY, END_ARRAY, END_OBJECT
+		), tokens);
+	}
+
+	@Test public void strings() throws Exception
+	{
+		assertEquals("abc", readString("\"abc\""));
+		assertEquals("", readString("\"\""));
+		assertEquals("a\"b\\c/d\n\t", readString("\"a\\\"b\\\\c\\/d\\n\\t\""));
+		assertEquals("ä€", readString("\"\\u00e4\\u20AC\""));
+		assertEquals("ä", readString("\"ä\""));
+	}
+
+	@Test public void shortStringsAreCached() throws Exception
+	{
+		JsonTokenizer json = tokenizer("[\"highway\", \"highway\"]");
+		json.next();
+		json.next();
+		String a = json.getString();
+		json.next();
+		assertSame(a, json.getString());
+	}
+
+	@Test public void numbers() throws Exception
+	{
+		assertEquals(0, readDouble("0"), 0);
+		assertEquals(-1.5, readDouble("-1.5"), 0);
+		assertEquals(51.7463194, readDouble("51.7463194"), 0);
+		assertEquals(-0.0000001, readDouble("-0.0000001"), 0);
+		assertEquals(1.5e10, readDouble("1.5e10"), 0);
+		assertEquals(1.5e-300, readDouble("1.5E-300"), 0);
+		assertEquals(0.12345678901234567890, readDouble("0.12345678901234567890"), 0);
+		assertEquals(123456789012345678.0, readDouble("123456789012345678901e-3"), 0);
+
+		assertEquals(1234567890123L, readLong("1234567890123"));
+		assertEquals(-5, readLong("-5"));
+		assertEquals(100, readLong("1e2"));
+		assertEquals(9007199254740993L, readLong("9007199254740993"));
+		assertEquals(Long.MAX_VALUE, readLong("9223372036854775807"));
+		assertEquals(Long.MIN_VALUE, readLong("-9223372036854775808"));
+	}
+
+	@Test(expected = ParseException.class)
+	public void longOutOfRange() throws Exception
+	{
+		readLong("9223372036854775808");
+	}
+
+	@Test(expected = ParseException.class)
+	public void imprecisePowerIsNoLong() throws Exception
+	{
+		readLong("9007199254740993e1");
+	}
+
+	@Test public void nextInArray() throws Exception
+	{
+		JsonTokenizer json = tokenizer("[1, 2]");
+		json.next();
+		assertTrue(json.nextInArray(NUMBER));
+		assertTrue(json.nextInArray(NUMBER));
+		assertFalse(json.nextInArray(NUMBER));
+	}
+
+	@Test(expected = ParseException.class)
+	public void nextInArrayFailsOnOtherToken() throws Exception
+	{
+		JsonTokenizer json = tokenizer("[1, \"2\"]");
+		json.next();
+		json.nextInArray(NUMBER);
+		json.nextInArray(NUMBER);
+	}
+
+	@Test public void skipValue() throws Exception
+	{
+		JsonTokenizer json = tokenizer("[{\"a\": [1, {\"b\": 2}]}, 3]");
+		json.next();
+		json.skipValue();
+		assertEquals(NUMBER, json.next());
+		assertEquals(3, json.getLong());
+		assertEquals(END_ARRAY, json.next());
+	}
+
+	@Test public void readsAcrossBufferBoundaries() throws Exception
+	{
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 10000; i++)
+		{
+			if (i > 0) sb.append(',');
+			sb.append(i).append(".25");
+		}
+		sb.append("]");
+		JsonTokenizer json = tokenizer(sb.toString());
+		json.next();
+		for (int i = 0; i < 10000; i++)
+		{
+			assertEquals(NUMBER, json.next());
+			assertEquals(i + 0.25, json.getDouble(), 0);
+		}
+		assertEquals(END_ARRAY, json.next());
+	}
+
+	@Test public void malformed() throws Exception
+	{
+		assertMalformed("{\"a\" 1}");
+		assertMalformed("{\"a\": 1,}");
+		assertMalformed("[1 2]");
+		assertMalformed("[1.]");
+		assertMalformed("[-]");
+		assertMalformed("[tru]");
+		assertMalformed("\"abc");
+		assertMalformed("[1] [2]");
+	}
+
+	private static void assertMalformed(String input) throws Exception
+	{
+		JsonTokenizer json = tokenizer(input);
+		try
+		{
+			while (json.next() != END_DOCUMENT) { }
+			fail("Expected ParseException for " + input);
+		}
+		catch (ParseException ignore) { }
+	}
+
+	private static String readString(String input) throws Exception
+	{
+		JsonTokenizer json = tokenizer(input);
+		assertEquals(STRING, json.next());
+		return json.getString();
+	}
+
+	private static double readDouble(String input) throws Exception
+	{
+		JsonTokenizer json = tokenizer(input);
+		assertEquals(NUMBER, json.next());
+		return json.getDouble();
+	}
+
+	private static long readLong(String input) throws Exception
+	{
+		JsonTokenizer json = tokenizer(input);
+		assertEquals(NUMBER, json.next());
+		return json.getLong();
+	}
+
+	private static JsonTokenizer tokenizer(String input)
+	{
+		return new JsonTokenizer(new StringReader(input));
+	}
+}
@@ -0,0 +1,67 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashMapTest
+{
+	@Test public void putAndGet()
+	{
+		LongHashMap<String> map = new LongHashMap<>();
+		assertNull(map.put(1L, "a"));
+		assertNull(map.put(-5L, "b"));
+		assertEquals("a", map.put(1L, "c"));
+
+		assertEquals(2, map.size());
+		assertEquals("c", map.get(1L));
+		assertEquals("b", map.get(-5L));
+		assertNull(map.get(2L));
+		assertNull(map.get("1"));
+		assertTrue(map.containsKey(-5L));
+		assertFalse(map.containsKey(2L));
+	}
+
+	@Test public void behavesLikeHashMap()
+	{
+		Random random = new Random(42);
+		LongHashMap<Integer> map = new LongHashMap<>(2);
+		Map<Long, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 20000; i++)
+		{
+			// small key range so that there are many collisions and removals
+			long key = random.nextInt(500) * 1024L;
+			if (random.nextInt(3) == 0)
+			{
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+			else
+			{
+				assertEquals(expected.put(key, i), map.put(key, i));
+			}
+		}
+		assertEquals(expected, map);
+		assertEquals(map, expected);
+	}
+
+	@Test public void clear()
+	{
+		LongHashMap<String> map = new LongHashMap<>();
+		map.put(1L, "a");
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertNull(map.get(1L));
+	}
+
+	@Test(expected = NullPointerException.class) public void nullValuesAreNotSupported()
+	{
+		new LongHashMap<String>().put(1L, null);
+	}
+}
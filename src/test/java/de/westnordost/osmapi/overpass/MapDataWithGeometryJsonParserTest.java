@@ -0,0 +1,194 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+import de.westnordost.osmapi.map.data.*;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+import static org.junit.Assert.*;
+
+public class MapDataWithGeometryJsonParserTest
+{
+	@Test public void node()
+	{
+		String json = "{'type':'node','id':5,'lat':51.7463194,'lon':0.2428181}";
+		Node node = parse(json).nodes.get(0);
+
+		assertEquals(new OsmLatLon(51.7463194, 0.2428181), node.getPosition());
+		assertEquals(5, node.getId());
+		assertEquals(-1, node.getVersion());
+		assertEquals(0, node.getTags().size());
+	}
+
+	@Test public void parsesOptionalNodeAttributes()
+	{
+		String json = "{'type':'node','id':5,'version':3,'lat':0,'lon':0,'timestamp':'2019-03-28T21:43:50Z','user':'x','uid':1,'changeset':2}";
+		Node node = parse(json).nodes.get(0);
+
+		assertEquals(3, node.getVersion());
+		assertEquals(Instant.parse("2019-03-28T21:43:50Z"), node.getEditedAt());
+	}
+
+	@Test public void parsesNodeTags()
+	{
+		String json = "{'type':'node','id':5,'lat':0,'lon':0,'tags':{'a':'b','c':'d'}}";
+		Node node = parse(json).nodes.get(0);
+
+		assertEquals("b", node.getTags().get("a"));
+		assertEquals("d", node.getTags().get("c"));
+	}
+
+	@Test public void way()
+	{
+		String json =
+				"{'type':'way','id':5," +
+				"'bounds':{'minlat':53.550,'minlon':9.994,'maxlat':53.551,'maxlon':9.995}," +
+				"'nodes':[2,3]," +
+				"'geometry':[{'lat':1.0,'lon':2.0},{'lat':3.0,'lon':4.0}]," +
+				"'tags':{'a':'b'}}";
+
+		WayWithGeometry wayWithGeometry = parse(json).waysWithGeometry.get(0);
+		Way way = wayWithGeometry.way;
+
+		assertEquals(5, way.getId());
+		assertEquals(-1, way.getVersion());
+		assertEquals("b", way.getTags().get("a"));
+		assertEquals(Arrays.asList(2L, 3L), way.getNodeIds());
+
+		List<LatLon> ps = Arrays.<LatLon>asList(new OsmLatLon(1.0, 2.0), new OsmLatLon(3.0, 4.0));
+		assertEquals(ps, wayWithGeometry.geometry);
+
+		assertEquals(new BoundingBox(53.550, 9.994, 53.551, 9.995), wayWithGeometry.bounds);
+	}
+
+	@Test public void missingPositionsOfWayAreNull()
+	{
+		String json = "{'type':'way','id':5,'nodes':[2,3],'geometry':[null,{'lat':3.0,'lon':4.0}]}";
+
+		List<LatLon> geometry = parse(json).waysWithGeometry.get(0).geometry;
+		assertNull(geometry.get(0));
+		assertEquals(new OsmLatLon(3.0, 4.0), geometry.get(1));
+	}
+
+	@Test public void relation()
+	{
+		String json =
+				"{'type':'relation','id':10," +
+				"'bounds':{'minlat':53.550,'minlon':9.994,'maxlat':53.551,'maxlon':9.995}," +
+				"'members':[" +
+				"  {'type':'relation','ref':4,'role':''}," +
+				"  {'type':'way','ref':1,'role':'outer','geometry':[{'lat':1.0,'lon':2.0},{'lat':3.0,'lon':4.0}]}," +
+				"  {'type':'way','ref':2,'role':'inner','geometry':[{'lat':5.0,'lon':6.0},{'lat':7.0,'lon':8.0}]}," +
+				"  {'type':'node','ref':3,'role':'point','lat':9.0,'lon':10.0}" +
+				"]}";
+
+		RelationWithGeometry relationWithGeometry = parse(json).relationsWithGeometry.get(0);
+		Relation relation = relationWithGeometry.relation;
+
+		assertEquals(10, relation.getId());
+		assertEquals(Arrays.asList(
+			new OsmRelationMember(4, "", Element.Type.RELATION),
+			new OsmRelationMember(1, "outer", Element.Type.WAY),
+			new OsmRelationMember(2, "inner", Element.Type.WAY),
+			new OsmRelationMember(3, "point", Element.Type.NODE)
+		), relation.getMembers());
+
+		Map<Long, List<LatLon>> wayGeom = relationWithGeometry.wayGeometries;
+		assertEquals(Arrays.asList(new OsmLatLon(1.0, 2.0), new OsmLatLon(3.0, 4.0)), wayGeom.get(1L));
+		assertEquals(Arrays.asList(new OsmLatLon(5.0, 6.0), new OsmLatLon(7.0, 8.0)), wayGeom.get(2L));
+
+		assertEquals(new OsmLatLon(9.0, 10.0), relationWithGeometry.nodeGeometries.get(3L));
+
+		assertEquals(new BoundingBox(53.550, 9.994, 53.551, 9.995), relationWithGeometry.bounds);
+	}
+
+	@Test public void parseSeveralAndIgnoreOtherProperties()
+	{
+		String json =
+				"{'version':0.6,'generator':'Overpass API','osm3s':{'timestamp_osm_base':'2019-03-28T21:43:50Z'}," +
+				"'elements':[" +
+				"  {'type':'node','id':1,'lat':1,'lon':4}," +
+				"  {'type':'way','id':1,'nodes':[2],'geometry':[{'lat':1,'lon':3}],'center':{'lat':1,'lon':3}}," +
+				"  {'type':'area','id':3600000001,'tags':{'a':'b'}}," +
+				"  {'type':'relation','id':1,'members':[]}" +
+				"]," +
+				"'remark':'runtime error'}";
+
+		MapDataWithGeometryCollection all = new MapDataWithGeometryCollection();
+		parse(new MapDataWithGeometryJsonParser(all, new OsmMapDataFactory()), json);
+		assertEquals(1, all.nodes.size());
+		assertEquals(1, all.waysWithGeometry.size());
+		assertEquals(1, all.relationsWithGeometry.size());
+	}
+
+	@Test public void parseWithoutGeometry()
+	{
+		String json =
+				"{'elements':[" +
+				"  {'type':'node','id':1,'lat':1,'lon':4}," +
+				"  {'type':'way','id':2,'nodes':[2,3]}," +
+				"  {'type':'relation','id':3,'members':[{'type':'node','ref':1,'role':''}]}" +
+				"]}";
+
+		List<Element> elements = new ArrayList<>();
+		parse(new MapDataJsonParser(new MapDataHandler()
+		{
+			@Override public void handle(BoundingBox bounds) {}
+			@Override public void handle(Node node) { elements.add(node); }
+			@Override public void handle(Way way) { elements.add(way); }
+			@Override public void handle(Relation relation) { elements.add(relation); }
+		}, new OsmMapDataFactory()), json);
+
+		assertEquals(3, elements.size());
+		assertEquals(Arrays.asList(2L, 3L), ((Way) elements.get(1)).getNodeIds());
+		assertEquals(1, ((Relation) elements.get(2)).getMembers().size());
+	}
+
+	@Test public void failsOnUnexpectedNodeRef()
+	{
+		try
+		{
+			parse("{'type':'way','id':5,'nodes':[2,'3',4]}");
+			fail();
+		}
+		catch (RuntimeException e)
+		{
+			assertTrue(e.getCause() instanceof ParseException);
+		}
+	}
+
+	@Test public void largeIdsAreExact()
+	{
+		Way way = parse("{'type':'way','id':9007199254740993,'nodes':[9007199254740995]}").waysWithGeometry.get(0).way;
+		assertEquals(9007199254740993L, way.getId());
+		assertEquals(Arrays.asList(9007199254740995L), way.getNodeIds());
+	}
+
+	private MapDataWithGeometryCollection parse(String element)
+	{
+		MapDataWithGeometryCollection collection = new MapDataWithGeometryCollection();
+		parse(new MapDataWithGeometryJsonParser(collection, new OsmMapDataFactory()), "{'elements':[" + element + "]}");
+		return collection;
+	}
+
+	private static void parse(ApiResponseReader<Void> parser, String json)
+	{
+		try
+		{
+			parser.parse(TestUtils.asInputStream(json.replace('\'', '"')));
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
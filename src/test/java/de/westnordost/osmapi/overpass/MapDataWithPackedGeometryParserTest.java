@@ -0,0 +1,160 @@
+package de.westnordost.osmapi.overpass;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import de.westnordost.osmapi.map.OsmMapDataFactory;
+import de.westnordost.osmapi.map.data.*;
+
+import static org.junit.Assert.*;
+
+public class MapDataWithPackedGeometryParserTest
+{
+	@Test public void node()
+	{
+		String xml = "<node id='5' lat='51.7463194' lon='0.2428181'/>";
+		Node node = parse(xml).nodes.get(0);
+
+		assertEquals(new OsmLatLon(51.7463194, 0.2428181), node.getPosition());
+		assertEquals(5, node.getId());
+	}
+
+	@Test public void way()
+	{
+		String xml =
+				"<way id='5'>" +
+				"    <bounds minlat='53.550' minlon='9.994' maxlat='53.551' maxlon='9.995'/> " +
+				"    <nd ref='2' lat='1.0' lon='2.0' />" +
+				"    <nd ref='3' lat='-3.1234567' lon='179.9999999' />" +
+				"</way>";
+
+		Collection result = parse(xml);
+		Way way = result.ways.get(0);
+
+		assertEquals(5, way.getId());
+		assertEquals(Arrays.asList(2L,3L), way.getNodeIds());
+		assertArrayEquals(new int[] {10000000, 20000000, -31234567, 1799999999}, result.wayCoordinates.get(0));
+		assertEquals(new BoundingBox(53.550, 9.994, 53.551, 9.995), result.wayBounds.get(0));
+	}
+
+	@Test public void relation()
+	{
+		String xml =
+				"<relation id='10'>" +
+				"    <bounds minlat='53.550' minlon='9.994' maxlat='53.551' maxlon='9.995'/> " +
+				"    <member type='relation' ref='4' role=''/>" +
+				"    <member type='way' ref='1' role='outer'>" +
+				"        <nd lat='1.0' lon='2.0'/>" +
+				"        <nd lat='3.0' lon='4.0'/>" +
+				"    </member>" +
+				"    <member type='node' ref='3' role='point' lat='9.0' lon='10.0'/>" +
+				"</relation>";
+
+		Collection result = parse(xml);
+		Relation relation = result.relations.get(0);
+
+		assertEquals(10, relation.getId());
+		assertEquals(3, relation.getMembers().size());
+		assertEquals(3, result.memberCoordinates.get(0).size());
+		assertArrayEquals(new int[] {}, result.memberCoordinates.get(0).get(0));
+		assertArrayEquals(new int[] {10000000, 20000000, 30000000, 40000000}, result.memberCoordinates.get(0).get(1));
+		assertArrayEquals(new int[] {90000000, 100000000}, result.memberCoordinates.get(0).get(2));
+	}
+
+	@Test public void arraysAreReusedButContentIsNotMixedUp()
+	{
+		String xml =
+				"<way id='1'><nd ref='2' lat='1' lon='3'/><nd ref='3' lat='2' lon='4'/>" +
+				"    <bounds minlat='53.550' minlon='9.994' maxlat='53.551' maxlon='9.995'/> " +
+				"</way>" +
+				"<way id='2'><nd ref='2' lat='5' lon='6'/>" +
+				"    <bounds minlat='53.550' minlon='9.994' maxlat='53.551' maxlon='9.995'/> " +
+				"</way>";
+
+		Collection result = parse(xml);
+		assertArrayEquals(new int[] {10000000, 30000000, 20000000, 40000000}, result.wayCoordinates.get(0));
+		assertArrayEquals(new int[] {50000000, 60000000}, result.wayCoordinates.get(1));
+	}
+
+	@Test public void fixedPointParsing()
+	{
+		assertEquals(0, FixedPoint.parse(new DecimalParser(), "0"));
+		assertEquals(535512345, FixedPoint.parse(new DecimalParser(), "53.5512345"));
+		assertEquals(-535512345, FixedPoint.parse(new DecimalParser(), "-53.5512345"));
+		assertEquals(5000000, FixedPoint.parse(new DecimalParser(), "0.5"));
+		assertEquals(12345679, FixedPoint.parse(new DecimalParser(), "1.23456785"));
+		assertEquals(1800000000, FixedPoint.parse(new DecimalParser(), "180"));
+		assertEquals(100, FixedPoint.parse(new DecimalParser(), "1.0E-5"));
+		assertEquals(5000000, FixedPoint.parse(new DecimalParser(), ".5"));
+		assertEquals(50000000, FixedPoint.parse(new DecimalParser(), "5."));
+	}
+
+	@Test public void fixedPointParsingFailsWithoutDigits()
+	{
+		for (String value : Arrays.asList("", ".", "-", "-.", "+"))
+		{
+			try
+			{
+				FixedPoint.parse(new DecimalParser(), value);
+				fail(value);
+			}
+			catch (NumberFormatException ignore) {}
+		}
+	}
+
+	private static class Collection implements MapDataWithPackedGeometryHandler
+	{
+		final List<Node> nodes = new ArrayList<>();
+		final List<Way> ways = new ArrayList<>();
+		final List<BoundingBox> wayBounds = new ArrayList<>();
+		final List<int[]> wayCoordinates = new ArrayList<>();
+		final List<Relation> relations = new ArrayList<>();
+		final List<List<int[]>> memberCoordinates = new ArrayList<>();
+
+		@Override public void handle(@NotNull BoundingBox bounds) {}
+
+		@Override public void handle(@NotNull Node node)
+		{
+			nodes.add(node);
+		}
+
+		@Override public void handle(@NotNull Way way, @NotNull BoundingBox bounds, @NotNull int[] coordinates, int length)
+		{
+			ways.add(way);
+			wayBounds.add(bounds);
+			wayCoordinates.add(Arrays.copyOf(coordinates, length * 2));
+		}
+
+		@Override public void handle(@NotNull Relation relation, @NotNull BoundingBox bounds, @NotNull PackedRelationGeometry geometry)
+		{
+			relations.add(relation);
+			List<int[]> members = new ArrayList<>();
+			for (int i = 0; i < geometry.getMemberCount(); i++)
+			{
+				int start = geometry.getStart(i) * 2;
+				int end = start + geometry.getLength(i) * 2;
+				members.add(Arrays.copyOfRange(geometry.getCoordinates(), start, end));
+			}
+			memberCoordinates.add(members);
+		}
+	}
+
+	private Collection parse(String xml)
+	{
+		Collection collection = new Collection();
+		MapDataWithPackedGeometryParser parser = new MapDataWithPackedGeometryParser(collection, new OsmMapDataFactory());
+		try
+		{
+			parser.parse(TestUtils.asInputStream(xml));
+		} catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+		return collection;
+	}
+}
@@ -0,0 +1,234 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Tests of {@link OverpassMapDataApi} against a {@link FakeOverpassServer}, as opposed to
+ *  {@link OverpassMapDataApiTest} which queries the live server */
+public class OverpassMapDataApiOfflineTest
+{
+	private static final String QUERY = "node(53.5,9.9,53.6,10.0); out;";
+	private static final String RESPONSE = "<osm><node id='1' lat='53.55' lon='9.99'/></osm>";
+
+	private static final ApiResponseReader<String> READ_STRING = in ->
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int length;
+		while ((length = in.read(buffer)) != -1) out.write(buffer, 0, length);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	};
+
+	private FakeOverpassServer server;
+	private OverpassMapDataApi api;
+	private File directory;
+
+	@Before public void setUp() throws IOException
+	{
+		server = new FakeOverpassServer(0);
+		server.setResponder(query -> RESPONSE);
+		api = server.createApi();
+		directory = Files.createTempDirectory("overpass-cache").toFile();
+	}
+
+	@After public void tearDown()
+	{
+		server.close();
+		File[] files = directory.listFiles();
+		if (files != null) for (File file : files) file.delete();
+		directory.delete();
+	}
+
+	@Test public void cachedQueryIsOnlySentOnce() throws IOException
+	{
+		api.setCache(new DiskResponseCache(directory, 100000, 60000));
+
+		assertEquals(RESPONSE, api.query(QUERY, READ_STRING));
+		assertEquals(RESPONSE, api.query(QUERY, READ_STRING));
+
+		assertEquals(1, server.getQueryCount());
+	}
+
+	@Test public void responseWithRemarkIsNotCached() throws IOException
+	{
+		// the query timed out while the result was already being sent
+		String response =
+				"<osm><node id='1' lat='53.55' lon='9.99'/>" +
+				"<remark> runtime error: Query timed out in \"query\" at line 1 after 2 seconds. </remark></osm>";
+		server.setResponder(query -> response);
+		api.setCache(new DiskResponseCache(directory, 100000, 60000));
+
+		assertEquals(response, api.query(QUERY, READ_STRING));
+		assertEquals(response, api.query(QUERY, READ_STRING));
+
+		assertEquals(2, server.getQueryCount());
+	}
+
+	@Test public void jsonResponseWithRemarkIsNotCached() throws IOException
+	{
+		String response =
+				"{\"elements\": [{\"type\": \"node\", \"id\": 1, \"lat\": 53.55, \"lon\": 9.99}],\n" +
+				"\"remark\": \"runtime error: Query run out of memory using about 2048 MB of RAM.\"}";
+		server.setResponder(query -> response);
+		api.setCache(new DiskResponseCache(directory, 100000, 60000));
+
+		assertEquals(response, api.query(QUERY, READ_STRING));
+		assertEquals(response, api.query(QUERY, READ_STRING));
+
+		assertEquals(2, server.getQueryCount());
+	}
+
+	@Test public void compressedResponseIsDecompressed()
+	{
+		StringBuilder response = new StringBuilder("<osm>");
+		for (int i = 1; i <= 100; i++) response.append("<node id='").append(i).append("' lat='53.55' lon='9.99'/>");
+		response.append("</osm>");
+		server.setResponder(query -> response.toString());
+		server.setGzipEnabled(true);
+
+		assertEquals(response.toString(), api.query(QUERY, READ_STRING));
+
+		assertEquals(response.length(), api.getDecodedBytesReceived());
+		assertTrue(api.getRawBytesReceived() < response.length() / 2);
+	}
+
+	@Test public void asyncQueryReportsElementsInMetrics() throws Exception
+	{
+		List<QueryMetrics> metrics = Collections.synchronizedList(new ArrayList<>());
+		api.setQueryListener(metrics::add);
+
+		api.queryElementsWithGeometryAsync(QUERY, new MapDataWithGeometryCollection()).get();
+
+		assertEquals(1, metrics.size());
+		assertEquals(1, metrics.get(0).nodes);
+	}
+
+	@Test public void identicalConcurrentQueriesAreSentOnce() throws Exception
+	{
+		server.setQueryDurationMillis(500);
+		api.setCoalescingEnabled(true);
+
+		List<String> responses = runConcurrently(8, () -> api.query(QUERY, READ_STRING));
+
+		assertEquals(Collections.nCopies(8, RESPONSE), responses);
+		assertEquals(1, server.getQueryCount());
+	}
+
+	@Test public void identicalQueryIsSentAgainOnceResponseOfQueryInFlightArrives() throws Exception
+	{
+		// it takes about a second to receive the response
+		server.setBytesPerSecond(RESPONSE.length());
+		api.setCoalescingEnabled(true);
+
+		Thread first = new Thread(() -> api.query(QUERY, READ_STRING));
+		first.start();
+		Thread.sleep(500);
+		assertEquals(RESPONSE, api.query(QUERY, READ_STRING));
+		first.join();
+
+		assertEquals(2, server.getQueryCount());
+	}
+
+	@Test public void identicalConcurrentQueriesAreCachedOnce() throws Exception
+	{
+		server.setQueryDurationMillis(500);
+		AtomicInteger cacheEdits = new AtomicInteger();
+		api.setCache(new DiskResponseCache(directory, 100000, 60000)
+		{
+			@Override Edit edit(String key, long expiresAt) throws IOException
+			{
+				cacheEdits.incrementAndGet();
+				return super.edit(key, expiresAt);
+			}
+		});
+		api.setCoalescingEnabled(true);
+
+		List<String> responses = runConcurrently(8, () -> api.query(QUERY, READ_STRING));
+
+		assertEquals(Collections.nCopies(8, RESPONSE), responses);
+		assertEquals(1, server.getQueryCount());
+		assertEquals(1, cacheEdits.get());
+
+		// and the next one is read from the cache
+		assertEquals(RESPONSE, api.query(QUERY, READ_STRING));
+		assertEquals(1, server.getQueryCount());
+	}
+
+	@Test public void snapshotQueryIsServedFromSnapshotCacheTheSecondTime() throws IOException
+	{
+		api.setSnapshotCache(new DiskResponseCache(directory, 100000, DiskResponseCache.NEVER));
+		String snapshotQuery = "[date:\"2019-01-01T00:00:00Z\"]; " + QUERY;
+
+		assertEquals(RESPONSE, api.query(snapshotQuery, READ_STRING));
+		assertEquals(RESPONSE, api.query(snapshotQuery, READ_STRING));
+		assertEquals(1, server.getQueryCount());
+
+		// other queries are not cached there
+		api.query(QUERY, READ_STRING);
+		api.query(QUERY, READ_STRING);
+		assertEquals(3, server.getQueryCount());
+	}
+
+	@Test public void snapshotResponseWithRemarkIsNotCached() throws IOException
+	{
+		String response =
+				"<osm><node id='1' lat='53.55' lon='9.99'/>" +
+				"<remark> runtime error: Query timed out in \"query\" at line 1 after 2 seconds. </remark></osm>";
+		server.setResponder(query -> response);
+		api.setSnapshotCache(new DiskResponseCache(directory, 100000, DiskResponseCache.NEVER));
+		String snapshotQuery = "[date:\"2019-01-01T00:00:00Z\"]; " + QUERY;
+
+		assertEquals(response, api.query(snapshotQuery, READ_STRING));
+		assertEquals(response, api.query(snapshotQuery, READ_STRING));
+
+		assertEquals(2, server.getQueryCount());
+	}
+
+	/** Runs the given query on the given number of threads that all start at the same time
+	 *  @return the results */
+	private static List<String> runConcurrently(int threadCount, Supplier<String> query) throws Exception
+	{
+		List<String> results = Collections.synchronizedList(new ArrayList<>());
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < threadCount; i++)
+		{
+			threads.add(new Thread(() ->
+			{
+				try
+				{
+					start.await();
+					results.add(query.get());
+				}
+				catch (Throwable e)
+				{
+					failures.add(e);
+				}
+			}));
+		}
+		for (Thread thread : threads) thread.start();
+		start.countDown();
+		for (Thread thread : threads) thread.join();
+		assertEquals(Collections.emptyList(), failures);
+		return results;
+	}
+}
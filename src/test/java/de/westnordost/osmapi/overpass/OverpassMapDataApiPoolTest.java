@@ -0,0 +1,279 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.OsmConnection;
+import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OverpassMapDataApiPoolTest
+{
+	private static final ApiResponseReader<Void> IGNORE_RESPONSE = in ->
+	{
+		while (in.read() != -1);
+		return null;
+	};
+
+	private FakeOverpassServer a;
+	private FakeOverpassServer b;
+	private OverpassMapDataApiPool pool;
+
+	@Before public void setUp() throws Exception
+	{
+		a = new FakeOverpassServer(0);
+		b = new FakeOverpassServer(0);
+		pool = new OverpassMapDataApiPool(Arrays.asList(createConnection(a), createConnection(b)));
+	}
+
+	@After public void tearDown()
+	{
+		a.close();
+		b.close();
+	}
+
+	@Test public void spreadsQueriesOverEndpoints()
+	{
+		runQueries(40);
+
+		assertTrue(a.getQueryCount() > 0);
+		assertTrue(b.getQueryCount() > 0);
+		assertEquals(40, a.getQueryCount() + b.getQueryCount());
+	}
+
+	@Test public void usesOnlyEndpointsWithFreeSlots()
+	{
+		a.setMaxSlots(1);
+		a.setSlotCooldownMillis(10000);
+		b.setMaxSlots(5);
+
+		assertEquals(Collections.emptyList(), runQueries(10));
+
+		assertTrue(a.getQueryCount() <= 1);
+		assertEquals(0, a.getTooManyRequestsCount());
+		assertEquals(0, b.getTooManyRequestsCount());
+	}
+
+	@Test public void throwsTooManyRequestsWithoutRequestIfNoEndpointHasFreeSlots()
+	{
+		a.setMaxSlots(1);
+		a.setSlotCooldownMillis(10000);
+		b.setMaxSlots(1);
+		b.setSlotCooldownMillis(10000);
+
+		assertEquals(Collections.emptyList(), runQueries(2));
+		try
+		{
+			pool.query("out;", IGNORE_RESPONSE);
+			fail();
+		}
+		catch (OsmTooManyRequestsException ignore) {}
+
+		assertEquals(1, a.getQueryCount());
+		assertEquals(1, b.getQueryCount());
+	}
+
+	@Test public void failsOverToOtherEndpointOnTooManyRequests() throws Exception
+	{
+		a.setMaxSlots(1);
+		a.setSlotCooldownMillis(10000);
+		pool.getStatus();
+		// someone else takes the only slot of a, which the pool does not know
+		a.createApi().query("out;", IGNORE_RESPONSE);
+
+		assertEquals(Collections.emptyList(), runQueries(10));
+
+		assertTrue(a.getTooManyRequestsCount() <= 1);
+		assertTrue(b.getQueryCount() >= 9);
+	}
+
+	@Test public void failsOverToOtherEndpointAndEjectsEndpointOnErrors()
+	{
+		a.setErrorCode(503);
+
+		assertEquals(Collections.emptyList(), runQueries(40));
+
+		assertEquals(3, a.getQueryCount());
+		assertEquals(40, b.getQueryCount());
+		assertEquals(1, pool.getAvailableEndpointsCount());
+	}
+
+	@Test public void failsOverToOtherEndpointIfEndpointIsDown() throws Exception
+	{
+		FakeOverpassServer down = new FakeOverpassServer(0);
+		down.close();
+		pool = new OverpassMapDataApiPool(Arrays.asList(createConnection(down), createConnection(b)));
+
+		assertEquals(Collections.emptyList(), runQueries(10));
+
+		assertEquals(10, b.getQueryCount());
+		assertEquals(1, pool.getAvailableEndpointsCount());
+	}
+
+	@Test public void readmitsEndpointAfterEjectionTime() throws Exception
+	{
+		pool.setEjectionPolicy(1, 200);
+		a.setErrorCode(503);
+		for (int i = 0; i < 100 && a.getQueryCount() == 0; i++)
+		{
+			pool.query("out;", IGNORE_RESPONSE);
+		}
+		assertEquals(1, pool.getAvailableEndpointsCount());
+
+		a.setErrorCode(0);
+		Thread.sleep(300);
+		assertEquals(2, pool.getAvailableEndpointsCount());
+
+		runQueries(40);
+		assertTrue(a.getQueryCount() > 1);
+	}
+
+	@Test public void doesNotFailOverWhenResponseIsAlreadyBeingRead()
+	{
+		a.setResponder(query -> "<osm><node id='1' lat='1' lon='2'/><node id='2' lat='1' lon='2'/></osm>");
+		a.setAbortAfterBytes(20);
+
+		List<RuntimeException> failures = new ArrayList<>();
+		for (int i = 0; i < 20; i++)
+		{
+			try
+			{
+				pool.queryElements("out;", new MapDataHandler()
+				{
+					@Override public void handle(BoundingBox bounds) {}
+					@Override public void handle(Node node) {}
+					@Override public void handle(Way way) {}
+					@Override public void handle(Relation relation) {}
+				});
+			}
+			catch (RuntimeException e)
+			{
+				failures.add(e);
+			}
+		}
+
+		assertEquals(20, a.getQueryCount() + b.getQueryCount());
+		assertEquals(a.getQueryCount(), failures.size());
+	}
+
+	@Test public void doesNotFailOverOnErrorInQuery()
+	{
+		a.setErrorCode(400);
+		b.setErrorCode(400);
+		try
+		{
+			pool.query("out;", IGNORE_RESPONSE);
+			fail();
+		}
+		catch (OsmBadUserInputException ignore) {}
+
+		assertEquals(1, a.getQueryCount() + b.getQueryCount());
+	}
+
+	@Test public void doesNotFailOverIfQueryCanOnlyBeSentOnce()
+	{
+		a.setErrorCode(503);
+		b.setErrorCode(503);
+		try
+		{
+			pool.query(new StringReader("out;"), IGNORE_RESPONSE);
+			fail();
+		}
+		catch (RuntimeException ignore) {}
+
+		assertEquals(1, a.getQueryCount() + b.getQueryCount());
+	}
+
+	@Test public void addsUpStatusOfEndpoints()
+	{
+		a.setMaxSlots(2);
+		b.setMaxSlots(3);
+		OverpassStatus status = pool.getStatus();
+		assertEquals(5, status.maxAvailableSlots);
+		assertEquals(5, status.availableSlots);
+
+		b.setMaxSlots(0);
+		assertEquals(0, pool.getStatus().maxAvailableSlots);
+	}
+
+	@Test public void schedulerRunsAsManyQueriesAsAllEndpointsHaveSlots() throws Exception
+	{
+		a.setMaxSlots(2);
+		b.setMaxSlots(3);
+		a.setQueryDurationMillis(100);
+		b.setQueryDurationMillis(100);
+		OverpassQueryScheduler scheduler = new OverpassQueryScheduler(pool);
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 10; i++)
+		{
+			threads.add(new Thread(() -> scheduler.query("out;", IGNORE_RESPONSE)));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+
+		assertEquals(10, a.getQueryCount() + b.getQueryCount());
+		assertEquals(0, a.getTooManyRequestsCount() + b.getTooManyRequestsCount());
+		assertTrue(a.getMaxRunningQueries() <= 2);
+		assertTrue(b.getMaxRunningQueries() <= 3);
+	}
+
+	@Test public void runsOnlyOneQueryAtATimeOnEndpointWithUnknownStatus() throws Exception
+	{
+		a.setMaxSlots(1);
+		a.setStatusErrorCode(503);
+		a.setQueryDurationMillis(100);
+		pool = new OverpassMapDataApiPool(Collections.singletonList(createConnection(a)));
+
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+		{
+			threads.add(new Thread(() -> runQueries(1)));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+
+		assertTrue(a.getQueryCount() >= 1);
+		assertEquals(1, a.getMaxRunningQueries());
+		assertEquals(0, a.getTooManyRequestsCount());
+	}
+
+	/** @return the exceptions thrown */
+	private List<RuntimeException> runQueries(int count)
+	{
+		List<RuntimeException> failures = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			try
+			{
+				pool.query("out;", IGNORE_RESPONSE);
+			}
+			catch (RuntimeException e)
+			{
+				failures.add(e);
+			}
+		}
+		return failures;
+	}
+
+	private static OsmConnection createConnection(FakeOverpassServer server)
+	{
+		return new OsmConnection(server.getUrl(), "osmapi-overpass test", null, 10000);
+	}
+}
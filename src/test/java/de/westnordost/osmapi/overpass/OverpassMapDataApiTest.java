@@ -3,10 +3,13 @@ package de.westnordost.osmapi.overpass;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import de.westnordost.osmapi.OsmConnection;
 import de.westnordost.osmapi.common.ListHandler;
@@ -40,6 +43,25 @@ public class OverpassMapDataApiTest
 		assertEquals(count.total, count.ways);
 	}
 
+	@Test public void queryCountAsync() throws Exception
+	{
+		ElementCount count = createApi().queryCountAsync(BBOX + "way[building];out count;").get();
+		assertEquals(0, count.nodes);
+		assertNotEquals(0, count.ways);
+	}
+
+	@Test public void queryCounts()
+	{
+		List<ElementCount> counts = createApi().queryCounts(BBOX, Arrays.asList(
+				"way[building];out count;",
+				"node[shop];out count;"
+		));
+		assertEquals(2, counts.size());
+		assertEquals(0, counts.get(0).nodes);
+		assertNotEquals(0, counts.get(0).ways);
+		assertEquals(0, counts.get(1).ways);
+	}
+
 	@Test public void queryTable()
 	{
 		ListHandler<String[]> handler = new ListHandler<>();
@@ -81,6 +103,20 @@ public class OverpassMapDataApiTest
 		assertTrue(wayCount[0] > 0);
 	}
 
+	@Test public void queryElementsAsStream()
+	{
+		try (Stream<Element> elements = createApi().queryElementsAsStream(BBOX + "way[name=\"Alter Wall\"];out meta;"))
+		{
+			List<Element> ways = elements.collect(Collectors.toList());
+			assertNotEquals(0, ways.size());
+			for (Element way : ways)
+			{
+				assertEquals(Element.Type.WAY, way.getType());
+				assertEquals("Alter Wall", way.getTags().get("name"));
+			}
+		}
+	}
+
 	@Test public void queryElementsWithGeometry()
 	{
 		createApi().queryElementsWithGeometry(BBOX + "nwr[building];out meta geom;", new MapDataWithGeometryHandler()
@@ -0,0 +1,158 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.OsmConnection;
+import de.westnordost.osmapi.common.errors.OsmBadUserInputException;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OverpassQueryBatcherTest
+{
+	@Test public void mergesConcurrentQueriesIntoOneRequest() throws Exception
+	{
+		FakeApi api = new FakeApi();
+		OverpassQueryBatcher batcher = new OverpassQueryBatcher(api, 4, 5000);
+		Map<Long, Object> results = runConcurrently(batcher, 1, 2, 3, 4);
+
+		assertEquals(1, api.requestCount.get());
+		for (long id = 1; id <= 4; id++)
+		{
+			assertEquals(id, results.get(id));
+		}
+	}
+
+	@Test public void executesBatchAfterLingerTime() throws Exception
+	{
+		FakeApi api = new FakeApi();
+		OverpassQueryBatcher batcher = new OverpassQueryBatcher(api, 100, 50);
+		Map<Long, Object> results = runConcurrently(batcher, 1, 2);
+
+		assertEquals(1L, results.get(1L));
+		assertEquals(2L, results.get(2L));
+	}
+
+	@Test public void failingHandlerDoesNotAffectOthers() throws Exception
+	{
+		FakeApi api = new FakeApi();
+		OverpassQueryBatcher batcher = new OverpassQueryBatcher(api, 3, 5000);
+		// the handler for the node with id 666 throws
+		Map<Long, Object> results = runConcurrently(batcher, 1, 666, 3);
+
+		assertEquals(1, api.requestCount.get());
+		assertEquals(1L, results.get(1L));
+		assertTrue(results.get(666L) instanceof IllegalStateException);
+		assertEquals(3L, results.get(3L));
+	}
+
+	@Test public void erroneousQueryDoesNotAffectOthers() throws Exception
+	{
+		FakeApi api = new FakeApi();
+		OverpassQueryBatcher batcher = new OverpassQueryBatcher(api, 3, 5000);
+		// the query for the node with id 0 is erroneous
+		Map<Long, Object> results = runConcurrently(batcher, 1, 0, 3);
+
+		assertEquals(1L, results.get(1L));
+		assertTrue(results.get(0L) instanceof OsmBadUserInputException);
+		assertEquals(3L, results.get(3L));
+	}
+
+	/** @return for each id, the id of the node received or the exception thrown */
+	private static Map<Long, Object> runConcurrently(OverpassQueryBatcher batcher, long... ids) throws Exception
+	{
+		Map<Long, Object> results = new ConcurrentHashMap<>();
+		List<Thread> threads = new ArrayList<>();
+		for (long id : ids)
+		{
+			threads.add(new Thread(() -> {
+				try
+				{
+					batcher.queryElements("node(" + id + "); out;", new NodeHandler()
+					{
+						@Override public void handle(Node node)
+						{
+							if (node.getId() == 666) throw new IllegalStateException();
+							results.put(id, node.getId());
+						}
+					});
+				}
+				catch (RuntimeException e)
+				{
+					results.put(id, e);
+				}
+			}));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		return results;
+	}
+
+	private static abstract class NodeHandler implements MapDataHandler
+	{
+		@Override public void handle(BoundingBox bounds) {}
+		@Override public void handle(Way way) {}
+		@Override public void handle(Relation relation) {}
+	}
+
+	/** Answers each "node(id)" with a node with that id, "node(0)" is an erroneous query */
+	private static class FakeApi extends OverpassMapDataApi
+	{
+		private static final Pattern SEPARATOR = Pattern.compile("index=\"(\\d+)\"");
+		private static final Pattern NODE = Pattern.compile("node\\((\\d+)\\)");
+
+		final AtomicInteger requestCount = new AtomicInteger();
+
+		FakeApi()
+		{
+			super(new OsmConnection("http://localhost/", "test"));
+		}
+
+		@Override public <T> T query(CharSequence query, ApiResponseReader<T> reader)
+		{
+			requestCount.incrementAndGet();
+			StringBuilder xml = new StringBuilder("<osm>");
+			for (String line : query.toString().split("\n"))
+			{
+				Matcher separator = SEPARATOR.matcher(line);
+				if (separator.find())
+				{
+					xml.append("<batch_separator id='1'><tag k='index' v='").append(separator.group(1)).append("'/></batch_separator>");
+				}
+				Matcher node = NODE.matcher(line);
+				if (node.find())
+				{
+					if (node.group(1).equals("0")) throw new OsmBadUserInputException(400, "Bad Request", "error");
+					xml.append("<node id='").append(node.group(1)).append("' lat='1' lon='2'><tag k='a' v='b'/></node>");
+				}
+			}
+			xml.append("</osm>");
+			try
+			{
+				return reader.parse(TestUtils.asInputStream(xml.toString()));
+			}
+			catch (RuntimeException e)
+			{
+				throw e;
+			}
+			catch (Exception e)
+			{
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
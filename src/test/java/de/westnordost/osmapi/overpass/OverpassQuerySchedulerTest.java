@@ -0,0 +1,125 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.OsmConnection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OverpassQuerySchedulerTest
+{
+	@Test public void runsAsManyQueriesAtOnceAsThereAreSlots() throws Exception
+	{
+		FakeApi api = new FakeApi(2);
+		runConcurrently(new OverpassQueryScheduler(api), 6);
+
+		assertEquals(6, api.executedQueries.get());
+		assertEquals(2, api.maxRunningQueries.get());
+	}
+
+	@Test public void runsQueriesConcurrentlyIfServerHasNoRateLimit() throws Exception
+	{
+		FakeApi api = new FakeApi(0);
+		runConcurrently(new OverpassQueryScheduler(api, 3), 6);
+
+		assertEquals(6, api.executedQueries.get());
+		assertTrue(api.maxRunningQueries.get() <= 3);
+	}
+
+	@Test public void queuesQueryAgainOnTooManyRequests() throws Exception
+	{
+		FakeApi api = new FakeApi(1);
+		api.tooManyRequestsCount.set(2);
+		runConcurrently(new OverpassQueryScheduler(api), 1);
+
+		assertEquals(1, api.executedQueries.get());
+	}
+
+	@Test public void givesUpOnTooManyRequestsAfterQueuingAgainThreeTimes()
+	{
+		FakeApi api = new FakeApi(1);
+		api.tooManyRequestsCount.set(10);
+		try
+		{
+			new OverpassQueryScheduler(api).query("out;", in -> null);
+			fail();
+		}
+		catch (OsmTooManyRequestsException ignore) {}
+
+		assertEquals(6, api.tooManyRequestsCount.get());
+	}
+
+	@Test public void doesNotQueueAgainOnTooManyRequestsIfApiRetriesItself()
+	{
+		FakeApi api = new FakeApi(1);
+		api.setRetryPolicy(new OverpassRetryPolicy(2, 1000));
+		api.tooManyRequestsCount.set(10);
+		try
+		{
+			new OverpassQueryScheduler(api).query("out;", in -> null);
+			fail();
+		}
+		catch (OsmTooManyRequestsException ignore) {}
+
+		assertEquals(9, api.tooManyRequestsCount.get());
+	}
+
+	private static void runConcurrently(OverpassQueryScheduler scheduler, int count) throws Exception
+	{
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			threads.add(new Thread(() -> scheduler.query("out;", in -> null)));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+	}
+
+	private static class FakeApi extends OverpassMapDataApi
+	{
+		final int maxSlots;
+		final AtomicInteger runningQueries = new AtomicInteger();
+		final AtomicInteger maxRunningQueries = new AtomicInteger();
+		final AtomicInteger executedQueries = new AtomicInteger();
+		final AtomicInteger tooManyRequestsCount = new AtomicInteger();
+
+		FakeApi(int maxSlots)
+		{
+			super(new OsmConnection("http://localhost/", "test"));
+			this.maxSlots = maxSlots;
+		}
+
+		@Override public <T> T query(String query, ApiResponseReader<T> reader)
+		{
+			if (tooManyRequestsCount.getAndDecrement() > 0)
+			{
+				throw new OsmTooManyRequestsException(429, "Too Many Requests", null);
+			}
+			int running = runningQueries.incrementAndGet();
+			maxRunningQueries.accumulateAndGet(running, Math::max);
+			try
+			{
+				Thread.sleep(50);
+			}
+			catch (InterruptedException ignore) { }
+			runningQueries.decrementAndGet();
+			executedQueries.incrementAndGet();
+			return null;
+		}
+
+		@Override public OverpassStatus getStatus()
+		{
+			OverpassStatus status = new OverpassStatus();
+			status.maxAvailableSlots = maxSlots;
+			status.availableSlots = Math.max(0, maxSlots - runningQueries.get());
+			return status;
+		}
+	}
+}
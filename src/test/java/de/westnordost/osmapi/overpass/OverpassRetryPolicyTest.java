@@ -0,0 +1,35 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OverpassRetryPolicyTest
+{
+	@Test public void waitsUntilNextAvailableSlot()
+	{
+		OverpassStatus status = new OverpassStatus();
+		status.nextAvailableSlotIn = 25;
+		assertEquals(25000, new OverpassRetryPolicy(1, 60000, 0).getDelay(status));
+	}
+
+	@Test public void doesNotWaitIfSlotIsAvailable()
+	{
+		OverpassStatus status = new OverpassStatus();
+		status.availableSlots = 1;
+		assertEquals(0, new OverpassRetryPolicy(1, 60000, 0).getDelay(status));
+	}
+
+	@Test public void addsJitter()
+	{
+		OverpassStatus status = new OverpassStatus();
+		status.nextAvailableSlotIn = 2;
+		OverpassRetryPolicy policy = new OverpassRetryPolicy(1, 60000, 500);
+		for (int i = 0; i < 100; i++)
+		{
+			long delay = policy.getDelay(status);
+			assertTrue(delay >= 2000 && delay <= 2500);
+		}
+	}
+}
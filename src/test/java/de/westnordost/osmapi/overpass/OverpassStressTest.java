@@ -0,0 +1,344 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Runs many queries at once against a {@link FakeOverpassServer} to see how the client behaves
+ *  under contention for the slots of the server. Timing is only checked against bounds that the
+ *  server guarantees, so that the tests do not depend on the speed of the machine. The throughput
+ *  and latency actually achieved are printed */
+public class OverpassStressTest
+{
+	private static final String QUERY = "node(53.5,9.9,53.6,10.0); out;";
+	/** so that a test that hangs fails instead of blocking the build */
+	private static final long TIMEOUT = 30000;
+
+	private FakeOverpassServer server;
+	private OverpassMapDataApi api;
+
+	@Before public void setUp() throws Exception
+	{
+		server = new FakeOverpassServer(2);
+		server.setResponder(query -> createNodesXml(100));
+		api = server.createApi();
+	}
+
+	@After public void tearDown()
+	{
+		server.close();
+	}
+
+	@Test(timeout = TIMEOUT) public void schedulerDoesNotRunMoreQueriesThanThereAreSlots() throws Exception
+	{
+		server.setMaxSlots(3);
+		server.setQueryDurationMillis(100);
+		OverpassQueryScheduler scheduler = new OverpassQueryScheduler(api);
+		AtomicInteger nodeCount = new AtomicInteger();
+
+		List<Throwable> failures = runConcurrently(9, 9, () ->
+				scheduler.queryElements(QUERY, new NodeCountingHandler(nodeCount)));
+
+		assertEquals(Collections.emptyList(), failures);
+		assertEquals(900, nodeCount.get());
+		assertEquals(9, server.getQueryCount());
+		assertEquals(0, server.getTooManyRequestsCount());
+		assertTrue(server.getMaxRunningQueries() <= 3);
+	}
+
+	@Test(timeout = TIMEOUT) public void manyQueriesWithoutRateLimit() throws Exception
+	{
+		server.setMaxSlots(0);
+		server.setQueryDurationMillis(10);
+		OverpassQueryScheduler scheduler = new OverpassQueryScheduler(api, 8);
+		ConcurrentLinkedQueue<QueryMetrics> metrics = new ConcurrentLinkedQueue<>();
+		api.setQueryListener(metrics::add);
+		AtomicInteger nodeCount = new AtomicInteger();
+
+		List<Throwable> failures = runConcurrently(16, 48, () ->
+				scheduler.queryElements(QUERY, new NodeCountingHandler(nodeCount)));
+
+		assertEquals(Collections.emptyList(), failures);
+		assertEquals(4800, nodeCount.get());
+		assertEquals(48, metrics.size());
+		assertEquals(48, server.getQueryCount());
+		assertTrue(server.getMaxRunningQueries() <= 8);
+		for (QueryMetrics m : metrics)
+		{
+			assertNull(m.failure);
+			assertEquals(100, m.nodes);
+			assertTrue(m.timeToFirstByteNanos >= TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	@Test(timeout = TIMEOUT) public void throughputAndLatency() throws Exception
+	{
+		int queryCount = 96;
+		int maxConcurrentQueries = 8;
+		long queryDurationMillis = 20;
+		server.setMaxSlots(0);
+		server.setQueryDurationMillis(queryDurationMillis);
+		OverpassQueryScheduler scheduler = new OverpassQueryScheduler(api, maxConcurrentQueries);
+		ConcurrentLinkedQueue<QueryMetrics> metrics = new ConcurrentLinkedQueue<>();
+		api.setQueryListener(metrics::add);
+
+		long start = System.nanoTime();
+		List<Throwable> failures = runConcurrently(16, queryCount, () ->
+				scheduler.queryElements(QUERY, new NodeCountingHandler(new AtomicInteger())));
+		long elapsedNanos = System.nanoTime() - start;
+
+		assertEquals(Collections.emptyList(), failures);
+		Report report = new Report(metrics, elapsedNanos);
+		System.out.println(report);
+
+		assertEquals(queryCount, report.queryCount);
+		assertEquals(queryCount * 100, report.elementCount);
+		// each query takes at least as long as the server needs for it...
+		assertTrue(report.getLatencyPercentileNanos(0) >= TimeUnit.MILLISECONDS.toNanos(queryDurationMillis));
+		// ...and no more than the maximum number of queries run at once
+		double maxQueriesPerSecond = maxConcurrentQueries * 1000.0 / queryDurationMillis;
+		assertTrue(report.getQueriesPerSecond() <= maxQueriesPerSecond);
+	}
+
+	@Test(timeout = TIMEOUT) public void retryPolicyWaitsUntilSlotIsAvailableAgain()
+	{
+		server.setMaxSlots(1);
+		server.setSlotCooldownMillis(500);
+		api.setRetryPolicy(new OverpassRetryPolicy(3, 10000, 0));
+		List<QueryMetrics> metrics = new ArrayList<>();
+		api.setQueryListener(metrics::add);
+
+		api.queryElements(QUERY, new NodeCountingHandler(new AtomicInteger()));
+		// the only slot is still cooling down, so this one is rejected first
+		api.queryElements(QUERY, new NodeCountingHandler(new AtomicInteger()));
+
+		assertEquals(3, server.getQueryCount());
+		assertEquals(1, server.getTooManyRequestsCount());
+		assertEquals(1, metrics.get(1).tooManyRequestsCount);
+		assertEquals(1, metrics.get(1).retries);
+		assertNull(metrics.get(1).failure);
+	}
+
+	@Test(timeout = TIMEOUT) public void tooManyRequestsWithoutRetryPolicy()
+	{
+		server.setMaxSlots(1);
+		server.setSlotCooldownMillis(5000);
+
+		api.queryElements(QUERY, new NodeCountingHandler(new AtomicInteger()));
+		try
+		{
+			api.queryElements(QUERY, new NodeCountingHandler(new AtomicInteger()));
+			fail();
+		}
+		catch (OsmTooManyRequestsException ignore) {}
+
+		OverpassStatus status = api.getStatus();
+		assertEquals(1, status.maxAvailableSlots);
+		assertEquals(0, status.availableSlots);
+		assertNotNull(status.nextAvailableSlotIn);
+	}
+
+	@Test(timeout = TIMEOUT) public void slowResponseIsMeasured()
+	{
+		String response = createNodesXml(100);
+		server.setResponder(query -> response);
+		server.setQueryDurationMillis(200);
+		server.setBytesPerSecond(response.length() * 2);
+		List<QueryMetrics> metrics = new ArrayList<>();
+		api.setQueryListener(metrics::add);
+
+		api.queryElements(QUERY, new NodeCountingHandler(new AtomicInteger()));
+
+		QueryMetrics m = metrics.get(0);
+		assertEquals(response.length(), m.rawBytes);
+		assertEquals(100, m.nodes);
+		assertTrue(m.timeToFirstByteNanos >= TimeUnit.MILLISECONDS.toNanos(200));
+		/* sending takes half a second. Less the first chunk, which arrives together with the header,
+		   and with plenty of leeway for how the chunks are split up between reads */
+		assertTrue(m.transferNanos + m.parseNanos >= TimeUnit.MILLISECONDS.toNanos(250));
+	}
+
+	@Test(timeout = TIMEOUT) public void connectionDroppedMidStream()
+	{
+		server.setAbortAfterBytes(1000);
+		try
+		{
+			api.queryElements(QUERY, new NodeCountingHandler(new AtomicInteger()));
+			fail();
+		}
+		catch (RuntimeException ignore) {}
+		assertEquals(0, server.getRunningQueriesCount());
+
+		// the slot is free again afterwards
+		server.setAbortAfterBytes(-1);
+		AtomicInteger nodeCount = new AtomicInteger();
+		api.queryElements(QUERY, new NodeCountingHandler(nodeCount));
+		assertEquals(100, nodeCount.get());
+	}
+
+	@Test(timeout = TIMEOUT) public void killMyQueriesAbortsRunningQueries() throws Exception
+	{
+		server.setQueryDurationMillis(10000);
+
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+		Thread thread = new Thread(() ->
+		{
+			try
+			{
+				api.queryElements(QUERY, new NodeCountingHandler(new AtomicInteger()));
+			}
+			catch (Throwable e)
+			{
+				failures.add(e);
+			}
+		});
+		thread.start();
+		long deadline = System.currentTimeMillis() + 5000;
+		while (server.getRunningQueriesCount() == 0)
+		{
+			assertTrue("query did not arrive at the server", System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+
+		api.killMyQueries();
+		thread.join(5000);
+
+		assertFalse(thread.isAlive());
+		assertEquals(1, failures.size());
+		assertEquals(1, server.getKillCount());
+		assertEquals(2, api.getStatus().availableSlots);
+	}
+
+	/** Runs the given number of tasks on the given number of threads
+	 *  @return the exceptions thrown by the tasks */
+	private static List<Throwable> runConcurrently(int threadCount, int taskCount, Runnable task) throws Exception
+	{
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+		AtomicInteger remainingTasks = new AtomicInteger(taskCount);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < threadCount; i++)
+		{
+			threads.add(new Thread(() ->
+			{
+				while (remainingTasks.getAndDecrement() > 0)
+				{
+					try
+					{
+						task.run();
+					}
+					catch (Throwable e)
+					{
+						failures.add(e);
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		return failures;
+	}
+
+	/** Throughput and latency of the given queries that were run in the given time */
+	private static class Report
+	{
+		final int queryCount;
+		final long elementCount;
+		final long elapsedNanos;
+		private final long[] latencies;
+
+		Report(Collection<QueryMetrics> metrics, long elapsedNanos)
+		{
+			this.elapsedNanos = elapsedNanos;
+			queryCount = metrics.size();
+			latencies = new long[queryCount];
+			long elements = 0;
+			int i = 0;
+			for (QueryMetrics m : metrics)
+			{
+				latencies[i++] = m.totalNanos;
+				elements += m.nodes + m.ways + m.relations;
+			}
+			elementCount = elements;
+			Arrays.sort(latencies);
+		}
+
+		double getQueriesPerSecond()
+		{
+			return queryCount * 1e9 / elapsedNanos;
+		}
+
+		double getElementsPerSecond()
+		{
+			return elementCount * 1e9 / elapsedNanos;
+		}
+
+		/** @param percentile 0 for the fastest query, 100 for the slowest */
+		long getLatencyPercentileNanos(int percentile)
+		{
+			return latencies[Math.min(latencies.length - 1, latencies.length * percentile / 100)];
+		}
+
+		@Override public String toString()
+		{
+			return String.format(Locale.ROOT,
+					"%d queries in %d ms: %.1f queries/s, %.0f elements/s, latency min %d ms, median %d ms, p95 %d ms, max %d ms",
+					queryCount, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+					getQueriesPerSecond(), getElementsPerSecond(),
+					TimeUnit.NANOSECONDS.toMillis(getLatencyPercentileNanos(0)),
+					TimeUnit.NANOSECONDS.toMillis(getLatencyPercentileNanos(50)),
+					TimeUnit.NANOSECONDS.toMillis(getLatencyPercentileNanos(95)),
+					TimeUnit.NANOSECONDS.toMillis(getLatencyPercentileNanos(100)));
+		}
+	}
+
+	private static String createNodesXml(int count)
+	{
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<osm version=\"0.6\" generator=\"Overpass API\">\n");
+		for (int i = 1; i <= count; i++)
+		{
+			xml.append("  <node id=\"").append(i).append("\" lat=\"53.55\" lon=\"9.99\">\n");
+			xml.append("    <tag k=\"amenity\" v=\"bench\"/>\n");
+			xml.append("  </node>\n");
+		}
+		xml.append("</osm>\n");
+		return xml.toString();
+	}
+
+	private static class NodeCountingHandler implements MapDataHandler
+	{
+		private final AtomicInteger nodeCount;
+
+		NodeCountingHandler(AtomicInteger nodeCount)
+		{
+			this.nodeCount = nodeCount;
+		}
+
+		@Override public void handle(BoundingBox bounds) {}
+		@Override public void handle(Node node) { nodeCount.incrementAndGet(); }
+		@Override public void handle(Way way) {}
+		@Override public void handle(Relation relation) {}
+	}
+}
@@ -0,0 +1,212 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.westnordost.osmapi.ApiResponseReader;
+import de.westnordost.osmapi.OsmConnection;
+import de.westnordost.osmapi.map.data.BoundingBox;
+import de.westnordost.osmapi.map.data.Element;
+import de.westnordost.osmapi.map.data.Node;
+import de.westnordost.osmapi.map.data.Relation;
+import de.westnordost.osmapi.map.data.Way;
+import de.westnordost.osmapi.map.handler.MapDataHandler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OverpassTilerTest
+{
+	@Test public void splitIntoGrid()
+	{
+		List<BoundingBox> tiles = OverpassTiler.split(new BoundingBox(0, 10, 2, 13), 2, 3);
+		assertEquals(6, tiles.size());
+		assertEquals(new BoundingBox(0, 10, 1, 11), tiles.get(0));
+		assertEquals(new BoundingBox(0, 12, 1, 13), tiles.get(2));
+		assertEquals(new BoundingBox(1, 10, 2, 11), tiles.get(3));
+		assertEquals(new BoundingBox(1, 12, 2, 13), tiles.get(5));
+	}
+
+	@Test public void splitIntoOneTile()
+	{
+		BoundingBox bounds = new BoundingBox(53.548, 9.992, 53.551, 9.995);
+		assertEquals(bounds, OverpassTiler.split(bounds, 1, 1).get(0));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void splitCrossing180thMeridianFails()
+	{
+		OverpassTiler.split(new BoundingBox(0, 170, 1, -170), 2, 2);
+	}
+
+	@Test public void fillTemplate()
+	{
+		assertEquals(
+				"[bbox:0.00001,9.992,53.551,10]; nwr[shop]; out; way(0.00001,9.992,53.551,10);",
+				OverpassTiler.fillTemplate(
+						"[bbox:{{bbox}}]; nwr[shop]; out; way({{bbox}});",
+						new BoundingBox(0.00001, 9.992, 53.551, 10))
+		);
+	}
+
+	@Test public void splitByCount()
+	{
+		// all elements are in the south-west corner
+		OverpassTiler tiler = new OverpassTiler(new CountingApi(new double[][] {
+				{0.1, 0.1}, {0.2, 0.2}, {0.3, 0.3}, {0.4, 0.4}, {3.0, 3.0}
+		}));
+		List<BoundingBox> tiles = tiler.splitByCount("[bbox:{{bbox}}];out count;", new BoundingBox(0, 0, 4, 4), 2);
+
+		assertEquals(3, tiles.size());
+		assertTrue(tiles.contains(new BoundingBox(0, 0, 0.25, 0.25)));
+		assertTrue(tiles.contains(new BoundingBox(0.25, 0.25, 0.5, 0.5)));
+		assertTrue(tiles.contains(new BoundingBox(2, 2, 4, 4)));
+	}
+
+	@Test public void splitByCountStopsAtMaxDepth()
+	{
+		OverpassTiler tiler = new OverpassTiler(new CountingApi(new double[][] {
+				{0.1, 0.1}, {0.1, 0.1}, {0.1, 0.1}
+		}));
+		List<BoundingBox> tiles = tiler.splitByCount("[bbox:{{bbox}}];out count;", new BoundingBox(0, 0, 4, 4), 2, 1);
+
+		assertEquals(1, tiles.size());
+		assertEquals(new BoundingBox(0, 0, 2, 2), tiles.get(0));
+	}
+
+	@Test public void splitByCountStopsAtMaxCountQueries()
+	{
+		CountingApi api = new CountingApi(new double[][] {
+				{0.1, 0.1}, {0.1, 0.1}, {0.1, 0.1}, {3.0, 3.0}, {3.0, 3.0}, {3.0, 3.0}, {3.0, 3.0}
+		});
+		OverpassTiler tiler = new OverpassTiler(api);
+		// one query for the whole area, four for its quarters. Only one of the two quarters with too
+		// many elements could be split within the limit: the one with the most elements
+		List<BoundingBox> tiles = tiler.splitByCount("[bbox:{{bbox}}];out count;", new BoundingBox(0, 0, 4, 4), 2, 10, 9);
+
+		assertEquals(9, api.getCountQueries());
+		assertEquals(2, tiles.size());
+		assertTrue(tiles.contains(new BoundingBox(0, 0, 2, 2)));
+		assertTrue(tiles.contains(new BoundingBox(3, 3, 4, 4)));
+	}
+
+	@Test public void elementsInSeveralTilesArePassedOnOnce() throws Exception
+	{
+		try (FakeOverpassServer server = new FakeOverpassServer(0))
+		{
+			// each tile has a node of its own, the way and relation are in both
+			AtomicInteger nodeId = new AtomicInteger();
+			server.setResponder(query ->
+					"<osm>" +
+					"<bounds minlat='0' minlon='0' maxlat='1' maxlon='1'/>" +
+					"<node id='" + nodeId.incrementAndGet() + "' lat='0.5' lon='0.5'/>" +
+					"<way id='10'><nd ref='1'/><nd ref='2'/></way>" +
+					"<relation id='20'><member type='way' ref='10' role=''/></relation>" +
+					"</osm>");
+			OverpassMapDataApi api = server.createApi();
+			BoundingBox bounds = new BoundingBox(0, 0, 1, 2);
+
+			List<Element> elements = new ArrayList<>();
+			List<BoundingBox> handledBounds = new ArrayList<>();
+			new OverpassTiler(api).queryElements("[bbox:{{bbox}}]; nwr; out;", bounds, 1, 2, new MapDataHandler()
+			{
+				@Override public void handle(BoundingBox bounds) { handledBounds.add(bounds); }
+				@Override public void handle(Node node) { elements.add(node); }
+				@Override public void handle(Way way) { elements.add(way); }
+				@Override public void handle(Relation relation) { elements.add(relation); }
+			});
+
+			assertEquals(2, server.getQueryCount());
+			assertEquals(4, elements.size());
+			assertEquals(1, count(elements, Element.Type.WAY));
+			assertEquals(1, count(elements, Element.Type.RELATION));
+			assertEquals(2, count(elements, Element.Type.NODE));
+			assertEquals(1, handledBounds.size());
+			assertEquals(bounds, handledBounds.get(0));
+		}
+	}
+
+	@Test public void elementsWithGeometryInSeveralTilesArePassedOnOnce() throws Exception
+	{
+		try (FakeOverpassServer server = new FakeOverpassServer(0))
+		{
+			server.setResponder(query ->
+					"<osm>" +
+					"<way id='10'>" +
+					"<bounds minlat='0.5' minlon='0.5' maxlat='0.5' maxlon='1.5'/>" +
+					"<nd ref='1' lat='0.5' lon='0.5'/><nd ref='2' lat='0.5' lon='1.5'/>" +
+					"</way>" +
+					"<relation id='20'>" +
+					"<bounds minlat='0.5' minlon='0.5' maxlat='0.5' maxlon='1.5'/>" +
+					"<member type='way' ref='10' role=''><nd lat='0.5' lon='0.5'/><nd lat='0.5' lon='1.5'/></member>" +
+					"</relation>" +
+					"</osm>");
+			OverpassMapDataApi api = server.createApi();
+
+			MapDataWithGeometryCollection collection = new MapDataWithGeometryCollection();
+			new OverpassTiler(api).queryElementsWithGeometry(
+					"[bbox:{{bbox}}]; wr; out geom;", new BoundingBox(0, 0, 1, 2), 1, 2, collection);
+
+			assertEquals(2, server.getQueryCount());
+			assertEquals(1, collection.waysWithGeometry.size());
+			assertEquals(2, collection.waysWithGeometry.get(0).geometry.size());
+			assertEquals(1, collection.relationsWithGeometry.size());
+			assertEquals(1, collection.relationsWithGeometry.get(0).wayGeometries.size());
+		}
+	}
+
+	private static int count(List<Element> elements, Element.Type type)
+	{
+		int count = 0;
+		for (Element element : elements)
+		{
+			if (element.getType() == type) count++;
+		}
+		return count;
+	}
+
+	/** Answers count queries with the number of the given positions within the queried bbox */
+	private static class CountingApi extends OverpassMapDataApi
+	{
+		private final double[][] positions;
+		private final AtomicInteger countQueries = new AtomicInteger();
+
+		CountingApi(double[][] positions)
+		{
+			super(new OsmConnection("http://localhost/", "test"));
+			this.positions = positions;
+		}
+
+		@SuppressWarnings("unchecked")
+		@Override public <T> T query(String query, ApiResponseReader<T> reader)
+		{
+			countQueries.incrementAndGet();
+			String[] bbox = query.substring(query.indexOf(':') + 1, query.indexOf(']')).split(",");
+			double minLat = Double.parseDouble(bbox[0]), minLon = Double.parseDouble(bbox[1]);
+			double maxLat = Double.parseDouble(bbox[2]), maxLon = Double.parseDouble(bbox[3]);
+			ElementCount count = new ElementCount();
+			for (double[] pos : positions)
+			{
+				if (pos[0] >= minLat && pos[0] < maxLat && pos[1] >= minLon && pos[1] < maxLon)
+				{
+					count.nodes++;
+					count.total++;
+				}
+			}
+			return (T) count;
+		}
+
+		int getCountQueries()
+		{
+			return countQueries.get();
+		}
+
+		@Override public OverpassStatus getStatus()
+		{
+			return new OverpassStatus();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ParallelTasksTest
+{
+	@Test public void runsAllTasks()
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			AtomicInteger count = new AtomicInteger();
+			ParallelTasks.runAll(createTasks(100, count::incrementAndGet), executor, 4);
+			assertEquals(100, count.get());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test public void doesNotDeadlockWhenCalledFromTheOnlyThreadOfTheExecutor() throws Exception
+	{
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try
+		{
+			AtomicInteger count = new AtomicInteger();
+			Future<?> future = executor.submit(() ->
+					ParallelTasks.runAll(createTasks(10, count::incrementAndGet), executor, 10));
+			future.get(10, TimeUnit.SECONDS);
+			assertEquals(10, count.get());
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+	}
+
+	@Test public void runsTasksOnCallingThreadIfExecutorRejectsThem()
+	{
+		AtomicInteger count = new AtomicInteger();
+		ParallelTasks.runAll(createTasks(10, count::incrementAndGet), runnable -> {
+			throw new RejectedExecutionException();
+		}, 10);
+		assertEquals(10, count.get());
+	}
+
+	@Test public void rethrowsFailureAndSkipsTasksNotStartedYet()
+	{
+		AtomicInteger count = new AtomicInteger();
+		List<Runnable> tasks = new ArrayList<>();
+		tasks.add(() -> { throw new IllegalStateException(); });
+		tasks.addAll(createTasks(10, count::incrementAndGet));
+		try
+		{
+			// tasks run one after another on the calling thread
+			ParallelTasks.runAll(tasks, Runnable::run, 10);
+			fail();
+		}
+		catch (IllegalStateException ignore) {}
+		assertEquals(0, count.get());
+	}
+
+	@Test public void startsNoMoreWorkersThanParallelism()
+	{
+		AtomicInteger count = new AtomicInteger();
+		AtomicInteger startedWorkers = new AtomicInteger();
+		// the workers passed to the executor are never run, so the calling thread does all the work
+		ParallelTasks.runAll(createTasks(100, count::incrementAndGet), runnable -> startedWorkers.incrementAndGet(), 3);
+		assertEquals(100, count.get());
+		assertEquals(2, startedWorkers.get());
+	}
+
+	private static List<Runnable> createTasks(int count, Runnable task)
+	{
+		List<Runnable> tasks = new ArrayList<>();
+		for (int i = 0; i < count; i++) tasks.add(task);
+		return tasks;
+	}
+}
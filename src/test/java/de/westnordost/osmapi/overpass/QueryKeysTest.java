@@ -0,0 +1,60 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class QueryKeysTest
+{
+	@Test public void normalizeCollapsesWhitespace()
+	{
+		assertEquals("nwr[shop]; out meta;", QueryKeys.normalize("  nwr[shop];\n\t out   meta;\n"));
+	}
+
+	@Test public void normalizeKeepsWhitespaceInQuotes()
+	{
+		assertEquals("way[name=\"Alter  Wall\"]; way[name='a  b'];", QueryKeys.normalize("way[name=\"Alter  Wall\"];  way[name='a  b'];"));
+		assertEquals("way[name=\"a\\\"  b\"];", QueryKeys.normalize("way[name=\"a\\\"  b\"];"));
+	}
+
+	@Test public void hashIgnoresWhitespaceDifferences()
+	{
+		assertEquals(
+				QueryKeys.hash("https://overpass-api.de/api/", "nwr[shop];  out;"),
+				QueryKeys.hash("https://overpass-api.de/api/", "nwr[shop];\nout;")
+		);
+	}
+
+	@Test public void hashDependsOnEndpoint()
+	{
+		assertNotEquals(
+				QueryKeys.hash("https://overpass-api.de/api/", "nwr[shop];out;"),
+				QueryKeys.hash("https://overpass.kumi.systems/api/", "nwr[shop];out;")
+		);
+	}
+
+	@Test public void hashOfLongQueryIsHashOfNormalizedQuery() throws Exception
+	{
+		// shifted so that a surrogate pair lies across the boundary between two chunks at least once
+		for (int offset = 0; offset < 10; offset++)
+		{
+			StringBuilder query = new StringBuilder("node(id:");
+			for (int i = 0; i < offset; i++) query.append('x');
+			// also with an unpaired surrogate
+			while (query.length() < 20000) query.append("1,\t\u00e4 \ud83d\ude00 \ud83d ");
+			query.append("); out;");
+
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update("https://overpass-api.de/api/\n".getBytes(StandardCharsets.UTF_8));
+			digest.update(QueryKeys.normalize(query).getBytes(StandardCharsets.UTF_8));
+			StringBuilder expected = new StringBuilder();
+			for (byte b : digest.digest()) expected.append(String.format("%02x", b));
+
+			assertEquals(expected.toString(), QueryKeys.hash("https://overpass-api.de/api/", query));
+		}
+	}
+}
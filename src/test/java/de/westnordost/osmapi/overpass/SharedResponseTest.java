@@ -0,0 +1,123 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import de.westnordost.osmapi.ApiResponseReader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedResponseTest
+{
+	@Test public void readersReadWholeResponseWhileItIsWritten() throws Exception
+	{
+		SharedResponse response = new SharedResponse();
+		byte[] data = new byte[200_000];
+		for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+
+		InputStream early = response.join();
+		Thread writer = new Thread(() ->
+		{
+			OutputStream out = response.getOutputStream();
+			try
+			{
+				for (int i = 0; i < data.length; i += 1000) out.write(data, i, 1000);
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+			response.complete();
+		});
+		writer.start();
+
+		assertArrayEquals(data, readAll(early));
+		writer.join();
+		// a reader that joins late still reads from the beginning
+		assertArrayEquals(data, readAll(response.join()));
+	}
+
+	@Test public void readersFailIfResponseFails() throws Exception
+	{
+		SharedResponse response = new SharedResponse();
+		InputStream in = response.join();
+		response.getOutputStream().write(new byte[] {1, 2, 3});
+		RuntimeException failure = new RuntimeException();
+		response.fail(failure);
+
+		try
+		{
+			readAll(in);
+			fail();
+		}
+		catch (IOException e)
+		{
+			assertSame(failure, e.getCause());
+		}
+		assertSame(failure, response.getFailure());
+	}
+
+	@Test public void failAfterCompleteIsIgnored() throws Exception
+	{
+		SharedResponse response = new SharedResponse();
+		InputStream in = response.join();
+		response.getOutputStream().write(new byte[] {1, 2, 3});
+		response.complete();
+		response.fail(new RuntimeException());
+
+		assertEquals(3, readAll(in).length);
+	}
+
+	@Test public void cannotJoinOnceResponseHasBeenWrittenWithoutReaders() throws Exception
+	{
+		SharedResponse response = new SharedResponse();
+		response.getOutputStream().write(new byte[] {1, 2, 3});
+
+		assertNull(response.join());
+	}
+
+	@Test public void cannotJoinOnceAllReadersLeft() throws Exception
+	{
+		SharedResponse response = new SharedResponse();
+		response.join().close();
+		response.getOutputStream().write(new byte[] {1, 2, 3});
+
+		assertNull(response.join());
+	}
+
+	@Test public void sharingReaderReadsRemainderOnlyIfSomeoneElseReads() throws Exception
+	{
+		byte[] data = new byte[1_000_000];
+		ApiResponseReader<Integer> readFirstByte = InputStream::read;
+
+		CountingInputStream alone = new CountingInputStream(new ByteArrayInputStream(data));
+		new SharingResponseReader<>(readFirstByte, new SharedResponse()).parse(alone);
+		assertTrue(alone.getCount() < data.length);
+
+		SharedResponse response = new SharedResponse();
+		InputStream other = response.join();
+		CountingInputStream shared = new CountingInputStream(new ByteArrayInputStream(data));
+		new SharingResponseReader<>(readFirstByte, response).parse(shared);
+		assertEquals(data.length, shared.getCount());
+		assertArrayEquals(data, readAll(other));
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[777];
+		int read;
+		while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+}
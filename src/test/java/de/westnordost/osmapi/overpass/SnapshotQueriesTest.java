@@ -0,0 +1,63 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotQueriesTest
+{
+	private static final Instant NOW = Instant.parse("2020-06-01T00:00:00Z");
+
+	@Test public void dateInThePast()
+	{
+		assertTrue(isSnapshot("[date:\"2019-01-01T00:00:00Z\"]; node(1); out;"));
+		assertTrue(isSnapshot("  [out:json][date:'2019-01-01T00:00:00Z'] [timeout:25];\nnode(1); out;"));
+	}
+
+	@Test public void recentDate()
+	{
+		assertFalse(isSnapshot("[date:\"2020-05-31T12:00:00Z\"]; node(1); out;"));
+		assertFalse(isSnapshot("[date:\"2021-01-01T00:00:00Z\"]; node(1); out;"));
+	}
+
+	@Test public void diffWithTwoDates()
+	{
+		assertTrue(isSnapshot("[diff:\"2019-01-01T00:00:00Z\",\"2019-02-01T00:00:00Z\"]; node(1); out;"));
+		assertTrue(isSnapshot("[adiff:\"2019-01-01T00:00:00Z\", \"2019-02-01T00:00:00Z\"]; node(1); out;"));
+		assertFalse(isSnapshot("[adiff:\"2019-01-01T00:00:00Z\",\"2020-05-31T23:00:00Z\"]; node(1); out;"));
+	}
+
+	@Test public void diffUntilNow()
+	{
+		assertFalse(isSnapshot("[diff:\"2019-01-01T00:00:00Z\"]; node(1); out;"));
+		assertFalse(isSnapshot("[adiff:\"2019-01-01T00:00:00Z\"]; node(1); out;"));
+	}
+
+	@Test public void noDate()
+	{
+		assertFalse(isSnapshot("node(1); out;"));
+		assertFalse(isSnapshot("[out:json]; node(1); out;"));
+		assertFalse(isSnapshot(""));
+	}
+
+	@Test public void dateNotInSettings()
+	{
+		assertFalse(isSnapshot("node[name=\"[date:'2019-01-01T00:00:00Z']\"]; out;"));
+		assertFalse(isSnapshot("[out:json]; node(newer:\"2019-01-01T00:00:00Z\"); out;"));
+	}
+
+	@Test public void invalidDate()
+	{
+		assertFalse(isSnapshot("[date:\"yesterday\"]; node(1); out;"));
+		assertFalse(isSnapshot("[date:2019-01-01T00:00:00Z]; node(1); out;"));
+		assertFalse(isSnapshot("[date:\"2019-01-01T00:00:00Z\"; node(1); out;"));
+	}
+
+	private static boolean isSnapshot(String query)
+	{
+		return SnapshotQueries.isSnapshot(query, NOW);
+	}
+}
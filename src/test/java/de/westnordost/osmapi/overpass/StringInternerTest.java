@@ -0,0 +1,42 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class StringInternerTest
+{
+	@Test public void returnsSameInstanceForEqualStrings()
+	{
+		StringInterner interner = new StringInterner();
+		String a = interner.intern(new String("building"));
+		String b = interner.intern(new String("building"));
+		assertSame(a, b);
+		assertEquals(1, interner.size());
+	}
+
+	@Test public void doesNotGrowBeyondMaxSize()
+	{
+		StringInterner interner = new StringInterner(1, 10);
+		interner.intern("highway");
+		String a = new String("building");
+		assertSame(a, interner.intern(a));
+		assertNotSame(a, interner.intern(new String("building")));
+		assertEquals(1, interner.size());
+	}
+
+	@Test public void doesNotAddLongStrings()
+	{
+		StringInterner interner = new StringInterner(10, 3);
+		interner.intern("long");
+		assertEquals(0, interner.size());
+	}
+
+	@Test public void internNull()
+	{
+		assertNull(new StringInterner().intern(null));
+	}
+}
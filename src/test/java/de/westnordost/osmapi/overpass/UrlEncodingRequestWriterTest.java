@@ -0,0 +1,113 @@
+package de.westnordost.osmapi.overpass;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class UrlEncodingRequestWriterTest
+{
+	@Test public void encodesLikeUrlEncoder() throws Exception
+	{
+		assertEncodes("");
+		assertEncodes("node(123); out meta;");
+		assertEncodes("nwr[\"name\"~\"^Straße$\"]; out; // a+b=c&d%e *._-~");
+		assertEncodes("node[name=\"😀 東京\"]; out;");
+	}
+
+	@Test public void encodesLargeQuery() throws Exception
+	{
+		assertEncodes(createLargeQuery());
+	}
+
+	@Test public void encodesInvalidSurrogatesLikeUrlEncoder() throws Exception
+	{
+		assertEncodes("a\uD83Db");
+		assertEncodes("a\uDE00b");
+		assertEncodes("ab\uD83D");
+	}
+
+	@Test public void encodesFromReaderInSmallChunks() throws Exception
+	{
+		String query = createLargeQuery();
+		UrlEncodingRequestWriter writer = new UrlEncodingRequestWriter("data", new ChunkedReader(query, 3));
+		assertEquals(expected(query), write(writer));
+	}
+
+	@Test public void canBeWrittenSeveralTimes() throws Exception
+	{
+		UrlEncodingRequestWriter writer = new UrlEncodingRequestWriter("data", "node(1); out;");
+		assertEquals(write(writer), write(writer));
+	}
+
+	@Test public void encodedLength() throws Exception
+	{
+		for (String query : new String[] {
+				"", "node(id:1,2,3); out meta;", "nwr[\"name\"~\"^Straße$\"]; a+b=c&d%e *._-~",
+				"node[name=\"😀 東京\"]; out;", createLargeQuery()
+		})
+		{
+			assertEquals(URLEncoder.encode(query, "UTF-8").length(), UrlEncodingRequestWriter.encodedLength(query));
+		}
+	}
+
+	private static String createLargeQuery()
+	{
+		// surrogate pairs and multi-byte characters at all positions relative to the buffer size
+		StringBuilder query = new StringBuilder();
+		for (int i = 0; i < 5000; i++)
+		{
+			query.append("node(").append(i).append(");😀ä ");
+		}
+		return query.toString();
+	}
+
+	private static void assertEncodes(String query) throws IOException
+	{
+		assertEquals(expected(query), write(new UrlEncodingRequestWriter("data", query)));
+		assertEquals(expected(query), write(new UrlEncodingRequestWriter("data", new StringReader(query))));
+	}
+
+	private static String expected(String query) throws IOException
+	{
+		return "data=" + URLEncoder.encode(query, "UTF-8");
+	}
+
+	private static String write(UrlEncodingRequestWriter writer) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(out);
+		return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+	}
+
+	/** Returns at most the given number of characters per read */
+	private static class ChunkedReader extends Reader
+	{
+		private final String text;
+		private final int chunkSize;
+		private int pos;
+
+		ChunkedReader(String text, int chunkSize)
+		{
+			this.text = text;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override public int read(char[] buffer, int off, int len)
+		{
+			if (pos == text.length()) return -1;
+			int count = Math.min(Math.min(len, chunkSize), text.length() - pos);
+			text.getChars(pos, pos + count, buffer, off);
+			pos += count;
+			return count;
+		}
+
+		@Override public void close() {}
+	}
+}